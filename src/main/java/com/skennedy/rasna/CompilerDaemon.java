@@ -0,0 +1,226 @@
+package com.skennedy.rasna;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A long-running compiler process that keeps the JVM, LLVM and the compiler's caches warm between compilations.
+ * <p>
+ * Start it with `rasna --daemon`. Any `rasna -f file.rasna` invocation will then hand the compilation to it and
+ * relay its output, falling back to compiling in-process if no daemon is listening.
+ * <p>
+ * The protocol is a request of the source and output paths, answered by a series of frames of a channel byte and
+ * a length-prefixed payload, ending with a frame reporting whether the compilation succeeded.
+ * <p>
+ * The daemon reads and writes files as the user that started it, so every request has to begin with a token the
+ * daemon writes to a file only that user can read. Connections without it are closed before anything is read.
+ */
+final class CompilerDaemon {
+
+    private static final Logger log = LogManager.getLogger(CompilerDaemon.class);
+
+    static final String DAEMON_FLAG = "--daemon";
+
+    private static final int PORT = 45123;
+    private static final int CONNECT_TIMEOUT_MS = 100;
+    private static final int HANDSHAKE_TIMEOUT_MS = 1000;
+
+    private static final Path TOKEN_FILE = Paths.get(System.getProperty("user.home"), ".rasna", "daemon.token");
+    private static final int TOKEN_LENGTH = 32;
+
+    private static final byte STDOUT = 1;
+    private static final byte STDERR = 2;
+    private static final byte RESULT = 0;
+
+    void serve() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(PORT, 50, InetAddress.getLoopbackAddress())) {
+            byte[] token = writeToken();
+            log.info("Rasna daemon listening on port {}", PORT);
+
+            //Compilations are handled one at a time as they redirect the process' output
+            while (true) {
+                try (Socket socket = serverSocket.accept()) {
+                    handle(socket, token);
+                } catch (IOException e) {
+                    log.error("Error handling compilation request", e);
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket, byte[] token) throws IOException {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+        //Don't let a client that never sends anything hold up the compilations behind it
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+        byte[] presented = new byte[TOKEN_LENGTH];
+        in.readFully(presented);
+        if (!MessageDigest.isEqual(token, presented)) {
+            log.warn("Rejected a connection without the daemon token");
+            return;
+        }
+        socket.setSoTimeout(0);
+
+        Path path = Paths.get(in.readUTF());
+        String outputFileName = in.readUTF();
+
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        boolean compiled = false;
+        try {
+            System.setOut(new PrintStream(new FrameOutputStream(out, STDOUT), true, StandardCharsets.UTF_8));
+            System.setErr(new PrintStream(new FrameOutputStream(out, STDERR), true, StandardCharsets.UTF_8));
+
+            compiled = Rasna.compile(path, outputFileName);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        synchronized (out) {
+            out.writeByte(RESULT);
+            out.writeBoolean(compiled);
+            out.flush();
+        }
+    }
+
+    //A fresh token each time the daemon starts, in a file created readable by its owner only
+    private static byte[] writeToken() throws IOException {
+        byte[] token = new byte[TOKEN_LENGTH];
+        new SecureRandom().nextBytes(token);
+
+        Files.deleteIfExists(TOKEN_FILE);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createDirectories(TOKEN_FILE.getParent(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            Files.createFile(TOKEN_FILE, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createDirectories(TOKEN_FILE.getParent());
+            Files.createFile(TOKEN_FILE);
+            AclFileAttributeView view = Files.getFileAttributeView(TOKEN_FILE, AclFileAttributeView.class);
+            if (view == null) {
+                throw new IOException("Cannot restrict access to " + TOKEN_FILE);
+            }
+            view.setAcl(List.of(AclEntry.newBuilder()
+                    .setType(AclEntryType.ALLOW)
+                    .setPrincipal(view.getOwner())
+                    .setPermissions(EnumSet.allOf(AclEntryPermission.class))
+                    .build()));
+        }
+        Files.write(TOKEN_FILE, token);
+        TOKEN_FILE.toFile().deleteOnExit();
+
+        return token;
+    }
+
+    /**
+     * Sends a compilation to the daemon and relays its output
+     *
+     * @return whether the compilation succeeded, or empty if there is no daemon running
+     */
+    static Optional<Boolean> tryCompile(Path path, String outputFileName) throws IOException {
+        byte[] token;
+        try {
+            token = Files.readAllBytes(TOKEN_FILE);
+        } catch (NoSuchFileException | AccessDeniedException e) {
+            return Optional.empty();
+        }
+        if (token.length != TOKEN_LENGTH) {
+            return Optional.empty();
+        }
+        try (Socket socket = new Socket()) {
+            try {
+                socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT), CONNECT_TIMEOUT_MS);
+            } catch (ConnectException e) {
+                return Optional.empty();
+            }
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.write(token);
+            out.writeUTF(path.toString());
+            out.writeUTF(outputFileName);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            //A daemon that closes the connection straight away didn't accept the token, which is left over from another one
+            int first = in.read();
+            if (first == -1) {
+                return Optional.empty();
+            }
+            byte channel = (byte) first;
+            while (true) {
+                switch (channel) {
+                    case RESULT:
+                        return Optional.of(in.readBoolean());
+                    case STDOUT:
+                    case STDERR:
+                        byte[] payload = new byte[in.readInt()];
+                        in.readFully(payload);
+                        (channel == STDOUT ? System.out : System.err).write(payload);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown daemon channel `" + channel + "`");
+                }
+                channel = in.readByte();
+            }
+        }
+    }
+
+    private static final class FrameOutputStream extends OutputStream {
+
+        private final DataOutputStream out;
+        private final byte channel;
+
+        private FrameOutputStream(DataOutputStream out, byte channel) {
+            this.out = out;
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (out) {
+                out.writeByte(channel);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -7,9 +7,9 @@ import com.skennedy.rasna.compilation.llvm.LLVMCompiler;
 import com.skennedy.rasna.diagnostics.BindingError;
 import com.skennedy.rasna.diagnostics.Error;
 import com.skennedy.rasna.diagnostics.TextSpan;
+import com.skennedy.rasna.exceptions.InvalidModuleException;
 import com.skennedy.rasna.lexing.model.Location;
-import com.skennedy.rasna.lowering.BoundProgramRewriter;
-import com.skennedy.rasna.lowering.LLVMLowerer;
+import com.skennedy.rasna.lowering.PassManager;
 import com.skennedy.rasna.parsing.Parser;
 import com.skennedy.rasna.parsing.Program;
 import com.skennedy.rasna.typebinding.Binder;
@@ -25,7 +25,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
 
 public class Rasna {
 
@@ -34,12 +37,28 @@ public class Rasna {
     private static final Logger log = LogManager.getLogger(Rasna.class);
 
     public static void main(String[] args) throws IOException {
+        if (Arrays.asList(args).contains(CompilerDaemon.DAEMON_FLAG)) {
+            new CompilerDaemon().serve();
+            return;
+        }
+
         Flag<String> fileFlag = Flags.stringFlag()
                 .withName("f")
                 .withDescription("The file to compile")
                 .build();
+        Flag<String> disablePassFlag = Flags.stringFlag()
+                .withName("disable-pass")
+                .withDescription("Comma separated names of lowering passes to skip")
+                .build();
+        Flag<String> printAfterFlag = Flags.stringFlag()
+                .withName("print-after")
+                .withDescription("Comma separated names of lowering passes to print the program after")
+                .build();
         Flags.parse(args);
 
+        List<String> disabledPasses = splitPassNames(disablePassFlag.getValue());
+        List<String> printedPasses = splitPassNames(printAfterFlag.getValue());
+
         String fileNameWithExt = (String) Assert.that(fileFlag.getValue()).isNotBlank().get();
         String[] fileParts = fileNameWithExt.split("\\.");
         String fileName = fileParts[0];
@@ -50,6 +69,66 @@ public class Rasna {
         }
 
         Path path = Paths.get(fileNameWithExt).toAbsolutePath();
+
+        //Hand the compilation to a running daemon if there is one, it will have everything warmed up already
+        //The daemon always runs the default pipeline, so pass options mean compiling in-process
+        Optional<Boolean> compiledByDaemon = disabledPasses.isEmpty() && printedPasses.isEmpty()
+                ? CompilerDaemon.tryCompile(path, Paths.get(fileName).toAbsolutePath().toString())
+                : Optional.empty();
+        boolean compiled = compiledByDaemon.isPresent()
+                ? compiledByDaemon.get()
+                : compile(path, fileName, disabledPasses, printedPasses);
+        if (!compiled) {
+            return;
+        }
+
+        //TODO: only do this with a -r flag
+
+        boolean run = true;
+        if (run) {
+            Process process;
+            //TODO: This is windows specific
+            process = Runtime.getRuntime().exec(fileName + ".exe");
+            InputStream inputStream = process.getInputStream();
+            char c = (char) inputStream.read();
+            System.out.print(ConsoleColors.CYAN_BOLD);
+            while (c != '\uFFFF') {
+                System.out.print(c);
+                c = (char) inputStream.read();
+            }
+            System.out.print(ConsoleColors.RED_BOLD);
+            InputStream errorStream = process.getErrorStream();
+            c = (char) errorStream.read();
+            while (c != '\uFFFF') {
+                System.out.print(c);
+                c = (char) errorStream.read();
+            }
+            System.out.print(ConsoleColors.RESET);
+        }
+    }
+
+    /**
+     * Compiles the file at the given path to an executable
+     *
+     * @param path the absolute path of the file to compile
+     * @param outputFileName the path of the output files, without an extension
+     * @return whether the compilation succeeded
+     */
+    static boolean compile(Path path, String outputFileName) throws IOException {
+        return compile(path, outputFileName, List.of(), List.of());
+    }
+
+    /**
+     * Compiles the file at the given path to an executable
+     *
+     * @param path the absolute path of the file to compile
+     * @param outputFileName the path of the output files, without an extension
+     * @param disabledPasses the names of the lowering passes to skip
+     * @param printedPasses the names of the lowering passes to print the program after
+     * @return whether the compilation succeeded
+     */
+    static boolean compile(Path path, String outputFileName, List<String> disabledPasses, List<String> printedPasses) throws IOException {
+        String fileNameWithExt = path.getFileName().toString();
         try {
             Instant start = Instant.now();
             List<String> lines = Files.readAllLines(path);
@@ -66,7 +145,7 @@ public class Rasna {
                     //TODO: This breaks if the error is in an imported file, i.e. the error is not in `lines`
                     highlightError(error, lines);
                 }
-                return;
+                return false;
             }
 
             Binder binder = new Binder();
@@ -96,12 +175,13 @@ public class Rasna {
                         e.printStackTrace();
                     }
                 }
-                return;
+                return false;
             }
 
-            //Lower the program to a linear series of instructions
-            BoundProgramRewriter rewriter = new LLVMLowerer();
-            boundProgram = rewriter.rewrite(boundProgram);
+            boundProgram = PassManager.defaultPipeline()
+                    .disable(disabledPasses)
+                    .printAfter(printedPasses)
+                    .run(boundProgram);
 
             boolean printProgram = false;
             if (printProgram) {
@@ -111,40 +191,30 @@ public class Rasna {
             }
             log.debug("Compiling file {} to LLVM", fileNameWithExt);
             LLVMCompiler compiler = new LLVMCompiler();
-            compiler.compile(boundProgram, fileName);
+            compiler.compile(boundProgram, outputFileName);
             Instant end = Instant.now();
             log.debug("Compiled in {}ms", end.toEpochMilli() - start.toEpochMilli());
 
-            //TODO: only do this with a -r flag
-
-            boolean run = true;
-            if (run) {
-                Process process;
-                //TODO: This is windows specific
-                process = Runtime.getRuntime().exec(fileName + ".exe");
-                InputStream inputStream = process.getInputStream();
-                char c = (char) inputStream.read();
-                System.out.print(ConsoleColors.CYAN_BOLD);
-                while (c != '\uFFFF') {
-                    System.out.print(c);
-                    c = (char) inputStream.read();
-                }
-                System.out.print(ConsoleColors.RED_BOLD);
-                InputStream errorStream = process.getErrorStream();
-                c = (char) errorStream.read();
-                while (c != '\uFFFF') {
-                    System.out.print(c);
-                    c = (char) errorStream.read();
-                }
-                System.out.print(ConsoleColors.RESET);
-            }
-
+            return true;
+        } catch (InvalidModuleException ime) {
+            System.err.println("Code generation failed: " + ime.getMessage());
+            return false;
         } catch (IOException ioe) {
             log.error("Error reading input file", ioe);
             throw ioe;
         }
     }
 
+    private static List<String> splitPassNames(String value) {
+        if (StringUtils.isBlank(value)) {
+            return List.of();
+        }
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(StringUtils::isNotEmpty)
+                .collect(Collectors.toList());
+    }
+
     private static void highlightError(Error error, List<String> lines) {
         Location location = error.getLocation();
         int row = location.getRow();
@@ -204,6 +274,9 @@ public class Rasna {
 
     private static void highlightMessage(List<String> lines, TextSpan span, String color) {
         int row = span.getStart().getRow();
+        if (row >= lines.size()) {
+            return;
+        }
         String line = lines.get(row);
 
         System.out.print(ConsoleColors.RESET);
@@ -0,0 +1,54 @@
+package com.skennedy.rasna.compilation.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A basic block: phis, then straight line instructions, then a single terminator
+ */
+public class IRBlock {
+
+    private final String name;
+    private final List<IRBlock> predecessors = new ArrayList<>();
+    private final List<IRInstruction> phis = new ArrayList<>();
+    private final List<IRInstruction> instructions = new ArrayList<>();
+
+    IRBlock(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<IRBlock> getPredecessors() {
+        return predecessors;
+    }
+
+    public List<IRInstruction> getPhis() {
+        return phis;
+    }
+
+    /**
+     * @return the instructions after the phis, ending with the terminator once the block is complete
+     */
+    public List<IRInstruction> getInstructions() {
+        return instructions;
+    }
+
+    public boolean isTerminated() {
+        return !instructions.isEmpty() && instructions.get(instructions.size() - 1).getOpcode().isTerminator();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(name).append(":\n");
+        for (IRInstruction phi : phis) {
+            sb.append("    ").append(phi.describe()).append("\n");
+        }
+        for (IRInstruction instruction : instructions) {
+            sb.append("    ").append(instruction.describe()).append("\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,666 @@
+package com.skennedy.rasna.compilation.ir;
+
+import com.skennedy.rasna.typebinding.BoundAssignmentExpression;
+import com.skennedy.rasna.typebinding.BoundBinaryExpression;
+import com.skennedy.rasna.typebinding.BoundBinaryOperator.BoundBinaryOperation;
+import com.skennedy.rasna.typebinding.BoundBlockExpression;
+import com.skennedy.rasna.typebinding.BoundCStyleForExpression;
+import com.skennedy.rasna.typebinding.BoundCastExpression;
+import com.skennedy.rasna.typebinding.BoundExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionCallExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionDeclarationExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionParameterExpression;
+import com.skennedy.rasna.typebinding.BoundIfExpression;
+import com.skennedy.rasna.typebinding.BoundIncrementExpression;
+import com.skennedy.rasna.typebinding.BoundLiteralExpression;
+import com.skennedy.rasna.typebinding.BoundPrintExpression;
+import com.skennedy.rasna.typebinding.BoundReturnExpression;
+import com.skennedy.rasna.typebinding.BoundUnaryExpression;
+import com.skennedy.rasna.typebinding.BoundUnaryOperator.BoundUnaryOperation;
+import com.skennedy.rasna.typebinding.BoundVariableDeclarationExpression;
+import com.skennedy.rasna.typebinding.BoundVariableExpression;
+import com.skennedy.rasna.typebinding.BoundWhileExpression;
+import com.skennedy.rasna.typebinding.FunctionSymbol;
+import com.skennedy.rasna.typebinding.TypeSymbol;
+import com.skennedy.rasna.typebinding.VariableSymbol;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static com.skennedy.rasna.typebinding.TypeSymbol.BOOL;
+import static com.skennedy.rasna.typebinding.TypeSymbol.CHAR;
+import static com.skennedy.rasna.typebinding.TypeSymbol.INT;
+import static com.skennedy.rasna.typebinding.TypeSymbol.REAL;
+import static com.skennedy.rasna.typebinding.TypeSymbol.STRING;
+import static com.skennedy.rasna.typebinding.TypeSymbol.UNIT;
+
+/**
+ * Builds the SSA form of a lowered function declaration.
+ * <p>
+ * Local variables never get a stack slot: each assignment just becomes the current definition of the variable in
+ * the block it happens in, and reading a variable looks its definition up through the predecessors of the block,
+ * adding phis where definitions from different paths meet (Braun et al., "Simple and Efficient Construction of
+ * Static Single Assignment Form"). A block is sealed once all of its predecessors are known, which with structured
+ * control flow is as soon as the construct that created it has been built.
+ * <p>
+ * Only functions over Bool, Char, Int and Real values can be represented so far. Anything else makes the builder give
+ * up on the function, which is then compiled straight from its bound tree instead.
+ */
+public class IRBuilder {
+
+    private static final Logger log = LogManager.getLogger(IRBuilder.class);
+
+    private final Map<VariableSymbol, Map<IRBlock, IRValue>> currentDefinitions = new HashMap<>();
+    private final Map<VariableSymbol, IRParameter> referenceParameters = new HashMap<>();
+    private final Set<VariableSymbol> localVariables = new HashSet<>();
+    private final Set<IRBlock> sealedBlocks = new HashSet<>();
+    private final Map<IRBlock, Map<VariableSymbol, IRInstruction>> incompletePhis = new HashMap<>();
+    private final Map<IRInstruction, IRValue> replacedPhis = new HashMap<>();
+    private final List<IRBlock> blocks = new ArrayList<>();
+
+    private final TypeSymbol returnType;
+    private IRBlock currentBlock;
+    private int nextId = 0;
+    private int nextBlockId = 0;
+
+    private IRBuilder(TypeSymbol returnType) {
+        this.returnType = returnType;
+    }
+
+    public static Optional<IRFunction> build(BoundFunctionDeclarationExpression functionDeclarationExpression) {
+        FunctionSymbol functionSymbol = functionDeclarationExpression.getFunctionSymbol();
+        try {
+            return Optional.of(new IRBuilder(functionSymbol.getType()).buildFunction(functionDeclarationExpression));
+        } catch (NotRepresentableException e) {
+            log.debug("Compiling `" + functionSymbol.getSignature() + "` from its bound tree: " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private IRFunction buildFunction(BoundFunctionDeclarationExpression functionDeclarationExpression) {
+        if (returnType != UNIT) {
+            requireScalar(returnType);
+        }
+
+        IRBlock entry = createBlock("entry");
+        seal(entry);
+        position(entry);
+
+        List<IRParameter> parameters = new ArrayList<>();
+        List<BoundFunctionParameterExpression> arguments = functionDeclarationExpression.getArguments();
+        for (int i = 0; i < arguments.size(); i++) {
+            BoundFunctionParameterExpression argument = arguments.get(i);
+            requireScalar(argument.getType());
+
+            IRParameter parameter = new IRParameter(i, argument.getArgument(), argument.isReference());
+            if (argument.isReference()) {
+                referenceParameters.put(argument.getArgument(), parameter);
+            } else {
+                localVariables.add(argument.getArgument());
+                writeVariable(argument.getArgument(), entry, parameter);
+            }
+            parameters.add(parameter);
+        }
+
+        for (BoundExpression expression : functionDeclarationExpression.getBody().getExpressions()) {
+            buildStatement(expression);
+        }
+        //The binder has already checked that every path through a function with a return type returns
+        if (!currentBlock.isTerminated()) {
+            append(returnType == UNIT ? IROpcode.RETURN : IROpcode.UNREACHABLE, UNIT, List.of(), List.of());
+        }
+
+        for (IRBlock block : blocks) {
+            for (IRInstruction phi : block.getPhis()) {
+                phi.getOperands().replaceAll(this::resolve);
+            }
+            for (IRInstruction instruction : block.getInstructions()) {
+                instruction.getOperands().replaceAll(this::resolve);
+            }
+        }
+        return new IRFunction(functionDeclarationExpression.getFunctionSymbol(), parameters, blocks);
+    }
+
+    private void buildStatement(BoundExpression expression) {
+        switch (expression.getBoundExpressionType()) {
+            case NOOP:
+                break;
+            case BLOCK:
+                for (BoundExpression child : ((BoundBlockExpression) expression).getExpressions()) {
+                    buildStatement(child);
+                }
+                break;
+            case VARIABLE_DECLARATION:
+                buildVariableDeclaration((BoundVariableDeclarationExpression) expression);
+                break;
+            case ASSIGNMENT_EXPRESSION:
+                BoundAssignmentExpression assignmentExpression = (BoundAssignmentExpression) expression;
+                if (assignmentExpression.getGuard() != null) {
+                    throw new NotRepresentableException("Guarded assignments are not yet supported in the IR");
+                }
+                assign(assignmentExpression.getVariable(), buildValue(assignmentExpression.getExpression()));
+                break;
+            case IF:
+                buildIf((BoundIfExpression) expression);
+                break;
+            case WHILE:
+                buildWhile((BoundWhileExpression) expression);
+                break;
+            case C_STYLE_FOR_EXPRESSION:
+                buildCStyleFor((BoundCStyleForExpression) expression);
+                break;
+            case RETURN:
+                buildReturn((BoundReturnExpression) expression);
+                break;
+            case PRINT_INTRINSIC:
+                buildPrint((BoundPrintExpression) expression);
+                break;
+            default:
+                buildValue(expression);
+        }
+    }
+
+    private IRValue buildValue(BoundExpression expression) {
+        switch (expression.getBoundExpressionType()) {
+            case LITERAL:
+                BoundLiteralExpression literalExpression = (BoundLiteralExpression) expression;
+                requireScalar(literalExpression.getType());
+                return new IRConstant(literalExpression.getType(), literalExpression.getValue());
+            case VARIABLE_EXPRESSION:
+                return read(((BoundVariableExpression) expression).getVariable());
+            case INCREMENT:
+                BoundIncrementExpression incrementExpression = (BoundIncrementExpression) expression;
+                VariableSymbol variable = incrementExpression.getVariableSymbol();
+                IRValue amount = incrementExpression.getType() == CHAR
+                        ? new IRConstant(CHAR, (char) (int) incrementExpression.getAmount().getValue())
+                        : new IRConstant(INT, incrementExpression.getAmount().getValue());
+                IRValue incremented = append(IRInstruction.binary(nextId++, BoundBinaryOperation.ADDITION, variable.getType(), read(variable), amount));
+                assign(variable, incremented);
+                return incremented;
+            case BINARY_EXPRESSION:
+                return buildBinary((BoundBinaryExpression) expression);
+            case UNARY_EXPRESSION:
+                return buildUnary((BoundUnaryExpression) expression);
+            case CAST_EXPRESSION:
+                BoundCastExpression castExpression = (BoundCastExpression) expression;
+                return cast(buildValue(castExpression.getExpression()), castExpression.getType());
+            case FUNCTION_CALL:
+                return buildCall((BoundFunctionCallExpression) expression);
+            case IF:
+                return buildConditional((BoundIfExpression) expression);
+            default:
+                throw new NotRepresentableException("`" + expression.getBoundExpressionType() + "` is not yet supported in the IR");
+        }
+    }
+
+    private void buildVariableDeclaration(BoundVariableDeclarationExpression variableDeclarationExpression) {
+        VariableSymbol variable = variableDeclarationExpression.getVariable();
+        if (variableDeclarationExpression.getGuard() != null) {
+            throw new NotRepresentableException("Guarded variables are not yet supported in the IR");
+        }
+        requireScalar(variable.getType());
+        localVariables.add(variable);
+
+        BoundExpression initialiser = variableDeclarationExpression.getInitialiser();
+        assign(variable, initialiser == null ? defaultValue(variable.getType()) : buildValue(initialiser));
+    }
+
+    private void buildIf(BoundIfExpression ifExpression) {
+        IRValue condition = buildValue(ifExpression.getCondition());
+
+        IRBlock thenBlock = createBlock("if.then");
+        IRBlock elseBlock = ifExpression.getElseBody() == null ? null : createBlock("if.else");
+        IRBlock endBlock = createBlock("if.end");
+        branch(condition, thenBlock, elseBlock == null ? endBlock : elseBlock);
+
+        seal(thenBlock);
+        position(thenBlock);
+        buildStatement(ifExpression.getBody());
+        jump(endBlock);
+
+        if (elseBlock != null) {
+            seal(elseBlock);
+            position(elseBlock);
+            buildStatement(ifExpression.getElseBody());
+            jump(endBlock);
+        }
+
+        seal(endBlock);
+        position(endBlock);
+    }
+
+    //An if used as a value picks between cheap branches with a select, otherwise it yields whichever branch ran through a phi
+    private IRValue buildConditional(BoundIfExpression ifExpression) {
+        if (ifExpression.getElseBody() == null) {
+            throw new NotRepresentableException("An `if` without an `else` has no value");
+        }
+        TypeSymbol type = ifExpression.getType();
+        requireScalar(type);
+
+        IRValue condition = buildValue(ifExpression.getCondition());
+        if (isSelectable(ifExpression.getBody()) && isSelectable(ifExpression.getElseBody())) {
+            IRValue thenValue = buildValue(ifExpression.getBody());
+            IRValue elseValue = buildValue(ifExpression.getElseBody());
+            requireType(thenValue, type);
+            requireType(elseValue, type);
+            return append(new IRInstruction(nextId++, IROpcode.SELECT, type, List.of(condition, thenValue, elseValue), List.of()));
+        }
+
+        IRBlock thenBlock = createBlock("cond.true");
+        IRBlock elseBlock = createBlock("cond.false");
+        IRBlock endBlock = createBlock("cond.end");
+        branch(condition, thenBlock, elseBlock);
+
+        seal(thenBlock);
+        position(thenBlock);
+        IRValue thenValue = buildValue(ifExpression.getBody());
+        requireType(thenValue, type);
+        IRBlock thenEndBlock = currentBlock;
+        jump(endBlock);
+
+        seal(elseBlock);
+        position(elseBlock);
+        IRValue elseValue = buildValue(ifExpression.getElseBody());
+        requireType(elseValue, type);
+        jump(endBlock);
+
+        seal(endBlock);
+        position(endBlock);
+        List<IRValue> operands = new ArrayList<>();
+        for (IRBlock predecessor : endBlock.getPredecessors()) {
+            operands.add(predecessor == thenEndBlock ? thenValue : elseValue);
+        }
+        IRInstruction phi = new IRInstruction(nextId++, IROpcode.PHI, type, operands, List.of());
+        endBlock.getPhis().add(phi);
+        return phi;
+    }
+
+    //Literals and variables are already to hand, so picking between them needs no branch
+    private static boolean isSelectable(BoundExpression branch) {
+        return branch instanceof BoundLiteralExpression || branch instanceof BoundVariableExpression;
+    }
+
+    private void buildWhile(BoundWhileExpression whileExpression) {
+        //The condition block can't be sealed until the back edge from the end of the body has been added
+        IRBlock conditionBlock = createBlock("while.cond");
+        jump(conditionBlock);
+        position(conditionBlock);
+        IRValue condition = buildValue(whileExpression.getCondition());
+
+        IRBlock bodyBlock = createBlock("while.body");
+        IRBlock exitBlock = createBlock("while.exit");
+        branch(condition, bodyBlock, exitBlock);
+
+        seal(bodyBlock);
+        position(bodyBlock);
+        buildStatement(whileExpression.getBody());
+        jump(conditionBlock);
+
+        seal(conditionBlock);
+        seal(exitBlock);
+        position(exitBlock);
+    }
+
+    private void buildCStyleFor(BoundCStyleForExpression cStyleForExpression) {
+        buildStatement(cStyleForExpression.getInitialisation());
+
+        IRBlock conditionBlock = createBlock("for.cond");
+        jump(conditionBlock);
+        position(conditionBlock);
+        IRValue condition = buildValue(cStyleForExpression.getCondition());
+
+        IRBlock bodyBlock = createBlock("for.body");
+        IRBlock stepBlock = createBlock("for.step");
+        IRBlock exitBlock = createBlock("for.exit");
+        branch(condition, bodyBlock, exitBlock);
+
+        seal(bodyBlock);
+        position(bodyBlock);
+        buildStatement(cStyleForExpression.getBody());
+        jump(stepBlock);
+
+        seal(stepBlock);
+        position(stepBlock);
+        buildStatement(cStyleForExpression.getPostStep());
+        jump(conditionBlock);
+
+        seal(conditionBlock);
+        seal(exitBlock);
+        position(exitBlock);
+    }
+
+    private void buildReturn(BoundReturnExpression returnExpression) {
+        if (returnType == UNIT) {
+            throw new NotRepresentableException("Returning from a Unit function is not yet supported in the IR");
+        }
+        IRValue returnValue = buildValue(returnExpression.getReturnValue());
+        requireType(returnValue, returnType);
+        append(IROpcode.RETURN, UNIT, List.of(returnValue), List.of());
+
+        //Anything after a return can't be reached, but still needs a block to go in
+        IRBlock unreachableBlock = createBlock("unreachable");
+        seal(unreachableBlock);
+        position(unreachableBlock);
+    }
+
+    private void buildPrint(BoundPrintExpression printExpression) {
+        BoundExpression expression = printExpression.getExpression();
+        if (expression instanceof BoundLiteralExpression && expression.getType() == STRING) {
+            append(IROpcode.PRINT, UNIT, List.of(new IRConstant(STRING, ((BoundLiteralExpression) expression).getValue())), List.of());
+            return;
+        }
+        append(IROpcode.PRINT, UNIT, List.of(buildValue(expression)), List.of());
+    }
+
+    private IRValue buildBinary(BoundBinaryExpression binaryExpression) {
+        BoundBinaryOperation operation = binaryExpression.getOperator().getBoundOpType();
+        if (operation == BoundBinaryOperation.BOOLEAN_AND || operation == BoundBinaryOperation.BOOLEAN_OR) {
+            return buildShortCircuit(binaryExpression);
+        }
+        IRValue lhs = buildValue(binaryExpression.getLeft());
+        IRValue rhs = buildValue(binaryExpression.getRight());
+
+        if (lhs.getType() == CHAR && rhs.getType() == INT) {
+            rhs = append(new IRInstruction(nextId++, IROpcode.CAST, CHAR, List.of(rhs), List.of()));
+        }
+        if (lhs.getType() != rhs.getType() || lhs.getType() == BOOL && !isBooleanOperation(operation)) {
+            throw new NotRepresentableException("Binary operation `" + operation + "` is not yet supported in the IR for types `" + lhs.getType() + "` and `" + rhs.getType() + "`");
+        }
+        requireScalar(binaryExpression.getType());
+        return append(IRInstruction.binary(nextId++, operation, binaryExpression.getType(), lhs, rhs));
+    }
+
+    //The right operand is only evaluated when the left one doesn't already decide the result
+    private IRValue buildShortCircuit(BoundBinaryExpression binaryExpression) {
+        boolean and = binaryExpression.getOperator().getBoundOpType() == BoundBinaryOperation.BOOLEAN_AND;
+
+        IRValue lhs = buildValue(binaryExpression.getLeft());
+        IRBlock rhsBlock = createBlock(and ? "and.rhs" : "or.rhs");
+        IRBlock endBlock = createBlock(and ? "and.end" : "or.end");
+        if (and) {
+            branch(lhs, rhsBlock, endBlock);
+        } else {
+            branch(lhs, endBlock, rhsBlock);
+        }
+
+        seal(rhsBlock);
+        position(rhsBlock);
+        IRValue rhs = buildValue(binaryExpression.getRight());
+        requireType(rhs, BOOL);
+        IRBlock rhsEndBlock = currentBlock;
+        jump(endBlock);
+
+        seal(endBlock);
+        position(endBlock);
+        List<IRValue> operands = new ArrayList<>();
+        for (IRBlock predecessor : endBlock.getPredecessors()) {
+            operands.add(predecessor == rhsEndBlock ? rhs : new IRConstant(BOOL, !and));
+        }
+        IRInstruction phi = new IRInstruction(nextId++, IROpcode.PHI, BOOL, operands, List.of());
+        endBlock.getPhis().add(phi);
+        return phi;
+    }
+
+    private static boolean isBooleanOperation(BoundBinaryOperation operation) {
+        switch (operation) {
+            case EQUALS:
+            case NOT_EQUALS:
+            case BOOLEAN_OR:
+            case BOOLEAN_AND:
+            case BOOLEAN_XOR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private IRValue buildUnary(BoundUnaryExpression unaryExpression) {
+        IRValue operand = buildValue(unaryExpression.getOperand());
+        BoundUnaryOperation operation = unaryExpression.getOperator().getBoundOpType();
+
+        boolean supported = operation == BoundUnaryOperation.NOT && operand.getType() == BOOL
+                || operation == BoundUnaryOperation.NEGATION && (operand.getType() == INT || operand.getType() == REAL);
+        if (!supported) {
+            throw new NotRepresentableException("Unary operation `" + operation + "` is not yet supported in the IR for type `" + operand.getType() + "`");
+        }
+        return append(IRInstruction.unary(nextId++, operation, operand));
+    }
+
+    private IRValue cast(IRValue value, TypeSymbol type) {
+        TypeSymbol from = value.getType();
+        if (from == type) {
+            return value;
+        }
+        boolean supported = from == INT && (type == REAL || type == CHAR)
+                || from == REAL && type == INT
+                || from == CHAR && type == INT;
+        if (!supported) {
+            throw new NotRepresentableException("Casts from `" + from + "` to `" + type + "` are not yet supported in the IR");
+        }
+        return append(new IRInstruction(nextId++, IROpcode.CAST, type, List.of(value), List.of()));
+    }
+
+    private IRValue buildCall(BoundFunctionCallExpression functionCallExpression) {
+        FunctionSymbol function = functionCallExpression.getFunction();
+        if (function.getType() != UNIT) {
+            requireScalar(function.getType());
+        }
+        List<BoundFunctionParameterExpression> parameters = function.getArguments();
+        List<BoundExpression> arguments = functionCallExpression.getBoundArguments();
+        if (parameters.size() != arguments.size()) {
+            throw new NotRepresentableException("Calls with default arguments are not yet supported in the IR");
+        }
+
+        List<IRValue> values = new ArrayList<>();
+        for (int i = 0; i < arguments.size(); i++) {
+            BoundFunctionParameterExpression parameter = parameters.get(i);
+            requireScalar(parameter.getType());
+            if (parameter.isReference()) {
+                //Locals don't have an address, so only references the caller was given can be passed on
+                IRParameter pointer = arguments.get(i) instanceof BoundVariableExpression
+                        ? referenceParameters.get(((BoundVariableExpression) arguments.get(i)).getVariable())
+                        : null;
+                if (pointer == null) {
+                    throw new NotRepresentableException("Passing locals by reference is not yet supported in the IR");
+                }
+                values.add(pointer);
+            } else {
+                IRValue argument = buildValue(arguments.get(i));
+                requireType(argument, parameter.getType());
+                values.add(argument);
+            }
+        }
+        return append(IRInstruction.call(nextId++, function, values));
+    }
+
+    private IRValue read(VariableSymbol variable) {
+        IRParameter pointer = referenceParameters.get(variable);
+        if (pointer != null) {
+            return append(new IRInstruction(nextId++, IROpcode.LOAD, variable.getType(), List.of(pointer), List.of()));
+        }
+        if (!localVariables.contains(variable)) {
+            throw new NotRepresentableException("Variable `" + variable.getName() + "` is not declared in the function");
+        }
+        return readVariable(variable, currentBlock);
+    }
+
+    private void assign(VariableSymbol variable, IRValue value) {
+        requireType(value, variable.getType());
+
+        IRParameter pointer = referenceParameters.get(variable);
+        if (pointer != null) {
+            append(IROpcode.STORE, UNIT, List.of(pointer, value), List.of());
+            return;
+        }
+        if (!localVariables.contains(variable)) {
+            throw new NotRepresentableException("Variable `" + variable.getName() + "` is not declared in the function");
+        }
+        writeVariable(variable, currentBlock, value);
+    }
+
+    private void writeVariable(VariableSymbol variable, IRBlock block, IRValue value) {
+        currentDefinitions.computeIfAbsent(variable, v -> new HashMap<>()).put(block, value);
+    }
+
+    private IRValue readVariable(VariableSymbol variable, IRBlock block) {
+        IRValue value = currentDefinitions.getOrDefault(variable, Map.of()).get(block);
+        if (value != null) {
+            return resolve(value);
+        }
+
+        if (!sealedBlocks.contains(block)) {
+            //Not all of the predecessors are known yet, so the phi is completed when the block is sealed
+            IRInstruction phi = createPhi(variable, block);
+            incompletePhis.computeIfAbsent(block, b -> new LinkedHashMap<>()).put(variable, phi);
+            value = phi;
+        } else if (block.getPredecessors().size() == 1) {
+            value = readVariable(variable, block.getPredecessors().get(0));
+        } else {
+            //Define the phi before reading the predecessors so that a loop back to this block finds it
+            IRInstruction phi = createPhi(variable, block);
+            writeVariable(variable, block, phi);
+            value = addPhiOperands(variable, phi, block);
+        }
+        writeVariable(variable, block, value);
+        return value;
+    }
+
+    private IRInstruction createPhi(VariableSymbol variable, IRBlock block) {
+        IRInstruction phi = new IRInstruction(nextId++, IROpcode.PHI, variable.getType(), List.of(), List.of());
+        block.getPhis().add(phi);
+        return phi;
+    }
+
+    private IRValue addPhiOperands(VariableSymbol variable, IRInstruction phi, IRBlock block) {
+        for (IRBlock predecessor : block.getPredecessors()) {
+            phi.getOperands().add(readVariable(variable, predecessor));
+        }
+        return tryRemoveTrivialPhi(phi, block);
+    }
+
+    //A phi that only ever merges one value (or itself, round a loop) is just that value
+    private IRValue tryRemoveTrivialPhi(IRInstruction phi, IRBlock block) {
+        IRValue same = null;
+        for (IRValue operand : phi.getOperands()) {
+            operand = resolve(operand);
+            if (operand == same || operand == phi) {
+                continue;
+            }
+            if (same != null) {
+                return phi;
+            }
+            same = operand;
+        }
+        if (same == null) {
+            //Only reachable from blocks that can't be reached themselves
+            same = defaultValue(phi.getType());
+        }
+        block.getPhis().remove(phi);
+        replacedPhis.put(phi, same);
+        return same;
+    }
+
+    private IRValue resolve(IRValue value) {
+        while (value instanceof IRInstruction && replacedPhis.containsKey(value)) {
+            value = replacedPhis.get(value);
+        }
+        return value;
+    }
+
+    private void seal(IRBlock block) {
+        Map<VariableSymbol, IRInstruction> phis = incompletePhis.remove(block);
+        if (phis != null) {
+            phis.forEach((variable, phi) -> addPhiOperands(variable, phi, block));
+        }
+        sealedBlocks.add(block);
+    }
+
+    private IRBlock createBlock(String name) {
+        return new IRBlock(name + "." + nextBlockId++);
+    }
+
+    //Blocks are built in the order they're positioned at, which puts every block after the ones that dominate it
+    private void position(IRBlock block) {
+        blocks.add(block);
+        currentBlock = block;
+    }
+
+    private void jump(IRBlock target) {
+        if (currentBlock.isTerminated()) {
+            return;
+        }
+        if (isUnreachable(currentBlock)) {
+            append(IROpcode.UNREACHABLE, UNIT, List.of(), List.of());
+            return;
+        }
+        append(IROpcode.BRANCH, UNIT, List.of(), List.of(target));
+        target.getPredecessors().add(currentBlock);
+    }
+
+    private void branch(IRValue condition, IRBlock whenTrue, IRBlock whenFalse) {
+        requireType(condition, BOOL);
+        if (isUnreachable(currentBlock)) {
+            append(IROpcode.UNREACHABLE, UNIT, List.of(), List.of());
+            return;
+        }
+        append(IROpcode.CONDITIONAL_BRANCH, UNIT, List.of(condition), List.of(whenTrue, whenFalse));
+        whenTrue.getPredecessors().add(currentBlock);
+        whenFalse.getPredecessors().add(currentBlock);
+    }
+
+    //Code after a return doesn't flow into the blocks that follow it, so it adds no predecessors for them to merge
+    private boolean isUnreachable(IRBlock block) {
+        return block != blocks.get(0) && block.getPredecessors().isEmpty();
+    }
+
+    private IRInstruction append(IROpcode opcode, TypeSymbol type, List<IRValue> operands, List<IRBlock> successors) {
+        return append(new IRInstruction(nextId++, opcode, type, operands, successors));
+    }
+
+    private IRInstruction append(IRInstruction instruction) {
+        currentBlock.getInstructions().add(instruction);
+        return instruction;
+    }
+
+    private static IRConstant defaultValue(TypeSymbol type) {
+        if (type == BOOL) {
+            return new IRConstant(BOOL, false);
+        }
+        if (type == CHAR) {
+            return new IRConstant(CHAR, '\0');
+        }
+        if (type == INT) {
+            return new IRConstant(INT, 0);
+        }
+        return new IRConstant(REAL, 0.0D);
+    }
+
+    private static void requireScalar(TypeSymbol type) {
+        if (type != BOOL && type != CHAR && type != INT && type != REAL) {
+            throw new NotRepresentableException("Values of type `" + type + "` are not yet supported in the IR");
+        }
+    }
+
+    private static void requireType(IRValue value, TypeSymbol type) {
+        if (value.getType() != type) {
+            throw new NotRepresentableException("Implicit conversions from `" + value.getType() + "` to `" + type + "` are not yet supported in the IR");
+        }
+    }
+
+    //Thrown wherever the function turns out to use something the IR can't represent yet
+    private static final class NotRepresentableException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private NotRepresentableException(String reason) {
+            super(reason, null, false, false);
+        }
+    }
+}
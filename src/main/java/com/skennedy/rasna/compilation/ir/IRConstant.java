@@ -0,0 +1,28 @@
+package com.skennedy.rasna.compilation.ir;
+
+import com.skennedy.rasna.typebinding.TypeSymbol;
+
+public class IRConstant extends IRValue {
+
+    private final Object value;
+
+    IRConstant(TypeSymbol type, Object value) {
+        super(type);
+        this.value = value;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        if (value instanceof String) {
+            return "\"" + value + "\"";
+        }
+        if (value instanceof Character) {
+            return "'" + value + "'";
+        }
+        return String.valueOf(value);
+    }
+}
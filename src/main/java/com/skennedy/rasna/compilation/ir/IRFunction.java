@@ -0,0 +1,43 @@
+package com.skennedy.rasna.compilation.ir;
+
+import com.skennedy.rasna.typebinding.FunctionSymbol;
+
+import java.util.List;
+
+/**
+ * The control flow graph of a function in SSA form. The first block is the entry block, and every block comes after
+ * the blocks that dominate it
+ */
+public class IRFunction {
+
+    private final FunctionSymbol functionSymbol;
+    private final List<IRParameter> parameters;
+    private final List<IRBlock> blocks;
+
+    IRFunction(FunctionSymbol functionSymbol, List<IRParameter> parameters, List<IRBlock> blocks) {
+        this.functionSymbol = functionSymbol;
+        this.parameters = parameters;
+        this.blocks = blocks;
+    }
+
+    public FunctionSymbol getFunctionSymbol() {
+        return functionSymbol;
+    }
+
+    public List<IRParameter> getParameters() {
+        return parameters;
+    }
+
+    public List<IRBlock> getBlocks() {
+        return blocks;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("fn ").append(functionSymbol.getSignature()).append(" {\n");
+        for (IRBlock block : blocks) {
+            sb.append(block);
+        }
+        return sb.append("}\n").toString();
+    }
+}
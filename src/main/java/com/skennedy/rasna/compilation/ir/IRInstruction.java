@@ -0,0 +1,117 @@
+package com.skennedy.rasna.compilation.ir;
+
+import com.skennedy.rasna.typebinding.BoundBinaryOperator.BoundBinaryOperation;
+import com.skennedy.rasna.typebinding.BoundUnaryOperator.BoundUnaryOperation;
+import com.skennedy.rasna.typebinding.FunctionSymbol;
+import com.skennedy.rasna.typebinding.TypeSymbol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * An instruction in a basic block, which is also the value it produces.
+ * <p>
+ * The operands of a phi line up with the predecessors of its block. Branches name the blocks they jump to as their
+ * successors, and a conditional branch goes to its first successor when its operand is true.
+ */
+public class IRInstruction extends IRValue {
+
+    private final int id;
+    private final IROpcode opcode;
+    private final List<IRValue> operands;
+    private final List<IRBlock> successors;
+
+    private BoundBinaryOperation binaryOperation;
+    private BoundUnaryOperation unaryOperation;
+    private FunctionSymbol function;
+
+    IRInstruction(int id, IROpcode opcode, TypeSymbol type, List<IRValue> operands, List<IRBlock> successors) {
+        super(type);
+        this.id = id;
+        this.opcode = opcode;
+        this.operands = new ArrayList<>(operands);
+        this.successors = successors;
+    }
+
+    static IRInstruction binary(int id, BoundBinaryOperation operation, TypeSymbol type, IRValue lhs, IRValue rhs) {
+        IRInstruction instruction = new IRInstruction(id, IROpcode.BINARY, type, Arrays.asList(lhs, rhs), List.of());
+        instruction.binaryOperation = operation;
+        return instruction;
+    }
+
+    static IRInstruction unary(int id, BoundUnaryOperation operation, IRValue operand) {
+        IRInstruction instruction = new IRInstruction(id, IROpcode.UNARY, operand.getType(), List.of(operand), List.of());
+        instruction.unaryOperation = operation;
+        return instruction;
+    }
+
+    static IRInstruction call(int id, FunctionSymbol function, List<IRValue> arguments) {
+        IRInstruction instruction = new IRInstruction(id, IROpcode.CALL, function.getType(), arguments, List.of());
+        instruction.function = function;
+        return instruction;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public IROpcode getOpcode() {
+        return opcode;
+    }
+
+    public List<IRValue> getOperands() {
+        return operands;
+    }
+
+    public IRValue getOperand(int index) {
+        return operands.get(index);
+    }
+
+    public List<IRBlock> getSuccessors() {
+        return successors;
+    }
+
+    public BoundBinaryOperation getBinaryOperation() {
+        return binaryOperation;
+    }
+
+    public BoundUnaryOperation getUnaryOperation() {
+        return unaryOperation;
+    }
+
+    public FunctionSymbol getFunction() {
+        return function;
+    }
+
+    @Override
+    public String toString() {
+        return "%" + id;
+    }
+
+    String describe() {
+        StringBuilder sb = new StringBuilder();
+        if (opcode.isTerminator() || opcode == IROpcode.STORE || opcode == IROpcode.PRINT) {
+            sb.append(opcode.name().toLowerCase());
+        } else {
+            sb.append(this).append(": ").append(getType()).append(" = ").append(opcode.name().toLowerCase());
+        }
+        if (binaryOperation != null) {
+            sb.append(" ").append(binaryOperation.name().toLowerCase());
+        }
+        if (unaryOperation != null) {
+            sb.append(" ").append(unaryOperation.name().toLowerCase());
+        }
+        if (function != null) {
+            sb.append(" @").append(function.getName());
+        }
+        if (!operands.isEmpty()) {
+            sb.append(" ").append(operands.stream().map(String::valueOf).collect(Collectors.joining(", ")));
+        }
+        if (!successors.isEmpty()) {
+            sb.append(" -> ").append(successors.stream().map(IRBlock::getName).collect(Collectors.joining(", ")));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,22 @@
+package com.skennedy.rasna.compilation.ir;
+
+public enum IROpcode {
+    PHI,
+    BINARY,
+    UNARY,
+    CAST,
+    SELECT,
+    CALL,
+    PRINT,
+    LOAD,
+    STORE,
+    //Terminators
+    BRANCH,
+    CONDITIONAL_BRANCH,
+    RETURN,
+    UNREACHABLE;
+
+    public boolean isTerminator() {
+        return ordinal() >= BRANCH.ordinal();
+    }
+}
@@ -0,0 +1,34 @@
+package com.skennedy.rasna.compilation.ir;
+
+import com.skennedy.rasna.typebinding.VariableSymbol;
+
+/**
+ * A parameter of the function being compiled. Reference parameters are pointers, so they are only ever used
+ * through loads and stores and their type is the type of the value they point to
+ */
+public class IRParameter extends IRValue {
+
+    private final int index;
+    private final VariableSymbol variable;
+    private final boolean reference;
+
+    IRParameter(int index, VariableSymbol variable, boolean reference) {
+        super(variable.getType());
+        this.index = index;
+        this.variable = variable;
+        this.reference = reference;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public boolean isReference() {
+        return reference;
+    }
+
+    @Override
+    public String toString() {
+        return "%" + variable.getName();
+    }
+}
@@ -0,0 +1,19 @@
+package com.skennedy.rasna.compilation.ir;
+
+import com.skennedy.rasna.typebinding.TypeSymbol;
+
+/**
+ * A value in the IR. Every value is defined exactly once, by a constant, a function parameter or an instruction
+ */
+public abstract class IRValue {
+
+    private final TypeSymbol type;
+
+    IRValue(TypeSymbol type) {
+        this.type = type;
+    }
+
+    public TypeSymbol getType() {
+        return type;
+    }
+}
@@ -1,6 +1,18 @@
 package com.skennedy.rasna.compilation.llvm;
 
+import com.skennedy.rasna.compilation.ir.IRBlock;
+import com.skennedy.rasna.compilation.ir.IRBuilder;
+import com.skennedy.rasna.compilation.ir.IRConstant;
+import com.skennedy.rasna.compilation.ir.IRFunction;
+import com.skennedy.rasna.compilation.ir.IRInstruction;
+import com.skennedy.rasna.compilation.ir.IROpcode;
+import com.skennedy.rasna.compilation.ir.IRParameter;
+import com.skennedy.rasna.compilation.ir.IRValue;
+import com.skennedy.rasna.exceptions.FunctionAlreadyDeclaredException;
+import com.skennedy.rasna.exceptions.InvalidModuleException;
+import com.skennedy.rasna.lowering.BoundArrayLengthAssignmentExpression;
 import com.skennedy.rasna.lowering.BoundArrayLengthExpression;
+import com.skennedy.rasna.lowering.DeadCodeEliminator;
 import com.skennedy.rasna.typebinding.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -15,11 +27,15 @@ import org.bytedeco.llvm.LLVM.LLVMTypeRef;
 import org.bytedeco.llvm.LLVM.LLVMValueRef;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.Stack;
 import java.util.stream.Collectors;
 
@@ -43,6 +59,7 @@ import static org.bytedeco.llvm.global.LLVM.LLVMArrayType;
 import static org.bytedeco.llvm.global.LLVM.LLVMBuildAdd;
 import static org.bytedeco.llvm.global.LLVM.LLVMBuildAlloca;
 import static org.bytedeco.llvm.global.LLVM.LLVMBuildAnd;
+import static org.bytedeco.llvm.global.LLVM.LLVMBuildArrayMalloc;
 import static org.bytedeco.llvm.global.LLVM.LLVMBuildBitCast;
 import static org.bytedeco.llvm.global.LLVM.LLVMBuildBr;
 import static org.bytedeco.llvm.global.LLVM.LLVMBuildCall;
@@ -59,6 +76,7 @@ import static org.bytedeco.llvm.global.LLVM.LLVMBuildGlobalStringPtr;
 import static org.bytedeco.llvm.global.LLVM.LLVMBuildICmp;
 import static org.bytedeco.llvm.global.LLVM.LLVMBuildInBoundsGEP;
 import static org.bytedeco.llvm.global.LLVM.LLVMBuildLoad;
+import static org.bytedeco.llvm.global.LLVM.LLVMBuildMalloc;
 import static org.bytedeco.llvm.global.LLVM.LLVMBuildMemSet;
 import static org.bytedeco.llvm.global.LLVM.LLVMBuildMul;
 import static org.bytedeco.llvm.global.LLVM.LLVMBuildNot;
@@ -72,12 +90,15 @@ import static org.bytedeco.llvm.global.LLVM.LLVMBuildSelect;
 import static org.bytedeco.llvm.global.LLVM.LLVMBuildStore;
 import static org.bytedeco.llvm.global.LLVM.LLVMBuildStructGEP;
 import static org.bytedeco.llvm.global.LLVM.LLVMBuildSub;
+import static org.bytedeco.llvm.global.LLVM.LLVMBuildUnreachable;
 import static org.bytedeco.llvm.global.LLVM.LLVMBuildXor;
+import static org.bytedeco.llvm.global.LLVM.LLVMBuildZExt;
 import static org.bytedeco.llvm.global.LLVM.LLVMCCallConv;
 import static org.bytedeco.llvm.global.LLVM.LLVMConstInt;
 import static org.bytedeco.llvm.global.LLVM.LLVMConstReal;
 import static org.bytedeco.llvm.global.LLVM.LLVMContextCreate;
 import static org.bytedeco.llvm.global.LLVM.LLVMContextDispose;
+import static org.bytedeco.llvm.global.LLVM.LLVMCountBasicBlocks;
 import static org.bytedeco.llvm.global.LLVM.LLVMCreateBuilderInContext;
 import static org.bytedeco.llvm.global.LLVM.LLVMDisposeBuilder;
 import static org.bytedeco.llvm.global.LLVM.LLVMDisposeMessage;
@@ -87,9 +108,12 @@ import static org.bytedeco.llvm.global.LLVM.LLVMDumpModule;
 import static org.bytedeco.llvm.global.LLVM.LLVMFPToSI;
 import static org.bytedeco.llvm.global.LLVM.LLVMFunctionType;
 import static org.bytedeco.llvm.global.LLVM.LLVMGetBasicBlockTerminator;
+import static org.bytedeco.llvm.global.LLVM.LLVMGetEntryBasicBlock;
+import static org.bytedeco.llvm.global.LLVM.LLVMGetFirstInstruction;
 import static org.bytedeco.llvm.global.LLVM.LLVMGetGlobalPassRegistry;
 import static org.bytedeco.llvm.global.LLVM.LLVMGetInsertBlock;
 import static org.bytedeco.llvm.global.LLVM.LLVMGetParam;
+import static org.bytedeco.llvm.global.LLVM.LLVMGetTypeContext;
 import static org.bytedeco.llvm.global.LLVM.LLVMGetTypeKind;
 import static org.bytedeco.llvm.global.LLVM.LLVMInitializeCore;
 import static org.bytedeco.llvm.global.LLVM.LLVMInitializeNativeAsmParser;
@@ -110,6 +134,7 @@ import static org.bytedeco.llvm.global.LLVM.LLVMModuleCreateWithNameInContext;
 import static org.bytedeco.llvm.global.LLVM.LLVMPointerType;
 import static org.bytedeco.llvm.global.LLVM.LLVMPointerTypeKind;
 import static org.bytedeco.llvm.global.LLVM.LLVMPositionBuilderAtEnd;
+import static org.bytedeco.llvm.global.LLVM.LLVMPositionBuilderBefore;
 import static org.bytedeco.llvm.global.LLVM.LLVMPrintMessageAction;
 import static org.bytedeco.llvm.global.LLVM.LLVMPrintModuleToFile;
 import static org.bytedeco.llvm.global.LLVM.LLVMRealOEQ;
@@ -121,6 +146,8 @@ import static org.bytedeco.llvm.global.LLVM.LLVMRealONE;
 import static org.bytedeco.llvm.global.LLVM.LLVMSExt;
 import static org.bytedeco.llvm.global.LLVM.LLVMSIToFP;
 import static org.bytedeco.llvm.global.LLVM.LLVMSetFunctionCallConv;
+import static org.bytedeco.llvm.global.LLVM.LLVMSetTailCall;
+import static org.bytedeco.llvm.global.LLVM.LLVMSizeOf;
 import static org.bytedeco.llvm.global.LLVM.LLVMStructCreateNamed;
 import static org.bytedeco.llvm.global.LLVM.LLVMStructSetBody;
 import static org.bytedeco.llvm.global.LLVM.LLVMStructTypeInContext;
@@ -137,6 +164,9 @@ public class LLVMCompiler {
 
     public static final BytePointer error = new BytePointer();
 
+    static final String CLANG = "C:\\Program Files\\LLVM\\bin\\clang";
+    private static final String CACHE_DIRECTORY = ".rasna-cache";
+
     private LLVMTypeRef i1Type;
     private LLVMTypeRef i8Type;
     private LLVMTypeRef i32Type;
@@ -149,6 +179,8 @@ public class LLVMCompiler {
     private LLVMValueRef formatStr; //"%d\n"
 
     private Scope scope;
+    private EscapeAnalysis escapeAnalysis;
+    private LLVMModuleRef module;
 
     public void compile(BoundProgram program, String outputFileName) throws IOException {
 
@@ -159,10 +191,11 @@ public class LLVMCompiler {
         LLVMInitializeNativeAsmParser();
         LLVMInitializeNativeTarget();
 
-        scope = new Scope(null);
+        scope = new Scope();
+        escapeAnalysis = EscapeAnalysis.analyse(program.getExpressions());
 
         LLVMContextRef context = LLVMContextCreate();
-        LLVMModuleRef module = LLVMModuleCreateWithNameInContext(outputFileName, context);
+        module = LLVMModuleCreateWithNameInContext(Paths.get(outputFileName).getFileName().toString(), context);
         LLVMBuilderRef builder = LLVMCreateBuilderInContext(context);
 
         i1Type = LLVMInt1TypeInContext(context);
@@ -180,7 +213,7 @@ public class LLVMCompiler {
 
         buildPrintbMethod(context, module, builder);
 
-        buildBuiltInFunctions(context, module, builder);
+        buildBuiltInFunctions(context, module, builder, DeadCodeEliminator.findCalledFunctions(program.getExpressions()));
 
         for (BoundExpression expression : program.getExpressions()) {
             if (expression instanceof BoundFunctionDeclarationExpression) {
@@ -193,7 +226,7 @@ public class LLVMCompiler {
 
                     LLVMTypeRef mainType;
                     if (functionDeclarationExpression.getFunctionSymbol().getArguments().size() == 1) {
-                        mainType = LLVMFunctionType(i32Type, getLlvmTypeRef(new ArrayTypeSymbol(STRING), context), /* argumentCount */ 1, /* isVariadic */ 0);
+                        mainType = LLVMFunctionType(i32Type, getLlvmTypeRef(ArrayTypeSymbol.of(STRING), context), /* argumentCount */ 1, /* isVariadic */ 0);
                     } else {
                         mainType = LLVMFunctionType(i32Type, LLVMVoidType(), /* argumentCount */ 0, /* isVariadic */ 0);
                     }
@@ -204,10 +237,17 @@ public class LLVMCompiler {
                     LLVMBasicBlockRef entry = LLVMAppendBasicBlockInContext(context, main, "entry");
                     LLVMPositionBuilderAtEnd(builder, entry);
 
-                    visitMainMethod((BoundFunctionDeclarationExpression) expression, builder, context, main);
+                    Optional<IRFunction> irFunction = functionDeclarationExpression.getArguments().isEmpty()
+                            ? IRBuilder.build(functionDeclarationExpression)
+                            : Optional.empty();
+                    if (irFunction.isPresent()) {
+                        visit(irFunction.get(), builder, context, main);
+                    } else {
+                        visitMainMethod((BoundFunctionDeclarationExpression) expression, builder, context, main);
 
-                    LLVMValueRef returnCode = LLVMConstInt(i32Type, 0, 0);
-                    LLVMBuildRet(builder, returnCode);
+                        LLVMValueRef returnCode = LLVMConstInt(i32Type, 0, 0);
+                        LLVMBuildRet(builder, returnCode);
+                    }
 
                     if (LLVMVerifyFunction(main, LLVMPrintMessageAction) != 0) {
                         log.error("Error when validating main function:");
@@ -215,28 +255,30 @@ public class LLVMCompiler {
                         return;
                     }
                 } else {
-                    scope = new Scope(scope);
                     FunctionSymbol functionSymbol = functionDeclarationExpression.getFunctionSymbol();
 
-                    TypeSymbol returnType = functionSymbol.getType();
-
-                    LLVMTypeRef functionType = buildFunctionType(functionSymbol.getArguments(), returnType, context);
-
-                    LLVMValueRef func = LLVMAddFunction(module, functionSymbol.getName(), functionType);
-                    LLVMSetFunctionCallConv(func, LLVMCCallConv);
+                    LLVMValueRef func = getOrDeclareFunction(functionSymbol, context);
+                    if (LLVMCountBasicBlocks(func) != 0) {
+                        throw new FunctionAlreadyDeclaredException(functionSymbol.getName());
+                    }
+                    scope.enter();
 
                     LLVMBasicBlockRef entry = LLVMAppendBasicBlockInContext(context, func, "entry");
                     LLVMPositionBuilderAtEnd(builder, entry);
 
-                    visit((BoundFunctionDeclarationExpression) expression, builder, context, func);
+                    Optional<IRFunction> irFunction = IRBuilder.build(functionDeclarationExpression);
+                    if (irFunction.isPresent()) {
+                        visit(irFunction.get(), builder, context, func);
+                    } else {
+                        visit((BoundFunctionDeclarationExpression) expression, builder, context, func);
+                    }
 
                     if (LLVMVerifyFunction(func, LLVMPrintMessageAction) != 0) {
                         log.error("Error when validating function `" + functionSymbol.getSignature() + "`:");
                         LLVMDumpModule(module);
                         return;
                     }
-                    scope = scope.getParentScope();
-                    scope.declareFunction(functionSymbol, func);
+                    scope.exit();
                 }
             } else {
                 visit(expression, builder, context, null);
@@ -244,40 +286,25 @@ public class LLVMCompiler {
         }
 
         if (LLVMVerifyModule(module, LLVMPrintMessageAction, error) != 0) {
-            log.error("Failed to validate module: " + error.getString());
+            String message = error.getString();
+            LLVMDisposeMessage(error);
             LLVMDumpModule(module);
-            System.exit(1);
+            throw new InvalidModuleException("Failed to validate module: " + message);
         }
 
-        BytePointer llFile = new BytePointer("./" + outputFileName + ".ll");
+        BytePointer llFile = new BytePointer(Paths.get(outputFileName + ".ll").toString());
         if (LLVMPrintModuleToFile(module, llFile, error) != 0) {
             log.error("Failed to write module to file");
             LLVMDisposeMessage(error);
             return;
         }
         log.debug("Wrote IR to " + outputFileName + ".ll");
-        Process process = Runtime.getRuntime().exec("C:\\Program Files\\LLVM\\bin\\clang " + outputFileName + ".ll -o " + outputFileName + ".exe");
-        InputStream inputStream = process.getInputStream();
-        StringBuilder stdout = new StringBuilder();
-        char c = (char) inputStream.read();
-        while (c != '\uFFFF') {
-            stdout.append(c);
-            c = (char) inputStream.read();
-        }
-        if (stdout.length() != 0) {
-            log.info(stdout.toString());
-        }
-
-        StringBuilder stderr = new StringBuilder();
-        InputStream errorStream = process.getErrorStream();
-        c = (char) errorStream.read();
-        while (c != '\uFFFF') {
-            stderr.append(c);
-            c = (char) errorStream.read();
-        }
-        if (stderr.length() != 0) {
-            log.debug(stderr.toString()); //gcc likes to put warnings in stderr, if there was an error we probably wouldn't have gotten this far
-        }
+        List<Path> objects = new ObjectCache(Paths.get(outputFileName).resolveSibling(CACHE_DIRECTORY)).compile(module);
+        List<String> link = new ArrayList<>();
+        link.add(CLANG);
+        objects.forEach(object -> link.add(object.toString()));
+        link.addAll(List.of("-o", outputFileName + ".exe"));
+        ObjectCache.run(Paths.get("").toAbsolutePath(), link);
         log.debug("Compiled IR to " + outputFileName + ".exe");
 
         // Stage 5: Dispose of allocated resources
@@ -286,7 +313,7 @@ public class LLVMCompiler {
         LLVMContextDispose(context);
     }
 
-    private void buildBuiltInFunctions(LLVMContextRef context, LLVMModuleRef module, LLVMBuilderRef builder) {
+    private void buildBuiltInFunctions(LLVMContextRef context, LLVMModuleRef module, LLVMBuilderRef builder, Set<FunctionSymbol> calledFunctions) {
 
         PointerPointer<Pointer> fopenTypes = new PointerPointer<>(2)
                 .put(0, LLVMPointerType(i8Type, 0))
@@ -294,6 +321,9 @@ public class LLVMCompiler {
         LLVMValueRef fopen = LLVMAddFunction(module, "fopen", LLVMFunctionType(fileType, fopenTypes, 2, 0));
 
         for (FunctionSymbol builtInFunction : BuiltInFunctions.getBuiltinFunctions()) {
+            if (!calledFunctions.contains(builtInFunction)) {
+                continue;
+            }
             if (builtInFunction == READ_CHAR) {
                 LLVMValueRef fgetc = LLVMAddFunction(module, "fgetc", LLVMFunctionType(i8Type, getLlvmTypeRef(FILE, context), 1, 0));
                 LLVMValueRef readChar = LLVMAddFunction(module, READ_CHAR.getName(), LLVMFunctionType(i8Type, getLlvmTypeRef(FILE, context), 1, 0));
@@ -309,9 +339,8 @@ public class LLVMCompiler {
                 LLVMBuildRet(builder, LLVMBuildCall(builder, fgetc, readArgs, 1, "readchar"));
 
                 if (LLVMVerifyFunction(readChar, LLVMPrintMessageAction) != 0) {
-                    log.error("Error when validating readChar function:");
                     LLVMDumpModule(module);
-                    System.exit(1);
+                    throw new InvalidModuleException("Error when validating readChar function");
                 }
 
                 scope.declareFunction(builtInFunction, readChar);
@@ -339,9 +368,8 @@ public class LLVMCompiler {
                 LLVMBuildRetVoid(builder);
 
                 if (LLVMVerifyFunction(writeChar, LLVMPrintMessageAction) != 0) {
-                    log.error("Error when validating writeChar function:");
                     LLVMDumpModule(module);
-                    System.exit(1);
+                    throw new InvalidModuleException("Error when validating writeChar function");
                 }
 
                 scope.declareFunction(builtInFunction, writeChar);
@@ -357,9 +385,9 @@ public class LLVMCompiler {
                 LLVMPositionBuilderAtEnd(builder, entry);
 
                 LLVMValueRef filenameStr = LLVMGetParam(open, 0);
-                LLVMValueRef filename = LLVMBuildStructGEP(builder, ref(builder, filenameStr, new ArrayTypeSymbol(CHAR), context), 1, "filename");
+                LLVMValueRef filename = LLVMBuildStructGEP(builder, ref(builder, filenameStr, ArrayTypeSymbol.of(CHAR), context), 1, "filename");
                 LLVMValueRef modeStr = LLVMGetParam(open, 1);
-                LLVMValueRef mode = LLVMBuildStructGEP(builder, ref(builder, modeStr, new ArrayTypeSymbol(CHAR), context), 1, "mode");
+                LLVMValueRef mode = LLVMBuildStructGEP(builder, ref(builder, modeStr, ArrayTypeSymbol.of(CHAR), context), 1, "mode");
 
                 PointerPointer<Pointer> fopenArgs = new PointerPointer<>(2)
                         .put(0, dereference(builder, filename, ""))
@@ -367,9 +395,8 @@ public class LLVMCompiler {
                 LLVMBuildRet(builder, LLVMBuildCall(builder, fopen, fopenArgs, 2, "opencall"));
 
                 if (LLVMVerifyFunction(open, LLVMPrintMessageAction) != 0) {
-                    log.error("Error when validating open function:");
                     LLVMDumpModule(module);
-                    System.exit(1);
+                    throw new InvalidModuleException("Error when validating open function");
                 }
 
                 scope.declareFunction(OPEN, open);
@@ -385,7 +412,7 @@ public class LLVMCompiler {
                 LLVMPositionBuilderAtEnd(builder, entry);
 
                 LLVMValueRef filenameStr = LLVMGetParam(open_r, 0);
-                LLVMValueRef filename = LLVMBuildStructGEP(builder, ref(builder, filenameStr, new ArrayTypeSymbol(CHAR), context), 1, "filename");
+                LLVMValueRef filename = LLVMBuildStructGEP(builder, ref(builder, filenameStr, ArrayTypeSymbol.of(CHAR), context), 1, "filename");
                 LLVMValueRef mode = LLVMBuildGlobalStringPtr(builder, "r", "file_mode_read");
 
                 PointerPointer<Pointer> fopenArgs = new PointerPointer<>(2)
@@ -394,9 +421,8 @@ public class LLVMCompiler {
                 LLVMBuildRet(builder, LLVMBuildCall(builder, fopen, fopenArgs, 2, "opencall"));
 
                 if (LLVMVerifyFunction(open_r, LLVMPrintMessageAction) != 0) {
-                    log.error("Error when validating open function:");
                     LLVMDumpModule(module);
-                    System.exit(1);
+                    throw new InvalidModuleException("Error when validating open_r function");
                 }
 
                 scope.declareFunction(OPEN_R, open_r);
@@ -420,9 +446,8 @@ public class LLVMCompiler {
                 LLVMBuildRet(builder, LLVMBuildICmp(builder, LLVMIntEQ, code, LLVMConstInt(i32Type, 0, 0), ""));
 
                 if (LLVMVerifyFunction(close, LLVMPrintMessageAction) != 0) {
-                    log.error("Error when validating open function:");
                     LLVMDumpModule(module);
-                    System.exit(1);
+                    throw new InvalidModuleException("Error when validating close function");
                 }
 
                 scope.declareFunction(CLOSE, close);
@@ -469,9 +494,8 @@ public class LLVMCompiler {
         LLVMBuildRetVoid(builder);
 
         if (LLVMVerifyFunction(printB, LLVMPrintMessageAction) != 0) {
-            log.error("Error when validating printB function:");
             LLVMDumpModule(module);
-            System.exit(1);
+            throw new InvalidModuleException("Error when validating printB function");
         }
     }
 
@@ -517,9 +541,9 @@ public class LLVMCompiler {
             case IF:
                 return visit((BoundIfExpression) expression, builder, context, function);
             case BLOCK:
-                scope = new Scope(scope);
+                scope.enter();
                 LLVMValueRef res = visit((BoundBlockExpression) expression, builder, context, function);
-                scope = scope.getParentScope();
+                scope.exit();
                 return res;
             case INCREMENT:
                 return visit((BoundIncrementExpression) expression, builder, context, function);
@@ -551,6 +575,8 @@ public class LLVMCompiler {
                 return visit((BoundPositionalAccessExpression) expression, builder, context, function);
             case ARRAY_LENGTH_EXPRESSION:
                 return visit((BoundArrayLengthExpression) expression, builder, context, function);
+            case ARRAY_LENGTH_ASSIGNMENT_EXPRESSION:
+                return visit((BoundArrayLengthAssignmentExpression) expression, builder, context, function);
             case ARRAY_ASSIGNMENT_EXPRESSION:
                 return visit((BoundArrayAssignmentExpression) expression, builder, context, function);
             case ENUM_DECLARATION_EXPRESSION:
@@ -572,26 +598,29 @@ public class LLVMCompiler {
         if (castExpression.getType() == castExpression.getExpression().getType()) {
             return expression;
         }
+        return buildCast(dereference(builder, expression, ""), castExpression.getExpression().getType(), castExpression.getType(), builder, context);
+    }
 
-        if (castExpression.getExpression().getType() == INT) {
-            if (castExpression.getType() == REAL) {
-                return LLVMBuildCast(builder, LLVMSIToFP, dereference(builder, expression, ""), getLlvmTypeRef(REAL, context), "");
+    private LLVMValueRef buildCast(LLVMValueRef value, TypeSymbol from, TypeSymbol to, LLVMBuilderRef builder, LLVMContextRef context) {
+        if (from == INT) {
+            if (to == REAL) {
+                return LLVMBuildCast(builder, LLVMSIToFP, value, getLlvmTypeRef(REAL, context), "");
             }
-            if (castExpression.getType() == CHAR) {
-                return LLVMBuildCast(builder, LLVMTrunc, dereference(builder, expression, ""), getLlvmTypeRef(CHAR, context), "");
+            if (to == CHAR) {
+                return LLVMBuildCast(builder, LLVMTrunc, value, getLlvmTypeRef(CHAR, context), "");
             }
         }
-        if (castExpression.getExpression().getType() == REAL) {
-            if (castExpression.getType() == INT) {
-                return LLVMBuildCast(builder, LLVMFPToSI, dereference(builder, expression, ""), getLlvmTypeRef(INT, context), "");
+        if (from == REAL) {
+            if (to == INT) {
+                return LLVMBuildCast(builder, LLVMFPToSI, value, getLlvmTypeRef(INT, context), "");
             }
         }
-        if (castExpression.getExpression().getType() == CHAR) {
-            if (castExpression.getType() == INT) {
-                return LLVMBuildCast(builder, LLVMSExt, dereference(builder, expression, ""), getLlvmTypeRef(INT, context), "");
+        if (from == CHAR) {
+            if (to == INT) {
+                return LLVMBuildCast(builder, LLVMSExt, value, getLlvmTypeRef(INT, context), "");
             }
         }
-        throw new UnsupportedOperationException("Casts from `" + castExpression.getExpression().getType() + "` to `" + castExpression.getType() + "` are not supported");
+        throw new UnsupportedOperationException("Casts from `" + from + "` to `" + to + "` are not supported");
     }
 
     //Doesn't emit any LLVM
@@ -614,7 +643,9 @@ public class LLVMCompiler {
         int elementCount = arrayLiteralExpression.getElements().size();
 
         LLVMTypeRef sizeInBytes = LLVMArrayType(getLlvmTypeRef(((ArrayTypeSymbol) arrayLiteralExpression.getType()).getType(), context), elementCount);
-        LLVMValueRef compoundliteral = LLVMBuildAlloca(builder, sizeInBytes, ".compoundliteral");
+        LLVMValueRef compoundliteral = escapeAnalysis.isStackAllocated(arrayLiteralExpression)
+                ? buildEntryAlloca(builder, function, sizeInBytes, ".compoundliteral")
+                : LLVMBuildMalloc(builder, sizeInBytes, ".compoundliteral");
 
         List<BoundExpression> elements = arrayLiteralExpression.getElements();
 
@@ -656,14 +687,18 @@ public class LLVMCompiler {
     private LLVMValueRef visit(BoundArrayDeclarationExpression arrayDeclarationExpression, LLVMBuilderRef builder, LLVMContextRef context, LLVMValueRef function) {
 
         TypeSymbol elementType = ((ArrayTypeSymbol) arrayDeclarationExpression.getType()).getType();
+        if (!arrayDeclarationExpression.getElementCount().isConstExpression()) {
+            return visitSizedArrayDeclaration(arrayDeclarationExpression, builder, context, function);
+        }
         int elementCount = (int) arrayDeclarationExpression.getElementCount().getConstValue();
         LLVMTypeRef sizeInBytes = LLVMArrayType(getLlvmTypeRef(elementType, context), elementCount);
-        LLVMValueRef array = LLVMBuildAlloca(builder, sizeInBytes, "array");
+        LLVMValueRef array = escapeAnalysis.isStackAllocated(arrayDeclarationExpression)
+                ? buildEntryAlloca(builder, function, sizeInBytes, "array")
+                : LLVMBuildMalloc(builder, sizeInBytes, "array");
 
         LLVMValueRef ptr = LLVMBuildBitCast(builder, array, LLVMPointerType(getLlvmTypeRef(elementType, context), 0), "");
 
-        //TODO: The i8type only works for Char arrays
-        LLVMBuildMemSet(builder, ptr, LLVMConstInt(i8Type, 0, 0), LLVMConstInt(i32Type, elementCount, 0), 0);
+        LLVMBuildMemSet(builder, ptr, LLVMConstInt(i8Type, 0, 0), LLVMSizeOf(sizeInBytes), 0);
 
         LLVMTypeRef arrayStructType = getLlvmTypeRef(arrayDeclarationExpression.getType(), context);
         LLVMValueRef structPtr = LLVMBuildAlloca(builder, arrayStructType, "tmp.array.struct");
@@ -675,12 +710,39 @@ public class LLVMCompiler {
         return structPtr;
     }
 
+    //Comprehensions only know how many elements they can keep at runtime, so the array is allocated on the heap with that size
+    private LLVMValueRef visitSizedArrayDeclaration(BoundArrayDeclarationExpression arrayDeclarationExpression, LLVMBuilderRef builder, LLVMContextRef context, LLVMValueRef function) {
+
+        LLVMTypeRef elementTypeRef = getLlvmTypeRef(((ArrayTypeSymbol) arrayDeclarationExpression.getType()).getType(), context);
+        LLVMValueRef elementCount = dereference(builder, visit(arrayDeclarationExpression.getElementCount(), builder, context, function), "count");
+
+        LLVMValueRef ptr = LLVMBuildArrayMalloc(builder, elementTypeRef, elementCount, "array");
+        LLVMValueRef sizeInBytes = LLVMBuildMul(builder, LLVMBuildZExt(builder, elementCount, i64Type, ""), LLVMSizeOf(elementTypeRef), "");
+        LLVMBuildMemSet(builder, ptr, LLVMConstInt(i8Type, 0, 0), sizeInBytes, 0);
+
+        LLVMTypeRef arrayStructType = getLlvmTypeRef(arrayDeclarationExpression.getType(), context);
+        LLVMValueRef structPtr = buildEntryAlloca(builder, function, arrayStructType, "tmp.array.struct");
+        LLVMValueRef sizePtr = LLVMBuildStructGEP(builder, structPtr, 0, "size");
+        LLVMBuildStore(builder, elementCount, sizePtr);
+        LLVMValueRef arrPtr = LLVMBuildStructGEP(builder, structPtr, 1, "arr");
+        LLVMBuildStore(builder, ptr, arrPtr);
+
+        return structPtr;
+    }
+
     private LLVMValueRef visit(BoundArrayLengthExpression arrayLengthExpression, LLVMBuilderRef builder, LLVMContextRef context, LLVMValueRef function) {
         LLVMValueRef struct = ref(builder, visit(arrayLengthExpression.getIterable(), builder, context, function), arrayLengthExpression.getIterable().getType(), context);
 
         return LLVMBuildStructGEP(builder, struct, 0, "size");
     }
 
+    private LLVMValueRef visit(BoundArrayLengthAssignmentExpression arrayLengthAssignmentExpression, LLVMBuilderRef builder, LLVMContextRef context, LLVMValueRef function) {
+        LLVMValueRef struct = ref(builder, visit(arrayLengthAssignmentExpression.getIterable(), builder, context, function), arrayLengthAssignmentExpression.getIterable().getType(), context);
+        LLVMValueRef length = dereference(builder, visit(arrayLengthAssignmentExpression.getLength(), builder, context, function), "length");
+
+        return LLVMBuildStore(builder, length, LLVMBuildStructGEP(builder, struct, 0, "size"));
+    }
+
     private LLVMValueRef visit(BoundMemberAccessorExpression memberAccessorExpression, LLVMBuilderRef builder, LLVMContextRef context, LLVMValueRef function) {
 
         if (memberAccessorExpression.getOwner() instanceof BoundTypeExpression) {
@@ -703,8 +765,7 @@ public class LLVMCompiler {
         assert memberAccessorExpression.getMember() instanceof BoundVariableExpression;
         BoundVariableExpression member = (BoundVariableExpression) memberAccessorExpression.getMember();
 
-        List<VariableSymbol> members = new ArrayList<>(memberAccessorExpression.getOwner().getType().getFields().values());
-        int idx = members.indexOf(member.getVariable());
+        int idx = memberAccessorExpression.getOwner().getType().getFieldIndex(member.getVariable().getName());
 
         return LLVMBuildStructGEP(builder, owner, idx, member.getVariable().getName());
     }
@@ -761,8 +822,7 @@ public class LLVMCompiler {
         assert memberAssignmentExpression.getMemberAccessorExpression().getMember() instanceof BoundVariableExpression;
         BoundVariableExpression member = (BoundVariableExpression) memberAssignmentExpression.getMemberAccessorExpression().getMember();
 
-        List<VariableSymbol> members = new ArrayList<>(memberAssignmentExpression.getMemberAccessorExpression().getOwner().getType().getFields().values());
-        int idx = members.indexOf(member.getVariable());
+        int idx = memberAssignmentExpression.getMemberAccessorExpression().getOwner().getType().getFieldIndex(member.getVariable().getName());
 
         LLVMValueRef element = LLVMBuildStructGEP(builder, owner, idx, member.getVariable().getName());
 
@@ -808,7 +868,7 @@ public class LLVMCompiler {
                 LLVMTypeRef llvmTypeRef = getLlvmTypeRef(type, context);
                 llvmTypes.put(i, llvmTypeRef);
             }
-            LLVMValueRef ptr = LLVMBuildAlloca(builder, structTypeRef, "tmp." + structLiteralExpression.getType().getName());
+            LLVMValueRef ptr = buildEntryAlloca(builder, function, structTypeRef, "tmp." + structLiteralExpression.getType().getName());
             LLVMStructSetBody(structTypeRef, llvmTypes, arguments.size(), 0);
 
             Collection<BoundExpression> elements = structLiteralExpression.getElements();
@@ -824,7 +884,7 @@ public class LLVMCompiler {
 
         //Allocate a tmp variable for this... not the best but what we have to do
         LLVMTypeRef type = getLlvmTypeRef(structLiteralExpression.getType(), context);
-        LLVMValueRef ptr = LLVMBuildAlloca(builder, type, "tmp." + structLiteralExpression.getType().getName());
+        LLVMValueRef ptr = buildEntryAlloca(builder, function, type, "tmp." + structLiteralExpression.getType().getName());
 
         Collection<VariableSymbol> members = structLiteralExpression.getType().getFields().values();
         int idx = 0;
@@ -840,7 +900,7 @@ public class LLVMCompiler {
     private LLVMValueRef visit(BoundTupleLiteralExpression tupleLiteralExpression, LLVMBuilderRef builder, LLVMContextRef context, LLVMValueRef function) {
         //Allocate a tmp variable for this... not the best but what we have to do
         LLVMTypeRef type = getLlvmTypeRef(tupleLiteralExpression.getType(), context);
-        LLVMValueRef ptr = LLVMBuildAlloca(builder, type, "tmp." + tupleLiteralExpression.getType().getName());
+        LLVMValueRef ptr = buildEntryAlloca(builder, function, type, "tmp." + tupleLiteralExpression.getType().getName());
 
         Collection<BoundExpression> elements = tupleLiteralExpression.getElements();
         int idx = 0;
@@ -869,12 +929,26 @@ public class LLVMCompiler {
             args.put(i, arg);
         }
 
+        LLVMValueRef func = getOrDeclareFunction(functionSymbol, context);
         if (functionSymbol.getType() == UNIT) {
-            return scope.tryLookupFunction(functionSymbol).map(func -> LLVMBuildCall(builder, func, args, functionCallExpression.getBoundArguments().size(), ""))
-                    .orElseThrow(() -> new IllegalStateException("No such function defined in scope: `" + functionSymbol.getSignature() + "`"));
+            return LLVMBuildCall(builder, func, args, functionCallExpression.getBoundArguments().size(), "");
         }
-        return scope.tryLookupFunction(functionSymbol).map(func -> LLVMBuildCall(builder, func, args, functionCallExpression.getBoundArguments().size(), functionSymbol.getName()))
-                .orElseThrow(() -> new IllegalStateException("No such function defined in scope: `" + functionSymbol.getSignature() + "`"));
+        return LLVMBuildCall(builder, func, args, functionCallExpression.getBoundArguments().size(), functionSymbol.getName());
+    }
+
+    //Functions can be bound in any order so a function may be called before its body has been emitted
+    private LLVMValueRef getOrDeclareFunction(FunctionSymbol functionSymbol, LLVMContextRef context) {
+        Optional<LLVMValueRef> declared = scope.tryLookupFunction(functionSymbol);
+        if (declared.isPresent()) {
+            return declared.get();
+        }
+        LLVMTypeRef functionType = buildFunctionType(functionSymbol.getArguments(), functionSymbol.getType(), context);
+
+        LLVMValueRef func = LLVMAddFunction(module, functionSymbol.getName(), functionType);
+        LLVMSetFunctionCallConv(func, LLVMCCallConv);
+        scope.declareFunction(functionSymbol, func);
+
+        return func;
     }
 
     private LLVMValueRef visit(BoundAssignmentExpression assignmentExpression, LLVMBuilderRef builder, LLVMContextRef context, LLVMValueRef function) {
@@ -954,7 +1028,7 @@ public class LLVMCompiler {
         LLVMBuildBr(builder, cond);
 
         LLVMPositionBuilderAtEnd(builder, cond);
-        LLVMValueRef condition = visit(whileExpression.getCondition(), builder, context, function);
+        LLVMValueRef condition = dereference(builder, visit(whileExpression.getCondition(), builder, context, function), "");
         LLVMBuildCondBr(builder, condition, body, exit);
 
         LLVMPositionBuilderAtEnd(builder, body);
@@ -968,7 +1042,7 @@ public class LLVMCompiler {
 
     private LLVMValueRef visit(BoundCStyleForExpression cStyleForExpression, LLVMBuilderRef builder, LLVMContextRef context, LLVMValueRef function) {
 
-        scope = new Scope(scope);
+        scope.enter();
 
         LLVMBasicBlockRef forCondBlock = LLVMAppendBasicBlockInContext(context, function, "for.cond");
         LLVMBasicBlockRef forBodyBlock = LLVMAppendBasicBlockInContext(context, function, "for.body");
@@ -979,7 +1053,7 @@ public class LLVMCompiler {
         LLVMBuildBr(builder, forCondBlock);
 
         LLVMPositionBuilderAtEnd(builder, forCondBlock);
-        LLVMValueRef condition = visit(cStyleForExpression.getCondition(), builder, context, function);
+        LLVMValueRef condition = dereference(builder, visit(cStyleForExpression.getCondition(), builder, context, function), "");
         LLVMBuildCondBr(builder, condition, forBodyBlock, forExitBlock);
 
         LLVMPositionBuilderAtEnd(builder, forBodyBlock);
@@ -992,7 +1066,7 @@ public class LLVMCompiler {
 
         LLVMPositionBuilderAtEnd(builder, forExitBlock);
 
-        scope = scope.getParentScope();
+        scope.exit();
 
         return body;
     }
@@ -1018,6 +1092,16 @@ public class LLVMCompiler {
             return thenVal;
         }
 
+        LLVMTypeRef type = ifExpression.getType() == UNIT ? null : getLlvmTypeRef(ifExpression.getType(), context);
+        if (type != null && isSelectable(ifExpression.getBody()) && isSelectable(ifExpression.getElseBody())) {
+            LLVMValueRef condition = dereference(builder, visit(ifExpression.getCondition(), builder, context, function), "");
+            LLVMValueRef thenVal = branchValue(builder, visit(ifExpression.getBody(), builder, context, function), type);
+            LLVMValueRef elseVal = branchValue(builder, visit(ifExpression.getElseBody(), builder, context, function), type);
+            if (thenVal != null && elseVal != null) {
+                return LLVMBuildSelect(builder, condition, thenVal, elseVal, "cond");
+            }
+        }
+
         LLVMBasicBlockRef thenBlock = LLVMAppendBasicBlockInContext(context, function, "cond.true");
         LLVMBasicBlockRef elseBlock = LLVMAppendBasicBlockInContext(context, function, "cond.false");
         LLVMBasicBlockRef endBlock = LLVMAppendBasicBlockInContext(context, function, "cond.end");
@@ -1026,30 +1110,36 @@ public class LLVMCompiler {
         condition = dereference(builder, condition, "");
         LLVMBuildCondBr(builder, condition, thenBlock, elseBlock);
 
+        //Each branch loads its value before leaving its block, as the phi can only take values that are ready on the way in
         LLVMPositionBuilderAtEnd(builder, thenBlock);
         LLVMValueRef thenVal = visit(ifExpression.getBody(), builder, context, function);
         thenBlock = LLVMGetInsertBlock(builder);
-
         boolean thenTerminated = LLVMGetBasicBlockTerminator(thenBlock) != null;
         if (!thenTerminated) {
+            thenVal = branchValue(builder, thenVal, type);
             LLVMBuildBr(builder, endBlock);
         }
 
         LLVMPositionBuilderAtEnd(builder, elseBlock);
         LLVMValueRef elseVal = visit(ifExpression.getElseBody(), builder, context, function);
         elseBlock = LLVMGetInsertBlock(builder);
+        boolean elseTerminated = LLVMGetBasicBlockTerminator(elseBlock) != null;
+        if (!elseTerminated) {
+            elseVal = branchValue(builder, elseVal, type);
+            LLVMBuildBr(builder, endBlock);
+        }
 
-        LLVMBuildBr(builder, endBlock);
         LLVMPositionBuilderAtEnd(builder, endBlock);
 
-        if (thenVal == null || elseVal == null) {
-            return null;
+        //A branch that returns never reaches the end, so the value comes from the other one alone
+        if (thenTerminated || elseTerminated) {
+            return thenTerminated ? (elseTerminated ? null : elseVal) : thenVal;
         }
-        if (LLVMGetTypeKind(LLVMTypeOf(thenVal)) != LLVMGetTypeKind(LLVMTypeOf(elseVal))) {
+        if (thenVal == null || elseVal == null) {
             return null;
         }
 
-        LLVMValueRef phi = LLVMBuildPhi(builder, getLlvmTypeRef(ifExpression.getType(), context), "");
+        LLVMValueRef phi = LLVMBuildPhi(builder, type, "");
         PointerPointer<Pointer> phiValues = new PointerPointer<>(2)
                 .put(0, thenVal)
                 .put(1, elseVal);
@@ -1060,12 +1150,31 @@ public class LLVMCompiler {
         return phi;
     }
 
+    //Literals and variables are cheap and can't fail, so both can be evaluated and one picked without branching
+    private static boolean isSelectable(BoundExpression branch) {
+        if (!(branch instanceof BoundLiteralExpression) && !(branch instanceof BoundVariableExpression)) {
+            return false;
+        }
+        TypeSymbol type = branch.getType();
+        return type == INT || type == REAL || type == BOOL || type == CHAR;
+    }
+
+    private LLVMValueRef branchValue(LLVMBuilderRef builder, LLVMValueRef value, LLVMTypeRef type) {
+        if (value == null || type == null) {
+            return null;
+        }
+        if (!LLVMTypeOf(value).equals(type)) {
+            value = dereference(builder, value, "");
+        }
+        return LLVMTypeOf(value).equals(type) ? value : null;
+    }
+
     private LLVMValueRef visit(BoundVariableDeclarationExpression variableDeclarationExpression, LLVMBuilderRef builder, LLVMContextRef context, LLVMValueRef function) {
 
 
         LLVMTypeRef type = getLlvmTypeRef(variableDeclarationExpression.getType(), context);
 
-        LLVMValueRef ptr = LLVMBuildAlloca(builder, type, variableDeclarationExpression.getVariable().getName());
+        LLVMValueRef ptr = buildEntryAlloca(builder, function, type, variableDeclarationExpression.getVariable().getName());
         scope.declarePointer(variableDeclarationExpression.getVariable(), ptr);
 
         if (variableDeclarationExpression.getInitialiser() == null) {
@@ -1224,6 +1333,11 @@ public class LLVMCompiler {
 
     private LLVMValueRef visit(BoundBinaryExpression binaryExpression, LLVMBuilderRef builder, LLVMContextRef context, LLVMValueRef function) {
 
+        BoundBinaryOperator.BoundBinaryOperation operation = binaryExpression.getOperator().getBoundOpType();
+        if ((operation == BoundBinaryOperator.BoundBinaryOperation.BOOLEAN_AND || operation == BoundBinaryOperator.BoundBinaryOperation.BOOLEAN_OR) && function != null) {
+            return visitShortCircuit(binaryExpression, builder, context, function);
+        }
+
         LLVMValueRef lhs = visit(binaryExpression.getLeft(), builder, context, function);
         LLVMValueRef rhs = visit(binaryExpression.getRight(), builder, context, function);
 
@@ -1247,20 +1361,7 @@ public class LLVMCompiler {
             return visitRealBinop(builder, lhs, binaryExpression.getOperator().getBoundOpType(), rhs);
         }
         if (binaryExpression.getLeft().getType() == BOOL && binaryExpression.getRight().getType() == BOOL) {
-            switch (binaryExpression.getOperator().getBoundOpType()) {
-                case EQUALS:
-                    return LLVMBuildICmp(builder, LLVMIntEQ, lhs, rhs, "");
-                case NOT_EQUALS:
-                    return LLVMBuildICmp(builder, LLVMIntNE, lhs, rhs, "");
-                case BOOLEAN_OR:
-                    return LLVMBuildOr(builder, lhs, rhs, "ortmp");
-                case BOOLEAN_AND:
-                    return LLVMBuildAnd(builder, lhs, rhs, "andtmp");
-                case BOOLEAN_XOR:
-                    return LLVMBuildXor(builder, lhs, rhs, "xortmp");
-                default:
-                    throw new UnsupportedOperationException("Compilation for binary operation `" + binaryExpression.getOperator().getBoundOpType() + "` is not yet supported for LLVM");
-            }
+            return visitBoolBinop(builder, lhs, binaryExpression.getOperator().getBoundOpType(), rhs);
         }
         if (binaryExpression.getLeft().getType() == STRING && binaryExpression.getRight().getType() == STRING) {
             switch (binaryExpression.getOperator().getBoundOpType()) {
@@ -1275,6 +1376,54 @@ public class LLVMCompiler {
         throw new UnsupportedOperationException("Compilation for binary operation `" + binaryExpression.getOperator().getBoundOpType() + "` is not yet supported for LLVM for types `" + binaryExpression.getLeft().getType() + "` and `" + binaryExpression.getRight().getType() + "`");
     }
 
+    //The right operand is only evaluated when the left one doesn't already decide the result
+    private LLVMValueRef visitShortCircuit(BoundBinaryExpression binaryExpression, LLVMBuilderRef builder, LLVMContextRef context, LLVMValueRef function) {
+        boolean and = binaryExpression.getOperator().getBoundOpType() == BoundBinaryOperator.BoundBinaryOperation.BOOLEAN_AND;
+
+        LLVMValueRef lhs = dereference(builder, visit(binaryExpression.getLeft(), builder, context, function), "lhs");
+        LLVMBasicBlockRef lhsBlock = LLVMGetInsertBlock(builder);
+        LLVMBasicBlockRef rhsBlock = LLVMAppendBasicBlockInContext(context, function, and ? "and.rhs" : "or.rhs");
+        LLVMBasicBlockRef endBlock = LLVMAppendBasicBlockInContext(context, function, and ? "and.end" : "or.end");
+        if (and) {
+            LLVMBuildCondBr(builder, lhs, rhsBlock, endBlock);
+        } else {
+            LLVMBuildCondBr(builder, lhs, endBlock, rhsBlock);
+        }
+
+        LLVMPositionBuilderAtEnd(builder, rhsBlock);
+        LLVMValueRef rhs = dereference(builder, visit(binaryExpression.getRight(), builder, context, function), "rhs");
+        rhsBlock = LLVMGetInsertBlock(builder);
+        LLVMBuildBr(builder, endBlock);
+
+        LLVMPositionBuilderAtEnd(builder, endBlock);
+        LLVMValueRef phi = LLVMBuildPhi(builder, i1Type, and ? "andtmp" : "ortmp");
+        PointerPointer<Pointer> phiValues = new PointerPointer<>(2)
+                .put(0, LLVMConstInt(i1Type, and ? 0 : 1, 0))
+                .put(1, rhs);
+        PointerPointer<Pointer> phiBlocks = new PointerPointer<>(2)
+                .put(0, lhsBlock)
+                .put(1, rhsBlock);
+        LLVMAddIncoming(phi, phiValues, phiBlocks, 2);
+        return phi;
+    }
+
+    private LLVMValueRef visitBoolBinop(LLVMBuilderRef builder, LLVMValueRef lhs, BoundBinaryOperator.BoundBinaryOperation op, LLVMValueRef rhs) {
+        switch (op) {
+            case EQUALS:
+                return LLVMBuildICmp(builder, LLVMIntEQ, lhs, rhs, "");
+            case NOT_EQUALS:
+                return LLVMBuildICmp(builder, LLVMIntNE, lhs, rhs, "");
+            case BOOLEAN_OR:
+                return LLVMBuildOr(builder, lhs, rhs, "ortmp");
+            case BOOLEAN_AND:
+                return LLVMBuildAnd(builder, lhs, rhs, "andtmp");
+            case BOOLEAN_XOR:
+                return LLVMBuildXor(builder, lhs, rhs, "xortmp");
+            default:
+                throw new UnsupportedOperationException("Compilation for binary operation `" + op + "` is not yet supported for LLVM");
+        }
+    }
+
     private LLVMValueRef visitRealBinop(LLVMBuilderRef builder, LLVMValueRef lhs, BoundBinaryOperator.BoundBinaryOperation op, LLVMValueRef rhs) {
         lhs = dereference(builder, lhs, "lhs");
         rhs = dereference(builder, rhs, "rhs");
@@ -1339,17 +1488,9 @@ public class LLVMCompiler {
 
     private LLVMValueRef visit(BoundLiteralExpression literalExpression, LLVMBuilderRef builder, LLVMContextRef context, LLVMValueRef function) {
 
-        if (literalExpression.getType() == BOOL) {
-            return LLVMConstInt(i1Type, (boolean) literalExpression.getValue() ? 1 : 0, 0);
-        }
-        if (literalExpression.getType() == CHAR) {
-            return LLVMConstInt(i8Type, (char) literalExpression.getValue(), 0);
-        }
-        if (literalExpression.getType() == INT) {
-            return LLVMConstInt(i32Type, (int) literalExpression.getValue(), 0);
-        }
-        if (literalExpression.getType() == REAL) {
-            return LLVMConstReal(realType, (double) literalExpression.getValue());
+        if (literalExpression.getType() == BOOL || literalExpression.getType() == CHAR
+                || literalExpression.getType() == INT || literalExpression.getType() == REAL) {
+            return buildConstant(literalExpression.getValue(), literalExpression.getType());
         }
         if (literalExpression.getType() == STRING) {
             return buildString(literalExpression, builder, context);
@@ -1360,6 +1501,22 @@ public class LLVMCompiler {
         throw new UnsupportedOperationException("Literals of type `" + literalExpression.getType() + "` are not yet supported in LLVM");
     }
 
+    private LLVMValueRef buildConstant(Object value, TypeSymbol type) {
+        if (type == BOOL) {
+            return LLVMConstInt(i1Type, (boolean) value ? 1 : 0, 0);
+        }
+        if (type == CHAR) {
+            return LLVMConstInt(i8Type, (char) value, 0);
+        }
+        if (type == INT) {
+            return LLVMConstInt(i32Type, (int) value, 0);
+        }
+        if (type == REAL) {
+            return LLVMConstReal(realType, (double) value);
+        }
+        throw new UnsupportedOperationException("Constants of type `" + type + "` are not yet supported in LLVM");
+    }
+
     private LLVMValueRef buildUnit(LLVMBuilderRef builder, LLVMContextRef context) {
         LLVMTypeRef unitStructType = LLVMStructTypeInContext(context, new PointerPointer<>(0), 0, 1);
         LLVMValueRef unitStructPtr = LLVMBuildAlloca(builder, unitStructType, "");
@@ -1384,18 +1541,8 @@ public class LLVMCompiler {
 
     private LLVMValueRef visit(BoundPrintExpression printExpression, LLVMBuilderRef builder, LLVMContextRef context, LLVMValueRef function) {
 
-        if (formatStr == null) {
-            formatStr = LLVMBuildGlobalStringPtr(builder, "%d\n", "formatStr");
-        }
-
         if (printExpression.getExpression() instanceof BoundLiteralExpression && printExpression.getExpression().getType() == STRING) {
-            String literal = (String) ((BoundLiteralExpression) printExpression.getExpression()).getValue();
-            LLVMValueRef val = LLVMBuildGlobalString(builder, literal, "");
-            //LLVMValueRef string = dereference(builder, LLVMBuildStructGEP(builder, val, 1, "string"), "");
-            PointerPointer<Pointer> printArgs = new PointerPointer<>(2)
-                    .put(0, LLVMBuildGlobalStringPtr(builder, "%s", "str"))
-                    .put(1, val);
-            LLVMBuildCall(builder, printf, printArgs, 2, "printcall");
+            buildPrint((String) ((BoundLiteralExpression) printExpression.getExpression()).getValue(), builder);
             return null;
         }
 
@@ -1404,32 +1551,52 @@ public class LLVMCompiler {
             res = LLVMBuildLoad(builder, res, "print");
         }
 
-        PointerPointer<Pointer> printArgs;
         if (printExpression.getExpression().getType() == STRING) {
             res = ref(builder, res, STRING, context);
             //TODO: The actual length of the string is stored in there somewhere, use it
             LLVMValueRef size = dereference(builder, LLVMBuildStructGEP(builder, res, 0, "size"), "");
             LLVMValueRef string = dereference(builder, LLVMBuildStructGEP(builder, res, 1, "string"), "");
-            printArgs = new PointerPointer<>(3)
+            PointerPointer<Pointer> printArgs = new PointerPointer<>(3)
                     .put(0, LLVMBuildGlobalStringPtr(builder, "%.*s", "str"))
                     .put(1, size)
                     .put(2, string);
             LLVMBuildCall(builder, printf, printArgs, 3, "printcall");
             return null;
-        } else if (printExpression.getExpression().getType() == CHAR) {
+        }
+        buildPrint(res, printExpression.getExpression().getType(), builder);
+        return null;
+    }
+
+    private void buildPrint(String literal, LLVMBuilderRef builder) {
+        LLVMValueRef val = LLVMBuildGlobalString(builder, literal, "");
+        //LLVMValueRef string = dereference(builder, LLVMBuildStructGEP(builder, val, 1, "string"), "");
+        PointerPointer<Pointer> printArgs = new PointerPointer<>(2)
+                .put(0, LLVMBuildGlobalStringPtr(builder, "%s", "str"))
+                .put(1, val);
+        LLVMBuildCall(builder, printf, printArgs, 2, "printcall");
+    }
+
+    private void buildPrint(LLVMValueRef res, TypeSymbol type, LLVMBuilderRef builder) {
+
+        if (formatStr == null) {
+            formatStr = LLVMBuildGlobalStringPtr(builder, "%d\n", "formatStr");
+        }
+
+        PointerPointer<Pointer> printArgs;
+        if (type == CHAR) {
             printArgs = new PointerPointer<>(2)
                     .put(0, LLVMBuildGlobalStringPtr(builder, "%c", "real"))
                     .put(1, res);
-        } else if (printExpression.getExpression().getType() == REAL) {
+        } else if (type == REAL) {
             printArgs = new PointerPointer<>(2)
                     .put(0, LLVMBuildGlobalStringPtr(builder, "%f\n", "real"))
                     .put(1, res);
-        } else if (printExpression.getExpression().getType() == BOOL) {
+        } else if (type == BOOL) {
             printArgs = new PointerPointer<>(1)
                     .put(0, res);
             LLVMBuildCall(builder, printB, printArgs, 1, "");
-            return null;
-        } else if (printExpression.getExpression().getType() instanceof EnumTypeSymbol) {
+            return;
+        } else if (type instanceof EnumTypeSymbol) {
             printArgs = new PointerPointer<>(1)
                     .put(0, LLVMBuildGlobalStringPtr(builder, "%d\n", "str")) //TODO: Need to associate the name with the ordinal. A struct? struct Color { int ord; char* name; }?
                     .put(1, res);
@@ -1440,7 +1607,6 @@ public class LLVMCompiler {
         }
 
         LLVMBuildCall(builder, printf, printArgs, 2, "printcall");
-        return null;
     }
 
     private void visitMainMethod(BoundFunctionDeclarationExpression mainMethodDeclaration, LLVMBuilderRef builder, LLVMContextRef context, LLVMValueRef function) {
@@ -1484,10 +1650,12 @@ public class LLVMCompiler {
         returnBlocks.push(returnBlock);
 
         //Visit body
+        functionSymbols.push(functionSymbol);
         for (BoundExpression expression : functionDeclarationExpression.getBody().getExpressions()) {
 
             visit(expression, builder, context, function);
         }
+        functionSymbols.pop();
 
         //Build return value
         TypeSymbol returnType = functionSymbol.getType();
@@ -1500,6 +1668,11 @@ public class LLVMCompiler {
             LLVMPositionBuilderAtEnd(builder, returnBlocks.pop());
             return LLVMBuildRet(builder, buildUnit(builder, context));
         }
+        //Every path has returned by now, but a loop that is only left by returning still has an exit block
+        LLVMBasicBlockRef block = LLVMGetInsertBlock(builder);
+        if (LLVMGetBasicBlockTerminator(block) == null) {
+            LLVMBuildUnreachable(builder);
+        }
         LLVMPositionBuilderAtEnd(builder, returnBlocks.pop());
         return LLVMBuildRet(builder, LLVMBuildLoad(builder, returnStack.pop(), functionSymbol.getName() + "-retval"));
     }
@@ -1507,6 +1680,9 @@ public class LLVMCompiler {
     private LLVMValueRef visit(BoundReturnExpression returnExpression, LLVMBuilderRef builder, LLVMContextRef context, LLVMValueRef function) {
 
         LLVMValueRef retVal = visit(returnExpression.getReturnValue(), builder, context, function);
+        if (returnExpression.getReturnValue() instanceof BoundFunctionCallExpression && isTailCallSafe((BoundFunctionCallExpression) returnExpression.getReturnValue())) {
+            LLVMSetTailCall(retVal, 1);
+        }
         LLVMBasicBlockRef lastBlock = LLVMGetInsertBlock(builder);
 
         retVal = dereference(builder, retVal, "retVal");
@@ -1518,6 +1694,168 @@ public class LLVMCompiler {
         return LLVMBuildBr(builder, returnBlocks.peek());
     }
 
+    //A tail call may reuse the caller's frame, so it can't be passed anything that points into it
+    private boolean isTailCallSafe(BoundFunctionCallExpression functionCallExpression) {
+        List<BoundFunctionParameterExpression> parameters = functionCallExpression.getFunction().getArguments();
+        List<BoundExpression> arguments = functionCallExpression.getBoundArguments();
+        for (int i = 0; i < parameters.size(); i++) {
+            TypeSymbol type = parameters.get(i).getType();
+            if (parameters.get(i).isReference()) {
+                return false;
+            }
+            //Arrays are passed as their length and a pointer to their elements, which may be on the caller's stack
+            if (type != INT && type != REAL && type != BOOL && type != CHAR
+                    && (functionSymbols.isEmpty() || escapeAnalysis.mayHoldStackAllocation(functionSymbols.peek(), arguments.get(i)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Emits a function from its SSA form. Every IR value is a single LLVM register, so unlike the bound tree
+     * nothing has to be kept in an alloca and loaded back each time it's used
+     */
+    private void visit(IRFunction irFunction, LLVMBuilderRef builder, LLVMContextRef context, LLVMValueRef function) {
+        Map<IRValue, LLVMValueRef> values = new HashMap<>();
+        Map<IRBlock, LLVMBasicBlockRef> blocks = new HashMap<>();
+
+        List<IRBlock> irBlocks = irFunction.getBlocks();
+        blocks.put(irBlocks.get(0), LLVMGetInsertBlock(builder));
+        for (IRBlock block : irBlocks.subList(1, irBlocks.size())) {
+            blocks.put(block, LLVMAppendBasicBlockInContext(context, function, block.getName()));
+        }
+        for (IRParameter parameter : irFunction.getParameters()) {
+            values.put(parameter, LLVMGetParam(function, parameter.getIndex()));
+        }
+
+        for (IRBlock block : irBlocks) {
+            LLVMPositionBuilderAtEnd(builder, blocks.get(block));
+            for (IRInstruction phi : block.getPhis()) {
+                values.put(phi, LLVMBuildPhi(builder, getLlvmTypeRef(phi.getType(), context), ""));
+            }
+            IRInstruction previous = null;
+            for (IRInstruction instruction : block.getInstructions()) {
+                values.put(instruction, visit(instruction, irFunction, values, blocks, builder, context));
+                //Nothing in an SSA function lives in its frame, so a call whose result is returned straight away is a tail call
+                if (instruction.getOpcode() == IROpcode.RETURN && previous != null && previous.getOpcode() == IROpcode.CALL
+                        && (instruction.getOperands().isEmpty() || instruction.getOperand(0) == previous)) {
+                    LLVMSetTailCall(values.get(previous), 1);
+                }
+                previous = instruction;
+            }
+        }
+
+        //A phi can merge values from blocks that come after it, so incoming values are only added once every block is emitted
+        for (IRBlock block : irBlocks) {
+            int count = block.getPredecessors().size();
+            for (IRInstruction phi : block.getPhis()) {
+                PointerPointer<Pointer> phiValues = new PointerPointer<>(count);
+                PointerPointer<Pointer> phiBlocks = new PointerPointer<>(count);
+                for (int i = 0; i < count; i++) {
+                    phiValues.put(i, valueOf(phi.getOperand(i), values));
+                    phiBlocks.put(i, blocks.get(block.getPredecessors().get(i)));
+                }
+                LLVMAddIncoming(values.get(phi), phiValues, phiBlocks, count);
+            }
+        }
+    }
+
+    private LLVMValueRef visit(IRInstruction instruction, IRFunction irFunction, Map<IRValue, LLVMValueRef> values, Map<IRBlock, LLVMBasicBlockRef> blocks, LLVMBuilderRef builder, LLVMContextRef context) {
+        switch (instruction.getOpcode()) {
+            case BINARY:
+                LLVMValueRef lhs = valueOf(instruction.getOperand(0), values);
+                LLVMValueRef rhs = valueOf(instruction.getOperand(1), values);
+                TypeSymbol operandType = instruction.getOperand(0).getType();
+                if (operandType == REAL) {
+                    return visitRealBinop(builder, lhs, instruction.getBinaryOperation(), rhs);
+                }
+                if (operandType == BOOL) {
+                    return visitBoolBinop(builder, lhs, instruction.getBinaryOperation(), rhs);
+                }
+                return visitIntBinop(builder, lhs, instruction.getBinaryOperation(), rhs);
+            case UNARY:
+                LLVMValueRef operand = valueOf(instruction.getOperand(0), values);
+                if (instruction.getUnaryOperation() == BoundUnaryOperator.BoundUnaryOperation.NOT) {
+                    return LLVMBuildNot(builder, operand, "");
+                }
+                if (instruction.getType() == REAL) {
+                    return LLVMBuildFSub(builder, LLVMConstReal(realType, 0.0), operand, "");
+                }
+                return LLVMBuildSub(builder, LLVMConstInt(i32Type, 0, 1), operand, "");
+            case CAST:
+                return buildCast(valueOf(instruction.getOperand(0), values), instruction.getOperand(0).getType(), instruction.getType(), builder, context);
+            case SELECT:
+                return LLVMBuildSelect(builder, valueOf(instruction.getOperand(0), values), valueOf(instruction.getOperand(1), values), valueOf(instruction.getOperand(2), values), "");
+            case CALL:
+                List<IRValue> arguments = instruction.getOperands();
+                PointerPointer<Pointer> args = new PointerPointer<>(arguments.size());
+                for (int i = 0; i < arguments.size(); i++) {
+                    args.put(i, valueOf(arguments.get(i), values));
+                }
+                FunctionSymbol functionSymbol = instruction.getFunction();
+                LLVMValueRef func = getOrDeclareFunction(functionSymbol, context);
+                return LLVMBuildCall(builder, func, args, arguments.size(), functionSymbol.getType() == UNIT ? "" : functionSymbol.getName());
+            case PRINT:
+                IRValue printed = instruction.getOperand(0);
+                if (printed.getType() == STRING) {
+                    buildPrint((String) ((IRConstant) printed).getValue(), builder);
+                } else {
+                    buildPrint(valueOf(printed, values), printed.getType(), builder);
+                }
+                return null;
+            case LOAD:
+                return LLVMBuildLoad(builder, valueOf(instruction.getOperand(0), values), "");
+            case STORE:
+                return LLVMBuildStore(builder, valueOf(instruction.getOperand(1), values), valueOf(instruction.getOperand(0), values));
+            case BRANCH:
+                return LLVMBuildBr(builder, blocks.get(instruction.getSuccessors().get(0)));
+            case CONDITIONAL_BRANCH:
+                return LLVMBuildCondBr(builder, valueOf(instruction.getOperand(0), values),
+                        blocks.get(instruction.getSuccessors().get(0)), blocks.get(instruction.getSuccessors().get(1)));
+            case RETURN:
+                if (!instruction.getOperands().isEmpty()) {
+                    return LLVMBuildRet(builder, valueOf(instruction.getOperand(0), values));
+                }
+                //main is declared to return an exit code rather than Unit
+                if (irFunction.getFunctionSymbol().getName().equals("main")) {
+                    return LLVMBuildRet(builder, LLVMConstInt(i32Type, 0, 0));
+                }
+                return LLVMBuildRet(builder, buildUnit(builder, context));
+            case UNREACHABLE:
+                return LLVMBuildUnreachable(builder);
+            default:
+                throw new UnsupportedOperationException("Compilation for `" + instruction.getOpcode() + "` is not yet implemented in LLVM");
+        }
+    }
+
+    private LLVMValueRef valueOf(IRValue value, Map<IRValue, LLVMValueRef> values) {
+        if (value instanceof IRConstant) {
+            return buildConstant(((IRConstant) value).getValue(), value.getType());
+        }
+        return values.get(value);
+    }
+
+    //Allocas in a loop body grow the stack on every iteration, so they all go at the start of the function
+    private LLVMValueRef buildEntryAlloca(LLVMBuilderRef builder, LLVMValueRef function, LLVMTypeRef type, String name) {
+        if (function == null) {
+            return LLVMBuildAlloca(builder, type, name);
+        }
+        LLVMBasicBlockRef entry = LLVMGetEntryBasicBlock(function);
+        LLVMValueRef firstInstruction = LLVMGetFirstInstruction(entry);
+
+        LLVMBuilderRef entryBuilder = LLVMCreateBuilderInContext(LLVMGetTypeContext(type));
+        if (firstInstruction == null) {
+            LLVMPositionBuilderAtEnd(entryBuilder, entry);
+        } else {
+            LLVMPositionBuilderBefore(entryBuilder, firstInstruction);
+        }
+        LLVMValueRef ptr = LLVMBuildAlloca(entryBuilder, type, name);
+        LLVMDisposeBuilder(entryBuilder);
+
+        return ptr;
+    }
+
     private LLVMValueRef dereference(LLVMBuilderRef builder, LLVMValueRef value, String name) {
         if (LLVMGetTypeKind(LLVMTypeOf(value)) == LLVMPointerTypeKind) {
             value = LLVMBuildLoad(builder, value, name);
@@ -1536,4 +1874,5 @@ public class LLVMCompiler {
 
     private static Stack<LLVMValueRef> returnStack = new Stack<>();
     private static Stack<LLVMBasicBlockRef> returnBlocks = new Stack<>();
+    private final Stack<FunctionSymbol> functionSymbols = new Stack<>();
 }
@@ -0,0 +1,267 @@
+package com.skennedy.rasna.compilation.llvm;
+
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.llvm.LLVM.LLVMBasicBlockRef;
+import org.bytedeco.llvm.LLVM.LLVMModuleRef;
+import org.bytedeco.llvm.LLVM.LLVMValueRef;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.bytedeco.llvm.global.LLVM.LLVMAddFunction;
+import static org.bytedeco.llvm.global.LLVM.LLVMBasicBlockAsValue;
+import static org.bytedeco.llvm.global.LLVM.LLVMCloneModule;
+import static org.bytedeco.llvm.global.LLVM.LLVMCountParams;
+import static org.bytedeco.llvm.global.LLVM.LLVMDeleteFunction;
+import static org.bytedeco.llvm.global.LLVM.LLVMDeleteGlobal;
+import static org.bytedeco.llvm.global.LLVM.LLVMDisposeMessage;
+import static org.bytedeco.llvm.global.LLVM.LLVMDisposeModule;
+import static org.bytedeco.llvm.global.LLVM.LLVMExternalLinkage;
+import static org.bytedeco.llvm.global.LLVM.LLVMGetFirstBasicBlock;
+import static org.bytedeco.llvm.global.LLVM.LLVMGetFirstFunction;
+import static org.bytedeco.llvm.global.LLVM.LLVMGetFirstGlobal;
+import static org.bytedeco.llvm.global.LLVM.LLVMGetFirstInstruction;
+import static org.bytedeco.llvm.global.LLVM.LLVMGetFirstUse;
+import static org.bytedeco.llvm.global.LLVM.LLVMGetLinkage;
+import static org.bytedeco.llvm.global.LLVM.LLVMGetNamedFunction;
+import static org.bytedeco.llvm.global.LLVM.LLVMGetNextBasicBlock;
+import static org.bytedeco.llvm.global.LLVM.LLVMGetNextFunction;
+import static org.bytedeco.llvm.global.LLVM.LLVMGetNextGlobal;
+import static org.bytedeco.llvm.global.LLVM.LLVMGetNextInstruction;
+import static org.bytedeco.llvm.global.LLVM.LLVMGetParam;
+import static org.bytedeco.llvm.global.LLVM.LLVMGetValueName;
+import static org.bytedeco.llvm.global.LLVM.LLVMGlobalGetValueType;
+import static org.bytedeco.llvm.global.LLVM.LLVMInternalLinkage;
+import static org.bytedeco.llvm.global.LLVM.LLVMIsDeclaration;
+import static org.bytedeco.llvm.global.LLVM.LLVMPrintModuleToString;
+import static org.bytedeco.llvm.global.LLVM.LLVMPrivateLinkage;
+import static org.bytedeco.llvm.global.LLVM.LLVMReplaceAllUsesWith;
+import static org.bytedeco.llvm.global.LLVM.LLVMSetInitializer;
+import static org.bytedeco.llvm.global.LLVM.LLVMSetLinkage;
+import static org.bytedeco.llvm.global.LLVM.LLVMSetValueName2;
+
+/**
+ * Compiles a module to one object file per function, reusing objects from previous compilations.
+ * <p>
+ * Each function is split out into its own module by cloning the whole module, turning every other function into a
+ * declaration and then deleting whatever is left unused. What remains is the function, the globals it references and
+ * declarations of the functions it calls. Local names are cleared so the printed module, and with it the function's
+ * fingerprint, only changes when its own code or the signature of something it uses changes.
+ * <p>
+ * Globals that are visible to other modules are defined once in a module of their own and declared everywhere else.
+ */
+final class ObjectCache {
+
+    private static final Logger log = LogManager.getLogger(ObjectCache.class);
+
+    //Bump this whenever the way objects are built changes
+    private static final String CACHE_VERSION = "2";
+
+    private final Path cacheDirectory;
+
+    ObjectCache(Path cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * @return the object files for every function defined in the module, in module order
+     */
+    List<Path> compile(LLVMModuleRef module) throws IOException {
+        Files.createDirectories(cacheDirectory);
+
+        List<String> functions = new ArrayList<>();
+        for (LLVMValueRef function = LLVMGetFirstFunction(module); function != null; function = LLVMGetNextFunction(function)) {
+            if (LLVMIsDeclaration(function) == 0) {
+                functions.add(name(function));
+            }
+        }
+
+        List<Path> objects = new ArrayList<>();
+        List<Path> sources = new ArrayList<>();
+        for (String function : functions) {
+            addObject(extractFunction(module, function), objects, sources);
+        }
+        if (hasExportedGlobals(module)) {
+            addObject(extractGlobals(module), objects, sources);
+        }
+        //A single clang invocation compiles every source to its own object, named after the source, in the cache directory
+        if (!sources.isEmpty()) {
+            List<String> command = new ArrayList<>(List.of(LLVMCompiler.CLANG, "-c"));
+            sources.forEach(source -> command.add(source.getFileName().toString()));
+            try {
+                run(cacheDirectory, command);
+            } finally {
+                for (Path source : sources) {
+                    Files.deleteIfExists(source);
+                }
+            }
+        }
+        log.debug("Compiled {} of {} objects, the rest were cached", sources.size(), objects.size());
+
+        return objects;
+    }
+
+    static void run(Path directory, List<String> command) throws IOException {
+        //Merging stderr into stdout means a chatty compiler can't fill one pipe while we block on the other
+        Process process = new ProcessBuilder(command)
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .start();
+
+        String output;
+        try (InputStream inputStream = process.getInputStream()) {
+            output = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        int exitCode;
+        try {
+            exitCode = process.waitFor();
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for `" + String.join(" ", command) + "`", e);
+        }
+        if (exitCode != 0) {
+            throw new IOException("`" + String.join(" ", command) + "` exited with " + exitCode + StringUtils.LF + output);
+        }
+        if (!output.isEmpty()) {
+            log.debug(output); //clang likes to put warnings in stderr
+        }
+    }
+
+    private void addObject(LLVMModuleRef splitModule, List<Path> objects, List<Path> sources) throws IOException {
+        BytePointer ir = LLVMPrintModuleToString(splitModule);
+        String splitIr = ir.getString();
+        LLVMDisposeMessage(ir);
+        LLVMDisposeModule(splitModule);
+
+        String fingerprint = Hashing.sha256()
+                .hashString(CACHE_VERSION + splitIr, StandardCharsets.UTF_8)
+                .toString();
+
+        Path object = cacheDirectory.resolve(fingerprint + ".o");
+        if (!Files.exists(object)) {
+            Path source = cacheDirectory.resolve(fingerprint + ".ll");
+            Files.writeString(source, splitIr);
+            sources.add(source);
+        }
+        objects.add(object);
+    }
+
+    private static LLVMModuleRef extractFunction(LLVMModuleRef module, String functionName) {
+        LLVMModuleRef clone = LLVMCloneModule(module);
+
+        //Every other definition is just a declaration as far as a single function is concerned
+        for (LLVMValueRef function : definedFunctions(clone)) {
+            if (!name(function).equals(functionName)) {
+                declareInstead(clone, function);
+            }
+        }
+        LLVMValueRef function = LLVMGetNamedFunction(clone, functionName);
+        removeUnused(clone, function, false);
+        for (LLVMValueRef global = LLVMGetFirstGlobal(clone); global != null; global = LLVMGetNextGlobal(global)) {
+            if (isExported(global)) {
+                LLVMSetInitializer(global, null);
+                LLVMSetLinkage(global, LLVMExternalLinkage);
+            }
+        }
+        clearLocalNames(function);
+
+        return clone;
+    }
+
+    private static LLVMModuleRef extractGlobals(LLVMModuleRef module) {
+        LLVMModuleRef clone = LLVMCloneModule(module);
+
+        for (LLVMValueRef function : definedFunctions(clone)) {
+            declareInstead(clone, function);
+        }
+        removeUnused(clone, null, true);
+
+        return clone;
+    }
+
+    private static boolean hasExportedGlobals(LLVMModuleRef module) {
+        for (LLVMValueRef global = LLVMGetFirstGlobal(module); global != null; global = LLVMGetNextGlobal(global)) {
+            if (isExported(global)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isExported(LLVMValueRef global) {
+        int linkage = LLVMGetLinkage(global);
+        return LLVMIsDeclaration(global) == 0 && linkage != LLVMPrivateLinkage && linkage != LLVMInternalLinkage;
+    }
+
+    private static List<LLVMValueRef> definedFunctions(LLVMModuleRef module) {
+        List<LLVMValueRef> functions = new ArrayList<>();
+        for (LLVMValueRef function = LLVMGetFirstFunction(module); function != null; function = LLVMGetNextFunction(function)) {
+            if (LLVMIsDeclaration(function) == 0) {
+                functions.add(function);
+            }
+        }
+        return functions;
+    }
+
+    //Deleting a function's body would leave dangling uses behind, so its uses are moved onto a fresh declaration instead
+    private static void declareInstead(LLVMModuleRef module, LLVMValueRef function) {
+        String functionName = name(function);
+        LLVMSetValueName2(function, "", 0);
+        LLVMValueRef declaration = LLVMAddFunction(module, functionName, LLVMGlobalGetValueType(function));
+        LLVMReplaceAllUsesWith(function, declaration);
+        LLVMDeleteFunction(function);
+    }
+
+    //Removing one unused global can leave another unused, so keep going until nothing changes
+    private static void removeUnused(LLVMModuleRef module, LLVMValueRef keep, boolean keepExported) {
+        boolean removed = true;
+        while (removed) {
+            removed = false;
+            LLVMValueRef function = LLVMGetFirstFunction(module);
+            while (function != null) {
+                LLVMValueRef next = LLVMGetNextFunction(function);
+                if (!function.equals(keep) && LLVMIsDeclaration(function) != 0 && LLVMGetFirstUse(function) == null) {
+                    LLVMDeleteFunction(function);
+                    removed = true;
+                }
+                function = next;
+            }
+            LLVMValueRef global = LLVMGetFirstGlobal(module);
+            while (global != null) {
+                LLVMValueRef next = LLVMGetNextGlobal(global);
+                if (!(keepExported && isExported(global)) && LLVMGetFirstUse(global) == null) {
+                    LLVMDeleteGlobal(global);
+                    removed = true;
+                }
+                global = next;
+            }
+        }
+    }
+
+    //Codegen names locals with random suffixes, which would give the same function a new fingerprint every compile
+    private static void clearLocalNames(LLVMValueRef function) {
+        for (int i = 0; i < LLVMCountParams(function); i++) {
+            LLVMSetValueName2(LLVMGetParam(function, i), "", 0);
+        }
+        for (LLVMBasicBlockRef block = LLVMGetFirstBasicBlock(function); block != null; block = LLVMGetNextBasicBlock(block)) {
+            LLVMSetValueName2(LLVMBasicBlockAsValue(block), "", 0);
+            for (LLVMValueRef instruction = LLVMGetFirstInstruction(block); instruction != null; instruction = LLVMGetNextInstruction(instruction)) {
+                LLVMSetValueName2(instruction, "", 0);
+            }
+        }
+    }
+
+    private static String name(LLVMValueRef value) {
+        return LLVMGetValueName(value).getString();
+    }
+}
@@ -3,109 +3,107 @@ package com.skennedy.rasna.compilation.llvm;
 import com.skennedy.rasna.exceptions.FunctionAlreadyDeclaredException;
 import com.skennedy.rasna.exceptions.TypeAlreadyDeclaredException;
 import com.skennedy.rasna.exceptions.VariableAlreadyDeclaredException;
-import com.skennedy.rasna.typebinding.EnumTypeSymbol;
 import com.skennedy.rasna.typebinding.FunctionSymbol;
 import com.skennedy.rasna.typebinding.TypeSymbol;
 import com.skennedy.rasna.typebinding.VariableSymbol;
 import org.bytedeco.llvm.LLVM.LLVMTypeRef;
 import org.bytedeco.llvm.LLVM.LLVMValueRef;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
+/**
+ * A flat symbol table for the scopes the compiler is currently inside.
+ * <p>
+ * Every symbol in scope lives in a single table per kind, so lookups don't depend on how deeply the scopes are
+ * nested. Each declaration is recorded in an undo log and entering a scope just marks the current length of the
+ * log, so exiting the scope removes everything declared since the mark.
+ */
 final class Scope {
 
-    private final Scope parentScope;
+    private final Map<VariableSymbol, LLVMValueRef> definedVariables = new HashMap<>();
+    private final Map<VariableSymbol, LLVMValueRef> definedPointers = new HashMap<>();
+    private final Map<FunctionSymbol, LLVMValueRef> definedFunctions = new HashMap<>();
+    private final Map<TypeSymbol, LLVMTypeRef> definedTypes = new HashMap<>();
 
-    private Map<VariableSymbol, LLVMValueRef> definedVariables;
-    private Map<VariableSymbol, LLVMValueRef> definedPointers;
-    private Map<FunctionSymbol, LLVMValueRef> definedFunctions;
-    private Map<TypeSymbol, LLVMTypeRef> definedTypes;
+    private final List<Map<?, ?>> undoTables = new ArrayList<>();
+    private final List<Object> undoKeys = new ArrayList<>();
 
-    Scope(Scope parentScope) {
-        this.parentScope = parentScope;
+    private int[] marks = new int[16];
+    private int depth = 0;
 
-        definedVariables = new HashMap<>();
-        definedPointers = new HashMap<>();
-        definedFunctions = new HashMap<>();
-        definedTypes = new HashMap<>();
+    void enter() {
+        if (depth == marks.length) {
+            marks = Arrays.copyOf(marks, depth * 2);
+        }
+        marks[depth++] = undoKeys.size();
     }
 
-    Scope getParentScope() {
-        return parentScope;
+    void exit() {
+        if (depth == 0) {
+            throw new IllegalStateException("Cannot exit the global scope");
+        }
+        int mark = marks[--depth];
+        for (int i = undoKeys.size() - 1; i >= mark; i--) {
+            undoTables.remove(i).remove(undoKeys.remove(i));
+        }
     }
 
     Optional<LLVMValueRef> tryLookupVariable(VariableSymbol variable) {
-
-        if (definedVariables.containsKey(variable)) {
-            return Optional.of(definedVariables.get(variable));
-        }
-        if (parentScope != null) {
-            return parentScope.tryLookupVariable(variable);
-        }
-        return Optional.empty();
+        return Optional.ofNullable(definedVariables.get(variable));
     }
 
     void declareVariable(VariableSymbol variable, LLVMValueRef value) {
-        if (tryLookupVariable(variable).isPresent()) {
+        if (definedVariables.containsKey(variable)) {
             throw new VariableAlreadyDeclaredException(variable.getName());
         }
-        definedVariables.put(variable, value);
+        declare(definedVariables, variable, value);
     }
 
     Optional<LLVMValueRef> tryLookupPointer(VariableSymbol variable) {
-
-        if (definedPointers.containsKey(variable)) {
-            return Optional.of(definedPointers.get(variable));
-        }
-        if (parentScope != null) {
-            return parentScope.tryLookupPointer(variable);
-        }
-        return Optional.empty();
+        return Optional.ofNullable(definedPointers.get(variable));
     }
 
     void declarePointer(VariableSymbol variable, LLVMValueRef ptr) {
-        if (tryLookupPointer(variable).isPresent()) {
+        if (definedPointers.containsKey(variable)) {
             throw new VariableAlreadyDeclaredException(variable.getName());
         }
-        definedPointers.put(variable, ptr);
+        declare(definedPointers, variable, ptr);
     }
 
     Optional<LLVMValueRef> tryLookupFunction(FunctionSymbol function) {
-
-        if (definedFunctions.containsKey(function)) {
-            return Optional.of(definedFunctions.get(function));
-        }
-        if (parentScope != null) {
-            return parentScope.tryLookupFunction(function);
-        }
-        return Optional.empty();
+        return Optional.ofNullable(definedFunctions.get(function));
     }
 
+    //Functions are always global, so they stay declared whatever scope they were first referenced in
     void declareFunction(FunctionSymbol function, LLVMValueRef ref) {
-        if (tryLookupFunction(function).isPresent()) {
+        if (definedFunctions.containsKey(function)) {
             throw new FunctionAlreadyDeclaredException(function.getName());
         }
         definedFunctions.put(function, ref);
     }
 
     Optional<LLVMTypeRef> tryLookupType(TypeSymbol type) {
+        return Optional.ofNullable(definedTypes.get(type));
+    }
 
+    void declareType(TypeSymbol type, LLVMTypeRef ref) {
         if (definedTypes.containsKey(type)) {
-            return Optional.of(definedTypes.get(type));
-        }
-        if (parentScope != null) {
-            return parentScope.tryLookupType(type);
+            throw new TypeAlreadyDeclaredException(type.getName());
         }
-        return Optional.empty();
+        declare(definedTypes, type, ref);
     }
 
-    void declareType(TypeSymbol type, LLVMTypeRef ref) {
-        if (tryLookupType(type).isPresent()) {
-            throw new TypeAlreadyDeclaredException(type.getName());
+    private <K, V> void declare(Map<K, V> table, K key, V value) {
+        table.put(key, value);
+        //Nothing declared in the global scope is ever removed
+        if (depth > 0) {
+            undoTables.add(table);
+            undoKeys.add(key);
         }
-        definedTypes.put(type, ref);
     }
 }
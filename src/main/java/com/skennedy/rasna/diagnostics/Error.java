@@ -49,4 +49,8 @@ public class Error {
     public Location getLocation() {
         return location;
     }
+
+    public TextSpan getSpan() {
+        return new TextSpan(location, Location.fromOffset(location, String.valueOf(token.getValue()).length() - 1));
+    }
 }
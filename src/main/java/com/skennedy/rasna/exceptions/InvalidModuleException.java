@@ -0,0 +1,8 @@
+package com.skennedy.rasna.exceptions;
+
+public class InvalidModuleException extends RuntimeException {
+
+    public InvalidModuleException(String message) {
+        super(message);
+    }
+}
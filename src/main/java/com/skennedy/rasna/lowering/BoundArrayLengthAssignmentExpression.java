@@ -0,0 +1,43 @@
+package com.skennedy.rasna.lowering;
+
+import com.skennedy.rasna.typebinding.BoundExpression;
+import com.skennedy.rasna.typebinding.BoundExpressionType;
+import com.skennedy.rasna.typebinding.TypeSymbol;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+//Shrinks an array that was allocated for more elements than were written to it
+public class BoundArrayLengthAssignmentExpression implements BoundExpression {
+
+    private BoundExpression iterable;
+    private BoundExpression length;
+
+    public BoundArrayLengthAssignmentExpression(BoundExpression iterable, BoundExpression length) {
+        this.iterable = iterable;
+        this.length = length;
+    }
+
+    @Override
+    public BoundExpressionType getBoundExpressionType() {
+        return BoundExpressionType.ARRAY_LENGTH_ASSIGNMENT_EXPRESSION;
+    }
+
+    @Override
+    public TypeSymbol getType() {
+        return TypeSymbol.UNIT;
+    }
+
+    @Override
+    public Iterator<BoundExpression> getChildren() {
+        return Arrays.asList(iterable, length).iterator();
+    }
+
+    public BoundExpression getIterable() {
+        return iterable;
+    }
+
+    public BoundExpression getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,67 @@
+package com.skennedy.rasna.lowering;
+
+import com.skennedy.rasna.typebinding.BoundAssignmentExpression;
+import com.skennedy.rasna.typebinding.BoundBinaryExpression;
+import com.skennedy.rasna.typebinding.BoundExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionCallExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionDeclarationExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionParameterExpression;
+import com.skennedy.rasna.typebinding.BoundLiteralExpression;
+import com.skennedy.rasna.typebinding.BoundProgram;
+import com.skennedy.rasna.typebinding.BoundUnaryExpression;
+import com.skennedy.rasna.typebinding.BoundVariableDeclarationExpression;
+import com.skennedy.rasna.typebinding.BoundVariableExpression;
+
+/**
+ * Prints a bound program as an indented tree of its expressions, for inspecting what a lowering pass did
+ */
+public final class BoundProgramPrinter {
+
+    private final StringBuilder sb = new StringBuilder();
+
+    private BoundProgramPrinter() {
+    }
+
+    public static String print(BoundProgram program) {
+        BoundProgramPrinter printer = new BoundProgramPrinter();
+        for (BoundExpression expression : program.getExpressions()) {
+            printer.print(expression, 0);
+        }
+        return printer.sb.toString();
+    }
+
+    private void print(BoundExpression expression, int depth) {
+        sb.append("  ".repeat(depth))
+                .append(expression.getBoundExpressionType())
+                .append(describe(expression))
+                .append(" : ")
+                .append(expression.getType())
+                .append("\n");
+        DeadCodeEliminator.forEachChild(expression, child -> print(child, depth + 1));
+    }
+
+    private static String describe(BoundExpression expression) {
+        switch (expression.getBoundExpressionType()) {
+            case LITERAL:
+                return " " + ((BoundLiteralExpression) expression).getValue();
+            case VARIABLE_EXPRESSION:
+                return " " + ((BoundVariableExpression) expression).getVariable().getName();
+            case VARIABLE_DECLARATION:
+                return " " + ((BoundVariableDeclarationExpression) expression).getVariable().getName();
+            case ASSIGNMENT_EXPRESSION:
+                return " " + ((BoundAssignmentExpression) expression).getVariable().getName();
+            case FUNCTION_ARGUMENT:
+                return " " + ((BoundFunctionParameterExpression) expression).getArgument().getName();
+            case FUNCTION_DECLARATION:
+                return " " + ((BoundFunctionDeclarationExpression) expression).getFunctionSymbol().getSignature();
+            case FUNCTION_CALL:
+                return " " + ((BoundFunctionCallExpression) expression).getFunction().getName();
+            case BINARY_EXPRESSION:
+                return " " + ((BoundBinaryExpression) expression).getOperator().getBoundOpType();
+            case UNARY_EXPRESSION:
+                return " " + ((BoundUnaryExpression) expression).getOperator().getBoundOpType();
+            default:
+                return "";
+        }
+    }
+}
@@ -4,7 +4,6 @@ import com.skennedy.rasna.parsing.model.OpType;
 import com.skennedy.rasna.typebinding.*;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Stack;
@@ -63,13 +62,13 @@ public abstract class BoundProgramRewriter {
             case MEMBER_ASSIGNMENT_EXPRESSION:
                 return rewriteMemberAssignmentExpression((BoundMemberAssignmentExpression) expression);
             case ARRAY_LENGTH_EXPRESSION:
+            case ARRAY_LENGTH_ASSIGNMENT_EXPRESSION:
             case TUPLE_LITERAL_EXPRESSION:
             case LITERAL:
             case VARIABLE_EXPRESSION:
             case NOOP:
             case INCREMENT:
             case TYPE_TEST_EXPRESSION:
-            case C_STYLE_FOR_EXPRESSION:
             case ENUM_DECLARATION_EXPRESSION:
             case TYPE_EXPRESSION:
                 return expression;
@@ -95,6 +94,8 @@ public abstract class BoundProgramRewriter {
                 return rewriteVariableDeclaration((BoundVariableDeclarationExpression) expression);
             case WHILE:
                 return rewriteWhileExpression((BoundWhileExpression) expression);
+            case C_STYLE_FOR_EXPRESSION:
+                return rewriteCStyleForExpression((BoundCStyleForExpression) expression);
             case FUNCTION_CALL:
                 return rewriteFunctionCall((BoundFunctionCallExpression) expression);
             case FUNCTION_DECLARATION:
@@ -125,9 +126,7 @@ public abstract class BoundProgramRewriter {
     private BoundBlockExpression rewriteWithExpression(BoundWithBlockExpression withBlockExpression) {
         BoundVariableDeclarationExpression rewrittenVariableDeclaration = (BoundVariableDeclarationExpression) rewriteVariableDeclaration(withBlockExpression.getResource());
 
-        BoundBlockExpression body = rewriteBlockExpression(withBlockExpression.getBody());
-
-        rewriteWithBody(body, withBlockExpression.getCloseCall());
+        BoundBlockExpression body = rewriteWithBody(rewriteBlockExpression(withBlockExpression.getBody()), withBlockExpression.getCloseCall(), true);
 
         List<BoundExpression> rewrittenWithExpression = new ArrayList<>();
         rewrittenWithExpression.add(rewrittenVariableDeclaration);
@@ -136,48 +135,52 @@ public abstract class BoundProgramRewriter {
         return new BoundBlockExpression(rewrittenWithExpression);
     }
 
-    private void rewriteWithBody(BoundBlockExpression body, BoundFunctionCallExpression closeCall) {
-        List<BoundExpression> expressions = body.getExpressions();
-        boolean insertedCloseCall = false;
-        for (int i = 0; i < expressions.size(); i++) {
-            BoundExpression expression = expressions.get(i);
-            insertedCloseCall = insertedCloseCall || rewriteWithBodyExpression(expression, closeCall, expressions, i);
-            if (insertedCloseCall) {
-                i++;
+    //Only the with body itself closes the resource at its end, nested blocks carry on into the rest of the body
+    //Bound trees can be shared, imported modules are reused between compilations, so the body is copied rather than changed in place
+    private BoundBlockExpression rewriteWithBody(BoundBlockExpression body, BoundFunctionCallExpression closeCall, boolean closeAtEnd) {
+        List<BoundExpression> expressions = new ArrayList<>();
+        boolean returns = false;
+        for (BoundExpression expression : body.getExpressions()) {
+            if (expression.getBoundExpressionType() == BoundExpressionType.RETURN) {
+                expressions.add(closeCall);
+                expressions.add(expression);
+                returns = true;
+            } else {
+                expressions.add(rewriteWithBodyExpression(expression, closeCall));
             }
         }
-        if (!insertedCloseCall) {
-            body.getExpressions().add(closeCall);
+        if (!returns && closeAtEnd) {
+            expressions.add(closeCall);
         }
+        return new BoundBlockExpression(expressions);
     }
 
-    //Recursively checks the with body for any returns, if one is found it inserts the close call before it to ensure the resource is closed
-    private boolean rewriteWithBodyExpression( BoundExpression expression, BoundFunctionCallExpression closeCall, List<BoundExpression> expressions, int i) {
-        boolean insertedCloseCall = false;
+    //Recursively checks the with body for any returns, closing the resource before each one
+    private BoundExpression rewriteWithBodyExpression(BoundExpression expression, BoundFunctionCallExpression closeCall) {
+        if (expression == null) {
+            return null;
+        }
         switch (expression.getBoundExpressionType()) {
             case IF:
-                if (((BoundIfExpression) expression).getBody().getBoundExpressionType() == BoundExpressionType.BLOCK) {
-                    rewriteWithBody((BoundBlockExpression) ((BoundIfExpression) expression).getBody(), closeCall);
-                } else {
-                    rewriteWithBodyExpression(((BoundIfExpression) expression).getBody(), closeCall, expressions, i);
-                }
-                if (((BoundIfExpression) expression).getElseBody() != null) {
-                    if (((BoundIfExpression) expression).getBody().getBoundExpressionType() == BoundExpressionType.BLOCK) {
-                        rewriteWithBody((BoundBlockExpression) ((BoundIfExpression) expression).getElseBody(), closeCall);
-                    } else {
-                        rewriteWithBodyExpression(((BoundIfExpression) expression).getElseBody(), closeCall, expressions, i);
-                    }
+                BoundIfExpression ifExpression = (BoundIfExpression) expression;
+                BoundExpression body = rewriteWithBranch(ifExpression.getBody(), closeCall);
+                BoundExpression elseBody = rewriteWithBranch(ifExpression.getElseBody(), closeCall);
+                if (body == ifExpression.getBody() && elseBody == ifExpression.getElseBody()) {
+                    return ifExpression;
                 }
-                break;
+                return new BoundIfExpression(ifExpression.getCondition(), body, elseBody);
             case BLOCK:
-                rewriteWithBody((BoundBlockExpression) expression, closeCall);
-                break;
-            case RETURN:
-                expressions.add(i, closeCall);
-                insertedCloseCall = true;
-                break;
+                return rewriteWithBody((BoundBlockExpression) expression, closeCall, false);
+            default:
+                return expression;
         }
-        return insertedCloseCall;
+    }
+
+    private BoundExpression rewriteWithBranch(BoundExpression branch, BoundFunctionCallExpression closeCall) {
+        if (branch != null && branch.getBoundExpressionType() == BoundExpressionType.RETURN) {
+            return new BoundBlockExpression(closeCall, branch);
+        }
+        return rewriteWithBodyExpression(branch, closeCall);
     }
 
     private BoundExpression rewriteTupleIndexExpression(BoundTupleIndexExpression tupleIndexExpression) {
@@ -354,7 +357,7 @@ public abstract class BoundProgramRewriter {
 
         List<BoundExpression> rewrittenInstructions = new ArrayList<>();
         for (BoundExpression expression : functionDeclarationExpression.getBody().getExpressions()) {
-            rewrittenInstructions.add(rewriteExpression(expression));
+            addRewrittenStatement(rewrittenInstructions, expression, rewriteExpression(expression));
         }
 
         BoundBlockExpression rewrittenBody = rewriteBlockExpression(new BoundBlockExpression(rewrittenInstructions));
@@ -469,7 +472,8 @@ public abstract class BoundProgramRewriter {
                 BoundVariableExpression variableExpression = (BoundVariableExpression) binaryExpression.getLeft();
                 BoundLiteralExpression literalExpression = (BoundLiteralExpression) binaryExpression.getRight();
 
-                if (variableExpression.getType() == TypeSymbol.INT && (int) literalExpression.getValue() <= Byte.MAX_VALUE && (int) literalExpression.getValue() >= Byte.MIN_VALUE) {
+                if (variableExpression.getVariable().equals(assignmentExpression.getVariable())
+                        && variableExpression.getType() == TypeSymbol.INT && (int) literalExpression.getValue() <= Byte.MAX_VALUE && (int) literalExpression.getValue() >= Byte.MIN_VALUE) {
 
                     if (binaryExpression.getOperator().getBoundOpType() == BoundBinaryOperator.BoundBinaryOperation.ADDITION) {
                         return new BoundIncrementExpression(variableExpression.getVariable(), new BoundLiteralExpression(literalExpression.getValue()));
@@ -479,7 +483,6 @@ public abstract class BoundProgramRewriter {
                     }
                 }
             }
-            return assignmentExpression;
         }
 
         BoundExpression guard = null;
@@ -493,11 +496,11 @@ public abstract class BoundProgramRewriter {
 
         if (expression instanceof BoundBlockExpression) {
 
-            return rewriteBlockInitialiser(
-                    (BoundBlockExpression) expression,
+            return rewriteYield(
+                    expression,
                     expr -> new BoundAssignmentExpression(assignmentExpression.getVariable(), assignmentExpression.getGuard(), expr));
         }
-        return new BoundAssignmentExpression(assignmentExpression.getVariable(), assignmentExpression.getGuard(), assignmentExpression.getExpression());
+        return new BoundAssignmentExpression(assignmentExpression.getVariable(), guard, expression);
     }
 
     protected BoundExpression rewriteUnaryExpression(BoundUnaryExpression unaryExpression) {
@@ -529,11 +532,20 @@ public abstract class BoundProgramRewriter {
         List<BoundExpression> rewrittenExpressions = new ArrayList<>();
 
         for (BoundExpression boundExpression : boundBlockExpression.getExpressions()) {
-            rewrittenExpressions.add(rewriteExpression(boundExpression));
+            addRewrittenStatement(rewrittenExpressions, boundExpression, rewriteExpression(boundExpression));
         }
         return new BoundBlockExpression(rewrittenExpressions);
     }
 
+    //A declaration lowered to a block of expressions still has to declare its variable in the enclosing scope
+    private static void addRewrittenStatement(List<BoundExpression> statements, BoundExpression statement, BoundExpression rewrittenStatement) {
+        if (statement instanceof BoundVariableDeclarationExpression && rewrittenStatement instanceof BoundBlockExpression) {
+            statements.addAll(((BoundBlockExpression) rewrittenStatement).getExpressions());
+        } else {
+            statements.add(rewrittenStatement);
+        }
+    }
+
     protected BoundExpression rewriteIfExpression(BoundIfExpression boundIfExpression) {
 
         BoundExpression condition = rewriteExpression(boundIfExpression.getCondition());
@@ -657,170 +669,106 @@ public abstract class BoundProgramRewriter {
             default:
                 throw new UnsupportedOperationException("Assignment is not supported for expressions of type " + boundVariableDeclarationExpression.getInitialiser().getBoundExpressionType());
             case IF:
-            case MATCH_EXPRESSION:
-                blockInitialiser = rewriteBlockInitialiser(
+            case MATCH_EXPRESSION: {
+                //Conditionals that still yield a value are left as initialisers and become a phi, so this is only
+                //reached when folding has already picked a branch
+                List<BoundExpression> expressions = initialiser.getExpressions();
+                if (expressions.size() == 1 && isBlockValue(expressions.get(0))) {
+                    return new BoundVariableDeclarationExpression(boundVariableDeclarationExpression.getVariable(), boundVariableDeclarationExpression.getGuard(), expressions.get(0), boundVariableDeclarationExpression.isReadOnly());
+                }
+                blockInitialiser = rewriteYield(
                         initialiser,
                         expr -> new BoundAssignmentExpression(boundVariableDeclarationExpression.getVariable(), boundVariableDeclarationExpression.getGuard(), expr)
                 );
-                BoundVariableDeclarationExpression tempInit = new BoundVariableDeclarationExpression(boundVariableDeclarationExpression.getVariable(), boundVariableDeclarationExpression.getGuard(), new BoundLiteralExpression(getTypeDefaultValue(boundVariableDeclarationExpression.getVariable().getType())), false);
+                //Every path through the block assigns the variable, so it needs no default value to start from
+                BoundVariableDeclarationExpression declaration = new BoundVariableDeclarationExpression(boundVariableDeclarationExpression.getVariable(), boundVariableDeclarationExpression.getGuard(), null, false);
 
                 return new BoundBlockExpression(
-                        tempInit,
+                        declaration,
                         blockInitialiser
                 );
+            }
             case FOR_IN: {
                 BoundForInExpression forInExpression = (BoundForInExpression) boundVariableDeclarationExpression.getInitialiser();
 
-                VariableSymbol iterationCounter = new VariableSymbol("iteration-counter-" + UUID.randomUUID().toString(), TypeSymbol.INT, null, false, null);
-                BoundVariableExpression iterationCounterExpression = new BoundVariableExpression(iterationCounter);
-
-                new BoundPositionalAccessExpression(forInExpression.getIterable(), iterationCounterExpression);
-
-                List<BoundExpression> expressions = new ArrayList<>();
-                expressions.addAll(Arrays.asList(
-                        new BoundVariableDeclarationExpression(iterationCounter, null, new BoundLiteralExpression(0), false),
-                        new BoundVariableDeclarationExpression(
-                                boundVariableDeclarationExpression.getVariable(),
-                                null,
+                return new BoundBlockExpression(declareComprehension(
+                        boundVariableDeclarationExpression,
+                        (ArrayTypeSymbol) boundVariableDeclarationExpression.getVariable().getType(),
+                        new BoundArrayLengthExpression(forInExpression.getIterable()),
+                        forInExpression.getGuard() != null,
+                        store -> new BoundForInExpression(
+                                forInExpression.getVariable(),
                                 forInExpression.getIterable(),
-                                boundVariableDeclarationExpression.isReadOnly()
-                        ),
-                        rewriteBlockInitialiser(
-                                initialiser,
-                                expr -> new BoundBlockExpression(
-                                        new BoundArrayAssignmentExpression(new BoundPositionalAccessExpression(forInExpression.getIterable(), iterationCounterExpression), expr),
-                                        new BoundIncrementExpression(iterationCounter, new BoundLiteralExpression(1)
-                                        ))
-                        )));
-
-                if (forInExpression.getGuard() != null) {
-
-                    VariableSymbol copyIndex = new VariableSymbol("copy-index-" + UUID.randomUUID().toString(), TypeSymbol.INT, null, false, null);
-                    BoundVariableExpression copyIndexExpression = new BoundVariableExpression(copyIndex);
-
-                    VariableSymbol filteredArray = new VariableSymbol("filtered-array-" + UUID.randomUUID().toString(), boundVariableDeclarationExpression.getVariable().getType(), null, false, null);
-                    BoundVariableExpression filteredArrayVariable = new BoundVariableExpression(filteredArray);
-                    BoundVariableExpression arrayVariableExpression = new BoundVariableExpression(boundVariableDeclarationExpression.getVariable());
-
-                    expressions.addAll(Arrays.asList(
-                            //Create new array of index size
-                            new BoundVariableDeclarationExpression(filteredArray, null, new BoundArrayDeclarationExpression((ArrayTypeSymbol) filteredArrayVariable.getType(), iterationCounterExpression), false),
-                            //For each element copy to the array
-                            rewriteForExpression(new BoundForExpression(copyIndex, new BoundRangeExpression(new BoundLiteralExpression(0), iterationCounterExpression, new BoundLiteralExpression(1)), null, new BoundBlockExpression(
-                                    new BoundArrayAssignmentExpression(
-                                            new BoundPositionalAccessExpression(filteredArrayVariable, copyIndexExpression),
-                                            new BoundPositionalAccessExpression(arrayVariableExpression, copyIndexExpression)
-                                    )
-                            ))),
-                            //Assign the filtered array to the original variable
-                            new BoundAssignmentExpression(
-                                    boundVariableDeclarationExpression.getVariable(),
-                                    boundVariableDeclarationExpression.getGuard(),
-                                    filteredArrayVariable
-                            )
-                    ));
-                }
-
-                return new BoundBlockExpression(expressions);
+                                forInExpression.getGuard(),
+                                rewriteYield(forInExpression.getBody(), store)
+                        )
+                ));
             }
             case FOR: {
                 BoundForExpression forExpression = (BoundForExpression) boundVariableDeclarationExpression.getInitialiser();
 
-                BoundExpression elementCount;
-                BoundRangeExpression rangeExpression = forExpression.getRangeExpression();
-                if (!(rangeExpression.getLowerBound() instanceof BoundLiteralExpression) || (int) ((BoundLiteralExpression) rangeExpression.getLowerBound()).getValue() != 0) {
-                    elementCount = new BoundBinaryExpression(
-                            rangeExpression.getUpperBound(),
-                            BoundBinaryOperator.bind(OpType.SUB, TypeSymbol.INT, TypeSymbol.INT),
-                            rangeExpression.getLowerBound()
-                    );
-                } else {
-                    elementCount = rangeExpression.getUpperBound();
-                }
-
-                BoundArrayDeclarationExpression arrayDeclarationExpression = new BoundArrayDeclarationExpression(new ArrayTypeSymbol(boundVariableDeclarationExpression.getType()), elementCount);
-                BoundVariableDeclarationExpression variableDeclarationExpression = new BoundVariableDeclarationExpression(
-                        boundVariableDeclarationExpression.getVariable(),
-                        boundVariableDeclarationExpression.getGuard(),
-                        arrayDeclarationExpression,
-                        boundVariableDeclarationExpression.isReadOnly()
-                );
-
-                //TODO: This can be optimised in the case where there is no guard or step - just use the in built array index
-
-                VariableSymbol indexVariable = new VariableSymbol("index-" + UUID.randomUUID().toString(), TypeSymbol.INT, null, false, null);
-                BoundVariableExpression indexExpression = new BoundVariableExpression(indexVariable);
-
-                BoundExpression index;
-                if (!(rangeExpression.getLowerBound() instanceof BoundLiteralExpression) || (int) ((BoundLiteralExpression) rangeExpression.getLowerBound()).getValue() != 0) {
-                    index = new BoundBinaryExpression(
-                            indexExpression,
-                            BoundBinaryOperator.bind(OpType.SUB, TypeSymbol.INT, TypeSymbol.INT),
-                            rangeExpression.getLowerBound()
-                    );
-                } else {
-                    index = indexExpression;
-                }
-
-                BoundVariableExpression array = new BoundVariableExpression(boundVariableDeclarationExpression.getVariable());
-
-                List<BoundExpression> expressions = new ArrayList<>();
-                expressions.addAll(Arrays.asList(
-                        variableDeclarationExpression,
-                        new BoundVariableDeclarationExpression(indexVariable, null, rangeExpression.getLowerBound(), false),
-                        rewriteBlockInitialiser(initialiser, expr -> new BoundBlockExpression(
-                                new BoundArrayAssignmentExpression(new BoundPositionalAccessExpression(array, index), expr),
-                                new BoundIncrementExpression(indexVariable, new BoundLiteralExpression(1))
-                        ))
+                return new BoundBlockExpression(declareComprehension(
+                        boundVariableDeclarationExpression,
+                        ArrayTypeSymbol.of(boundVariableDeclarationExpression.getType()),
+                        getRangeSize(forExpression.getRangeExpression()),
+                        forExpression.getGuard() != null,
+                        store -> new BoundForExpression(
+                                forExpression.getIterator(),
+                                forExpression.getRangeExpression(),
+                                forExpression.getGuard(),
+                                rewriteYield(forExpression.getBody(), store)
+                        )
                 ));
-
-                if (forExpression.getGuard() != null || rangeExpression.getStep() != null) {
-
-                    VariableSymbol copyIndex = new VariableSymbol("copy-index-" + UUID.randomUUID().toString(), TypeSymbol.INT, null, false, null);
-                    BoundVariableExpression copyIndexExpression = new BoundVariableExpression(copyIndex);
-
-                    VariableSymbol filteredArray = new VariableSymbol("filtered-array-" + UUID.randomUUID().toString(), boundVariableDeclarationExpression.getVariable().getType(), null, false, null);
-                    BoundVariableExpression filteredArrayVariable = new BoundVariableExpression(filteredArray);
-                    BoundVariableExpression arrayVariableExpression = new BoundVariableExpression(boundVariableDeclarationExpression.getVariable());
-
-                    expressions.addAll(Arrays.asList(
-                            //Create new array of index size
-                            new BoundVariableDeclarationExpression(filteredArray, null, new BoundArrayDeclarationExpression((ArrayTypeSymbol) filteredArrayVariable.getType(), index), false),
-                            //For each element copy to the array
-                            rewriteForExpression(new BoundForExpression(copyIndex, new BoundRangeExpression(new BoundLiteralExpression(0), index, new BoundLiteralExpression(1)), null, new BoundBlockExpression(
-                                    new BoundArrayAssignmentExpression(
-                                            new BoundPositionalAccessExpression(filteredArrayVariable, copyIndexExpression),
-                                            new BoundPositionalAccessExpression(arrayVariableExpression, copyIndexExpression)
-                                    )
-                            ))),
-                            //Assign the filtered array to the original variable
-                            new BoundAssignmentExpression(
-                                    boundVariableDeclarationExpression.getVariable(),
-                                    boundVariableDeclarationExpression.getGuard(),
-                                    filteredArrayVariable
-                            )
-                    ));
-                }
-                return new BoundBlockExpression(expressions);
             }
         }
     }
 
-    //TODO: This should be its own class perhaps
-    private Object getTypeDefaultValue(TypeSymbol type) {
-        if (type == TypeSymbol.INT) {
-            return 0;
-        }
-        if (type == TypeSymbol.BOOL) {
-            return false;
+    //Allocates the array for every element the loop could keep and writes each one it does keep straight into its position.
+    //A guard can skip elements, so the array is then shrunk to the number written rather than running the guard twice to count them
+    private List<BoundExpression> declareComprehension(BoundVariableDeclarationExpression boundVariableDeclarationExpression, ArrayTypeSymbol arrayType, BoundExpression elementCount,
+                                                       boolean guarded, Function<Function<BoundExpression, BoundExpression>, BoundExpression> loop) {
+        VariableSymbol indexVariable = new VariableSymbol("index-" + UUID.randomUUID().toString(), TypeSymbol.INT, null, false, null);
+        BoundVariableExpression indexExpression = new BoundVariableExpression(indexVariable);
+        BoundVariableExpression array = new BoundVariableExpression(boundVariableDeclarationExpression.getVariable());
+
+        List<BoundExpression> expressions = new ArrayList<>();
+        expressions.add(new BoundVariableDeclarationExpression(
+                boundVariableDeclarationExpression.getVariable(),
+                boundVariableDeclarationExpression.getGuard(),
+                new BoundArrayDeclarationExpression(arrayType, elementCount),
+                boundVariableDeclarationExpression.isReadOnly()
+        ));
+        expressions.add(new BoundVariableDeclarationExpression(indexVariable, null, new BoundLiteralExpression(0), false));
+        expressions.add(rewriteExpression(loop.apply(expr -> new BoundBlockExpression(
+                new BoundArrayAssignmentExpression(new BoundPositionalAccessExpression(array, indexExpression), expr),
+                new BoundIncrementExpression(indexVariable, new BoundLiteralExpression(1))
+        ))));
+        if (guarded) {
+            expressions.add(new BoundArrayLengthAssignmentExpression(array, indexExpression));
         }
-        if (type == TypeSymbol.REAL) {
-            return 0.0D;
+        return expressions;
+    }
+
+    //The number of elements in a range is ceil((upper - lower) / step), which for a positive step is (upper - lower + step - 1) / step
+    private static BoundExpression getRangeSize(BoundRangeExpression rangeExpression) {
+        BoundExpression size = rangeExpression.getUpperBound();
+        if (!isZero(rangeExpression.getLowerBound())) {
+            size = new BoundBinaryExpression(size, BoundBinaryOperator.bind(OpType.SUB, TypeSymbol.INT, TypeSymbol.INT), rangeExpression.getLowerBound());
         }
-        if (type == TypeSymbol.STRING) {
-            return "";
+        BoundExpression step = rangeExpression.getStep();
+        if (step == null || step instanceof BoundLiteralExpression && Integer.valueOf(1).equals(((BoundLiteralExpression) step).getValue())) {
+            return size;
         }
-        return null;
+        BoundExpression roundedUp = new BoundBinaryExpression(
+                size,
+                BoundBinaryOperator.bind(OpType.ADD, TypeSymbol.INT, TypeSymbol.INT),
+                new BoundBinaryExpression(step, BoundBinaryOperator.bind(OpType.SUB, TypeSymbol.INT, TypeSymbol.INT), new BoundLiteralExpression(1))
+        );
+        return new BoundBinaryExpression(roundedUp, BoundBinaryOperator.bind(OpType.DIV, TypeSymbol.INT, TypeSymbol.INT), step);
+    }
+
+    private static boolean isZero(BoundExpression expression) {
+        return expression instanceof BoundLiteralExpression && Integer.valueOf(0).equals(((BoundLiteralExpression) expression).getValue());
     }
 
     protected BoundExpression rewriteWhileExpression(BoundWhileExpression boundWhileExpression) {
@@ -832,12 +780,9 @@ public abstract class BoundProgramRewriter {
             return new BoundNoOpExpression();
         }
 
-        if (condition.isConstExpression()) {
-            if ((boolean) condition.getConstValue()) {
-                return body;
-            } else {
-                return new BoundNoOpExpression();
-            }
+        //A loop whose condition is always true still runs until something in its body returns
+        if (condition.isConstExpression() && Boolean.FALSE.equals(condition.getConstValue())) {
+            return new BoundNoOpExpression();
         }
 
         if (condition == boundWhileExpression.getCondition() && body == boundWhileExpression.getBody()) {
@@ -846,6 +791,22 @@ public abstract class BoundProgramRewriter {
         return new BoundWhileExpression(condition, body);
     }
 
+    protected BoundExpression rewriteCStyleForExpression(BoundCStyleForExpression cStyleForExpression) {
+
+        BoundExpression initialisation = rewriteExpression(cStyleForExpression.getInitialisation());
+        BoundExpression condition = rewriteExpression(cStyleForExpression.getCondition());
+        BoundExpression postStep = rewriteExpression(cStyleForExpression.getPostStep());
+        BoundExpression body = rewriteExpression(cStyleForExpression.getBody());
+
+        if (initialisation == cStyleForExpression.getInitialisation()
+                && condition == cStyleForExpression.getCondition()
+                && postStep == cStyleForExpression.getPostStep()
+                && body == cStyleForExpression.getBody()) {
+            return cStyleForExpression;
+        }
+        return new BoundCStyleForExpression(initialisation, condition, postStep, body);
+    }
+
     private BoundExpression rewritePrintIntrinsic(BoundPrintExpression printExpression) {
 
         BoundExpression expression = rewriteExpression(printExpression.getExpression());
@@ -856,21 +817,32 @@ public abstract class BoundProgramRewriter {
         return new BoundPrintExpression(expression);
     }
 
-    private static <T extends BoundExpression> BoundExpression rewriteBlockInitialiser(BoundBlockExpression initialiser, Function<BoundExpression, T> remapper) {
-        List<BoundExpression> expressions = initialiser.getExpressions();
+    private static boolean isBlockValue(BoundExpression expression) {
+        return expression instanceof BoundLiteralExpression
+                || expression instanceof BoundVariableExpression
+                || expression instanceof BoundBinaryExpression
+                || expression instanceof BoundFunctionCallExpression;
+    }
 
-        for (int i = 0; i < expressions.size(); i++) {
-            BoundExpression expr = expressions.get(i);
-            if (expr instanceof BoundLiteralExpression
-                    || expr instanceof BoundVariableExpression
-                    || expr instanceof BoundBinaryExpression
-                    || expr instanceof BoundFunctionCallExpression) {
-                expressions.set(i, remapper.apply(expr));
-            } else if (expr instanceof BoundBlockExpression) {
-                rewriteBlockInitialiser((BoundBlockExpression) expr, remapper);
+    //Only the value a block ends with is yielded, so anything run before it is left as it is
+    private static BoundExpression rewriteYield(BoundExpression expression, Function<BoundExpression, ? extends BoundExpression> remapper) {
+        if (expression instanceof BoundBlockExpression) {
+            List<BoundExpression> expressions = new ArrayList<>(((BoundBlockExpression) expression).getExpressions());
+            if (!expressions.isEmpty()) {
+                int last = expressions.size() - 1;
+                expressions.set(last, rewriteYield(expressions.get(last), remapper));
             }
+            return new BoundBlockExpression(expressions);
         }
-        return new BoundBlockExpression(expressions);
+        if (expression instanceof BoundIfExpression) {
+            BoundIfExpression ifExpression = (BoundIfExpression) expression;
+            BoundExpression elseBody = ifExpression.getElseBody() == null ? null : rewriteYield(ifExpression.getElseBody(), remapper);
+            return new BoundIfExpression(ifExpression.getCondition(), rewriteYield(ifExpression.getBody(), remapper), elseBody);
+        }
+        if (isBlockValue(expression)) {
+            return remapper.apply(expression);
+        }
+        return expression;
     }
 
 }
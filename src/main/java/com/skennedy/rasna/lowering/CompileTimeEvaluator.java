@@ -0,0 +1,472 @@
+package com.skennedy.rasna.lowering;
+
+import com.skennedy.rasna.typebinding.BoundAssignmentExpression;
+import com.skennedy.rasna.typebinding.BoundBinaryExpression;
+import com.skennedy.rasna.typebinding.BoundBinaryOperator.BoundBinaryOperation;
+import com.skennedy.rasna.typebinding.BoundBlockExpression;
+import com.skennedy.rasna.typebinding.BoundCastExpression;
+import com.skennedy.rasna.typebinding.BoundExpression;
+import com.skennedy.rasna.typebinding.BoundForExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionCallExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionDeclarationExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionParameterExpression;
+import com.skennedy.rasna.typebinding.BoundIfExpression;
+import com.skennedy.rasna.typebinding.BoundIncrementExpression;
+import com.skennedy.rasna.typebinding.BoundLiteralExpression;
+import com.skennedy.rasna.typebinding.BoundProgram;
+import com.skennedy.rasna.typebinding.BoundRangeExpression;
+import com.skennedy.rasna.typebinding.BoundReturnExpression;
+import com.skennedy.rasna.typebinding.BoundUnaryExpression;
+import com.skennedy.rasna.typebinding.BoundVariableDeclarationExpression;
+import com.skennedy.rasna.typebinding.BoundVariableExpression;
+import com.skennedy.rasna.typebinding.BoundWhileExpression;
+import com.skennedy.rasna.typebinding.FunctionSymbol;
+import com.skennedy.rasna.typebinding.TypeSymbol;
+import com.skennedy.rasna.typebinding.VariableSymbol;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Evaluates calls with constant arguments at compile time and replaces them with the value they return.
+ * <p>
+ * Only Int, Real and Bool values are modelled, and evaluation gives up as soon as it reaches anything else such as a
+ * builtin, a print, an array or a struct, so a call is only folded if it has no side effects for those arguments.
+ * Each evaluation is limited in the number of expressions it evaluates and in how deeply calls can nest, which bounds
+ * both its time and its memory. Results are cached per function and arguments, unless evaluation ran out of budget.
+ */
+public class CompileTimeEvaluator extends BoundProgramRewriter {
+
+    private static final int MAX_STEPS = 100_000;
+    private static final int MAX_DEPTH = 256;
+
+    private static final NotConstantException NOT_CONSTANT = new NotConstantException(false);
+    //Running out of steps or depth depends on where evaluation started, so it says nothing about the call on its own
+    private static final NotConstantException OUT_OF_BUDGET = new NotConstantException(true);
+
+    private final Map<FunctionSymbol, BoundFunctionDeclarationExpression> declarations = new HashMap<>();
+    private final Map<FunctionSymbol, Map<List<Object>, Optional<Object>>> results = new HashMap<>();
+
+    private int steps;
+    private int depth;
+
+    @Override
+    public BoundProgram rewrite(BoundProgram program) {
+        collectDeclarations(program.getExpressions());
+
+        return super.rewrite(program);
+    }
+
+    private void collectDeclarations(List<BoundExpression> expressions) {
+        for (BoundExpression expression : expressions) {
+            if (expression instanceof BoundFunctionDeclarationExpression) {
+                BoundFunctionDeclarationExpression declaration = (BoundFunctionDeclarationExpression) expression;
+                declarations.put(declaration.getFunctionSymbol(), declaration);
+            } else if (expression instanceof BoundBlockExpression) {
+                collectDeclarations(((BoundBlockExpression) expression).getExpressions());
+            }
+        }
+    }
+
+    @Override
+    protected BoundExpression rewriteFunctionCall(BoundFunctionCallExpression functionCallExpression) {
+        BoundExpression rewrittenExpression = super.rewriteFunctionCall(functionCallExpression);
+
+        if (!(rewrittenExpression instanceof BoundFunctionCallExpression) || !isModelled(rewrittenExpression.getType())) {
+            return rewrittenExpression;
+        }
+        return tryEvaluate(rewrittenExpression)
+                .<BoundExpression>map(BoundLiteralExpression::new)
+                .orElse(rewrittenExpression);
+    }
+
+    /**
+     * @return the value of an expression that doesn't depend on any variables, if it can be evaluated
+     */
+    protected Optional<Object> tryEvaluate(BoundExpression expression) {
+        steps = 0;
+        depth = 0;
+        try {
+            return Optional.of(evaluateValue(expression, new Frame()));
+        } catch (NotConstantException nce) {
+            return Optional.empty();
+        }
+    }
+
+    private Object call(FunctionSymbol function, List<Object> arguments) {
+
+        Map<List<Object>, Optional<Object>> functionResults = results.computeIfAbsent(function, f -> new HashMap<>());
+        Optional<Object> result = functionResults.get(arguments);
+        if (result != null) {
+            return result.orElseThrow(() -> NOT_CONSTANT);
+        }
+
+        BoundFunctionDeclarationExpression declaration = declarations.get(function);
+        if (declaration == null) {
+            throw NOT_CONSTANT;
+        }
+        if (depth == MAX_DEPTH) {
+            throw OUT_OF_BUDGET;
+        }
+        depth++;
+        try {
+            Frame frame = new Frame();
+            List<BoundFunctionParameterExpression> parameters = declaration.getArguments();
+            for (int i = 0; i < parameters.size(); i++) {
+                BoundFunctionParameterExpression parameter = parameters.get(i);
+                if (parameter.isReference() || parameter.getGuard() != null) {
+                    throw NOT_CONSTANT;
+                }
+                frame.variables.put(parameter.getArgument(), arguments.get(i));
+            }
+            evaluate(declaration.getBody(), frame);
+
+            //Falling off the end of a function that returns a value leaves it undefined
+            if (!frame.returned || frame.returnValue == null) {
+                throw NOT_CONSTANT;
+            }
+            functionResults.put(arguments, Optional.of(frame.returnValue));
+
+            return frame.returnValue;
+        } catch (NotConstantException nce) {
+            if (!nce.outOfBudget) {
+                functionResults.put(arguments, Optional.empty());
+            }
+            throw nce;
+        } finally {
+            depth--;
+        }
+    }
+
+    //Evaluates an expression whose value is used, so it can't return from the function part way through
+    private Object evaluateValue(BoundExpression expression, Frame frame) {
+        Object value = evaluate(expression, frame);
+        if (value == null || frame.returned) {
+            throw NOT_CONSTANT;
+        }
+        return value;
+    }
+
+    private boolean evaluateCondition(BoundExpression condition, Frame frame) {
+        Object value = evaluateValue(condition, frame);
+        if (!(value instanceof Boolean)) {
+            throw NOT_CONSTANT;
+        }
+        return (boolean) value;
+    }
+
+    //Returns null for expressions without a value
+    private Object evaluate(BoundExpression expression, Frame frame) {
+        if (++steps > MAX_STEPS) {
+            throw OUT_OF_BUDGET;
+        }
+        switch (expression.getBoundExpressionType()) {
+            case LITERAL:
+                Object value = ((BoundLiteralExpression) expression).getValue();
+                if (!(value instanceof Integer || value instanceof Double || value instanceof Boolean)) {
+                    throw NOT_CONSTANT;
+                }
+                return value;
+            case VARIABLE_EXPRESSION:
+                return lookup(((BoundVariableExpression) expression).getVariable(), frame);
+            case BINARY_EXPRESSION:
+                return evaluateBinaryExpression((BoundBinaryExpression) expression, frame);
+            case UNARY_EXPRESSION:
+                return evaluateUnaryExpression((BoundUnaryExpression) expression, frame);
+            case CAST_EXPRESSION:
+                return evaluateCastExpression((BoundCastExpression) expression, frame);
+            case BLOCK:
+                return evaluateBlockExpression((BoundBlockExpression) expression, frame);
+            case IF:
+                return evaluateIfExpression((BoundIfExpression) expression, frame);
+            case WHILE:
+                return evaluateWhileExpression((BoundWhileExpression) expression, frame);
+            case FOR:
+                return evaluateForExpression((BoundForExpression) expression, frame);
+            case VARIABLE_DECLARATION:
+                return evaluateVariableDeclaration((BoundVariableDeclarationExpression) expression, frame);
+            case ASSIGNMENT_EXPRESSION:
+                return evaluateAssignmentExpression((BoundAssignmentExpression) expression, frame);
+            case INCREMENT:
+                return evaluateIncrementExpression((BoundIncrementExpression) expression, frame);
+            case RETURN:
+                return evaluateReturnExpression((BoundReturnExpression) expression, frame);
+            case FUNCTION_CALL:
+                BoundFunctionCallExpression functionCallExpression = (BoundFunctionCallExpression) expression;
+                List<Object> arguments = new ArrayList<>();
+                for (BoundExpression argument : functionCallExpression.getBoundArguments()) {
+                    arguments.add(evaluateValue(argument, frame));
+                }
+                return call(functionCallExpression.getFunction(), arguments);
+            case NOOP:
+                return null;
+            default:
+                throw NOT_CONSTANT;
+        }
+    }
+
+    private Object lookup(VariableSymbol variable, Frame frame) {
+        Object value = frame.variables.get(variable);
+        if (value == null) {
+            throw NOT_CONSTANT;
+        }
+        return value;
+    }
+
+    private Object evaluateBlockExpression(BoundBlockExpression blockExpression, Frame frame) {
+        Object value = null;
+        for (BoundExpression expression : blockExpression.getExpressions()) {
+            value = evaluate(expression, frame);
+            if (frame.returned) {
+                return null;
+            }
+        }
+        return value;
+    }
+
+    private Object evaluateIfExpression(BoundIfExpression ifExpression, Frame frame) {
+        if (evaluateCondition(ifExpression.getCondition(), frame)) {
+            return evaluate(ifExpression.getBody(), frame);
+        }
+        if (ifExpression.getElseBody() != null) {
+            return evaluate(ifExpression.getElseBody(), frame);
+        }
+        return null;
+    }
+
+    private Object evaluateWhileExpression(BoundWhileExpression whileExpression, Frame frame) {
+        while (evaluateCondition(whileExpression.getCondition(), frame)) {
+            evaluate(whileExpression.getBody(), frame);
+            if (frame.returned) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    //Mirrors the loop the LLVMLowerer lowers a range to, which re-evaluates the upper bound and step on every iteration
+    private Object evaluateForExpression(BoundForExpression forExpression, Frame frame) {
+        TypeSymbol type = forExpression.getIterator().getType();
+        if (forExpression.getGuard() != null || (type != TypeSymbol.INT && type != TypeSymbol.REAL)) {
+            throw NOT_CONSTANT;
+        }
+        VariableSymbol iterator = forExpression.getIterator();
+        BoundRangeExpression range = forExpression.getRangeExpression();
+
+        frame.variables.put(iterator, evaluateValue(range.getLowerBound(), frame));
+        while (true) {
+            Object upperBound = evaluateValue(range.getUpperBound(), frame);
+            if (!(boolean) evaluateBinaryOperation(BoundBinaryOperation.LESS_THAN, lookup(iterator, frame), upperBound)) {
+                break;
+            }
+            evaluate(forExpression.getBody(), frame);
+            if (frame.returned) {
+                break;
+            }
+            Object step = range.getStep() == null
+                    ? (type == TypeSymbol.INT ? (Object) 1 : (Object) 1.0D)
+                    : evaluateValue(range.getStep(), frame);
+            frame.variables.put(iterator, evaluateBinaryOperation(BoundBinaryOperation.ADDITION, lookup(iterator, frame), step));
+        }
+        return null;
+    }
+
+    private Object evaluateVariableDeclaration(BoundVariableDeclarationExpression variableDeclarationExpression, Frame frame) {
+        if (variableDeclarationExpression.getGuard() != null || variableDeclarationExpression.getInitialiser() == null) {
+            throw NOT_CONSTANT;
+        }
+        Object value = evaluateValue(variableDeclarationExpression.getInitialiser(), frame);
+        frame.variables.put(variableDeclarationExpression.getVariable(), value);
+        return value;
+    }
+
+    private Object evaluateAssignmentExpression(BoundAssignmentExpression assignmentExpression, Frame frame) {
+        //Anything not declared in this frame is a global or a captured variable, which the evaluator can't see
+        if (assignmentExpression.getGuard() != null || !frame.variables.containsKey(assignmentExpression.getVariable())) {
+            throw NOT_CONSTANT;
+        }
+        Object value = evaluateValue(assignmentExpression.getExpression(), frame);
+        frame.variables.put(assignmentExpression.getVariable(), value);
+        return value;
+    }
+
+    private Object evaluateIncrementExpression(BoundIncrementExpression incrementExpression, Frame frame) {
+        Object value = evaluateBinaryOperation(BoundBinaryOperation.ADDITION,
+                lookup(incrementExpression.getVariableSymbol(), frame),
+                incrementExpression.getAmount().getValue());
+        frame.variables.put(incrementExpression.getVariableSymbol(), value);
+        return value;
+    }
+
+    private Object evaluateReturnExpression(BoundReturnExpression returnExpression, Frame frame) {
+        if (returnExpression.getReturnValue() == null) {
+            throw NOT_CONSTANT;
+        }
+        frame.returnValue = evaluateValue(returnExpression.getReturnValue(), frame);
+        frame.returned = true;
+        return null;
+    }
+
+    private Object evaluateUnaryExpression(BoundUnaryExpression unaryExpression, Frame frame) {
+        Object operand = evaluateValue(unaryExpression.getOperand(), frame);
+
+        switch (unaryExpression.getOperator().getBoundOpType()) {
+            case NOT:
+                if (operand instanceof Boolean) {
+                    return !(boolean) operand;
+                }
+                break;
+            case NEGATION:
+                //Negation is compiled as a subtraction from zero, which differs from Java's negation for -0.0
+                if (operand instanceof Integer) {
+                    return 0 - (int) operand;
+                }
+                if (operand instanceof Double) {
+                    return 0.0D - (double) operand;
+                }
+                break;
+        }
+        throw NOT_CONSTANT;
+    }
+
+    private Object evaluateCastExpression(BoundCastExpression castExpression, Frame frame) {
+        Object value = evaluateValue(castExpression.getExpression(), frame);
+
+        if (castExpression.getType() == castExpression.getExpression().getType()) {
+            return value;
+        }
+        if (value instanceof Integer && castExpression.getType() == TypeSymbol.REAL) {
+            return (double) (int) value;
+        }
+        //Converting a Real that doesn't fit in an Int is undefined in LLVM
+        if (value instanceof Double && castExpression.getType() == TypeSymbol.INT
+                && (double) value > Integer.MIN_VALUE - 1.0D && (double) value < Integer.MAX_VALUE + 1.0D) {
+            return (int) (double) value;
+        }
+        throw NOT_CONSTANT;
+    }
+
+    private Object evaluateBinaryExpression(BoundBinaryExpression binaryExpression, Frame frame) {
+        Object left = evaluateValue(binaryExpression.getLeft(), frame);
+        Object right = evaluateValue(binaryExpression.getRight(), frame);
+
+        return evaluateBinaryOperation(binaryExpression.getOperator().getBoundOpType(), left, right);
+    }
+
+    private Object evaluateBinaryOperation(BoundBinaryOperation operation, Object left, Object right) {
+        if (left instanceof Integer && right instanceof Integer) {
+            return evaluateIntOperation(operation, (int) left, (int) right);
+        }
+        if (left instanceof Double && right instanceof Double) {
+            return evaluateRealOperation(operation, (double) left, (double) right);
+        }
+        if (left instanceof Boolean && right instanceof Boolean) {
+            return evaluateBoolOperation(operation, (boolean) left, (boolean) right);
+        }
+        throw NOT_CONSTANT;
+    }
+
+    private Object evaluateIntOperation(BoundBinaryOperation operation, int left, int right) {
+        switch (operation) {
+            case ADDITION:
+                return left + right;
+            case SUBTRACTION:
+                return left - right;
+            case MULTIPLICATION:
+                return left * right;
+            case DIVISION:
+            case REMAINDER:
+                //Both are undefined in LLVM, so they're left to fail at runtime
+                if (right == 0 || (left == Integer.MIN_VALUE && right == -1)) {
+                    throw NOT_CONSTANT;
+                }
+                return operation == BoundBinaryOperation.DIVISION ? left / right : left % right;
+            case GREATER_THAN:
+                return left > right;
+            case LESS_THAN:
+                return left < right;
+            case GREATER_THAN_OR_EQUAL:
+                return left >= right;
+            case LESS_THAN_OR_EQUAL:
+                return left <= right;
+            case EQUALS:
+                return left == right;
+            case NOT_EQUALS:
+                return left != right;
+            default:
+                throw NOT_CONSTANT;
+        }
+    }
+
+    private Object evaluateRealOperation(BoundBinaryOperation operation, double left, double right) {
+        switch (operation) {
+            case ADDITION:
+                return left + right;
+            case SUBTRACTION:
+                return left - right;
+            case MULTIPLICATION:
+                return left * right;
+            case DIVISION:
+                return left / right;
+            case REMAINDER:
+                return left % right;
+            case GREATER_THAN:
+                return left > right;
+            case LESS_THAN:
+                return left < right;
+            case GREATER_THAN_OR_EQUAL:
+                return left >= right;
+            case LESS_THAN_OR_EQUAL:
+                return left <= right;
+            case EQUALS:
+                return left == right;
+            case NOT_EQUALS:
+                //Reals are compared with ordered comparisons, so NaN isn't unequal to anything either
+                return !Double.isNaN(left) && !Double.isNaN(right) && left != right;
+            default:
+                throw NOT_CONSTANT;
+        }
+    }
+
+    private Object evaluateBoolOperation(BoundBinaryOperation operation, boolean left, boolean right) {
+        switch (operation) {
+            case EQUALS:
+                return left == right;
+            case NOT_EQUALS:
+                return left != right;
+            case BOOLEAN_OR:
+                return left || right;
+            case BOOLEAN_AND:
+                return left && right;
+            case BOOLEAN_XOR:
+                return left ^ right;
+            default:
+                throw NOT_CONSTANT;
+        }
+    }
+
+    protected static boolean isModelled(TypeSymbol type) {
+        return type == TypeSymbol.INT || type == TypeSymbol.REAL || type == TypeSymbol.BOOL;
+    }
+
+    private static final class Frame {
+        private final Map<VariableSymbol, Object> variables = new HashMap<>();
+        private boolean returned = false;
+        private Object returnValue;
+    }
+
+    //Thrown whenever evaluation reaches something it can't model, it's shared as it's only used for control flow
+    private static final class NotConstantException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean outOfBudget;
+
+        private NotConstantException(boolean outOfBudget) {
+            super(null, null, false, false);
+            this.outOfBudget = outOfBudget;
+        }
+    }
+}
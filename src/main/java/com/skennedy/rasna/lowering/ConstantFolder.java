@@ -0,0 +1,205 @@
+package com.skennedy.rasna.lowering;
+
+import com.skennedy.rasna.typebinding.BoundBlockExpression;
+import com.skennedy.rasna.typebinding.BoundExpression;
+import com.skennedy.rasna.typebinding.BoundForExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionCallExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionParameterExpression;
+import com.skennedy.rasna.typebinding.BoundIfExpression;
+import com.skennedy.rasna.typebinding.BoundLiteralExpression;
+import com.skennedy.rasna.typebinding.BoundProgram;
+import com.skennedy.rasna.typebinding.BoundRangeExpression;
+import com.skennedy.rasna.typebinding.BoundVariableDeclarationExpression;
+import com.skennedy.rasna.typebinding.BoundVariableExpression;
+import com.skennedy.rasna.typebinding.FlowAnalysis;
+import com.skennedy.rasna.typebinding.VariableSymbol;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * Propagates the values of read-only variables initialised with constants, folds the expressions that become
+ * constant as a result, and removes the if branches and loops that can never run.
+ * <p>
+ * Declarations of constants that are no longer referenced once their values have been propagated are removed too,
+ * so constants used as configuration flags cost nothing at runtime.
+ */
+public class ConstantFolder extends CompileTimeEvaluator {
+
+    //Variables are equal by name, so a constant has to be matched to the declaration that introduced it rather than
+    //to every variable of the same name in the program
+    private final Map<VariableSymbol, BoundLiteralExpression> constants = new IdentityHashMap<>();
+    private final Set<VariableSymbol> passedByReference = new HashSet<>();
+    private final List<BoundBlockExpression> rewrittenBlocks = new ArrayList<>();
+
+    @Override
+    public BoundProgram rewrite(BoundProgram program) {
+
+        DeadCodeEliminator.forEachExpression(program.getExpressions(), expression -> {
+            if (expression instanceof BoundFunctionCallExpression) {
+                collectReferenceArguments((BoundFunctionCallExpression) expression);
+            }
+        });
+        //Globals can be referenced by functions declared before them
+        collectGlobalConstants(program.getExpressions());
+
+        BoundProgram rewrittenProgram = super.rewrite(program);
+
+        Set<VariableSymbol> referencedVariables = new HashSet<>();
+        DeadCodeEliminator.forEachExpression(rewrittenProgram.getExpressions(), expression -> {
+            if (expression instanceof BoundVariableExpression) {
+                referencedVariables.add(((BoundVariableExpression) expression).getVariable());
+            }
+        });
+        UnaryOperator<BoundExpression> removeUnreferencedConstant = expression -> {
+            if (expression instanceof BoundVariableDeclarationExpression) {
+                VariableSymbol variable = ((BoundVariableDeclarationExpression) expression).getVariable();
+                if (constants.containsKey(variable) && !referencedVariables.contains(variable)) {
+                    return new BoundNoOpExpression();
+                }
+            }
+            return expression;
+        };
+        rewrittenProgram.getExpressions().replaceAll(removeUnreferencedConstant);
+        for (BoundBlockExpression block : rewrittenBlocks) {
+            block.getExpressions().replaceAll(removeUnreferencedConstant);
+        }
+
+        return rewrittenProgram;
+    }
+
+    private void collectReferenceArguments(BoundFunctionCallExpression functionCallExpression) {
+        List<BoundFunctionParameterExpression> parameters = functionCallExpression.getFunction().getArguments();
+        List<BoundExpression> arguments = functionCallExpression.getBoundArguments();
+        for (int i = 0; i < Math.min(parameters.size(), arguments.size()); i++) {
+            if (parameters.get(i).isReference() && arguments.get(i) instanceof BoundVariableExpression) {
+                passedByReference.add(((BoundVariableExpression) arguments.get(i)).getVariable());
+            }
+        }
+    }
+
+    private void collectGlobalConstants(List<BoundExpression> expressions) {
+        for (BoundExpression expression : expressions) {
+            if (expression instanceof BoundVariableDeclarationExpression) {
+                collectConstant((BoundVariableDeclarationExpression) expression);
+            } else if (expression instanceof BoundBlockExpression) {
+                collectGlobalConstants(((BoundBlockExpression) expression).getExpressions());
+            }
+        }
+    }
+
+    private void collectConstant(BoundVariableDeclarationExpression variableDeclarationExpression) {
+        VariableSymbol variable = variableDeclarationExpression.getVariable();
+        if (!variableDeclarationExpression.isReadOnly()
+                || variableDeclarationExpression.getGuard() != null
+                || !(variableDeclarationExpression.getInitialiser() instanceof BoundLiteralExpression)
+                || passedByReference.contains(variable)) {
+            return;
+        }
+        BoundLiteralExpression initialiser = (BoundLiteralExpression) variableDeclarationExpression.getInitialiser();
+        if (isModelled(initialiser.getType()) && initialiser.getType() == variable.getType()) {
+            constants.put(variable, initialiser);
+        }
+    }
+
+    @Override
+    protected BoundExpression rewriteExpression(BoundExpression expression) {
+        switch (expression.getBoundExpressionType()) {
+            case VARIABLE_EXPRESSION:
+                BoundLiteralExpression constant = constants.get(((BoundVariableExpression) expression).getVariable());
+                return constant == null ? expression : constant;
+            case BINARY_EXPRESSION:
+            case UNARY_EXPRESSION:
+            case CAST_EXPRESSION:
+                return fold(super.rewriteExpression(expression));
+            default:
+                return super.rewriteExpression(expression);
+        }
+    }
+
+    private BoundExpression fold(BoundExpression expression) {
+        if (!isModelled(expression.getType())) {
+            return expression;
+        }
+        return tryEvaluate(expression)
+                .<BoundExpression>map(BoundLiteralExpression::new)
+                .orElse(expression);
+    }
+
+    @Override
+    protected BoundExpression rewriteVariableDeclaration(BoundVariableDeclarationExpression variableDeclarationExpression) {
+        BoundExpression rewrittenExpression = super.rewriteVariableDeclaration(variableDeclarationExpression);
+        if (rewrittenExpression instanceof BoundVariableDeclarationExpression) {
+            collectConstant((BoundVariableDeclarationExpression) rewrittenExpression);
+        }
+        return rewrittenExpression;
+    }
+
+    @Override
+    BoundBlockExpression rewriteBlockExpression(BoundBlockExpression blockExpression) {
+        BoundBlockExpression rewrittenBlock = super.rewriteBlockExpression(blockExpression);
+
+        //A pruned if can leave a return in the middle of a block, and nothing after it can be compiled
+        List<BoundExpression> expressions = rewrittenBlock.getExpressions();
+        for (int i = 0; i < expressions.size() - 1; i++) {
+            if (!FlowAnalysis.canComplete(expressions.get(i))) {
+                expressions.subList(i + 1, expressions.size()).clear();
+                break;
+            }
+        }
+        rewrittenBlocks.add(rewrittenBlock);
+
+        return rewrittenBlock;
+    }
+
+    @Override
+    protected BoundExpression rewriteIfExpression(BoundIfExpression ifExpression) {
+        BoundExpression condition = rewriteExpression(ifExpression.getCondition());
+
+        if (condition instanceof BoundLiteralExpression) {
+            if ((boolean) ((BoundLiteralExpression) condition).getValue()) {
+                return rewriteExpression(ifExpression.getBody());
+            }
+            return ifExpression.getElseBody() == null
+                    ? new BoundNoOpExpression()
+                    : rewriteExpression(ifExpression.getElseBody());
+        }
+        BoundExpression body = rewriteExpression(ifExpression.getBody());
+        BoundExpression elseBody = ifExpression.getElseBody() == null ? null : rewriteExpression(ifExpression.getElseBody());
+
+        return new BoundIfExpression(condition, body, elseBody);
+    }
+
+    @Override
+    protected BoundExpression rewriteForExpression(BoundForExpression forExpression) {
+        BoundExpression rewrittenExpression = super.rewriteForExpression(forExpression);
+
+        if (rewrittenExpression instanceof BoundForExpression && neverRuns(((BoundForExpression) rewrittenExpression).getRangeExpression())) {
+            return new BoundNoOpExpression();
+        }
+        return rewrittenExpression;
+    }
+
+    //Ranges run while the iterator is below the upper bound, so a range that starts at or above it runs zero times
+    private static boolean neverRuns(BoundRangeExpression rangeExpression) {
+        if (!(rangeExpression.getLowerBound() instanceof BoundLiteralExpression)
+                || !(rangeExpression.getUpperBound() instanceof BoundLiteralExpression)
+                || rangeExpression.getStep() != null && !(rangeExpression.getStep() instanceof BoundLiteralExpression)) {
+            return false;
+        }
+        Object lowerBound = ((BoundLiteralExpression) rangeExpression.getLowerBound()).getValue();
+        Object upperBound = ((BoundLiteralExpression) rangeExpression.getUpperBound()).getValue();
+        if (lowerBound instanceof Integer && upperBound instanceof Integer) {
+            return (int) lowerBound >= (int) upperBound;
+        }
+        if (lowerBound instanceof Double && upperBound instanceof Double) {
+            return !((double) lowerBound < (double) upperBound);
+        }
+        return false;
+    }
+}
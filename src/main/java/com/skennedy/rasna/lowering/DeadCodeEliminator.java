@@ -0,0 +1,204 @@
+package com.skennedy.rasna.lowering;
+
+import com.skennedy.rasna.typebinding.ArrayTypeSymbol;
+import com.skennedy.rasna.typebinding.BoundAssignmentExpression;
+import com.skennedy.rasna.typebinding.BoundBlockExpression;
+import com.skennedy.rasna.typebinding.BoundCStyleForExpression;
+import com.skennedy.rasna.typebinding.BoundExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionCallExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionDeclarationExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionParameterExpression;
+import com.skennedy.rasna.typebinding.BoundIfExpression;
+import com.skennedy.rasna.typebinding.BoundPositionalAccessExpression;
+import com.skennedy.rasna.typebinding.BoundProgram;
+import com.skennedy.rasna.typebinding.BoundWithBlockExpression;
+import com.skennedy.rasna.typebinding.FunctionSymbol;
+import com.skennedy.rasna.typebinding.ParameterisedTypeSymbol;
+import com.skennedy.rasna.typebinding.TupleTypeSymbol;
+import com.skennedy.rasna.typebinding.TypeSymbol;
+import com.skennedy.rasna.typebinding.UnionTypeSymbol;
+import com.skennedy.rasna.typebinding.VariableSymbol;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Removes the functions, structs and enums that can't be reached from `main` or from top level code,
+ * so that unused library code is never lowered or compiled
+ */
+public class DeadCodeEliminator {
+
+    private final Map<FunctionSymbol, List<BoundFunctionDeclarationExpression>> declarations = new HashMap<>();
+    private final Set<FunctionSymbol> reachableFunctions = new HashSet<>();
+    private final Set<TypeSymbol> usedTypes = new HashSet<>();
+
+    public BoundProgram eliminate(BoundProgram program) {
+
+        List<BoundExpression> roots = new ArrayList<>();
+        collectDeclarations(program.getExpressions(), roots);
+
+        Deque<BoundExpression> toVisit = new ArrayDeque<>(roots);
+        while (!toVisit.isEmpty()) {
+            BoundExpression expression = toVisit.pop();
+            useType(expression.getType());
+
+            if (expression instanceof BoundFunctionCallExpression) {
+                FunctionSymbol function = ((BoundFunctionCallExpression) expression).getFunction();
+                if (reachableFunctions.add(function)) {
+                    for (BoundFunctionDeclarationExpression declaration : declarations.getOrDefault(function, List.of())) {
+                        useFunction(declaration, toVisit);
+                    }
+                }
+            }
+            pushChildren(toVisit, expression);
+        }
+
+        return new BoundProgram(removeUnreachable(program.getExpressions()), program.getErrors(), program.getWarnings());
+    }
+
+    /**
+     * @return every function called anywhere in the given expressions
+     */
+    public static Set<FunctionSymbol> findCalledFunctions(List<BoundExpression> expressions) {
+        Set<FunctionSymbol> calledFunctions = new HashSet<>();
+
+        forEachExpression(expressions, expression -> {
+            if (expression instanceof BoundFunctionCallExpression) {
+                calledFunctions.add(((BoundFunctionCallExpression) expression).getFunction());
+            }
+        });
+        return calledFunctions;
+    }
+
+    /**
+     * Visits the given expressions and every expression nested inside them
+     */
+    public static void forEachExpression(List<BoundExpression> expressions, Consumer<BoundExpression> action) {
+        Deque<BoundExpression> toVisit = new ArrayDeque<>(expressions);
+        while (!toVisit.isEmpty()) {
+            BoundExpression expression = toVisit.pop();
+            action.accept(expression);
+            pushChildren(toVisit, expression);
+        }
+    }
+
+    private void collectDeclarations(List<BoundExpression> expressions, List<BoundExpression> roots) {
+        for (BoundExpression expression : expressions) {
+            switch (expression.getBoundExpressionType()) {
+                case FUNCTION_DECLARATION:
+                    BoundFunctionDeclarationExpression declaration = (BoundFunctionDeclarationExpression) expression;
+                    declarations.computeIfAbsent(declaration.getFunctionSymbol(), f -> new ArrayList<>()).add(declaration);
+                    if (declaration.getFunctionSymbol().getName().equals("main")) {
+                        reachableFunctions.add(declaration.getFunctionSymbol());
+                        roots.add(declaration);
+                    }
+                    break;
+                case BLOCK:
+                    //Namespaces are bound to blocks at the top level
+                    collectDeclarations(((BoundBlockExpression) expression).getExpressions(), roots);
+                    break;
+                case STRUCT_DECLARATION_EXPRESSION:
+                case ENUM_DECLARATION_EXPRESSION:
+                    break;
+                default:
+                    roots.add(expression);
+            }
+        }
+    }
+
+    private void useFunction(BoundFunctionDeclarationExpression declaration, Deque<BoundExpression> toVisit) {
+        useType(declaration.getFunctionSymbol().getType());
+        for (BoundFunctionParameterExpression argument : declaration.getArguments()) {
+            useType(argument.getType());
+        }
+        acceptIfPresent(toVisit::push, declaration.getBody());
+    }
+
+    private void useType(TypeSymbol type) {
+        if (type == null || !usedTypes.add(type)) {
+            return;
+        }
+        for (VariableSymbol field : type.getFields().values()) {
+            useType(field.getType());
+        }
+        if (type instanceof ArrayTypeSymbol) {
+            useType(((ArrayTypeSymbol) type).getType());
+        } else if (type instanceof TupleTypeSymbol) {
+            ((TupleTypeSymbol) type).getTypes().forEach(this::useType);
+        } else if (type instanceof UnionTypeSymbol) {
+            ((UnionTypeSymbol) type).getTypes().forEach(this::useType);
+        }
+    }
+
+    private List<BoundExpression> removeUnreachable(List<BoundExpression> expressions) {
+        List<BoundExpression> reachable = new ArrayList<>();
+        for (BoundExpression expression : expressions) {
+            switch (expression.getBoundExpressionType()) {
+                case FUNCTION_DECLARATION:
+                    if (reachableFunctions.contains(((BoundFunctionDeclarationExpression) expression).getFunctionSymbol())) {
+                        reachable.add(expression);
+                    }
+                    break;
+                case BLOCK:
+                    reachable.add(new BoundBlockExpression(removeUnreachable(((BoundBlockExpression) expression).getExpressions())));
+                    break;
+                case STRUCT_DECLARATION_EXPRESSION:
+                case ENUM_DECLARATION_EXPRESSION:
+                    //Parameterised structs are declared under their generic name, so we can't tell if they're in use
+                    if (usedTypes.contains(expression.getType()) || expression.getType() instanceof ParameterisedTypeSymbol) {
+                        reachable.add(expression);
+                    }
+                    break;
+                default:
+                    reachable.add(expression);
+            }
+        }
+        return reachable;
+    }
+
+    //getChildren leaves out some subexpressions that aren't relevant to const folding but can still contain calls
+    private static void pushChildren(Deque<BoundExpression> toVisit, BoundExpression expression) {
+        forEachChild(expression, toVisit::push);
+    }
+
+    /**
+     * Visits the expressions directly nested inside the given one, including those its `getChildren` leaves out
+     */
+    public static void forEachChild(BoundExpression expression, Consumer<BoundExpression> action) {
+        switch (expression.getBoundExpressionType()) {
+            case IF:
+                acceptIfPresent(action, ((BoundIfExpression) expression).getCondition());
+                break;
+            case C_STYLE_FOR_EXPRESSION:
+                acceptIfPresent(action, ((BoundCStyleForExpression) expression).getInitialisation());
+                break;
+            case POSITIONAL_ACCESS_EXPRESSION:
+                acceptIfPresent(action, ((BoundPositionalAccessExpression) expression).getArray());
+                break;
+            case ASSIGNMENT_EXPRESSION:
+                acceptIfPresent(action, ((BoundAssignmentExpression) expression).getGuard());
+                break;
+            case WITH_EXPRESSION:
+                acceptIfPresent(action, ((BoundWithBlockExpression) expression).getCloseCall());
+                break;
+            case FUNCTION_DECLARATION:
+                ((BoundFunctionDeclarationExpression) expression).getArguments().forEach(action);
+                break;
+        }
+        expression.getChildren().forEachRemaining(child -> acceptIfPresent(action, child));
+    }
+
+    //Some expressions have optional children which are null when absent
+    private static void acceptIfPresent(Consumer<BoundExpression> action, BoundExpression expression) {
+        if (expression != null) {
+            action.accept(expression);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.skennedy.rasna.lowering;
+
+import com.skennedy.rasna.parsing.model.OpType;
+import com.skennedy.rasna.typebinding.BoundAssignmentExpression;
+import com.skennedy.rasna.typebinding.BoundBinaryExpression;
+import com.skennedy.rasna.typebinding.BoundBinaryOperator;
+import com.skennedy.rasna.typebinding.BoundBinaryOperator.BoundBinaryOperation;
+import com.skennedy.rasna.typebinding.BoundBlockExpression;
+import com.skennedy.rasna.typebinding.BoundCStyleForExpression;
+import com.skennedy.rasna.typebinding.BoundExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionCallExpression;
+import com.skennedy.rasna.typebinding.BoundIfExpression;
+import com.skennedy.rasna.typebinding.BoundIncrementExpression;
+import com.skennedy.rasna.typebinding.BoundLiteralExpression;
+import com.skennedy.rasna.typebinding.BoundRangeExpression;
+import com.skennedy.rasna.typebinding.BoundVariableDeclarationExpression;
+import com.skennedy.rasna.typebinding.BoundVariableExpression;
+import com.skennedy.rasna.typebinding.TypeSymbol;
+import com.skennedy.rasna.typebinding.VariableSymbol;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Lowers an Int range loop with a guard, folding the parts of the guard it can into the range itself so the loop
+ * only visits the values the guard would have kept.
+ * <p>
+ * `i mod k == c` moves the start to the first value that satisfies it and steps by `k` (or the least common
+ * multiple of `k` and the range's own step), and comparisons between `i` and a value the loop can't change raise the
+ * start or lower the end of the range. Whatever is left of the guard is checked by an if in the body as before.
+ */
+final class GuardedRange {
+
+    private final VariableSymbol iterator;
+    private final BoundExpression body;
+    private final List<BoundExpression> preheader = new ArrayList<>();
+    private final List<BoundExpression> remainingGuards = new ArrayList<>();
+
+    private BoundExpression start;
+    private BoundExpression end;
+    private int step;
+
+    GuardedRange(VariableSymbol iterator, BoundRangeExpression rangeExpression, BoundExpression body) {
+        if (!canNarrow(rangeExpression)) {
+            throw new IllegalArgumentException("Only ranges with a positive constant step can be narrowed");
+        }
+        this.iterator = iterator;
+        this.body = body;
+        this.start = rangeExpression.getLowerBound();
+        this.end = rangeExpression.getUpperBound();
+        this.step = rangeExpression.getStep() == null ? 1 : getIntValue(rangeExpression.getStep());
+    }
+
+    //The start and step are worked out from the step, so it has to be known before the loop runs
+    static boolean canNarrow(BoundRangeExpression rangeExpression) {
+        BoundExpression step = rangeExpression.getStep();
+        return step == null || getIntValue(step) != null && getIntValue(step) > 0;
+    }
+
+    BoundExpression lower(BoundExpression guard) {
+        List<BoundExpression> guards = new ArrayList<>();
+        splitConjunction(guard, guards);
+
+        //Residues first, as narrowing the bounds afterwards keeps the start on the new step
+        boolean steppedByResidue = false;
+        List<BoundExpression> bounds = new ArrayList<>();
+        for (BoundExpression condition : guards) {
+            if (isResidue(condition)) {
+                if (steppedByResidue || !stepByResidue((BoundBinaryExpression) condition)) {
+                    remainingGuards.add(condition);
+                }
+                steppedByResidue = true;
+            } else {
+                bounds.add(condition);
+            }
+        }
+        for (BoundExpression condition : bounds) {
+            if (!narrowBounds(condition)) {
+                remainingGuards.add(condition);
+            }
+        }
+
+        BoundExpression loopBody = body;
+        if (!remainingGuards.isEmpty()) {
+            BoundExpression remainingGuard = remainingGuards.get(0);
+            for (int i = 1; i < remainingGuards.size(); i++) {
+                remainingGuard = new BoundBinaryExpression(remainingGuard, BoundBinaryOperator.bind(OpType.LAND, TypeSymbol.BOOL, TypeSymbol.BOOL), remainingGuards.get(i));
+            }
+            loopBody = new BoundIfExpression(remainingGuard, body, null);
+        }
+
+        BoundVariableExpression iteratorExpression = new BoundVariableExpression(iterator);
+        BoundCStyleForExpression loop = new BoundCStyleForExpression(
+                new BoundVariableDeclarationExpression(iterator, null, start, false),
+                binary(iteratorExpression, OpType.LT, end),
+                new BoundAssignmentExpression(iterator, null, binary(iteratorExpression, OpType.ADD, new BoundLiteralExpression(step))),
+                loopBody
+        );
+        if (preheader.isEmpty()) {
+            return loop;
+        }
+        List<BoundExpression> expressions = new ArrayList<>(preheader);
+        expressions.add(loop);
+        return new BoundBlockExpression(expressions);
+    }
+
+    private void splitConjunction(BoundExpression guard, List<BoundExpression> guards) {
+        if (guard instanceof BoundBinaryExpression && ((BoundBinaryExpression) guard).getOperator().getBoundOpType() == BoundBinaryOperation.BOOLEAN_AND) {
+            splitConjunction(((BoundBinaryExpression) guard).getLeft(), guards);
+            splitConjunction(((BoundBinaryExpression) guard).getRight(), guards);
+        } else {
+            guards.add(guard);
+        }
+    }
+
+    //`i mod k == c` or `c == i mod k`
+    private boolean isResidue(BoundExpression condition) {
+        if (!(condition instanceof BoundBinaryExpression) || ((BoundBinaryExpression) condition).getOperator().getBoundOpType() != BoundBinaryOperation.EQUALS) {
+            return false;
+        }
+        BoundBinaryExpression equality = (BoundBinaryExpression) condition;
+        return isIteratorModulus(equality.getLeft()) && getIntValue(equality.getRight()) != null
+                || isIteratorModulus(equality.getRight()) && getIntValue(equality.getLeft()) != null;
+    }
+
+    private boolean isIteratorModulus(BoundExpression expression) {
+        if (!(expression instanceof BoundBinaryExpression)) {
+            return false;
+        }
+        BoundBinaryExpression binaryExpression = (BoundBinaryExpression) expression;
+        return binaryExpression.getOperator().getBoundOpType() == BoundBinaryOperation.REMAINDER
+                && isIterator(binaryExpression.getLeft())
+                && getIntValue(binaryExpression.getRight()) != null;
+    }
+
+    private boolean stepByResidue(BoundBinaryExpression equality) {
+        boolean modulusOnLeft = isIteratorModulus(equality.getLeft());
+        BoundBinaryExpression modulus = (BoundBinaryExpression) (modulusOnLeft ? equality.getLeft() : equality.getRight());
+        int k = getIntValue(modulus.getRight());
+        int c = getIntValue(modulusOnLeft ? equality.getRight() : equality.getLeft());
+        if (k <= 0 || c < 0 || c >= k) {
+            return false;
+        }
+
+        //The remainder takes the sign of `i`, so only a residue of 0 is kept for negative values
+        Integer lowerBound = getIntValue(start);
+        if (lowerBound != null) {
+            long first = lowerBound;
+            if (c > 0 && first < 0) {
+                first += (-first + step - 1) / step * step;
+            }
+            for (int n = 0; n < k; n++, first += step) {
+                if (first % k == c) {
+                    start = new BoundLiteralExpression((int) first);
+                    step = lcm(step, k);
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (step != 1) {
+            return false;
+        }
+        VariableSymbol first = declare("range-start", start);
+        if (c > 0) {
+            preheader.add(new BoundIfExpression(binary(new BoundVariableExpression(first), OpType.LT, new BoundLiteralExpression(0)),
+                    new BoundBlockExpression(new BoundAssignmentExpression(first, null, new BoundLiteralExpression(0))), null));
+        }
+        //first + ((c - first mod k) mod k + k) mod k
+        BoundExpression firstExpression = new BoundVariableExpression(first);
+        BoundExpression offset = binary(new BoundLiteralExpression(c), OpType.SUB, binary(firstExpression, OpType.MOD, new BoundLiteralExpression(k)));
+        offset = binary(binary(binary(offset, OpType.MOD, new BoundLiteralExpression(k)), OpType.ADD, new BoundLiteralExpression(k)), OpType.MOD, new BoundLiteralExpression(k));
+        preheader.add(new BoundAssignmentExpression(first, null, binary(firstExpression, OpType.ADD, offset)));
+        start = firstExpression;
+        step = k;
+        return true;
+    }
+
+    //`i > x`, `i >= x`, `i < x` or `i <= x`, either way round, where the loop can't change `x`
+    private boolean narrowBounds(BoundExpression condition) {
+        if (!(condition instanceof BoundBinaryExpression)) {
+            return false;
+        }
+        BoundBinaryExpression comparison = (BoundBinaryExpression) condition;
+        BoundBinaryOperation operation = comparison.getOperator().getBoundOpType();
+        BoundExpression bound;
+        if (isIterator(comparison.getLeft()) && isInvariant(comparison.getRight())) {
+            bound = comparison.getRight();
+        } else if (isIterator(comparison.getRight()) && isInvariant(comparison.getLeft())) {
+            bound = comparison.getLeft();
+            operation = flip(operation);
+        } else {
+            return false;
+        }
+
+        switch (operation) {
+            case GREATER_THAN:
+                raiseStart(binary(bound, OpType.ADD, new BoundLiteralExpression(1)));
+                return true;
+            case GREATER_THAN_OR_EQUAL:
+                raiseStart(bound);
+                return true;
+            case LESS_THAN:
+                return lowerEnd(bound);
+            case LESS_THAN_OR_EQUAL:
+                return lowerEnd(binary(bound, OpType.ADD, new BoundLiteralExpression(1)));
+            default:
+                return false;
+        }
+    }
+
+    private static BoundBinaryOperation flip(BoundBinaryOperation operation) {
+        switch (operation) {
+            case GREATER_THAN:
+                return BoundBinaryOperation.LESS_THAN;
+            case GREATER_THAN_OR_EQUAL:
+                return BoundBinaryOperation.LESS_THAN_OR_EQUAL;
+            case LESS_THAN:
+                return BoundBinaryOperation.GREATER_THAN;
+            case LESS_THAN_OR_EQUAL:
+                return BoundBinaryOperation.GREATER_THAN_OR_EQUAL;
+            default:
+                return operation;
+        }
+    }
+
+    //Moves the start up to the first value on the step that is at least the bound
+    private void raiseStart(BoundExpression bound) {
+        Integer lowerBound = getIntValue(start);
+        Integer minimum = getIntValue(bound);
+        if (lowerBound != null && minimum != null) {
+            long first = lowerBound;
+            if (first < minimum) {
+                first += ((long) minimum - first + step - 1) / step * step;
+            }
+            start = new BoundLiteralExpression((int) first);
+            return;
+        }
+        VariableSymbol first = declare("range-start", start);
+        BoundVariableExpression firstExpression = new BoundVariableExpression(first);
+        BoundExpression raisedStart = bound;
+        if (step != 1) {
+            BoundExpression steps = binary(binary(binary(bound, OpType.SUB, firstExpression), OpType.ADD, new BoundLiteralExpression(step - 1)), OpType.DIV, new BoundLiteralExpression(step));
+            raisedStart = binary(firstExpression, OpType.ADD, binary(steps, OpType.MUL, new BoundLiteralExpression(step)));
+        }
+        preheader.add(new BoundIfExpression(binary(firstExpression, OpType.LT, bound),
+                new BoundBlockExpression(new BoundAssignmentExpression(first, null, raisedStart)), null));
+        start = firstExpression;
+    }
+
+    //The range's own end is checked on every iteration too, so it can only be replaced if the body can't change it
+    private boolean lowerEnd(BoundExpression bound) {
+        if (!isInvariant(end)) {
+            return false;
+        }
+        Integer upperBound = getIntValue(end);
+        Integer maximum = getIntValue(bound);
+        if (upperBound != null && maximum != null) {
+            end = new BoundLiteralExpression(Math.min(upperBound, maximum));
+            return true;
+        }
+        VariableSymbol last = declare("range-end", end);
+        preheader.add(new BoundIfExpression(binary(bound, OpType.LT, new BoundVariableExpression(last)),
+                new BoundBlockExpression(new BoundAssignmentExpression(last, null, bound)), null));
+        end = new BoundVariableExpression(last);
+        return true;
+    }
+
+    private VariableSymbol declare(String name, BoundExpression initialiser) {
+        VariableSymbol variable = new VariableSymbol(name + "-" + UUID.randomUUID().toString(), TypeSymbol.INT, null, false, null);
+        preheader.add(new BoundVariableDeclarationExpression(variable, null, initialiser, false));
+        return variable;
+    }
+
+    //The guard is checked on every iteration, so a bound moved before the loop mustn't be something the body changes
+    private boolean isInvariant(BoundExpression expression) {
+        if (getIntValue(expression) != null) {
+            return true;
+        }
+        if (!(expression instanceof BoundVariableExpression) || expression.getType() != TypeSymbol.INT || isIterator(expression)) {
+            return false;
+        }
+        VariableSymbol variable = ((BoundVariableExpression) expression).getVariable();
+        Set<VariableSymbol> written = new HashSet<>();
+        boolean[] callsFunction = {false};
+        DeadCodeEliminator.forEachExpression(List.of(body), child -> {
+            if (child instanceof BoundAssignmentExpression) {
+                written.add(((BoundAssignmentExpression) child).getVariable());
+            } else if (child instanceof BoundIncrementExpression) {
+                written.add(((BoundIncrementExpression) child).getVariableSymbol());
+            } else if (child instanceof BoundFunctionCallExpression) {
+                //Globals and references can be changed by the function
+                callsFunction[0] = true;
+            }
+        });
+        return !callsFunction[0] && !written.contains(variable);
+    }
+
+    private boolean isIterator(BoundExpression expression) {
+        return expression instanceof BoundVariableExpression && ((BoundVariableExpression) expression).getVariable().equals(iterator);
+    }
+
+    private static Integer getIntValue(BoundExpression expression) {
+        if (expression instanceof BoundLiteralExpression && ((BoundLiteralExpression) expression).getValue() instanceof Integer) {
+            return (Integer) ((BoundLiteralExpression) expression).getValue();
+        }
+        return null;
+    }
+
+    private static BoundBinaryExpression binary(BoundExpression left, OpType opType, BoundExpression right) {
+        return new BoundBinaryExpression(left, BoundBinaryOperator.bind(opType, TypeSymbol.INT, TypeSymbol.INT), right);
+    }
+
+    private static int lcm(int a, int b) {
+        int gcd = a;
+        for (int remainder = b; remainder != 0; ) {
+            int next = gcd % remainder;
+            gcd = remainder;
+            remainder = next;
+        }
+        return a / gcd * b;
+    }
+}
@@ -0,0 +1,738 @@
+package com.skennedy.rasna.lowering;
+
+import com.skennedy.rasna.typebinding.ArrayTypeSymbol;
+import com.skennedy.rasna.typebinding.BoundArrayAssignmentExpression;
+import com.skennedy.rasna.typebinding.BoundArrayDeclarationExpression;
+import com.skennedy.rasna.typebinding.BoundArrayLiteralExpression;
+import com.skennedy.rasna.typebinding.BoundAssignmentExpression;
+import com.skennedy.rasna.typebinding.BoundBinaryExpression;
+import com.skennedy.rasna.typebinding.BoundBlockExpression;
+import com.skennedy.rasna.typebinding.BoundCastExpression;
+import com.skennedy.rasna.typebinding.BoundExpression;
+import com.skennedy.rasna.typebinding.BoundExpressionType;
+import com.skennedy.rasna.typebinding.BoundForExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionCallExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionDeclarationExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionParameterExpression;
+import com.skennedy.rasna.typebinding.BoundIfExpression;
+import com.skennedy.rasna.typebinding.BoundIncrementExpression;
+import com.skennedy.rasna.typebinding.BoundLiteralExpression;
+import com.skennedy.rasna.typebinding.BoundMemberAccessorExpression;
+import com.skennedy.rasna.typebinding.BoundMemberAssignmentExpression;
+import com.skennedy.rasna.typebinding.BoundPositionalAccessExpression;
+import com.skennedy.rasna.typebinding.BoundPrintExpression;
+import com.skennedy.rasna.typebinding.BoundProgram;
+import com.skennedy.rasna.typebinding.BoundRangeExpression;
+import com.skennedy.rasna.typebinding.BoundReturnExpression;
+import com.skennedy.rasna.typebinding.BoundStructLiteralExpression;
+import com.skennedy.rasna.typebinding.BoundTupleIndexExpression;
+import com.skennedy.rasna.typebinding.BoundTupleLiteralExpression;
+import com.skennedy.rasna.typebinding.BoundUnaryExpression;
+import com.skennedy.rasna.typebinding.BoundVariableDeclarationExpression;
+import com.skennedy.rasna.typebinding.BoundVariableExpression;
+import com.skennedy.rasna.typebinding.BoundWhileExpression;
+import com.skennedy.rasna.typebinding.FlowAnalysis;
+import com.skennedy.rasna.typebinding.FunctionSymbol;
+import com.skennedy.rasna.typebinding.TypeSymbol;
+import com.skennedy.rasna.typebinding.VariableSymbol;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.skennedy.rasna.typebinding.BoundExpressionType.ARRAY_LENGTH_EXPRESSION;
+import static com.skennedy.rasna.typebinding.BoundExpressionType.BINARY_EXPRESSION;
+import static com.skennedy.rasna.typebinding.BoundExpressionType.BINARY_OPERATOR;
+import static com.skennedy.rasna.typebinding.BoundExpressionType.CAST_EXPRESSION;
+import static com.skennedy.rasna.typebinding.BoundExpressionType.FUNCTION_CALL;
+import static com.skennedy.rasna.typebinding.BoundExpressionType.LITERAL;
+import static com.skennedy.rasna.typebinding.BoundExpressionType.MEMBER_ACCESSOR;
+import static com.skennedy.rasna.typebinding.BoundExpressionType.POSITIONAL_ACCESS_EXPRESSION;
+import static com.skennedy.rasna.typebinding.BoundExpressionType.RETURN;
+import static com.skennedy.rasna.typebinding.BoundExpressionType.TUPLE_INDEX_EXPRESSION;
+import static com.skennedy.rasna.typebinding.BoundExpressionType.UNARY_EXPRESSION;
+import static com.skennedy.rasna.typebinding.BoundExpressionType.UNARY_OPERATOR;
+import static com.skennedy.rasna.typebinding.BoundExpressionType.VARIABLE_EXPRESSION;
+
+/**
+ * Substitutes the bodies of small functions, functions with a single call site and functions declared `inline`
+ * at their call sites, so the calls cost nothing and the bodies are exposed to constant folding.
+ * <p>
+ * A body is copied with fresh symbols for its locals, and its parameters are replaced by the arguments when that
+ * can't change what the body sees, or by fresh variables initialised with them otherwise. A call nested inside an
+ * expression is only replaced when the body is a single `return`. Other calls are expanded into the block around
+ * them, with each `return` turned into an assignment to a result variable and the rest of the body moved into the
+ * branch that doesn't return. Recursive functions are never inlined.
+ */
+public class Inliner extends BoundProgramRewriter {
+
+    private static final Logger log = LogManager.getLogger(Inliner.class);
+
+    //Counted in bound expressions, enough for a one or two line function
+    private static final int SMALL_FUNCTION_SIZE = 16;
+
+    private static final Set<BoundExpressionType> COPYABLE_EXPRESSIONS = EnumSet.of(
+            BoundExpressionType.LITERAL,
+            BoundExpressionType.NOOP,
+            BoundExpressionType.VARIABLE_EXPRESSION,
+            BoundExpressionType.VARIABLE_DECLARATION,
+            BoundExpressionType.ASSIGNMENT_EXPRESSION,
+            BoundExpressionType.INCREMENT,
+            BoundExpressionType.BINARY_EXPRESSION,
+            BoundExpressionType.BINARY_OPERATOR,
+            BoundExpressionType.UNARY_EXPRESSION,
+            BoundExpressionType.UNARY_OPERATOR,
+            BoundExpressionType.CAST_EXPRESSION,
+            BoundExpressionType.FUNCTION_CALL,
+            BoundExpressionType.PRINT_INTRINSIC,
+            BoundExpressionType.BLOCK,
+            BoundExpressionType.IF,
+            BoundExpressionType.WHILE,
+            BoundExpressionType.FOR,
+            BoundExpressionType.RANGE_EXPRESSION,
+            BoundExpressionType.RETURN,
+            BoundExpressionType.MEMBER_ACCESSOR,
+            BoundExpressionType.MEMBER_ASSIGNMENT_EXPRESSION,
+            BoundExpressionType.POSITIONAL_ACCESS_EXPRESSION,
+            BoundExpressionType.ARRAY_ASSIGNMENT_EXPRESSION,
+            BoundExpressionType.ARRAY_LENGTH_EXPRESSION,
+            BoundExpressionType.ARRAY_LITERAL_EXPRESSION,
+            BoundExpressionType.ARRAY_DECLARATION_EXPRESSION,
+            BoundExpressionType.STRUCT_LITERAL_EXPRESSION,
+            BoundExpressionType.TUPLE_LITERAL_EXPRESSION,
+            BoundExpressionType.TUPLE_INDEX_EXPRESSION
+    );
+
+    //Expressions that can be evaluated later than the call would have evaluated them without changing their value
+    private static final Set<BoundExpressionType> PURE_EXPRESSIONS = EnumSet.of(
+            LITERAL,
+            VARIABLE_EXPRESSION,
+            BINARY_EXPRESSION,
+            BINARY_OPERATOR,
+            UNARY_EXPRESSION,
+            UNARY_OPERATOR,
+            CAST_EXPRESSION,
+            MEMBER_ACCESSOR,
+            POSITIONAL_ACCESS_EXPRESSION,
+            TUPLE_INDEX_EXPRESSION,
+            ARRAY_LENGTH_EXPRESSION
+    );
+
+    private final Map<FunctionSymbol, BoundFunctionDeclarationExpression> inlinableFunctions = new HashMap<>();
+    private final Set<VariableSymbol> globals = new HashSet<>();
+
+    @Override
+    public BoundProgram rewrite(BoundProgram program) {
+
+        Map<FunctionSymbol, List<BoundFunctionDeclarationExpression>> declarations = new HashMap<>();
+        collectDeclarations(program.getExpressions(), declarations);
+
+        Map<FunctionSymbol, Integer> callSites = new HashMap<>();
+        DeadCodeEliminator.forEachExpression(program.getExpressions(), expression -> {
+            if (expression instanceof BoundFunctionCallExpression) {
+                callSites.merge(((BoundFunctionCallExpression) expression).getFunction(), 1, Integer::sum);
+            }
+        });
+
+        for (List<BoundFunctionDeclarationExpression> functionDeclarations : declarations.values()) {
+            if (functionDeclarations.size() != 1) {
+                continue;
+            }
+            BoundFunctionDeclarationExpression declaration = functionDeclarations.get(0);
+            FunctionSymbol function = declaration.getFunctionSymbol();
+
+            boolean worthInlining = function.isInline()
+                    || callSites.getOrDefault(function, 0) == 1
+                    || size(declaration) <= SMALL_FUNCTION_SIZE;
+
+            if (worthInlining && canCopy(declaration) && !isRecursive(function, declarations)) {
+                inlinableFunctions.put(function, declaration);
+            }
+        }
+
+        if (inlinableFunctions.isEmpty()) {
+            return program;
+        }
+        return super.rewrite(program);
+    }
+
+    private void collectDeclarations(List<BoundExpression> expressions, Map<FunctionSymbol, List<BoundFunctionDeclarationExpression>> declarations) {
+        for (BoundExpression expression : expressions) {
+            if (expression instanceof BoundFunctionDeclarationExpression) {
+                BoundFunctionDeclarationExpression declaration = (BoundFunctionDeclarationExpression) expression;
+                declarations.computeIfAbsent(declaration.getFunctionSymbol(), f -> new ArrayList<>()).add(declaration);
+            } else if (expression instanceof BoundVariableDeclarationExpression) {
+                globals.add(((BoundVariableDeclarationExpression) expression).getVariable());
+            } else if (expression instanceof BoundBlockExpression) {
+                //Namespaces are bound to blocks at the top level
+                collectDeclarations(((BoundBlockExpression) expression).getExpressions(), declarations);
+            }
+        }
+    }
+
+    private static int size(BoundFunctionDeclarationExpression declaration) {
+        AtomicInteger size = new AtomicInteger();
+        DeadCodeEliminator.forEachExpression(declaration.getBody().getExpressions(), expression -> {
+            //Operators are part of the expression that applies them
+            if (expression.getBoundExpressionType() != BINARY_OPERATOR && expression.getBoundExpressionType() != UNARY_OPERATOR) {
+                size.incrementAndGet();
+            }
+        });
+        return size.get();
+    }
+
+    private static boolean canCopy(BoundFunctionDeclarationExpression declaration) {
+        FunctionSymbol function = declaration.getFunctionSymbol();
+        if (function.getName().equals("main") || function.getGuard() != null) {
+            return false;
+        }
+        for (BoundFunctionParameterExpression parameter : declaration.getArguments()) {
+            if (parameter.getGuard() != null || parameter.getArgument().getGuard() != null) {
+                return false;
+            }
+        }
+        boolean[] copyable = {true};
+        DeadCodeEliminator.forEachExpression(declaration.getBody().getExpressions(), expression -> {
+            copyable[0] &= COPYABLE_EXPRESSIONS.contains(expression.getBoundExpressionType());
+        });
+        return copyable[0];
+    }
+
+    private static boolean isRecursive(FunctionSymbol function, Map<FunctionSymbol, List<BoundFunctionDeclarationExpression>> declarations) {
+        Set<FunctionSymbol> visited = new HashSet<>();
+        Deque<FunctionSymbol> toVisit = new ArrayDeque<>(Collections.singleton(function));
+        while (!toVisit.isEmpty()) {
+            for (BoundFunctionDeclarationExpression declaration : declarations.getOrDefault(toVisit.pop(), List.of())) {
+                for (FunctionSymbol calledFunction : DeadCodeEliminator.findCalledFunctions(declaration.getBody().getExpressions())) {
+                    if (calledFunction == function) {
+                        return true;
+                    }
+                    if (visited.add(calledFunction)) {
+                        toVisit.push(calledFunction);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected BoundExpression rewriteFunctionCall(BoundFunctionCallExpression functionCallExpression) {
+        BoundFunctionCallExpression rewrittenCall = (BoundFunctionCallExpression) super.rewriteFunctionCall(functionCallExpression);
+
+        BoundFunctionDeclarationExpression declaration = inlinableFunctions.get(rewrittenCall.getFunction());
+        if (declaration == null || declaration.getBody().getExpressions().size() != 1) {
+            return rewrittenCall;
+        }
+        BoundExpression body = declaration.getBody().getExpressions().get(0);
+        if (!(body instanceof BoundReturnExpression) || rewrittenCall.getType() == TypeSymbol.UNIT) {
+            return rewrittenCall;
+        }
+
+        try {
+            requireValue(((BoundReturnExpression) body).getReturnValue());
+            Map<VariableSymbol, BoundExpression> substitutions = bindArguments(declaration, rewrittenCall.getBoundArguments(), null);
+            return new Copier(substitutions).copy(((BoundReturnExpression) body).getReturnValue());
+        } catch (NotInlinableException e) {
+            log.debug("Not inlining `" + rewrittenCall.getFunction().getSignature() + "`: " + e.getMessage());
+            return rewrittenCall;
+        }
+    }
+
+    @Override
+    BoundBlockExpression rewriteBlockExpression(BoundBlockExpression blockExpression) {
+        BoundBlockExpression rewrittenBlock = super.rewriteBlockExpression(blockExpression);
+
+        List<BoundExpression> expressions = new ArrayList<>();
+        for (BoundExpression expression : rewrittenBlock.getExpressions()) {
+            expressions.addAll(expand(expression));
+        }
+        return new BoundBlockExpression(expressions);
+    }
+
+    //Expands a call made by a statement, a declaration, an assignment, a return or a print into the statements of its body
+    private List<BoundExpression> expand(BoundExpression expression) {
+        BoundExpression call;
+        switch (expression.getBoundExpressionType()) {
+            case FUNCTION_CALL:
+                call = expression;
+                break;
+            case VARIABLE_DECLARATION:
+                call = ((BoundVariableDeclarationExpression) expression).getInitialiser();
+                break;
+            case ASSIGNMENT_EXPRESSION:
+                call = ((BoundAssignmentExpression) expression).getExpression();
+                break;
+            case RETURN:
+                call = ((BoundReturnExpression) expression).getReturnValue();
+                break;
+            case PRINT_INTRINSIC:
+                call = ((BoundPrintExpression) expression).getExpression();
+                break;
+            default:
+                return List.of(expression);
+        }
+        if (!(call instanceof BoundFunctionCallExpression) || !inlinableFunctions.containsKey(((BoundFunctionCallExpression) call).getFunction())) {
+            return List.of(expression);
+        }
+        if (expression != call && call.getType() == TypeSymbol.UNIT) {
+            return List.of(expression);
+        }
+        BoundFunctionCallExpression functionCallExpression = (BoundFunctionCallExpression) call;
+        BoundFunctionDeclarationExpression declaration = inlinableFunctions.get(functionCallExpression.getFunction());
+
+        try {
+            List<BoundExpression> expansion = new ArrayList<>();
+            Map<VariableSymbol, BoundExpression> substitutions = bindArguments(declaration, functionCallExpression.getBoundArguments(), expansion);
+            List<BoundExpression> body = new Copier(substitutions).copyAll(declaration.getBody().getExpressions());
+
+            //The value of a call made as a statement is discarded
+            VariableSymbol result = null;
+            if (expression != call && functionCallExpression.getType() != TypeSymbol.UNIT) {
+                result = new VariableSymbol(functionCallExpression.getFunction().getName() + "-result-" + UUID.randomUUID().toString(), functionCallExpression.getType(), null, false, null);
+            }
+            List<BoundExpression> loweredBody = lowerReturns(body, result);
+
+            BoundExpression value = null;
+            if (result != null) {
+                value = takeResult(loweredBody, result);
+                if (value == null) {
+                    expansion.add(new BoundVariableDeclarationExpression(result, null, null, false));
+                    value = new BoundVariableExpression(result);
+                }
+            }
+            expansion.addAll(loweredBody);
+
+            switch (expression.getBoundExpressionType()) {
+                case VARIABLE_DECLARATION:
+                    BoundVariableDeclarationExpression variableDeclarationExpression = (BoundVariableDeclarationExpression) expression;
+                    expansion.add(new BoundVariableDeclarationExpression(variableDeclarationExpression.getVariable(), variableDeclarationExpression.getGuard(), value, variableDeclarationExpression.isReadOnly()));
+                    break;
+                case ASSIGNMENT_EXPRESSION:
+                    BoundAssignmentExpression assignmentExpression = (BoundAssignmentExpression) expression;
+                    expansion.add(new BoundAssignmentExpression(assignmentExpression.getVariable(), assignmentExpression.getGuard(), value));
+                    break;
+                case RETURN:
+                    expansion.add(new BoundReturnExpression(value));
+                    break;
+                case PRINT_INTRINSIC:
+                    expansion.add(new BoundPrintExpression(value));
+                    break;
+            }
+            return expansion;
+        } catch (NotInlinableException e) {
+            log.debug("Not inlining `" + functionCallExpression.getFunction().getSignature() + "`: " + e.getMessage());
+            return List.of(expression);
+        }
+    }
+
+    /**
+     * Decides what each parameter is replaced by in the copied body. Arguments that have to be evaluated once, before
+     * the body runs, are declared as fresh variables in the given expansion, or can't be inlined if there is none
+     */
+    private Map<VariableSymbol, BoundExpression> bindArguments(BoundFunctionDeclarationExpression declaration, List<BoundExpression> arguments, List<BoundExpression> expansion) {
+        List<BoundFunctionParameterExpression> parameters = declaration.getArguments();
+        if (parameters.size() != arguments.size()) {
+            throw new NotInlinableException("Expected " + parameters.size() + " arguments but got " + arguments.size());
+        }
+        List<BoundExpression> body = declaration.getBody().getExpressions();
+
+        //References are aliases for the caller's variables, so writes through them are writes to those variables
+        Map<VariableSymbol, BoundExpression> substitutions = new HashMap<>();
+        for (int i = 0; i < parameters.size(); i++) {
+            if (!parameters.get(i).isReference()) {
+                continue;
+            }
+            if (!(arguments.get(i) instanceof BoundVariableExpression)) {
+                throw new NotInlinableException("Only variables can be passed by reference");
+            }
+            substitutions.put(parameters.get(i).getArgument(), arguments.get(i));
+        }
+        Set<VariableSymbol> writtenVariables = new HashSet<>();
+        for (VariableSymbol writtenVariable : findWrittenVariables(body)) {
+            BoundExpression substitution = substitutions.get(writtenVariable);
+            writtenVariables.add(substitution == null ? writtenVariable : ((BoundVariableExpression) substitution).getVariable());
+        }
+        boolean bodyMakesCalls = !DeadCodeEliminator.findCalledFunctions(body).isEmpty();
+        //A call in one argument could change the variables read by the others before the body reads them
+        boolean argumentsMakeCalls = !DeadCodeEliminator.findCalledFunctions(arguments).isEmpty();
+
+        for (int i = 0; i < parameters.size(); i++) {
+            BoundFunctionParameterExpression parameter = parameters.get(i);
+            BoundExpression argument = arguments.get(i);
+            if (parameter.isReference()) {
+                continue;
+            }
+            VariableSymbol parameterVariable = parameter.getArgument();
+            if (argument.getType() != parameterVariable.getType()) {
+                throw new NotInlinableException("Argument " + i + " is converted to the parameter's type");
+            }
+            boolean scalar = isScalar(argument.getType());
+            boolean substitutable = !writtenVariables.contains(parameterVariable) && isPure(argument);
+
+            if (substitutable && scalar && argument instanceof BoundLiteralExpression) {
+                substitutions.put(parameterVariable, argument);
+                continue;
+            }
+            if (substitutable && argument instanceof BoundVariableExpression && !argumentsMakeCalls) {
+                VariableSymbol argumentVariable = ((BoundVariableExpression) argument).getVariable();
+                if (!writtenVariables.contains(argumentVariable) && !(bodyMakesCalls && globals.contains(argumentVariable))) {
+                    substitutions.put(parameterVariable, argument);
+                    continue;
+                }
+            }
+            //Only a body without statements evaluates the argument exactly where the call would have
+            if (substitutable && scalar && expansion == null && countReads(body, parameterVariable) <= 1) {
+                substitutions.put(parameterVariable, argument);
+                continue;
+            }
+            if (expansion == null) {
+                throw new NotInlinableException("Argument " + i + " has to be evaluated before the body");
+            }
+            VariableSymbol copy = freshVariable(parameterVariable);
+            expansion.add(new BoundVariableDeclarationExpression(copy, null, argument, parameterVariable.isReadOnly()));
+            substitutions.put(parameterVariable, new BoundVariableExpression(copy));
+        }
+        return substitutions;
+    }
+
+    //Variables are told apart by name, so each copy needs one of its own
+    private static VariableSymbol freshVariable(VariableSymbol variable) {
+        return new VariableSymbol(variable.getName() + "-" + UUID.randomUUID().toString(), variable.getType(), null, variable.isReadOnly(), variable.getDeclaration());
+    }
+
+    private static boolean isScalar(TypeSymbol type) {
+        return type == TypeSymbol.BOOL || type == TypeSymbol.CHAR || type == TypeSymbol.INT || type == TypeSymbol.REAL;
+    }
+
+    private static boolean isPure(BoundExpression expression) {
+        boolean[] pure = {true};
+        DeadCodeEliminator.forEachExpression(List.of(expression), child -> {
+            pure[0] &= PURE_EXPRESSIONS.contains(child.getBoundExpressionType());
+        });
+        return pure[0];
+    }
+
+    private static int countReads(List<BoundExpression> body, VariableSymbol variable) {
+        AtomicInteger reads = new AtomicInteger();
+        DeadCodeEliminator.forEachExpression(body, expression -> {
+            if (expression instanceof BoundVariableExpression && ((BoundVariableExpression) expression).getVariable() == variable) {
+                reads.incrementAndGet();
+            }
+        });
+        return reads.get();
+    }
+
+    private static Set<VariableSymbol> findWrittenVariables(List<BoundExpression> body) {
+        Set<VariableSymbol> writtenVariables = new HashSet<>();
+        DeadCodeEliminator.forEachExpression(body, expression -> {
+            switch (expression.getBoundExpressionType()) {
+                case ASSIGNMENT_EXPRESSION:
+                    writtenVariables.add(((BoundAssignmentExpression) expression).getVariable());
+                    break;
+                case INCREMENT:
+                    writtenVariables.add(((BoundIncrementExpression) expression).getVariableSymbol());
+                    break;
+                case MEMBER_ASSIGNMENT_EXPRESSION:
+                    addRoot(((BoundMemberAssignmentExpression) expression).getMemberAccessorExpression(), writtenVariables);
+                    break;
+                case ARRAY_ASSIGNMENT_EXPRESSION:
+                    addRoot(((BoundArrayAssignmentExpression) expression).getArrayAccessExpression(), writtenVariables);
+                    break;
+                case FUNCTION_CALL:
+                    BoundFunctionCallExpression functionCallExpression = (BoundFunctionCallExpression) expression;
+                    List<BoundFunctionParameterExpression> parameters = functionCallExpression.getFunction().getArguments();
+                    List<BoundExpression> arguments = functionCallExpression.getBoundArguments();
+                    for (int i = 0; i < Math.min(parameters.size(), arguments.size()); i++) {
+                        if (parameters.get(i).isReference()) {
+                            addRoot(arguments.get(i), writtenVariables);
+                        }
+                    }
+                    break;
+            }
+        });
+        return writtenVariables;
+    }
+
+    //Writing to a member or an element writes to the variable that holds it
+    private static void addRoot(BoundExpression expression, Set<VariableSymbol> writtenVariables) {
+        while (true) {
+            if (expression instanceof BoundMemberAccessorExpression) {
+                expression = ((BoundMemberAccessorExpression) expression).getOwner();
+            } else if (expression instanceof BoundPositionalAccessExpression) {
+                expression = ((BoundPositionalAccessExpression) expression).getArray();
+            } else if (expression instanceof BoundTupleIndexExpression) {
+                expression = ((BoundTupleIndexExpression) expression).getTuple();
+            } else {
+                break;
+            }
+        }
+        if (expression instanceof BoundVariableExpression) {
+            writtenVariables.add(((BoundVariableExpression) expression).getVariable());
+        }
+    }
+
+    /**
+     * Turns each `return` in a copied body into an assignment to the result, or drops it when there is no result.
+     * Once an if returns, the expressions after it are moved into the branch that can complete, so a body with early
+     * returns keeps a single exit
+     */
+    private static List<BoundExpression> lowerReturns(List<BoundExpression> expressions, VariableSymbol result) {
+        List<BoundExpression> loweredExpressions = new ArrayList<>();
+
+        for (int i = 0; i < expressions.size(); i++) {
+            BoundExpression expression = expressions.get(i);
+            if (!containsReturn(expression)) {
+                loweredExpressions.add(expression);
+                continue;
+            }
+            List<BoundExpression> rest = expressions.subList(i + 1, expressions.size());
+
+            switch (expression.getBoundExpressionType()) {
+                case RETURN:
+                    BoundExpression returnValue = ((BoundReturnExpression) expression).getReturnValue();
+                    requireValue(returnValue);
+                    if (result != null) {
+                        loweredExpressions.add(new BoundAssignmentExpression(result, null, returnValue));
+                    } else if (!isPure(returnValue)) {
+                        loweredExpressions.add(returnValue);
+                    }
+                    break;
+                case BLOCK:
+                    List<BoundExpression> blockExpressions = new ArrayList<>(((BoundBlockExpression) expression).getExpressions());
+                    blockExpressions.addAll(rest);
+                    loweredExpressions.addAll(lowerReturns(blockExpressions, result));
+                    break;
+                case IF:
+                    BoundIfExpression ifExpression = (BoundIfExpression) expression;
+                    boolean bodyCompletes = FlowAnalysis.canComplete(ifExpression.getBody());
+                    boolean elseBodyCompletes = ifExpression.getElseBody() == null || FlowAnalysis.canComplete(ifExpression.getElseBody());
+                    if (bodyCompletes && elseBodyCompletes && !rest.isEmpty()) {
+                        throw new NotInlinableException("Both branches of an if that returns can complete");
+                    }
+                    List<BoundExpression> body = lowerReturns(branch(ifExpression.getBody(), bodyCompletes ? rest : List.of()), result);
+                    List<BoundExpression> elseBody = lowerReturns(branch(ifExpression.getElseBody(), elseBodyCompletes ? rest : List.of()), result);
+
+                    loweredExpressions.add(new BoundIfExpression(
+                            ifExpression.getCondition(),
+                            new BoundBlockExpression(body),
+                            elseBody.isEmpty() ? null : new BoundBlockExpression(elseBody)
+                    ));
+                    break;
+                default:
+                    throw new NotInlinableException("Can't inline a return from inside " + expression.getBoundExpressionType());
+            }
+            return loweredExpressions;
+        }
+        return loweredExpressions;
+    }
+
+    //If expressions are only lowered where they initialise or are assigned to a variable, not wherever a value can go
+    private static void requireValue(BoundExpression expression) {
+        DeadCodeEliminator.forEachExpression(List.of(expression), child -> {
+            if (child instanceof BoundIfExpression || child instanceof BoundBlockExpression) {
+                throw new NotInlinableException("Can't inline a return of " + child.getBoundExpressionType());
+            }
+        });
+    }
+
+    private static List<BoundExpression> branch(BoundExpression branch, List<BoundExpression> rest) {
+        List<BoundExpression> expressions = new ArrayList<>();
+        if (branch instanceof BoundBlockExpression) {
+            expressions.addAll(((BoundBlockExpression) branch).getExpressions());
+        } else if (branch != null) {
+            expressions.add(branch);
+        }
+        expressions.addAll(rest);
+        return expressions;
+    }
+
+    private static boolean containsReturn(BoundExpression expression) {
+        boolean[] containsReturn = {false};
+        DeadCodeEliminator.forEachExpression(List.of(expression), child -> containsReturn[0] |= child.getBoundExpressionType() == RETURN);
+        return containsReturn[0];
+    }
+
+    //A body that only returns at its end doesn't need a result variable, the returned value can be used directly
+    private static BoundExpression takeResult(List<BoundExpression> loweredBody, VariableSymbol result) {
+        if (loweredBody.isEmpty()) {
+            return null;
+        }
+        BoundExpression last = loweredBody.get(loweredBody.size() - 1);
+        if (!(last instanceof BoundAssignmentExpression) || ((BoundAssignmentExpression) last).getVariable() != result) {
+            return null;
+        }
+        AtomicInteger assignments = new AtomicInteger();
+        DeadCodeEliminator.forEachExpression(loweredBody, expression -> {
+            if (expression instanceof BoundAssignmentExpression && ((BoundAssignmentExpression) expression).getVariable() == result) {
+                assignments.incrementAndGet();
+            }
+        });
+        if (assignments.get() != 1) {
+            return null;
+        }
+        loweredBody.remove(loweredBody.size() - 1);
+        return ((BoundAssignmentExpression) last).getExpression();
+    }
+
+    /**
+     * Deep copies a function body, replacing its parameters and declaring its locals as fresh variables so that
+     * the same function can be inlined more than once into the same scope. Throws {@link NotInlinableException} for
+     * bodies it can't copy
+     */
+    static final class Copier {
+
+        private final Map<VariableSymbol, BoundExpression> substitutions;
+
+        Copier(Map<VariableSymbol, BoundExpression> substitutions) {
+            this.substitutions = new HashMap<>(substitutions);
+        }
+
+        List<BoundExpression> copyAll(List<BoundExpression> expressions) {
+            List<BoundExpression> copies = new ArrayList<>();
+            for (BoundExpression expression : expressions) {
+                copies.add(copy(expression));
+            }
+            return copies;
+        }
+
+        private BoundExpression copyIfPresent(BoundExpression expression) {
+            return expression == null ? null : copy(expression);
+        }
+
+        private BoundExpression copy(BoundExpression expression) {
+            switch (expression.getBoundExpressionType()) {
+                case LITERAL:
+                case NOOP:
+                    return expression;
+                case VARIABLE_EXPRESSION:
+                    BoundExpression substitution = substitutions.getOrDefault(((BoundVariableExpression) expression).getVariable(), expression);
+                    //Each read gets its own expression, as analyses keep facts about reads by identity
+                    if (substitution instanceof BoundVariableExpression) {
+                        return new BoundVariableExpression(((BoundVariableExpression) substitution).getVariable());
+                    }
+                    return substitution;
+                case VARIABLE_DECLARATION:
+                    BoundVariableDeclarationExpression variableDeclarationExpression = (BoundVariableDeclarationExpression) expression;
+                    if (variableDeclarationExpression.getGuard() != null) {
+                        throw new NotInlinableException("Guarded variables can't be inlined");
+                    }
+                    BoundExpression initialiser = copyIfPresent(variableDeclarationExpression.getInitialiser());
+                    return new BoundVariableDeclarationExpression(declare(variableDeclarationExpression.getVariable()), null, initialiser, variableDeclarationExpression.isReadOnly());
+                case ASSIGNMENT_EXPRESSION:
+                    BoundAssignmentExpression assignmentExpression = (BoundAssignmentExpression) expression;
+                    if (assignmentExpression.getGuard() != null) {
+                        throw new NotInlinableException("Guarded assignments can't be inlined");
+                    }
+                    return new BoundAssignmentExpression(written(assignmentExpression.getVariable()), null, copy(assignmentExpression.getExpression()));
+                case INCREMENT:
+                    BoundIncrementExpression incrementExpression = (BoundIncrementExpression) expression;
+                    return new BoundIncrementExpression(written(incrementExpression.getVariableSymbol()), incrementExpression.getAmount());
+                case BINARY_EXPRESSION:
+                    BoundBinaryExpression binaryExpression = (BoundBinaryExpression) expression;
+                    return new BoundBinaryExpression(copy(binaryExpression.getLeft()), binaryExpression.getOperator(), copy(binaryExpression.getRight()));
+                case UNARY_EXPRESSION:
+                    BoundUnaryExpression unaryExpression = (BoundUnaryExpression) expression;
+                    return new BoundUnaryExpression(unaryExpression.getOperator(), copy(unaryExpression.getOperand()));
+                case CAST_EXPRESSION:
+                    return new BoundCastExpression(copy(((BoundCastExpression) expression).getExpression()), expression.getType());
+                case FUNCTION_CALL:
+                    BoundFunctionCallExpression functionCallExpression = (BoundFunctionCallExpression) expression;
+                    return new BoundFunctionCallExpression(functionCallExpression.getFunction(), copyAll(functionCallExpression.getBoundArguments()));
+                case PRINT_INTRINSIC:
+                    return new BoundPrintExpression(copy(((BoundPrintExpression) expression).getExpression()));
+                case BLOCK:
+                    return new BoundBlockExpression(copyAll(((BoundBlockExpression) expression).getExpressions()));
+                case IF:
+                    BoundIfExpression ifExpression = (BoundIfExpression) expression;
+                    return new BoundIfExpression(copy(ifExpression.getCondition()), copy(ifExpression.getBody()), copyIfPresent(ifExpression.getElseBody()));
+                case WHILE:
+                    BoundWhileExpression whileExpression = (BoundWhileExpression) expression;
+                    return new BoundWhileExpression(copy(whileExpression.getCondition()), copy(whileExpression.getBody()));
+                case FOR:
+                    BoundForExpression forExpression = (BoundForExpression) expression;
+                    BoundRangeExpression rangeExpression = forExpression.getRangeExpression();
+                    BoundRangeExpression range = new BoundRangeExpression(copy(rangeExpression.getLowerBound()), copy(rangeExpression.getUpperBound()), copyIfPresent(rangeExpression.getStep()));
+                    VariableSymbol iterator = declare(forExpression.getIterator());
+                    return new BoundForExpression(iterator, range, copyIfPresent(forExpression.getGuard()), copy(forExpression.getBody()));
+                case RETURN:
+                    return new BoundReturnExpression(copy(((BoundReturnExpression) expression).getReturnValue()));
+                case MEMBER_ACCESSOR:
+                    BoundMemberAccessorExpression memberAccessorExpression = (BoundMemberAccessorExpression) expression;
+                    return new BoundMemberAccessorExpression(copy(memberAccessorExpression.getOwner()), memberAccessorExpression.getMember());
+                case MEMBER_ASSIGNMENT_EXPRESSION:
+                    BoundMemberAssignmentExpression memberAssignmentExpression = (BoundMemberAssignmentExpression) expression;
+                    return new BoundMemberAssignmentExpression(
+                            (BoundMemberAccessorExpression) copy(memberAssignmentExpression.getMemberAccessorExpression()),
+                            copy(memberAssignmentExpression.getAssignment())
+                    );
+                case POSITIONAL_ACCESS_EXPRESSION:
+                    BoundPositionalAccessExpression positionalAccessExpression = (BoundPositionalAccessExpression) expression;
+                    return new BoundPositionalAccessExpression(copy(positionalAccessExpression.getArray()), copy(positionalAccessExpression.getIndex()));
+                case ARRAY_ASSIGNMENT_EXPRESSION:
+                    BoundArrayAssignmentExpression arrayAssignmentExpression = (BoundArrayAssignmentExpression) expression;
+                    return new BoundArrayAssignmentExpression(
+                            (BoundPositionalAccessExpression) copy(arrayAssignmentExpression.getArrayAccessExpression()),
+                            copy(arrayAssignmentExpression.getAssignment())
+                    );
+                case ARRAY_LENGTH_EXPRESSION:
+                    return new BoundArrayLengthExpression(copy(((BoundArrayLengthExpression) expression).getIterable()));
+                case ARRAY_LITERAL_EXPRESSION:
+                    return new BoundArrayLiteralExpression(copyAll(((BoundArrayLiteralExpression) expression).getElements()));
+                case ARRAY_DECLARATION_EXPRESSION:
+                    BoundArrayDeclarationExpression arrayDeclarationExpression = (BoundArrayDeclarationExpression) expression;
+                    return new BoundArrayDeclarationExpression((ArrayTypeSymbol) arrayDeclarationExpression.getType(), copy(arrayDeclarationExpression.getElementCount()));
+                case STRUCT_LITERAL_EXPRESSION:
+                    BoundStructLiteralExpression structLiteralExpression = (BoundStructLiteralExpression) expression;
+                    return new BoundStructLiteralExpression(structLiteralExpression.getType(), copyAll(structLiteralExpression.getElements()));
+                case TUPLE_LITERAL_EXPRESSION:
+                    return new BoundTupleLiteralExpression(copyAll(((BoundTupleLiteralExpression) expression).getElements()));
+                case TUPLE_INDEX_EXPRESSION:
+                    BoundTupleIndexExpression tupleIndexExpression = (BoundTupleIndexExpression) expression;
+                    return new BoundTupleIndexExpression(copy(tupleIndexExpression.getTuple()), tupleIndexExpression.getIndex());
+                default:
+                    throw new NotInlinableException(expression.getBoundExpressionType() + " can't be inlined");
+            }
+        }
+
+        private VariableSymbol declare(VariableSymbol variable) {
+            if (variable.getGuard() != null) {
+                throw new NotInlinableException("Guarded variables can't be inlined");
+            }
+            VariableSymbol copy = freshVariable(variable);
+            substitutions.put(variable, new BoundVariableExpression(copy));
+            return copy;
+        }
+
+        private VariableSymbol written(VariableSymbol variable) {
+            BoundExpression substitution = substitutions.get(variable);
+            if (substitution == null) {
+                return variable;
+            }
+            if (!(substitution instanceof BoundVariableExpression)) {
+                throw new NotInlinableException("`" + variable.getName() + "` is assigned but was replaced by its argument");
+            }
+            return ((BoundVariableExpression) substitution).getVariable();
+        }
+    }
+
+    //Thrown wherever a call turns out not to be inlinable, so the call is kept as it is instead
+    static final class NotInlinableException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private NotInlinableException(String reason) {
+            super(reason, null, false, false);
+        }
+    }
+}
@@ -41,6 +41,10 @@ public class LLVMLowerer extends Lowerer {
         VariableSymbol iterator = forExpression.getIterator();
         BoundRangeExpression rangeExpression = forExpression.getRangeExpression();
 
+        if (forExpression.getGuard() != null && iterator.getType() == TypeSymbol.INT && GuardedRange.canNarrow(rangeExpression)) {
+            return new GuardedRange(iterator, rangeExpression, rewriteExpression(forExpression.getBody())).lower(forExpression.getGuard());
+        }
+
         BoundVariableDeclarationExpression initialisation = new BoundVariableDeclarationExpression(iterator, null, rangeExpression.getLowerBound(), false);
 
         BoundVariableExpression iteratorExpression = new BoundVariableExpression(iterator);
@@ -71,7 +75,11 @@ public class LLVMLowerer extends Lowerer {
             throw new UnsupportedOperationException("No such operation for types `" + iteratorExpression.getType() + "` and `" + rangeExpression.getUpperBound().getType() + "`");
         }
 
-        return new BoundCStyleForExpression(initialisation, condition, postStep, rewriteExpression(forExpression.getBody()));
+        BoundExpression body = rewriteExpression(forExpression.getBody());
+        if (forExpression.getGuard() != null) {
+            body = new BoundIfExpression(forExpression.getGuard(), body, null);
+        }
+        return new BoundCStyleForExpression(initialisation, condition, postStep, body);
     }
 
     @Override
@@ -0,0 +1,438 @@
+package com.skennedy.rasna.lowering;
+
+import com.skennedy.rasna.parsing.model.OpType;
+import com.skennedy.rasna.typebinding.ArrayTypeSymbol;
+import com.skennedy.rasna.typebinding.BoundAssignmentExpression;
+import com.skennedy.rasna.typebinding.BoundBinaryExpression;
+import com.skennedy.rasna.typebinding.BoundBinaryOperator;
+import com.skennedy.rasna.typebinding.BoundBinaryOperator.BoundBinaryOperation;
+import com.skennedy.rasna.typebinding.BoundBlockExpression;
+import com.skennedy.rasna.typebinding.BoundCStyleForExpression;
+import com.skennedy.rasna.typebinding.BoundCastExpression;
+import com.skennedy.rasna.typebinding.BoundExpression;
+import com.skennedy.rasna.typebinding.BoundExpressionType;
+import com.skennedy.rasna.typebinding.BoundForExpression;
+import com.skennedy.rasna.typebinding.BoundForInExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionCallExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionDeclarationExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionParameterExpression;
+import com.skennedy.rasna.typebinding.BoundIncrementExpression;
+import com.skennedy.rasna.typebinding.BoundLiteralExpression;
+import com.skennedy.rasna.typebinding.BoundMemberAccessorExpression;
+import com.skennedy.rasna.typebinding.BoundTupleIndexExpression;
+import com.skennedy.rasna.typebinding.BoundUnaryExpression;
+import com.skennedy.rasna.typebinding.BoundVariableDeclarationExpression;
+import com.skennedy.rasna.typebinding.BoundVariableExpression;
+import com.skennedy.rasna.typebinding.BoundWhileExpression;
+import com.skennedy.rasna.typebinding.TypeSymbol;
+import com.skennedy.rasna.typebinding.VariableSymbol;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Moves the work a loop repeats on every iteration without need out of it, once the program has been lowered.
+ * <p>
+ * Pure expressions whose operands don't change in the loop, like the upper bound of a range or the length of the
+ * array being iterated over, are evaluated once into a variable before the loop starts. Members are only read
+ * early when nothing in the loop writes to a member, an element or calls a function that could. Multiplying an
+ * induction variable by an invariant is replaced with a variable that is stepped along with it.
+ */
+public class LoopOptimiser extends BoundProgramRewriter {
+
+    private Set<VariableSymbol> localVariables = new HashSet<>();
+
+    @Override
+    protected BoundExpression rewriteFunctionDeclaration(BoundFunctionDeclarationExpression functionDeclarationExpression) {
+        Set<VariableSymbol> enclosingVariables = localVariables;
+
+        //Globals and reference parameters can be changed by any function the loop calls
+        localVariables = new HashSet<>();
+        for (BoundFunctionParameterExpression parameter : functionDeclarationExpression.getArguments()) {
+            if (!parameter.isReference()) {
+                localVariables.add(parameter.getArgument());
+            }
+        }
+        forEachInFunction(functionDeclarationExpression.getBody(), expression -> {
+            if (expression instanceof BoundVariableDeclarationExpression) {
+                localVariables.add(((BoundVariableDeclarationExpression) expression).getVariable());
+            }
+        });
+
+        BoundExpression rewrittenExpression = super.rewriteFunctionDeclaration(functionDeclarationExpression);
+        localVariables = enclosingVariables;
+        return rewrittenExpression;
+    }
+
+    @Override
+    protected BoundExpression rewriteWhileExpression(BoundWhileExpression whileExpression) {
+        BoundExpression rewrittenExpression = super.rewriteWhileExpression(whileExpression);
+        if (!(rewrittenExpression instanceof BoundWhileExpression)) {
+            return rewrittenExpression;
+        }
+        return new Loop(rewrittenExpression).optimise();
+    }
+
+    @Override
+    protected BoundExpression rewriteCStyleForExpression(BoundCStyleForExpression cStyleForExpression) {
+        return new Loop(super.rewriteCStyleForExpression(cStyleForExpression)).optimise();
+    }
+
+    //Nested functions are rewritten with their own variables
+    private static void forEachInFunction(BoundExpression expression, Consumer<BoundExpression> action) {
+        action.accept(expression);
+        DeadCodeEliminator.forEachChild(expression, child -> {
+            if (child.getBoundExpressionType() != BoundExpressionType.FUNCTION_DECLARATION) {
+                forEachInFunction(child, action);
+            }
+        });
+    }
+
+    private static BoundExpression replace(BoundExpression expression, Map<BoundExpression, BoundExpression> replacements) {
+        return new BoundProgramRewriter() {
+            @Override
+            protected BoundExpression rewriteExpression(BoundExpression expression) {
+                BoundExpression replacement = replacements.get(expression);
+                return replacement == null ? super.rewriteExpression(expression) : replacement;
+            }
+        }.rewriteExpression(expression);
+    }
+
+    private static BoundExpression multiply(BoundExpression left, BoundExpression right) {
+        if (left instanceof BoundLiteralExpression && right instanceof BoundLiteralExpression) {
+            return new BoundLiteralExpression((int) ((BoundLiteralExpression) left).getValue() * (int) ((BoundLiteralExpression) right).getValue());
+        }
+        return new BoundBinaryExpression(left, BoundBinaryOperator.bind(OpType.MUL, TypeSymbol.INT, TypeSymbol.INT), right);
+    }
+
+    private final class Loop {
+
+        private BoundExpression loop;
+        private final List<BoundExpression> preheader = new ArrayList<>();
+        private final Set<VariableSymbol> declaredVariables = new HashSet<>();
+        private final Map<VariableSymbol, Integer> writes = new HashMap<>();
+        private boolean writesMemory;
+
+        private Loop(BoundExpression loop) {
+            this.loop = loop;
+            forEachInFunction(loop, this::recordWrites);
+        }
+
+        private BoundExpression optimise() {
+            hoistInvariants();
+            reduceStrength();
+            if (preheader.isEmpty()) {
+                return loop;
+            }
+            List<BoundExpression> expressions = new ArrayList<>(preheader);
+            expressions.add(loop);
+            return new BoundBlockExpression(expressions);
+        }
+
+        private void recordWrites(BoundExpression expression) {
+            switch (expression.getBoundExpressionType()) {
+                case VARIABLE_DECLARATION:
+                    declaredVariables.add(((BoundVariableDeclarationExpression) expression).getVariable());
+                    break;
+                case FOR:
+                    declaredVariables.add(((BoundForExpression) expression).getIterator());
+                    break;
+                case FOR_IN:
+                    declaredVariables.add(((BoundForInExpression) expression).getVariable());
+                    break;
+                case ASSIGNMENT_EXPRESSION:
+                    writes.merge(((BoundAssignmentExpression) expression).getVariable(), 1, Integer::sum);
+                    break;
+                case INCREMENT:
+                    writes.merge(((BoundIncrementExpression) expression).getVariableSymbol(), 1, Integer::sum);
+                    break;
+                case MEMBER_ASSIGNMENT_EXPRESSION:
+                case ARRAY_ASSIGNMENT_EXPRESSION:
+                    writesMemory = true;
+                    break;
+                case ARRAY_LENGTH_ASSIGNMENT_EXPRESSION:
+                    //Shrinking an array changes its length, so the variable holding it is no longer invariant
+                    BoundExpression array = ((BoundArrayLengthAssignmentExpression) expression).getIterable();
+                    if (array instanceof BoundVariableExpression) {
+                        writes.merge(((BoundVariableExpression) array).getVariable(), 1, Integer::sum);
+                    }
+                    writesMemory = true;
+                    break;
+                case FUNCTION_CALL:
+                    writesMemory = true;
+                    BoundFunctionCallExpression functionCallExpression = (BoundFunctionCallExpression) expression;
+                    List<BoundFunctionParameterExpression> parameters = functionCallExpression.getFunction().getArguments();
+                    List<BoundExpression> arguments = functionCallExpression.getBoundArguments();
+                    for (int i = 0; i < parameters.size() && i < arguments.size(); i++) {
+                        if (parameters.get(i).isReference() && arguments.get(i) instanceof BoundVariableExpression) {
+                            writes.merge(((BoundVariableExpression) arguments.get(i)).getVariable(), 1, Integer::sum);
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void hoistInvariants() {
+            Map<BoundExpression, BoundExpression> replacements = new IdentityHashMap<>();
+            Consumer<BoundExpression> findInvariants = new Consumer<BoundExpression>() {
+                @Override
+                public void accept(BoundExpression expression) {
+                    if (expression.getBoundExpressionType() == BoundExpressionType.FUNCTION_DECLARATION || replacements.containsKey(expression)) {
+                        return;
+                    }
+                    if (isWorthHoisting(expression) && isInvariant(expression)) {
+                        VariableSymbol hoisted = new VariableSymbol("hoisted-" + UUID.randomUUID().toString(), expression.getType(), null, false, null);
+                        preheader.add(new BoundVariableDeclarationExpression(hoisted, null, expression, false));
+                        localVariables.add(hoisted);
+                        replacements.put(expression, new BoundVariableExpression(hoisted));
+                        return;
+                    }
+                    DeadCodeEliminator.forEachChild(expression, this);
+                }
+            };
+            //The initialisation of a for loop only runs once anyway
+            if (loop instanceof BoundCStyleForExpression) {
+                BoundCStyleForExpression cStyleForExpression = (BoundCStyleForExpression) loop;
+                findInvariants.accept(cStyleForExpression.getCondition());
+                findInvariants.accept(cStyleForExpression.getPostStep());
+                findInvariants.accept(cStyleForExpression.getBody());
+            } else {
+                BoundWhileExpression whileExpression = (BoundWhileExpression) loop;
+                findInvariants.accept(whileExpression.getCondition());
+                findInvariants.accept(whileExpression.getBody());
+            }
+            if (!replacements.isEmpty()) {
+                loop = replace(loop, replacements);
+            }
+        }
+
+        private boolean isWorthHoisting(BoundExpression expression) {
+            TypeSymbol type = expression.getType();
+            if (type != TypeSymbol.INT && type != TypeSymbol.REAL && type != TypeSymbol.BOOL && type != TypeSymbol.CHAR) {
+                return false;
+            }
+            switch (expression.getBoundExpressionType()) {
+                case BINARY_EXPRESSION:
+                case UNARY_EXPRESSION:
+                case CAST_EXPRESSION:
+                case MEMBER_ACCESSOR:
+                case TUPLE_INDEX_EXPRESSION:
+                case ARRAY_LENGTH_EXPRESSION:
+                    return !expression.isConstExpression();
+                default:
+                    return false;
+            }
+        }
+
+        //Only expressions that can't fail are invariant, as the loop might not have run them at all
+        private boolean isInvariant(BoundExpression expression) {
+            switch (expression.getBoundExpressionType()) {
+                case LITERAL:
+                    return true;
+                case VARIABLE_EXPRESSION:
+                    VariableSymbol variable = ((BoundVariableExpression) expression).getVariable();
+                    return localVariables.contains(variable) && !declaredVariables.contains(variable) && !writes.containsKey(variable);
+                case BINARY_EXPRESSION:
+                    BoundBinaryExpression binaryExpression = (BoundBinaryExpression) expression;
+                    BoundBinaryOperation operation = binaryExpression.getOperator().getBoundOpType();
+                    if (operation == BoundBinaryOperation.CONCATENATION
+                            || (operation == BoundBinaryOperation.DIVISION || operation == BoundBinaryOperation.REMAINDER) && binaryExpression.getType() != TypeSymbol.REAL) {
+                        return false;
+                    }
+                    return isInvariant(binaryExpression.getLeft()) && isInvariant(binaryExpression.getRight());
+                case UNARY_EXPRESSION:
+                    return isInvariant(((BoundUnaryExpression) expression).getOperand());
+                case CAST_EXPRESSION:
+                    return isInvariant(((BoundCastExpression) expression).getExpression());
+                case MEMBER_ACCESSOR:
+                    BoundMemberAccessorExpression memberAccessorExpression = (BoundMemberAccessorExpression) expression;
+                    //An array never changes length, so only the variable holding it matters
+                    return isInvariant(memberAccessorExpression.getOwner()) && (!writesMemory || memberAccessorExpression.getOwner().getType() instanceof ArrayTypeSymbol);
+                case TUPLE_INDEX_EXPRESSION:
+                    return !writesMemory && isInvariant(((BoundTupleIndexExpression) expression).getTuple());
+                case ARRAY_LENGTH_EXPRESSION:
+                    return isInvariant(((BoundArrayLengthExpression) expression).getIterable());
+                default:
+                    return false;
+            }
+        }
+
+        /*
+         * A variable only ever changed by adding an invariant step to it once per iteration, at the top level of the
+         * loop body (or in the post step of a for loop), is an induction variable. Any `i * k` with an invariant `k`
+         * then changes by `step * k` each time round, so it is kept in a variable updated straight after `i` is.
+         */
+        private void reduceStrength() {
+            Map<VariableSymbol, BoundExpression> steps = new LinkedHashMap<>();
+            Map<VariableSymbol, BoundExpression> initialValues = new HashMap<>();
+            List<BoundExpression> searched = new ArrayList<>();
+            if (loop instanceof BoundCStyleForExpression) {
+                BoundCStyleForExpression cStyleForExpression = (BoundCStyleForExpression) loop;
+                if (!(cStyleForExpression.getInitialisation() instanceof BoundVariableDeclarationExpression)) {
+                    return;
+                }
+                BoundVariableDeclarationExpression initialisation = (BoundVariableDeclarationExpression) cStyleForExpression.getInitialisation();
+                BoundExpression step = getStep(cStyleForExpression.getPostStep());
+                if (step != null && initialisation.getVariable().equals(getSteppedVariable(cStyleForExpression.getPostStep()))
+                        && initialisation.getInitialiser() != null && isInvariant(initialisation.getInitialiser())) {
+                    steps.put(initialisation.getVariable(), step);
+                    initialValues.put(initialisation.getVariable(), initialisation.getInitialiser());
+                }
+                searched.add(cStyleForExpression.getCondition());
+                searched.add(cStyleForExpression.getBody());
+            } else {
+                BoundWhileExpression whileExpression = (BoundWhileExpression) loop;
+                if (!(whileExpression.getBody() instanceof BoundBlockExpression)) {
+                    return;
+                }
+                for (BoundExpression expression : ((BoundBlockExpression) whileExpression.getBody()).getExpressions()) {
+                    VariableSymbol variable = getSteppedVariable(expression);
+                    BoundExpression step = getStep(expression);
+                    if (step != null && localVariables.contains(variable) && !declaredVariables.contains(variable)) {
+                        steps.put(variable, step);
+                        initialValues.put(variable, new BoundVariableExpression(variable));
+                    }
+                }
+                searched.add(whileExpression.getCondition());
+                searched.add(whileExpression.getBody());
+            }
+            steps.keySet().removeIf(variable -> variable.getType() != TypeSymbol.INT || writes.getOrDefault(variable, 0) != 1);
+            if (steps.isEmpty()) {
+                return;
+            }
+
+            Map<BoundExpression, BoundExpression> replacements = new IdentityHashMap<>();
+            Map<String, VariableSymbol> products = new HashMap<>();
+            Map<VariableSymbol, List<BoundExpression>> updates = new HashMap<>();
+            for (BoundExpression root : searched) {
+                forEachInFunction(root, expression -> {
+                    if (!(expression instanceof BoundBinaryExpression)) {
+                        return;
+                    }
+                    BoundBinaryExpression binaryExpression = (BoundBinaryExpression) expression;
+                    if (binaryExpression.getOperator().getBoundOpType() != BoundBinaryOperation.MULTIPLICATION || binaryExpression.getType() != TypeSymbol.INT) {
+                        return;
+                    }
+                    boolean leftInduction = isInductionVariable(binaryExpression.getLeft(), steps);
+                    BoundExpression inductionVariable = leftInduction ? binaryExpression.getLeft() : binaryExpression.getRight();
+                    BoundExpression factor = leftInduction ? binaryExpression.getRight() : binaryExpression.getLeft();
+                    if (!isInductionVariable(inductionVariable, steps) || !isSimpleInvariant(factor)) {
+                        return;
+                    }
+                    VariableSymbol variable = ((BoundVariableExpression) inductionVariable).getVariable();
+                    VariableSymbol product = products.computeIfAbsent(variable.getName() + "*" + describe(factor), key -> {
+                        VariableSymbol reduced = new VariableSymbol("reduced-" + UUID.randomUUID().toString(), TypeSymbol.INT, null, false, null);
+                        preheader.add(new BoundVariableDeclarationExpression(reduced, null, multiply(initialValues.get(variable), factor), false));
+                        BoundExpression stride = getStride(steps.get(variable), factor);
+                        updates.computeIfAbsent(variable, v -> new ArrayList<>())
+                                .add(new BoundAssignmentExpression(reduced, null, new BoundBinaryExpression(new BoundVariableExpression(reduced), BoundBinaryOperator.bind(OpType.ADD, TypeSymbol.INT, TypeSymbol.INT), stride)));
+                        return reduced;
+                    });
+                    replacements.put(expression, new BoundVariableExpression(product));
+                });
+            }
+            if (replacements.isEmpty()) {
+                return;
+            }
+
+            loop = replace(loop, replacements);
+            if (loop instanceof BoundCStyleForExpression) {
+                BoundCStyleForExpression cStyleForExpression = (BoundCStyleForExpression) loop;
+                List<BoundExpression> postStep = new ArrayList<>();
+                postStep.add(cStyleForExpression.getPostStep());
+                updates.values().forEach(postStep::addAll);
+                loop = new BoundCStyleForExpression(cStyleForExpression.getInitialisation(), cStyleForExpression.getCondition(), new BoundBlockExpression(postStep), cStyleForExpression.getBody());
+            } else {
+                BoundWhileExpression whileExpression = (BoundWhileExpression) loop;
+                List<BoundExpression> body = new ArrayList<>();
+                for (BoundExpression expression : ((BoundBlockExpression) whileExpression.getBody()).getExpressions()) {
+                    body.add(expression);
+                    VariableSymbol variable = getSteppedVariable(expression);
+                    if (variable != null && updates.containsKey(variable)) {
+                        body.addAll(updates.get(variable));
+                    }
+                }
+                loop = new BoundWhileExpression(whileExpression.getCondition(), new BoundBlockExpression(body));
+            }
+        }
+
+        private VariableSymbol getSteppedVariable(BoundExpression expression) {
+            if (expression instanceof BoundIncrementExpression) {
+                return ((BoundIncrementExpression) expression).getVariableSymbol();
+            }
+            if (expression instanceof BoundAssignmentExpression) {
+                return ((BoundAssignmentExpression) expression).getVariable();
+            }
+            return null;
+        }
+
+        //The amount `i = i + step` or `i = step + i` adds, if it is invariant
+        private BoundExpression getStep(BoundExpression expression) {
+            if (expression instanceof BoundIncrementExpression) {
+                return ((BoundIncrementExpression) expression).getAmount();
+            }
+            if (!(expression instanceof BoundAssignmentExpression) || ((BoundAssignmentExpression) expression).getGuard() != null) {
+                return null;
+            }
+            BoundAssignmentExpression assignmentExpression = (BoundAssignmentExpression) expression;
+            if (!(assignmentExpression.getExpression() instanceof BoundBinaryExpression)) {
+                return null;
+            }
+            BoundBinaryExpression binaryExpression = (BoundBinaryExpression) assignmentExpression.getExpression();
+            if (binaryExpression.getOperator().getBoundOpType() != BoundBinaryOperation.ADDITION) {
+                return null;
+            }
+            if (isVariable(binaryExpression.getLeft(), assignmentExpression.getVariable()) && isSimpleInvariant(binaryExpression.getRight())) {
+                return binaryExpression.getRight();
+            }
+            if (isVariable(binaryExpression.getRight(), assignmentExpression.getVariable()) && isSimpleInvariant(binaryExpression.getLeft())) {
+                return binaryExpression.getLeft();
+            }
+            return null;
+        }
+
+        private boolean isVariable(BoundExpression expression, VariableSymbol variable) {
+            return expression instanceof BoundVariableExpression && ((BoundVariableExpression) expression).getVariable().equals(variable);
+        }
+
+        private boolean isInductionVariable(BoundExpression expression, Map<VariableSymbol, BoundExpression> steps) {
+            return expression instanceof BoundVariableExpression && steps.containsKey(((BoundVariableExpression) expression).getVariable());
+        }
+
+        //Hoisting has already moved anything more complicated into a variable
+        private boolean isSimpleInvariant(BoundExpression expression) {
+            return (expression instanceof BoundLiteralExpression || expression instanceof BoundVariableExpression)
+                    && expression.getType() == TypeSymbol.INT && isInvariant(expression);
+        }
+
+        private String describe(BoundExpression factor) {
+            if (factor instanceof BoundLiteralExpression) {
+                return String.valueOf(((BoundLiteralExpression) factor).getValue());
+            }
+            return ((BoundVariableExpression) factor).getVariable().getName();
+        }
+
+        private BoundExpression getStride(BoundExpression step, BoundExpression factor) {
+            if (step instanceof BoundLiteralExpression && (int) ((BoundLiteralExpression) step).getValue() == 1) {
+                return factor;
+            }
+            BoundExpression stride = multiply(step, factor);
+            if (stride instanceof BoundLiteralExpression) {
+                return stride;
+            }
+            VariableSymbol strideVariable = new VariableSymbol("stride-" + UUID.randomUUID().toString(), TypeSymbol.INT, null, false, null);
+            preheader.add(new BoundVariableDeclarationExpression(strideVariable, null, stride, false));
+            return new BoundVariableExpression(strideVariable);
+        }
+    }
+}
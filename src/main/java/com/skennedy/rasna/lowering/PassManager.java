@@ -0,0 +1,227 @@
+package com.skennedy.rasna.lowering;
+
+import com.skennedy.rasna.typebinding.BoundExpression;
+import com.skennedy.rasna.typebinding.BoundLiteralExpression;
+import com.skennedy.rasna.typebinding.BoundProgram;
+import com.skennedy.rasna.typebinding.BoundVariableExpression;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * Runs an ordered pipeline of named passes over a bound program.
+ * <p>
+ * Passes are added either to run once, or as a group that is run repeatedly until it stops changing the program,
+ * for passes that expose more work for each other. Passes can be disabled or have the program printed after them by
+ * name, and the wall time and change in the number of expressions of every pass is logged once the pipeline is done.
+ */
+public class PassManager {
+
+    private static final Logger log = LogManager.getLogger(PassManager.class);
+
+    //Fixed point groups normally settle in two or three iterations, this only guards against passes that fight
+    private static final int MAX_ITERATIONS = 8;
+
+    private final List<Stage> stages = new ArrayList<>();
+    private final Set<String> passNames = new HashSet<>();
+    private final Set<String> disabledPasses = new HashSet<>();
+    private final Set<String> printedPasses = new HashSet<>();
+    private final Map<String, Statistics> statistics = new LinkedHashMap<>();
+
+    //Passes return a new program rather than changing the one they are given, so each program is only measured once
+    private BoundProgram measuredProgram;
+    private Shape measuredShape;
+
+    /**
+     * @return the passes run on every program between binding and LLVM codegen
+     */
+    public static PassManager defaultPipeline() {
+        return new PassManager()
+                //Turn self tail calls into loops first, so functions that only recursed that way can be inlined too
+                .add(new Pass("tail-call-elimination", program -> new TailCallEliminator().rewrite(program)))
+                //Inline and fold constants and calls with constant arguments first, so the functions only they called are dropped too
+                .addUntilFixedPoint(
+                        new Pass("inlining", program -> new Inliner().rewrite(program)),
+                        new Pass("constant-folding", program -> new ConstantFolder().rewrite(program)),
+                        new Pass("dead-code-elimination", program -> new DeadCodeEliminator().eliminate(program)))
+                //Lower the program to a linear series of instructions
+                .add(new Pass("lowering", program -> new LLVMLowerer().rewrite(program)))
+                //Only once lowered is the upper bound of a range re-evaluated by the loop it became
+                .add(new Pass("loop-optimisation", program -> new LoopOptimiser().rewrite(program)));
+    }
+
+    public PassManager add(Pass pass) {
+        return addStage(List.of(pass), false);
+    }
+
+    public PassManager addUntilFixedPoint(Pass... passes) {
+        return addStage(List.of(passes), true);
+    }
+
+    private PassManager addStage(List<Pass> passes, boolean untilFixedPoint) {
+        for (Pass pass : passes) {
+            if (!passNames.add(pass.name)) {
+                throw new IllegalArgumentException("Pass `" + pass.name + "` has already been added");
+            }
+        }
+        stages.add(new Stage(passes, untilFixedPoint));
+        return this;
+    }
+
+    public PassManager disable(Collection<String> names) {
+        disabledPasses.addAll(requireKnown(names));
+        return this;
+    }
+
+    public PassManager printAfter(Collection<String> names) {
+        printedPasses.addAll(requireKnown(names));
+        return this;
+    }
+
+    private Collection<String> requireKnown(Collection<String> names) {
+        for (String name : names) {
+            if (!passNames.contains(name)) {
+                throw new IllegalArgumentException("Unknown pass `" + name + "`, expected one of " + passNames);
+            }
+        }
+        return names;
+    }
+
+    public BoundProgram run(BoundProgram program) {
+        for (Stage stage : stages) {
+            if (!stage.untilFixedPoint) {
+                program = run(stage.passes.get(0), program);
+                continue;
+            }
+            Shape shape = shapeOf(program);
+            for (int iteration = 1; iteration <= MAX_ITERATIONS; iteration++) {
+                for (Pass pass : stage.passes) {
+                    program = run(pass, program);
+                }
+                Shape newShape = shapeOf(program);
+                if (newShape.equals(shape)) {
+                    break;
+                }
+                shape = newShape;
+            }
+        }
+
+        statistics.forEach((name, passStatistics) -> log.debug("{}: {} run(s) in {}ms, {} expressions",
+                name, passStatistics.runs, passStatistics.nanos / 1_000_000, String.format("%+d", passStatistics.expressionDelta)));
+        return program;
+    }
+
+    private BoundProgram run(Pass pass, BoundProgram program) {
+        if (disabledPasses.contains(pass.name)) {
+            return program;
+        }
+        int expressionsBefore = shapeOf(program).expressions;
+        long start = System.nanoTime();
+
+        BoundProgram rewrittenProgram = pass.rewriter.apply(program);
+
+        Statistics passStatistics = statistics.computeIfAbsent(pass.name, name -> new Statistics());
+        passStatistics.runs++;
+        passStatistics.nanos += System.nanoTime() - start;
+        passStatistics.expressionDelta += shapeOf(rewrittenProgram).expressions - expressionsBefore;
+
+        if (printedPasses.contains(pass.name)) {
+            System.out.println("*** After " + pass.name + " ***");
+            System.out.print(BoundProgramPrinter.print(rewrittenProgram));
+        }
+        return rewrittenProgram;
+    }
+
+    private Shape shapeOf(BoundProgram program) {
+        if (program != measuredProgram) {
+            measuredProgram = program;
+            measuredShape = Shape.of(program);
+        }
+        return measuredShape;
+    }
+
+    public static final class Pass {
+        private final String name;
+        private final UnaryOperator<BoundProgram> rewriter;
+
+        public Pass(String name, UnaryOperator<BoundProgram> rewriter) {
+            this.name = name;
+            this.rewriter = rewriter;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private static final class Stage {
+        private final List<Pass> passes;
+        private final boolean untilFixedPoint;
+
+        private Stage(List<Pass> passes, boolean untilFixedPoint) {
+            this.passes = passes;
+            this.untilFixedPoint = untilFixedPoint;
+        }
+    }
+
+    private static final class Statistics {
+        private int runs;
+        private long nanos;
+        private int expressionDelta;
+    }
+
+    /**
+     * The number of expressions in a program and a hash of their kinds, names and values, so a pass that folds a
+     * variable into a constant counts as a change even though it leaves the number of expressions the same
+     */
+    private static final class Shape {
+        private int expressions;
+        private long hash;
+
+        private static Shape of(BoundProgram program) {
+            Shape shape = new Shape();
+            DeadCodeEliminator.forEachExpression(program.getExpressions(), expression -> {
+                shape.expressions++;
+                shape.hash = 31 * shape.hash + expression.getBoundExpressionType().ordinal();
+                shape.hash = 31 * shape.hash + detailHash(expression);
+            });
+            return shape;
+        }
+
+        private static int detailHash(BoundExpression expression) {
+            if (expression instanceof BoundLiteralExpression) {
+                return Objects.hashCode(((BoundLiteralExpression) expression).getValue());
+            }
+            if (expression instanceof BoundVariableExpression) {
+                return System.identityHashCode(((BoundVariableExpression) expression).getVariable());
+            }
+            return 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Shape shape = (Shape) o;
+            return expressions == shape.expressions && hash == shape.hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(expressions, hash);
+        }
+    }
+}
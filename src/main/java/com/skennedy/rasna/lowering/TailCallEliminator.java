@@ -0,0 +1,216 @@
+package com.skennedy.rasna.lowering;
+
+import com.skennedy.rasna.parsing.model.OpType;
+import com.skennedy.rasna.typebinding.BoundAssignmentExpression;
+import com.skennedy.rasna.typebinding.BoundBlockExpression;
+import com.skennedy.rasna.typebinding.BoundExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionCallExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionDeclarationExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionParameterExpression;
+import com.skennedy.rasna.typebinding.BoundIfExpression;
+import com.skennedy.rasna.typebinding.BoundLiteralExpression;
+import com.skennedy.rasna.typebinding.BoundReturnExpression;
+import com.skennedy.rasna.typebinding.BoundUnaryExpression;
+import com.skennedy.rasna.typebinding.BoundUnaryOperator;
+import com.skennedy.rasna.typebinding.BoundVariableDeclarationExpression;
+import com.skennedy.rasna.typebinding.BoundVariableExpression;
+import com.skennedy.rasna.typebinding.BoundWhileExpression;
+import com.skennedy.rasna.typebinding.FunctionSymbol;
+import com.skennedy.rasna.typebinding.TypeSymbol;
+import com.skennedy.rasna.typebinding.VariableSymbol;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Rewrites functions that call themselves in tail position into loops, so recursion that only ever returns the result
+ * of calling itself again runs in constant stack space.
+ * <p>
+ * The parameters are copied into variables at the start of the function and the body runs in a while loop. A tail
+ * call assigns its arguments to those variables and goes round the loop again rather than calling. Rasna has no
+ * `continue`, so whatever follows a branch that makes a tail call only runs if that branch didn't take it.
+ */
+public class TailCallEliminator extends BoundProgramRewriter {
+
+    private static final Logger log = LogManager.getLogger(TailCallEliminator.class);
+
+    @Override
+    protected BoundExpression rewriteFunctionDeclaration(BoundFunctionDeclarationExpression functionDeclarationExpression) {
+        BoundExpression rewrittenExpression = super.rewriteFunctionDeclaration(functionDeclarationExpression);
+        if (!(rewrittenExpression instanceof BoundFunctionDeclarationExpression)) {
+            return rewrittenExpression;
+        }
+        BoundFunctionDeclarationExpression declaration = (BoundFunctionDeclarationExpression) rewrittenExpression;
+        if (!canEliminate(declaration)) {
+            return declaration;
+        }
+        try {
+            return new TailCalls(declaration).eliminate();
+        } catch (NotEliminableException | Inliner.NotInlinableException e) {
+            log.debug("Not eliminating tail calls in `" + declaration.getFunctionSymbol().getSignature() + "`: " + e.getMessage());
+            return declaration;
+        }
+    }
+
+    private static boolean canEliminate(BoundFunctionDeclarationExpression declaration) {
+        FunctionSymbol function = declaration.getFunctionSymbol();
+        if (function.getName().equals("main") || function.getGuard() != null) {
+            return false;
+        }
+        //Guards are checked on entry, and a reference parameter has to keep pointing at the caller's variable
+        for (BoundFunctionParameterExpression parameter : declaration.getArguments()) {
+            if (parameter.isReference() || parameter.getGuard() != null || parameter.getArgument().getGuard() != null) {
+                return false;
+            }
+        }
+        boolean[] callsItself = {false};
+        DeadCodeEliminator.forEachExpression(declaration.getBody().getExpressions(), expression -> {
+            if (expression instanceof BoundFunctionCallExpression) {
+                callsItself[0] |= ((BoundFunctionCallExpression) expression).getFunction().equals(function);
+            }
+        });
+        return callsItself[0];
+    }
+
+    private static final class TailCalls {
+
+        private final BoundFunctionDeclarationExpression declaration;
+        private final List<VariableSymbol> parameters = new ArrayList<>();
+        private final VariableSymbol tailCalled = new VariableSymbol("tail-called-" + UUID.randomUUID().toString(), TypeSymbol.BOOL, null, false, null);
+        private int tailCalls;
+
+        private TailCalls(BoundFunctionDeclarationExpression declaration) {
+            this.declaration = declaration;
+        }
+
+        private BoundFunctionDeclarationExpression eliminate() {
+            List<BoundExpression> expressions = new ArrayList<>();
+
+            //Parameters can't be assigned, so the loop works on copies of them
+            Map<VariableSymbol, BoundExpression> substitutions = new HashMap<>();
+            for (BoundFunctionParameterExpression parameter : declaration.getArguments()) {
+                VariableSymbol argument = parameter.getArgument();
+                VariableSymbol variable = new VariableSymbol(argument.getName() + "-" + UUID.randomUUID().toString(), argument.getType(), null, false, null);
+                expressions.add(new BoundVariableDeclarationExpression(variable, null, new BoundVariableExpression(argument), false));
+                substitutions.put(argument, new BoundVariableExpression(variable));
+                parameters.add(variable);
+            }
+            List<BoundExpression> body = new Inliner.Copier(substitutions).copyAll(declaration.getBody().getExpressions());
+
+            List<BoundExpression> loopBody = new ArrayList<>();
+            loopBody.add(new BoundAssignmentExpression(tailCalled, null, new BoundLiteralExpression(false)));
+            loopBody.addAll(lower(body, true));
+            if (tailCalls == 0) {
+                throw new NotEliminableException("no calls are in tail position");
+            }
+            expressions.add(new BoundVariableDeclarationExpression(tailCalled, null, new BoundLiteralExpression(true), false));
+            expressions.add(new BoundWhileExpression(new BoundVariableExpression(tailCalled), new BoundBlockExpression(loopBody)));
+
+            return new BoundFunctionDeclarationExpression(declaration.getFunctionSymbol(), declaration.getArguments(), new BoundBlockExpression(expressions));
+        }
+
+        //The last expression of a Unit function is in tail position even without a return
+        private List<BoundExpression> lower(List<BoundExpression> expressions, boolean atEnd) {
+            List<BoundExpression> lowered = new ArrayList<>();
+            for (int i = 0; i < expressions.size(); i++) {
+                BoundExpression expression = expressions.get(i);
+                boolean last = atEnd && i == expressions.size() - 1;
+
+                BoundExpression tailCall = getTailCall(expression, last);
+                if (tailCall != null) {
+                    lowered.add(replaceTailCall((BoundFunctionCallExpression) tailCall));
+                    //Nothing after a tail call can run
+                    break;
+                }
+                int previousTailCalls = tailCalls;
+                lowered.add(lower(expression, last));
+                if (tailCalls > previousTailCalls && i < expressions.size() - 1) {
+                    List<BoundExpression> rest = lower(expressions.subList(i + 1, expressions.size()), atEnd);
+                    BoundUnaryExpression notTailCalled = new BoundUnaryExpression(BoundUnaryOperator.bind(OpType.NOT, TypeSymbol.BOOL), new BoundVariableExpression(tailCalled));
+                    lowered.add(new BoundIfExpression(notTailCalled, new BoundBlockExpression(rest), null));
+                    break;
+                }
+            }
+            return lowered;
+        }
+
+        private BoundExpression lower(BoundExpression expression, boolean atEnd) {
+            if (expression instanceof BoundBlockExpression) {
+                return new BoundBlockExpression(lower(((BoundBlockExpression) expression).getExpressions(), atEnd));
+            }
+            if (expression instanceof BoundIfExpression) {
+                BoundIfExpression ifExpression = (BoundIfExpression) expression;
+                BoundExpression elseBody = ifExpression.getElseBody() == null ? null : lowerBranch(ifExpression.getElseBody(), atEnd);
+                return new BoundIfExpression(ifExpression.getCondition(), lowerBranch(ifExpression.getBody(), atEnd), elseBody);
+            }
+            if (containsSelfReturn(expression)) {
+                throw new NotEliminableException("a tail call is inside a " + expression.getBoundExpressionType());
+            }
+            return expression;
+        }
+
+        private BoundExpression lowerBranch(BoundExpression branch, boolean atEnd) {
+            BoundExpression tailCall = getTailCall(branch, atEnd);
+            if (tailCall != null) {
+                return replaceTailCall((BoundFunctionCallExpression) tailCall);
+            }
+            return lower(branch, atEnd);
+        }
+
+        private BoundExpression getTailCall(BoundExpression expression, boolean atEnd) {
+            BoundExpression call = expression;
+            if (expression instanceof BoundReturnExpression) {
+                call = ((BoundReturnExpression) expression).getReturnValue();
+            } else if (!atEnd || declaration.getFunctionSymbol().getType() != TypeSymbol.UNIT) {
+                return null;
+            }
+            if (call instanceof BoundFunctionCallExpression && ((BoundFunctionCallExpression) call).getFunction().equals(declaration.getFunctionSymbol())) {
+                return call;
+            }
+            return null;
+        }
+
+        private boolean containsSelfReturn(BoundExpression expression) {
+            boolean[] containsSelfReturn = {false};
+            DeadCodeEliminator.forEachExpression(List.of(expression), child -> containsSelfReturn[0] |= getTailCall(child, false) != null);
+            return containsSelfReturn[0];
+        }
+
+        //The arguments are all evaluated before any parameter is assigned, as they can read each other
+        private BoundBlockExpression replaceTailCall(BoundFunctionCallExpression tailCall) {
+            tailCalls++;
+
+            List<BoundExpression> arguments = tailCall.getBoundArguments();
+            List<BoundExpression> expressions = new ArrayList<>();
+            List<BoundExpression> assignments = new ArrayList<>();
+            for (int i = 0; i < arguments.size(); i++) {
+                VariableSymbol parameter = parameters.get(i);
+                BoundExpression argument = arguments.get(i);
+                if (argument instanceof BoundVariableExpression && ((BoundVariableExpression) argument).getVariable().equals(parameter)) {
+                    continue;
+                }
+                VariableSymbol next = new VariableSymbol("argument-" + UUID.randomUUID().toString(), parameter.getType(), null, false, null);
+                expressions.add(new BoundVariableDeclarationExpression(next, null, argument, false));
+                assignments.add(new BoundAssignmentExpression(parameter, null, new BoundVariableExpression(next)));
+            }
+            expressions.addAll(assignments);
+            expressions.add(new BoundAssignmentExpression(tailCalled, null, new BoundLiteralExpression(true)));
+
+            return new BoundBlockExpression(expressions);
+        }
+    }
+
+    //Thrown when the tail calls of a function can't be eliminated after all, which leaves it as it is
+    private static final class NotEliminableException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private NotEliminableException(String reason) {
+            super(reason, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.skennedy.rasna.parsing;
+
+import com.skennedy.rasna.diagnostics.Error;
+import com.skennedy.rasna.lexing.model.Token;
+import com.skennedy.rasna.parsing.model.IdentifierExpression;
+import com.skennedy.rasna.parsing.model.SyntaxNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A block whose tokens have been brace-matched but not parsed yet, used for the function bodies of imported modules.
+ * The body is parsed the first time its expressions are asked for.
+ */
+public class DeferredBlockExpression extends BlockExpression {
+
+    private final List<Token> tokens;
+    private final Function<List<Token>, Program> parser;
+
+    private Program parsed;
+
+    DeferredBlockExpression(IdentifierExpression openCurly, IdentifierExpression closeCurly, List<Token> tokens, Function<List<Token>, Program> parser) {
+        super(openCurly, Collections.emptyList(), closeCurly);
+        this.tokens = tokens;
+        this.parser = parser;
+    }
+
+    public boolean isParsed() {
+        return parsed != null;
+    }
+
+    @Override
+    public List<Expression> getExpressions() {
+        return parse().getExpressions();
+    }
+
+    public List<Error> getErrors() {
+        return parse().getErrors();
+    }
+
+    private synchronized Program parse() {
+        if (parsed == null) {
+            parsed = parser.apply(tokens);
+        }
+        return parsed;
+    }
+
+    @Override
+    public Iterator<SyntaxNode> getChildren() {
+        //Don't force a parse just to walk the tree, the braces still give the right span
+        List<SyntaxNode> children = new ArrayList<>();
+        children.add(getOpenCurly());
+        if (isParsed()) {
+            children.addAll(getExpressions());
+        }
+        children.add(getCloseCurly());
+        return children.iterator();
+    }
+}
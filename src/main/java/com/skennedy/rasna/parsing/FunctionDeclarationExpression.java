@@ -11,6 +11,7 @@ import java.util.List;
 
 public class FunctionDeclarationExpression extends Expression {
 
+    private final IdentifierExpression inlineKeyword;
     private final IdentifierExpression fnKeyword;
     private List<Expression> genericParameters;
     private final IdentifierExpression identifier;
@@ -20,8 +21,9 @@ public class FunctionDeclarationExpression extends Expression {
     private final TypeExpression typeExpression;
     private final BlockExpression body;
 
-    public FunctionDeclarationExpression(IdentifierExpression fnKeyword, List<Expression> genericParameters, IdentifierExpression identifier, IdentifierExpression openParen, List<FunctionParameterExpression> argumentExpressions, IdentifierExpression closeParen, TypeExpression typeExpression, BlockExpression body) {
+    public FunctionDeclarationExpression(IdentifierExpression inlineKeyword, IdentifierExpression fnKeyword, List<Expression> genericParameters, IdentifierExpression identifier, IdentifierExpression openParen, List<FunctionParameterExpression> argumentExpressions, IdentifierExpression closeParen, TypeExpression typeExpression, BlockExpression body) {
 
+        this.inlineKeyword = inlineKeyword;
         this.fnKeyword = fnKeyword;
         this.genericParameters = genericParameters;
         this.identifier = identifier;
@@ -41,6 +43,9 @@ public class FunctionDeclarationExpression extends Expression {
     public Iterator<SyntaxNode> getChildren() {
 
         List<SyntaxNode> children = new ArrayList<>();
+        if (inlineKeyword != null) {
+            children.add(inlineKeyword);
+        }
         children.add(fnKeyword);
         children.addAll(genericParameters);
         children.add(openParen);
@@ -51,6 +56,14 @@ public class FunctionDeclarationExpression extends Expression {
         return children.iterator();
     }
 
+    public IdentifierExpression getInlineKeyword() {
+        return inlineKeyword;
+    }
+
+    public boolean isInline() {
+        return inlineKeyword != null;
+    }
+
     public IdentifierExpression getFnKeyword() {
         return fnKeyword;
     }
@@ -0,0 +1,111 @@
+package com.skennedy.rasna.parsing;
+
+import com.skennedy.rasna.Rasna;
+import com.skennedy.rasna.lexing.model.Token;
+import com.skennedy.rasna.lexing.model.TokenType;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Lexes and parses the modules of an import graph concurrently.
+ * <p>
+ * Each module is parsed at most once. As soon as a file has been lexed its header is scanned for imports and
+ * those modules are submitted to the pool, so sibling and transitive imports are parsed in parallel while the
+ * importing file is still being parsed. The importing parser then picks the result up at the position of the
+ * import statement, which keeps the order of the resulting namespaces the same as the source.
+ */
+final class ModuleLoader {
+
+    private static final ExecutorService pool = ForkJoinPool.commonPool();
+
+    private final Map<Path, CompletableFuture<Program>> modules = new ConcurrentHashMap<>();
+    private final Map<Path, List<Path>> importGraph = new ConcurrentHashMap<>();
+
+    /**
+     * Records the imports of a file in the import graph and starts parsing each imported module
+     *
+     * @param filePath the file the tokens belong to
+     * @param tokens   the tokens of the file with whitespace and comments removed
+     */
+    void prefetchImports(Path filePath, List<Token> tokens) {
+        List<Path> imports = scanImports(filePath, tokens);
+        importGraph.put(normalise(filePath), imports);
+
+        for (Path path : imports) {
+            if (path.getFileName().toString().endsWith("." + Rasna.FILE_EXT) && !reaches(path, normalise(filePath))) {
+                load(path);
+            }
+        }
+    }
+
+    CompletableFuture<Program> load(Path path) {
+        return modules.computeIfAbsent(normalise(path), p -> CompletableFuture.supplyAsync(() -> parse(p), pool));
+    }
+
+    /**
+     * @return true if there is a chain of imports from `from` to `to` among the files scanned so far
+     */
+    boolean reaches(Path from, Path to) {
+        Set<Path> visited = new HashSet<>();
+        Deque<Path> toVisit = new ArrayDeque<>();
+        toVisit.push(normalise(from));
+        while (!toVisit.isEmpty()) {
+            Path path = toVisit.pop();
+            if (path.equals(normalise(to))) {
+                return true;
+            }
+            if (visited.add(path)) {
+                importGraph.getOrDefault(path, Collections.emptyList()).forEach(toVisit::push);
+            }
+        }
+        return false;
+    }
+
+    static Path normalise(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    private Program parse(Path path) {
+        try {
+            String code = String.join(StringUtils.LF, Files.readAllLines(path));
+
+            return new Parser(this, true).parse(path, code);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //Imports are only allowed at the top level so we only need to look for `import [inline] "path"`
+    private static List<Path> scanImports(Path filePath, List<Token> tokens) {
+        List<Path> imports = new ArrayList<>();
+        for (int i = 0; i < tokens.size() - 1; i++) {
+            if (tokens.get(i).getTokenType() != TokenType.IMPORT_KEYWORD) {
+                continue;
+            }
+            int pathIdx = i + 1;
+            if (tokens.get(pathIdx).getTokenType() == TokenType.INLINE_KEYWORD) {
+                pathIdx++;
+            }
+            if (pathIdx < tokens.size() && tokens.get(pathIdx).getTokenType() == TokenType.STRING_LITERAL) {
+                imports.add(normalise(filePath.getParent().resolve((String) tokens.get(pathIdx).getValue())));
+            }
+        }
+        return imports;
+    }
+}
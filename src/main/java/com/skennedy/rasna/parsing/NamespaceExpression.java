@@ -13,12 +13,18 @@ public class NamespaceExpression extends Expression {
     private final IdentifierExpression namespace;
     private final BlockExpression body;
     private boolean inline;
+    private final String moduleHash;
 
     public NamespaceExpression(IdentifierExpression namespaceKeyword, IdentifierExpression namespace, BlockExpression body, boolean inline) {
+        this(namespaceKeyword, namespace, body, inline, null);
+    }
+
+    public NamespaceExpression(IdentifierExpression namespaceKeyword, IdentifierExpression namespace, BlockExpression body, boolean inline, String moduleHash) {
         this.namespaceKeyword = namespaceKeyword;
         this.namespace = namespace;
         this.body = body;
         this.inline = inline;
+        this.moduleHash = moduleHash;
     }
 
     public IdentifierExpression getNamespaceKeyword() {
@@ -37,6 +43,13 @@ public class NamespaceExpression extends Expression {
         return inline;
     }
 
+    /**
+     * @return the source hash of the imported module, or null if this namespace was declared in source
+     */
+    public String getModuleHash() {
+        return moduleHash;
+    }
+
     @Override
     public ExpressionType getExpressionType() {
         return ExpressionType.NAMESPACE;
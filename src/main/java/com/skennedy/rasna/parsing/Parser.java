@@ -1,5 +1,7 @@
 package com.skennedy.rasna.parsing;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.skennedy.rasna.Rasna;
 import com.skennedy.rasna.diagnostics.Error;
 import com.skennedy.rasna.lexing.Lexer;
@@ -9,17 +11,17 @@ import com.skennedy.rasna.lexing.model.TokenType;
 import com.skennedy.rasna.parsing.model.IdentifierExpression;
 import com.skennedy.rasna.parsing.model.OpType;
 import com.skennedy.rasna.parsing.model.OperatorPrecedence;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.IOException;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletionException;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -36,6 +38,7 @@ public class Parser {
 
     private static List<TokenType> allowedTopLevelTokens = Arrays.asList(
             TokenType.FN_KEYWORD,
+            TokenType.INLINE_KEYWORD,
             TokenType.STRUCT_KEYWORD,
             TokenType.IMPORT_KEYWORD,
             TokenType.NAMESPACE_KEYWORD,
@@ -44,10 +47,26 @@ public class Parser {
     );
     private boolean inTopLevel = true;
 
+    private final ModuleLoader moduleLoader;
+    private List<String> importedHashes;
+
+    //Imported modules are only parsed down to their declarations, function bodies are parsed when first used
+    private final boolean skeleton;
+
+    public Parser() {
+        this(new ModuleLoader(), false);
+    }
+
+    Parser(ModuleLoader moduleLoader, boolean skeleton) {
+        this.moduleLoader = moduleLoader;
+        this.skeleton = skeleton;
+    }
+
     public Program parse(Path filePath, String program) {
         this.filePath = filePath;
 
         errors = new ArrayList<>();
+        importedHashes = new ArrayList<>();
         List<Expression> expressions = new ArrayList<>();
 
         Lexer lexer = new Lexer();
@@ -58,6 +77,7 @@ public class Parser {
                 tokensToParse.add(token);
             }
         }
+        moduleLoader.prefetchImports(filePath, tokensToParse);
 
         while (current().getTokenType() != TokenType.EOF_TOKEN) {
             if (current().getTokenType() == TokenType.WHITESPACE) {
@@ -67,6 +87,25 @@ public class Parser {
         }
         matchToken(TokenType.EOF_TOKEN);
 
+        Hasher hasher = Hashing.sha256().newHasher().putString(program, StandardCharsets.UTF_8);
+        importedHashes.forEach(hash -> hasher.putString(hash, StandardCharsets.UTF_8));
+
+        return new Program(errors, expressions, hasher.hash().toString());
+    }
+
+    private Program parseDeferred(Path filePath, List<Token> tokens) {
+        this.filePath = filePath;
+        this.errors = new ArrayList<>();
+        this.importedHashes = new ArrayList<>();
+        this.position = 0;
+        this.tokensToParse = tokens;
+        this.inTopLevel = false;
+
+        List<Expression> expressions = new ArrayList<>();
+        while (current().getTokenType() != TokenType.EOF_TOKEN
+                && current().getTokenType() != TokenType.BAD_TOKEN) {
+            expressions.add(parseExpression());
+        }
         return new Program(errors, expressions);
     }
 
@@ -162,6 +201,7 @@ public class Parser {
             case MATCH_KEYWORD:
                 return parseMatchExpression();
             case FN_KEYWORD:
+            case INLINE_KEYWORD:
                 return parseFunctionDeclarationExpression();
             case IMPORT_KEYWORD:
                 return parseImportStatement();
@@ -351,19 +391,26 @@ public class Parser {
             throw new IllegalArgumentException("File must be a ." + Rasna.FILE_EXT + " file.");
         }
 
-        try {
-            String code = String.join(StringUtils.LF, Files.readAllLines(path));
+        if (moduleLoader.reaches(path, filePath)) {
+            errors.add(Error.raise("Circular import of " + path.getFileName(), importPath.getToken()));
+            inTopLevel = true;
+            return new NoOpExpression();
+        }
 
-            Parser parser = new Parser();
-            Program program = parser.parse(path.toAbsolutePath(), code);
+        try {
+            Program program = moduleLoader.load(path).join();
 
             if (program.hasErrors()) {
                 for (Error error : program.getErrors()) {
-                    System.err.println(error.getMessage() + " at " + error.getLocation() + " -> " + error.getToken());
+                    String location = error.getLocation() == null ? "" : " at " + error.getLocation();
+                    errors.add(Error.raise(error.getMessage() + "in " + path.getFileName() + location, importPath.getToken()));
                 }
-                System.exit(1);
+                inTopLevel = true;
+                return new NoOpExpression();
             }
 
+            importedHashes.add(program.getSourceHash());
+
             //This is real scuffed
             inTopLevel = true;
             return new NamespaceExpression(
@@ -373,10 +420,14 @@ public class Parser {
                             new IdentifierExpression(new Token(TokenType.OPEN_CURLY_BRACE, new Location(fileNameWithExt, -1, -1)), TokenType.OPEN_CURLY_BRACE, TokenType.OPEN_CURLY_BRACE.getText()),
                             program.getExpressions(),
                             new IdentifierExpression(new Token(TokenType.CLOSE_CURLY_BRACE, new Location(fileNameWithExt, -1, -1)), TokenType.CLOSE_CURLY_BRACE, TokenType.CLOSE_CURLY_BRACE.getText())),
-                    inline
+                    inline,
+                    program.getSourceHash()
             );
 
-        } catch (IOException e) {
+        } catch (CompletionException e) {
+            if (!(e.getCause() instanceof UncheckedIOException)) {
+                throw e;
+            }
             errors.add(Error.raiseImportError(path, importPath.getToken()));
         }
         inTopLevel = true;
@@ -709,6 +760,10 @@ public class Parser {
     private Expression parseFunctionDeclarationExpression() {
 
         inTopLevel = false;
+        IdentifierExpression inlineKeyword = null;
+        if (current().getTokenType() == TokenType.INLINE_KEYWORD) {
+            inlineKeyword = matchToken(TokenType.INLINE_KEYWORD);
+        }
         IdentifierExpression fnKeyword = matchToken(TokenType.FN_KEYWORD);
 
         List<Expression> genericParameters = new ArrayList<>();
@@ -746,10 +801,10 @@ public class Parser {
             typeExpression = parseTypeExpression();
         }
 
-        BlockExpression body = parseBlockExpression();
+        BlockExpression body = skeleton ? parseDeferredBlockExpression() : parseBlockExpression();
 
         inTopLevel = true;
-        return new FunctionDeclarationExpression(fnKeyword, genericParameters, identifier, openParen, argumentExpressions, closeParen, typeExpression, body);
+        return new FunctionDeclarationExpression(inlineKeyword, fnKeyword, genericParameters, identifier, openParen, argumentExpressions, closeParen, typeExpression, body);
     }
 
     private VariableDeclarationExpression parseVariableDeclarationExpression() {
@@ -1155,6 +1210,39 @@ public class Parser {
         return new BlockExpression(openCurly, expressions, closeCurly);
     }
 
+    private BlockExpression parseDeferredBlockExpression() {
+        if (current().getTokenType() != TokenType.OPEN_CURLY_BRACE) {
+            return parseBlockExpression();
+        }
+        int depth = 0;
+        int closeCurlyPosition = position;
+        for (; closeCurlyPosition < tokensToParse.size(); closeCurlyPosition++) {
+            TokenType tokenType = tokensToParse.get(closeCurlyPosition).getTokenType();
+            if (tokenType == TokenType.OPEN_CURLY_BRACE) {
+                depth++;
+            } else if (tokenType == TokenType.CLOSE_CURLY_BRACE) {
+                depth--;
+                if (depth == 0) {
+                    break;
+                }
+            }
+        }
+        if (depth != 0) {
+            //Unbalanced braces, let the parser report it properly
+            return parseBlockExpression();
+        }
+        IdentifierExpression openCurly = matchToken(TokenType.OPEN_CURLY_BRACE);
+
+        List<Token> bodyTokens = new ArrayList<>(tokensToParse.subList(position, closeCurlyPosition));
+        bodyTokens.add(new Token(TokenType.EOF_TOKEN, tokensToParse.get(closeCurlyPosition).getLocation()));
+        position = closeCurlyPosition;
+
+        IdentifierExpression closeCurly = matchToken(TokenType.CLOSE_CURLY_BRACE);
+
+        Path bodyFilePath = filePath;
+        return new DeferredBlockExpression(openCurly, closeCurly, bodyTokens, tokens -> new Parser(moduleLoader, true).parseDeferred(bodyFilePath, tokens));
+    }
+
     private OpType parseOpType() {
         Token token = current();
         position++;
@@ -10,9 +10,16 @@ public class Program {
 
     private final List<Expression> expressions;
 
+    private final String sourceHash;
+
     public Program(List<Error> errors, List<Expression> expressions) {
+        this(errors, expressions, null);
+    }
+
+    public Program(List<Error> errors, List<Expression> expressions, String sourceHash) {
         this.errors = errors;
         this.expressions = expressions;
+        this.sourceHash = sourceHash;
     }
 
     public List<Expression> getExpressions() {
@@ -23,6 +30,13 @@ public class Program {
         return errors;
     }
 
+    /**
+     * @return a hash of the source of this program and of every module it imports
+     */
+    public String getSourceHash() {
+        return sourceHash;
+    }
+
     public boolean hasErrors() {
         return !errors.isEmpty();
     }
@@ -1,20 +1,34 @@
 package com.skennedy.rasna.typebinding;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Objects;
 
 import static com.skennedy.rasna.typebinding.SymbolType.VARIABLE;
 
 public class ArrayTypeSymbol extends TypeSymbol {
 
+    //Keyed by the id of the element type, entries go when nothing refers to the array type any more
+    private static final Cache<Integer, ArrayTypeSymbol> interned = CacheBuilder.newBuilder()
+            .weakValues()
+            .build();
+
     private final TypeSymbol type;
 
-    public ArrayTypeSymbol(TypeSymbol type) {
+    private ArrayTypeSymbol(TypeSymbol type) {
         super(type.getName(), new LinkedHashMap<>(Map.of("len", new VariableSymbol("len", INT, null, true, null))));
         this.type = type;
     }
 
+    /**
+     * @return the canonical array type of the given element type
+     */
+    public static ArrayTypeSymbol of(TypeSymbol type) {
+        return interned.asMap().computeIfAbsent(type.getId(), id -> new ArrayTypeSymbol(type));
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -28,8 +42,8 @@ public class ArrayTypeSymbol extends TypeSymbol {
     }
 
     @Override
-    public boolean isAssignableFrom(TypeSymbol other) {
-        boolean isAssignable = super.isAssignableFrom(other);
+    protected boolean computeAssignableFrom(TypeSymbol other) {
+        boolean isAssignable = super.computeAssignableFrom(other);
 
         if (isAssignable) {
             return true;
@@ -40,7 +54,7 @@ public class ArrayTypeSymbol extends TypeSymbol {
 
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), getType());
+        return 31 * super.hashCode() + getType().getId();
     }
 
     public TypeSymbol getType() {
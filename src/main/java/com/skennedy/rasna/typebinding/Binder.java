@@ -1,6 +1,8 @@
 package com.skennedy.rasna.typebinding;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.skennedy.rasna.diagnostics.BindingError;
+import com.skennedy.rasna.diagnostics.Error;
 import com.skennedy.rasna.diagnostics.TextSpan;
 import com.skennedy.rasna.exceptions.FunctionAlreadyDeclaredException;
 import com.skennedy.rasna.exceptions.InvalidOperationException;
@@ -18,14 +20,22 @@ import com.skennedy.rasna.parsing.model.ExpressionType;
 import com.skennedy.rasna.parsing.model.IdentifierExpression;
 import com.skennedy.rasna.parsing.model.SyntaxNode;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 import static com.skennedy.rasna.typebinding.TypeSymbol.ANY;
@@ -42,6 +52,14 @@ import static com.skennedy.rasna.typebinding.TypeSymbol.getPrimitives;
 
 public class Binder {
 
+    //Kept apart from the common pool so that binding neither waits behind nor starves whatever else the process runs there
+    private static final ExecutorService pool = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            new ThreadFactoryBuilder().setNameFormat("rasna-binder-%d").setDaemon(true).build()
+    );
+
+    private final Executor executor;
+
     private List<BindingError> errors;
     private List<BindingWarning> warnings;
     private BoundScope currentScope;
@@ -50,13 +68,25 @@ public class Binder {
 
     private Map<FunctionSymbol, BlockExpression> interfaceBodies;//TODO: This is merely temporary as a proof of concept
 
+    private boolean deferFunctionBodies = false;
+    private Map<FunctionSymbol, DeferredFunction> deferredFunctions;
+    private Set<FunctionSymbol> boundDeferredFunctions;
+    private Map<FunctionSymbol, Map<List<TypeSymbol>, FunctionSymbol>> specialisations;
+    //The bodies of the program's functions, bound in parallel once every signature has been declared
+    private Map<BoundBlockExpression, DeferredFunction> pendingBodies;
+    //Reads of variables declared without an initialiser in the function being bound, checked against its flow analysis
+    private Map<BoundVariableExpression, TextSpan> uninitialisedReads;
+
     public Binder() {
+        this(pool);
+    }
+
+    //Lets tests bind the function bodies one after another, to check the result doesn't depend on the scheduling
+    Binder(Executor executor) {
+        this.executor = executor;
         currentScope = new BoundScope(null);
         BuiltInFunctions.getBuiltinFunctions()
-                .forEach(function -> currentScope.declareFunction(buildSignature(function.getName(), function.getArguments().stream()
-                        .map(BoundFunctionParameterExpression::getType)
-                        .map(TypeSymbol::toString)
-                        .collect(Collectors.toList())), function));
+                .forEach(function -> currentScope.declareFunction(FunctionKey.ofParameters(function.getName(), function.getArguments()), function));
 
         //What a nightmare
         InterfaceTypeSymbol.getBuiltinInterfaces().stream().peek(i -> i.getSignatures().forEach(sig -> {
@@ -67,30 +97,90 @@ public class Binder {
 
             FunctionSymbol interfaceFunction = new FunctionSymbol(sig.getIdentifier(), sig.getReturnType(), functionParameterExpressions, null);
 
-            List<String> argumentIdentifiers = functionParameterExpressions.stream()
-                    .map(BoundFunctionParameterExpression::getArgument)
-                    .map(VariableSymbol::getType)
-                    .map(TypeSymbol::toString)
-                    .collect(Collectors.toList());
-            currentScope.declareFunction(buildSignature(sig.getIdentifier(), argumentIdentifiers), interfaceFunction);
+            currentScope.declareFunction(FunctionKey.ofParameters(sig.getIdentifier(), functionParameterExpressions), interfaceFunction);
         })).forEach(i -> currentScope.declareType(i.getName(), i));
 
         int i = 0;
     }
 
+    //Binds a single function body in the second pass, sharing the tables that any body can add to
+    private Binder(Binder parent) {
+        executor = parent.executor;
+        errors = new ArrayList<>();
+        warnings = new ArrayList<>();
+        interfaceBodies = parent.interfaceBodies;
+        deferredFunctions = parent.deferredFunctions;
+        boundDeferredFunctions = parent.boundDeferredFunctions;
+        specialisations = parent.specialisations;
+    }
+
+    /**
+     * Binds the program in two passes. The first declares every type and function signature and the second binds the
+     * function bodies in parallel, so a body can call any function of the program wherever it is declared. Only
+     * declarations are allowed at the top level, so there are no globals a body could read before they are initialised.
+     */
     public BoundProgram bind(Program program) {
 
         errors = new ArrayList<>();
         warnings = new ArrayList<>();
-        interfaceBodies = new HashMap<>();
+        interfaceBodies = new ConcurrentHashMap<>();
+        deferredFunctions = new ConcurrentHashMap<>();
+        boundDeferredFunctions = ConcurrentHashMap.newKeySet();
+        specialisations = new ConcurrentHashMap<>();
+        pendingBodies = new LinkedHashMap<>();
 
+        //The first pass leaves a placeholder for each function body
         List<Expression> expressions = program.getExpressions();
         for (Expression expression : expressions) {
             boundExpressions.add(bind(expression));
         }
+        Map<BoundBlockExpression, DeferredFunction> bodies = pendingBodies;
+        pendingBodies = null;
+
+        List<CompletableFuture<Binder>> boundBodies = new ArrayList<>();
+        for (DeferredFunction body : bodies.values()) {
+            boundBodies.add(CompletableFuture.supplyAsync(() -> bindPendingBody(body), executor));
+        }
+        //Merged in source order so the output doesn't depend on how the bodies were scheduled
+        int i = 0;
+        for (Map.Entry<BoundBlockExpression, DeferredFunction> body : bodies.entrySet()) {
+            Binder boundBody;
+            try {
+                boundBody = boundBodies.get(i++).join();
+            } catch (CompletionException e) {
+                //A body that fails to bind is reported against its function rather than ending the whole compilation
+                Throwable cause = e.getCause() == null ? e : e.getCause();
+                FunctionDeclarationExpression declaration = body.getValue().getDeclaration();
+                errors.add(BindingError.raise("Function `" + body.getValue().getFunction().getName() + "` could not be bound: " + cause.getMessage(), declaration.getIdentifier().getSpan()));
+                continue;
+            }
+            body.getKey().getExpressions().addAll(boundBody.boundExpressions);
+            errors.addAll(boundBody.errors);
+            warnings.addAll(boundBody.warnings);
+        }
         return new BoundProgram(boundExpressions, errors, warnings);
     }
 
+    private Binder bindPendingBody(DeferredFunction pendingBody) {
+        Binder binder = new Binder(this);
+        FunctionSymbol function = pendingBody.getFunction();
+
+        if (interfaceBodies.containsKey(function)) {
+            //Generic bodies are only checked here, each call site binds its own specialisation
+            binder.currentScope = new BoundScope(pendingBody.getScope());
+            binder.bindBlockExpression(pendingBody.getDeclaration().getBody());
+            return binder;
+        }
+        binder.currentScope = pendingBody.getScope();
+        BoundFunctionDeclarationExpression boundFunctionDeclarationExpression = binder.bindFunctionBody(pendingBody);
+
+        if (function.getName().equals("main")) {
+            binder.typeCheckMainFunction(boundFunctionDeclarationExpression, pendingBody.getDeclaration());
+        }
+        binder.boundExpressions.add(boundFunctionDeclarationExpression);
+        return binder;
+    }
+
     public BoundExpression bind(Expression expression) {
         switch (expression.getExpressionType()) {
 
@@ -183,7 +273,7 @@ public class Binder {
         }
 
         BoundVariableDeclarationExpression boundVariableDeclarationExpression = (BoundVariableDeclarationExpression) boundResource;
-        Optional<FunctionSymbol> close = currentScope.tryLookupFunction(buildSignature("close", Collections.singletonList(boundResource.getType().getName())));
+        Optional<FunctionSymbol> close = tryLookupFunction(FunctionKey.of("close", Collections.singletonList(boundResource.getType())));
         if (close.isEmpty()) {
             errors.add(BindingError.raise("Resource `" + boundVariableDeclarationExpression.getVariable().getName() + "` in  `with` declaration must inherit the `Closable` interface", withBlockExpression.getResource().getIdentifier().getSpan()));
             return new BoundErrorExpression();
@@ -212,11 +302,7 @@ public class Binder {
 
             FunctionSymbol interfaceFunction = new FunctionSymbol(functionSignatureExpression.getIdentifier(), functionSignatureExpression.getReturnType(), functionParameterExpressions, null);
 
-            List<String> argumentIdentifiers = functionParameterExpressions.stream()
-                    .map(BoundFunctionParameterExpression::getType)
-                    .map(Object::toString)
-                    .collect(Collectors.toList());
-            currentScope.declareFunction(buildSignature((String) signatureExpression.getIdentifier().getValue(), argumentIdentifiers), interfaceFunction);
+            currentScope.declareFunction(FunctionKey.ofParameters((String) signatureExpression.getIdentifier().getValue(), functionParameterExpressions), interfaceFunction);
 
             boundFunctionSignatureExpressions.add(functionSignatureExpression);
         }
@@ -308,7 +394,7 @@ public class Binder {
 
         List<BoundExpression> boundArgs = new ArrayList<>();
         List<Expression> structLiteralExpressionMembers = structLiteralExpression.getMembers();
-        List<VariableSymbol> members = new ArrayList<>(type.getFields().values());
+        List<VariableSymbol> members = type.getFieldList();
         for (int i = 0; i < structLiteralExpressionMembers.size(); i++) {
 
             Expression arg = structLiteralExpressionMembers.get(i);
@@ -318,7 +404,7 @@ public class Binder {
             boundArgs.add(boundArg);
         }
 
-        List<VariableSymbol> values = new ArrayList<>(type.getFields().values());
+        List<VariableSymbol> values = type.getFieldList();
         if (values.size() != structLiteralExpression.getMembers().size()) {
             errors.add(BindingError.raiseUnknownStruct((String) typeExpression.getValue(), boundArgs, structLiteralExpression.getSpan()));
             return new BoundErrorExpression();
@@ -397,6 +483,10 @@ public class Binder {
 
     private BoundExpression bindNamespace(NamespaceExpression namespaceExpression) {
 
+        if (namespaceExpression.getModuleHash() != null) {
+            return bindModule(namespaceExpression);
+        }
+
         if (namespaceExpression.isInline()) {
             List<BoundExpression> boundExpressions = new ArrayList<>();
 
@@ -424,6 +514,103 @@ public class Binder {
         return new BoundBlockExpression(boundExpressions);
     }
 
+    //Imported modules only see the builtins and their own imports, so an unchanged module binds the same way
+    //wherever it is imported and can be reused from its interface instead of being bound again
+    private BoundExpression bindModule(NamespaceExpression moduleExpression) {
+
+        String name = (String) moduleExpression.getNamespace().getValue();
+
+        ModuleInterface moduleInterface = ModuleInterface.tryLoad(moduleExpression.getModuleHash())
+                .orElseGet(() -> bindModuleInterface(moduleExpression));
+
+        if (moduleExpression.isInline()) {
+            currentScope.declareAll(moduleInterface.getScope());
+            currentScope.declareNamespace(name, currentScope);
+        } else {
+            currentScope.declareNamespace(name, moduleInterface.getScope());
+        }
+        for (BoundExpression generatedFunction : moduleInterface.getGeneratedFunctions()) {
+            if (boundExpressions.stream().noneMatch(expression -> expression == generatedFunction)) {
+                boundExpressions.add(generatedFunction);
+            }
+        }
+        interfaceBodies.putAll(moduleInterface.getInterfaceBodies());
+        deferredFunctions.putAll(moduleInterface.getDeferredFunctions());
+        warnings.addAll(moduleInterface.getWarnings());
+
+        return new BoundBlockExpression(moduleInterface.getBody());
+    }
+
+    private ModuleInterface bindModuleInterface(NamespaceExpression moduleExpression) {
+
+        BoundScope savedScope = currentScope;
+        List<BindingError> savedErrors = errors;
+        List<BindingWarning> savedWarnings = warnings;
+        Map<FunctionSymbol, BlockExpression> savedInterfaceBodies = interfaceBodies;
+        Map<FunctionSymbol, DeferredFunction> savedDeferredFunctions = deferredFunctions;
+        Map<FunctionSymbol, Map<List<TypeSymbol>, FunctionSymbol>> savedSpecialisations = specialisations;
+        boolean savedDeferFunctionBodies = deferFunctionBodies;
+        int generatedFrom = boundExpressions.size();
+
+        while (currentScope.getParentScope() != null) {
+            currentScope = currentScope.getParentScope();
+        }
+        currentScope = new BoundScope(currentScope);
+        errors = new ArrayList<>();
+        warnings = new ArrayList<>();
+        interfaceBodies = new HashMap<>();
+        deferredFunctions = new HashMap<>();
+        //A cached interface must carry every specialisation it uses, so it can't reuse ones generated outside it
+        specialisations = new ConcurrentHashMap<>();
+        deferFunctionBodies = true;
+
+        checkDeferredBodies(moduleExpression.getBody());
+
+        List<BoundExpression> body = new ArrayList<>();
+        for (Expression expression : moduleExpression.getBody().getExpressions()) {
+            body.add(bind(expression));
+        }
+        List<BoundExpression> generatedFunctions = new ArrayList<>(boundExpressions.subList(generatedFrom, boundExpressions.size()));
+        boundExpressions.subList(generatedFrom, boundExpressions.size()).clear();
+
+        ModuleInterface moduleInterface = new ModuleInterface(currentScope, body, generatedFunctions, interfaceBodies, deferredFunctions, warnings);
+        List<BindingError> moduleErrors = errors;
+
+        currentScope = savedScope;
+        errors = savedErrors;
+        warnings = savedWarnings;
+        interfaceBodies = savedInterfaceBodies;
+        deferredFunctions = savedDeferredFunctions;
+        specialisations = savedSpecialisations;
+        deferFunctionBodies = savedDeferFunctionBodies;
+
+        if (moduleErrors.isEmpty()) {
+            ModuleInterface.store(moduleExpression.getModuleHash(), moduleInterface);
+        }
+        errors.addAll(moduleErrors);
+        return moduleInterface;
+    }
+
+    //Imported function bodies are otherwise only parsed once referenced, so without this a syntax error in an
+    //unreferenced function would go unreported and the module would be cached as if it were fine
+    private void checkDeferredBodies(SyntaxNode module) {
+        Deque<SyntaxNode> toVisit = new ArrayDeque<>();
+        toVisit.push(module);
+        while (!toVisit.isEmpty()) {
+            SyntaxNode node = toVisit.pop();
+            if (node instanceof DeferredBlockExpression) {
+                for (Error error : ((DeferredBlockExpression) node).getErrors()) {
+                    errors.add(BindingError.raise(error.getMessage() + "at " + error.getLocation(), error.getSpan()));
+                }
+            }
+            node.getChildren().forEachRemaining(child -> {
+                if (child != null) {
+                    toVisit.push(child);
+                }
+            });
+        }
+    }
+
     private BoundExpression bindMemberAccessorExpression(MemberAccessorExpression memberAccessorExpression) {
         BoundExpression boundOwner = bind(memberAccessorExpression.getOwner());
         if (boundOwner instanceof BoundErrorExpression || boundOwner.getType() == ERROR) {
@@ -458,14 +645,8 @@ public class Binder {
             functionCallExpression.getArguments().stream()
                     .map(this::bind).forEach(boundArguments::add);
 
-            List<String> argumentTypes = new ArrayList<>();
-            boundArguments.stream()
-                    .map(BoundExpression::getType)
-                    .map(TypeSymbol::getName)
-                    .forEach(argumentTypes::add);
-
             String identifier = (String) functionCallExpression.getIdentifier().getValue();
-            Optional<FunctionSymbol> function = currentScope.tryLookupFunction(buildSignature(identifier, argumentTypes));
+            Optional<FunctionSymbol> function = tryLookupFunction(FunctionKey.ofArguments(identifier, boundArguments));
             IdentifierExpression dummyRefKeyword = null;
             if (function.isEmpty()) {
                 Set<FunctionSymbol> potentialFunctions = currentScope.tryLookupInterfaceFunctions(identifier);
@@ -542,7 +723,7 @@ public class Binder {
         if (!elementCount.isConstExpression()) {
             throw new IllegalStateException("Element count must be a const int"); //TODO: Raise a proper error
         }
-        ArrayTypeSymbol typeSymbol = new ArrayTypeSymbol(parseType(arrayDeclarationExpression.getTypeExpression()));
+        ArrayTypeSymbol typeSymbol = ArrayTypeSymbol.of(parseType(arrayDeclarationExpression.getTypeExpression()));
 
         return new BoundArrayDeclarationExpression(typeSymbol, elementCount);
     }
@@ -631,7 +812,7 @@ public class Binder {
     private BoundExpression bindArrayAccessExpression(ArrayAccessExpression arrayAccessExpression) {
         BoundExpression array = bind(arrayAccessExpression.getArray());
         if (!(array.getType() instanceof ArrayTypeSymbol)) {
-            errors.add(BindingError.raiseTypeMismatch(new ArrayTypeSymbol(array.getType()), array.getType(), arrayAccessExpression.getIndex().getSpan()));
+            errors.add(BindingError.raiseTypeMismatch(ArrayTypeSymbol.of(array.getType()), array.getType(), arrayAccessExpression.getIndex().getSpan()));
         }
 
         BoundExpression index = bind(arrayAccessExpression.getIndex());
@@ -783,11 +964,11 @@ public class Binder {
 
         if (!(iterableType == STRING && iteratorType == CHAR)) {
             if (!(iterableType instanceof ArrayTypeSymbol)) {
-                errors.add(BindingError.raiseTypeMismatch(new ArrayTypeSymbol(iteratorType), iterableType, forInExpression.getIterable().getSpan()));
+                errors.add(BindingError.raiseTypeMismatch(ArrayTypeSymbol.of(iteratorType), iterableType, forInExpression.getIterable().getSpan()));
                 return new BoundErrorExpression();
             }
             if (!iteratorType.isAssignableFrom(((ArrayTypeSymbol) iterableType).getType())) {
-                errors.add(BindingError.raiseTypeMismatch(new ArrayTypeSymbol(iteratorType), iterableType, forInExpression.getIterable().getSpan()));
+                errors.add(BindingError.raiseTypeMismatch(ArrayTypeSymbol.of(iteratorType), iterableType, forInExpression.getIterable().getSpan()));
             }
         }
         VariableSymbol variable = buildVariableSymbol(iteratorType, forInExpression.getIdentifier(), null, false, forInExpression);
@@ -823,14 +1004,14 @@ public class Binder {
                     .map(DelimitedExpression::getExpression)
                     .map(this::parseType)
                     .collect(Collectors.toList());
-            typeSymbol = new TupleTypeSymbol(boundTypes);
+            typeSymbol = TupleTypeSymbol.of(boundTypes);
         } else if (typeExpression.getTypeExpression() instanceof UnionTypeExpression) {
             List<TypeSymbol> boundTypes = ((UnionTypeExpression) typeExpression.getTypeExpression()).getTypeExpressions()
                     .stream()
                     .map(DelimitedExpression::getExpression)
                     .map(this::parseType)
                     .collect(Collectors.toList());
-            typeSymbol = new UnionTypeSymbol(boundTypes);
+            typeSymbol = UnionTypeSymbol.of(boundTypes);
         } else {
             IdentifierExpression identifier = getTypeIdentifier(typeExpression);
 
@@ -843,7 +1024,7 @@ public class Binder {
 
         //TODO: This doesn't do N-Dimensional arrays yet
         if (typeExpression instanceof ArrayTypeExpression) {
-            return new ArrayTypeSymbol(typeSymbol);
+            return ArrayTypeSymbol.of(typeSymbol);
         }
         return typeSymbol;
     }
@@ -1070,7 +1251,8 @@ public class Binder {
             return new BoundLiteralExpression(false);
         }
 
-        Optional<TypeSymbol> type = currentScope.tryLookupType((String) identifierExpression.getValue());
+        //Function bodies are bound after every type is declared, so a type can't take precedence over a nearer variable
+        Optional<TypeSymbol> type = currentScope.tryLookupUnshadowedType((String) identifierExpression.getValue());
         if (type.isPresent()) {
             return new BoundTypeExpression(type.get());
         }
@@ -1084,8 +1266,13 @@ public class Binder {
             return new BoundVariableExpression(variable.get());
         }
         if (((VariableDeclarationExpression) variable.get().getDeclaration()).getInitialiser() == null) {
-            errors.add(BindingError.raiseUninitialisedVariable((String) identifierExpression.getValue(), identifierExpression.getSpan()));
-            return new BoundErrorExpression();
+            if (uninitialisedReads == null) {
+                errors.add(BindingError.raiseUninitialisedVariable((String) identifierExpression.getValue(), identifierExpression.getSpan()));
+                return new BoundErrorExpression();
+            }
+            BoundVariableExpression read = new BoundVariableExpression(variable.get());
+            uninitialisedReads.put(read, identifierExpression.getSpan());
+            return read;
         }
         return new BoundVariableExpression(variable.get());
     }
@@ -1195,6 +1382,7 @@ public class Binder {
         String name = (String) enumDeclarationExpression.getIdendifier().getValue();
         currentScope = new BoundScope(currentScope);
 
+        //The members are typed as the enum itself, so they are added to the type as they are declared
         EnumTypeSymbol type = new EnumTypeSymbol(name, new LinkedHashMap<>());
         List<VariableSymbol> members = new ArrayList<>();
         for (int i = 0; i < enumDeclarationExpression.getMembers().size(); i++) {
@@ -1208,9 +1396,8 @@ public class Binder {
                 errors.add(BindingError.raiseVariableAlreadyDeclared(member, identifier.getSpan(), currentScope.tryLookupVariable(member.getName()).get().getDeclaration().getSpan()));
             }
             members.add(member);
+            type.addField(member);
         }
-        LinkedHashMap<String, VariableSymbol> definedVariables = currentScope.getDefinedVariables();
-        type = new EnumTypeSymbol(name, definedVariables);
 
         currentScope = currentScope.getParentScope();
         try {
@@ -1264,12 +1451,8 @@ public class Binder {
 
                         FunctionSymbol interfaceFunction = new FunctionSymbol(functionSignatureExpression.getIdentifier(), functionSignatureExpression.getReturnType(), functionParameterExpressions, null);
 
-                        List<String> argumentIdentifiers = functionParameterExpressions.stream()
-                                .map(BoundFunctionParameterExpression::getType)
-                                .map(Object::toString)
-                                .collect(Collectors.toList());
                         try {
-                            currentScope.declareFunction(buildSignature(functionSignatureExpression.getIdentifier(), argumentIdentifiers), interfaceFunction);
+                            currentScope.declareFunction(FunctionKey.ofParameters(functionSignatureExpression.getIdentifier(), functionParameterExpressions), interfaceFunction);
                         } catch (FunctionAlreadyDeclaredException fade) {
                             errors.add(BindingError.raiseFunctionAlreadyDeclared(functionSignatureExpression.getIdentifier(), constraint.getSpan()));
                         }
@@ -1286,13 +1469,7 @@ public class Binder {
             arguments.add(boundArgument);
         }
 
-        FunctionSymbol functionSymbol = new FunctionSymbol((String) identifier.getValue(), type, arguments, null);
-        List<String> argumentIdentifiers = functionDeclarationExpression.getArguments().stream()
-                .map(FunctionParameterExpression::getTypeExpression)
-                .map(this::getTypeIdentifier)
-                .map(IdentifierExpression::getValue)
-                .map(Object::toString)
-                .collect(Collectors.toList());
+        FunctionSymbol functionSymbol = new FunctionSymbol((String) identifier.getValue(), type, arguments, null, functionDeclarationExpression.isInline());
         boolean deferredFunction = genericFunction || functionSymbol.getArguments().stream()
                 .anyMatch(arg -> arg.getType() instanceof InterfaceTypeSymbol);
 
@@ -1301,17 +1478,23 @@ public class Binder {
 
             interfaceBodies.put(functionSymbol, functionDeclarationExpression.getBody());
 
+            if (!deferFunctionBodies && pendingBodies != null) {
+                return deferBody(new DeferredFunction(functionSymbol, functionDeclarationExpression, arguments, currentScope));
+            }
+
             //quickly check the body
-            currentScope = new BoundScope(currentScope);
-            bindBlockExpression(functionDeclarationExpression.getBody());
-            currentScope = currentScope.getParentScope();
+            if (!deferFunctionBodies) {
+                currentScope = new BoundScope(currentScope);
+                bindBlockExpression(functionDeclarationExpression.getBody());
+                currentScope = currentScope.getParentScope();
+            }
 
             currentScope = currentScope.getParentScope();
             return new BoundNoOpExpression();
         }
 
         try {
-            currentScope.getParentScope().declareFunction(buildSignature((String) functionDeclarationExpression.getIdentifier().getValue(), argumentIdentifiers), functionSymbol);
+            currentScope.getParentScope().declareFunction(FunctionKey.ofParameters((String) functionDeclarationExpression.getIdentifier().getValue(), arguments), functionSymbol);
         } catch (FunctionAlreadyDeclaredException fade) {
             List<SyntaxNode> children = new ArrayList<>();
             children.add(functionDeclarationExpression.getFnKeyword());
@@ -1322,10 +1505,22 @@ public class Binder {
             errors.add(BindingError.raiseFunctionAlreadyDeclared(functionSymbol.getSignature(), Expression.getSpan(children)));
         }
 
+        if (deferFunctionBodies && !identifier.getValue().equals("main")) {
+            deferredFunctions.put(functionSymbol, new DeferredFunction(functionSymbol, functionDeclarationExpression, arguments, currentScope));
+            currentScope = currentScope.getParentScope();
+            return new BoundNoOpExpression();
+        }
+        if (pendingBodies != null) {
+            return deferBody(new DeferredFunction(functionSymbol, functionDeclarationExpression, arguments, currentScope));
+        }
+
+        Map<BoundVariableExpression, TextSpan> savedUninitialisedReads = uninitialisedReads;
+        uninitialisedReads = new LinkedHashMap<>();
 
         BoundBlockExpression body = bindBlockExpression(functionDeclarationExpression.getBody());
 
-        errors.addAll(FunctionAnalyser.analyzeBody(functionSymbol, body.getExpressions(), functionDeclarationExpression.getBody().getExpressions(), functionDeclarationExpression));
+        errors.addAll(FunctionAnalyser.analyzeBody(functionSymbol, body.getExpressions(), functionDeclarationExpression.getBody().getExpressions(), functionDeclarationExpression, uninitialisedReads, warnings));
+        uninitialisedReads = savedUninitialisedReads;
 
         currentScope = currentScope.getParentScope();
 
@@ -1338,23 +1533,12 @@ public class Binder {
         return boundFunctionDeclarationExpression;
     }
 
-    private String buildSignature(String name, List<String> typeIdentifiers) {
-        StringBuilder sb = new StringBuilder();
+    private BoundBlockExpression deferBody(DeferredFunction pendingBody) {
+        currentScope = currentScope.getParentScope();
 
-        sb.append(name);
-//        if (!functionDeclarationExpression.getGenericParameters().isEmpty()) {
-//            sb.append("<");
-//            for (Expression genericParameter : functionDeclarationExpression.getGenericParameters()) {
-//                if (genericParameter instanceof IdentifierExpression) {
-//                    sb.append(((IdentifierExpression) genericParameter).getValue());
-//                }
-//            }
-//            sb.append(">");
-//        }
-        sb.append("(");
-        sb.append(String.join(", ", typeIdentifiers));
-        sb.append(")");
-        return sb.toString();
+        BoundBlockExpression placeholder = new BoundBlockExpression(new ArrayList<>());
+        pendingBodies.put(placeholder, pendingBody);
+        return placeholder;
     }
 
     private void typeCheckMainFunction(BoundFunctionDeclarationExpression boundMainFunction, FunctionDeclarationExpression mainFunction) {
@@ -1366,13 +1550,13 @@ public class Binder {
         if (!arguments.isEmpty()) {
             if (arguments.size() == 1) {
                 BoundFunctionParameterExpression argumentExpression = arguments.get(0);
-                if (!argumentExpression.getType().equals(new ArrayTypeSymbol(STRING))) {
-                    errors.add(BindingError.raiseTypeMismatch(new ArrayTypeSymbol(STRING), argumentExpression.getType(), mainFunction.getArguments().get(0).getSpan()));
+                if (!argumentExpression.getType().equals(ArrayTypeSymbol.of(STRING))) {
+                    errors.add(BindingError.raiseTypeMismatch(ArrayTypeSymbol.of(STRING), argumentExpression.getType(), mainFunction.getArguments().get(0).getSpan()));
                 }
             } else {
                 BoundFunctionParameterExpression argumentExpression = arguments.get(0);
-                if (!argumentExpression.getType().equals(new ArrayTypeSymbol(STRING))) {
-                    errors.add(BindingError.raiseTypeMismatch(new ArrayTypeSymbol(STRING), argumentExpression.getType(), mainFunction.getArguments().get(0).getTypeExpression().getSpan()));
+                if (!argumentExpression.getType().equals(ArrayTypeSymbol.of(STRING))) {
+                    errors.add(BindingError.raiseTypeMismatch(ArrayTypeSymbol.of(STRING), argumentExpression.getType(), mainFunction.getArguments().get(0).getTypeExpression().getSpan()));
                 }
                 for (int i = 1; i < arguments.size(); i++) {
                     errors.add(BindingError.raiseTypeMismatch(UNIT, boundMainFunction.getArguments().get(i).getType(), mainFunction.getArguments().get(i).getTypeExpression().getSpan()));
@@ -1433,13 +1617,9 @@ public class Binder {
             }
         }
 
-        List<String> argumentTypeIdentifiers = boundArguments.stream()
-                .map(BoundExpression::getType)
-                .map(TypeSymbol::toString)
-                .collect(Collectors.toList());
-        String signature = buildSignature((String) functionCallExpression.getIdentifier().getValue(), argumentTypeIdentifiers);
+        FunctionKey key = FunctionKey.ofArguments((String) functionCallExpression.getIdentifier().getValue(), boundArguments);
 
-        Optional<FunctionSymbol> scopedFunction = currentScope.tryLookupFunction(signature);
+        Optional<FunctionSymbol> scopedFunction = tryLookupFunction(key);
 
         if (scopedFunction.isEmpty()) {
 
@@ -1494,6 +1674,40 @@ public class Binder {
         return new BoundFunctionCallExpression(function, boundArguments);
     }
 
+    private Optional<FunctionSymbol> tryLookupFunction(FunctionKey key) {
+        Optional<FunctionSymbol> function = currentScope.tryLookupFunction(key);
+        function.ifPresent(this::bindDeferredFunction);
+        return function;
+    }
+
+    //Deferred functions are bound on first reference, before the function referencing them is added to the program
+    private void bindDeferredFunction(FunctionSymbol function) {
+        DeferredFunction deferredFunction = deferredFunctions.get(function);
+        if (deferredFunction == null || !boundDeferredFunctions.add(function)) {
+            return;
+        }
+        boundExpressions.add(bindFunctionBody(deferredFunction));
+    }
+
+    private BoundFunctionDeclarationExpression bindFunctionBody(DeferredFunction deferredFunction) {
+        FunctionDeclarationExpression declaration = deferredFunction.getDeclaration();
+
+        BoundScope savedScope = currentScope;
+        Map<BoundVariableExpression, TextSpan> savedUninitialisedReads = uninitialisedReads;
+        currentScope = deferredFunction.getScope();
+        uninitialisedReads = new LinkedHashMap<>();
+
+        BoundBlockExpression body = bindBlockExpression(declaration.getBody());
+        //Imported functions are bound on first use, and their unused variables are no concern of the program using them
+        List<BindingWarning> bodyWarnings = deferredFunctions.containsKey(deferredFunction.getFunction()) ? new ArrayList<>() : warnings;
+        errors.addAll(FunctionAnalyser.analyzeBody(deferredFunction.getFunction(), body.getExpressions(), declaration.getBody().getExpressions(), declaration, uninitialisedReads, bodyWarnings));
+
+        currentScope = savedScope;
+        uninitialisedReads = savedUninitialisedReads;
+
+        return new BoundFunctionDeclarationExpression(deferredFunction.getFunction(), deferredFunction.getArguments(), body);
+    }
+
     private FunctionSymbol buildImplementationFunction(List<BoundExpression> boundArguments, FunctionSymbol interfaceFunction) {
 
         List<BoundFunctionParameterExpression> implFunctionParams = new ArrayList<>();
@@ -1507,7 +1721,24 @@ public class Binder {
 
             implFunctionParams.add(new BoundFunctionParameterExpression(funcArg.isReference(), implVariable, funcArg.getGuard()));
         }
-        FunctionSymbol impl = new FunctionSymbol(interfaceFunction.getName(), interfaceFunction.getType(), implFunctionParams, interfaceFunction.getGuard());
+
+        //Each specialisation is only bound and emitted once, however many call sites it has
+        List<TypeSymbol> implTypes = new ArrayList<>();
+        for (BoundFunctionParameterExpression implFunctionParam : implFunctionParams) {
+            implTypes.add(implFunctionParam.getType());
+        }
+        Map<List<TypeSymbol>, FunctionSymbol> functionSpecialisations = specialisations.computeIfAbsent(interfaceFunction, f -> new ConcurrentHashMap<>());
+        FunctionSymbol specialisation = functionSpecialisations.get(implTypes);
+        if (specialisation != null) {
+            return specialisation;
+        }
+
+        FunctionSymbol impl = new FunctionSymbol(interfaceFunction.getName(), interfaceFunction.getType(), implFunctionParams, interfaceFunction.getGuard(), interfaceFunction.isInline());
+        //Claimed before binding the body, so that recursive calls and bodies bound in parallel resolve to this specialisation
+        specialisation = functionSpecialisations.putIfAbsent(implTypes, impl);
+        if (specialisation != null) {
+            return specialisation;
+        }
 
         //Build body
         BlockExpression body = interfaceBodies.get(interfaceFunction);
@@ -1528,16 +1759,12 @@ public class Binder {
             currentScope.declareVariable(implFunctionParam.getArgument().getName(), implFunctionParam.getArgument());
         }
 
-        List<String> argumentIdentifiers = implFunctionParams.stream()
-                .map(BoundFunctionParameterExpression::getType)
-                .map(TypeSymbol::toString)
-                .collect(Collectors.toList());
         try {
-            currentScope.declareFunction(buildSignature(impl.getName(), argumentIdentifiers), impl);
+            currentScope.declareFunction(FunctionKey.ofParameters(impl.getName(), implFunctionParams), impl);
         } catch (FunctionAlreadyDeclaredException fade) {
+            currentScope = savedScope;
             return impl;
         }
-
         BoundBlockExpression boundBody = bindBlockExpression(body);
 
         //TODO: No analysis done on the interface method
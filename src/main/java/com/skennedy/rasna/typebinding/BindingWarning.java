@@ -30,4 +30,9 @@ public class BindingWarning {
 
         return new BindingWarning("Condition is always false", span);
     }
+
+    public static BindingWarning raiseUnusedVariable(String identifier, TextSpan span) {
+
+        return new BindingWarning("Variable `" + identifier + "` is never used", span);
+    }
 }
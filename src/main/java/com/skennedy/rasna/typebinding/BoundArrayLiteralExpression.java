@@ -20,7 +20,7 @@ public class BoundArrayLiteralExpression implements BoundExpression {
     @Override
     public TypeSymbol getType() {
         //TODO: Maybe a List<Expression> should be an expression in and of itself - ListExpression - that way it has a type and can be empty
-        return new ArrayTypeSymbol(elements.get(0).getType());
+        return ArrayTypeSymbol.of(elements.get(0).getType());
     }
 
     @Override
@@ -5,7 +5,7 @@ import com.skennedy.rasna.parsing.model.OpType;
 
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.function.Function;
+import java.util.List;
 
 public class BoundBinaryOperator implements BoundExpression {
 
@@ -24,6 +24,19 @@ public class BoundBinaryOperator implements BoundExpression {
     }
 
     public static BoundBinaryOperator bind(OpType opType, TypeSymbol leftType, TypeSymbol rightType) {
+        int left = leftType.getPrimitiveIndex();
+        int right = rightType.getPrimitiveIndex();
+        if (left >= 0 && right >= 0) {
+            BoundBinaryOperator operator = table[opType.ordinal()][left][right];
+            if (operator == null) {
+                throw new InvalidOperationException();
+            }
+            return operator;
+        }
+        return resolve(opType, leftType, rightType);
+    }
+
+    private static BoundBinaryOperator resolve(OpType opType, TypeSymbol leftType, TypeSymbol rightType) {
         for (BoundBinaryOperator operator : operators) {
             if (operator.getOpType().equals(opType) && operator.getLeftType().isAssignableFrom(leftType) && operator.getRightType().isAssignableFrom(rightType)) {
                 return operator;
@@ -111,6 +124,25 @@ public class BoundBinaryOperator implements BoundExpression {
             new BoundBinaryOperator(OpType.LXOR, BoundBinaryOperation.BOOLEAN_XOR, TypeSymbol.BOOL, TypeSymbol.BOOL, TypeSymbol.BOOL),
     };
 
+    //The first matching operator for every pair of primitive operand types, implicit casts included
+    private static final BoundBinaryOperator[][][] table = buildTable();
+
+    private static BoundBinaryOperator[][][] buildTable() {
+        List<TypeSymbol> primitives = TypeSymbol.getPrimitives();
+        BoundBinaryOperator[][][] table = new BoundBinaryOperator[OpType.values().length][primitives.size()][primitives.size()];
+        for (OpType opType : OpType.values()) {
+            for (TypeSymbol leftType : primitives) {
+                for (TypeSymbol rightType : primitives) {
+                    try {
+                        table[opType.ordinal()][leftType.getPrimitiveIndex()][rightType.getPrimitiveIndex()] = resolve(opType, leftType, rightType);
+                    } catch (InvalidOperationException ignored) {
+                    }
+                }
+            }
+        }
+        return table;
+    }
+
     @Override
     public BoundExpressionType getBoundExpressionType() {
         return BoundExpressionType.BINARY_OPERATOR;
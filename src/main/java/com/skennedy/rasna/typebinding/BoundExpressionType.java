@@ -4,6 +4,7 @@ public enum BoundExpressionType {
 
     ARRAY_ASSIGNMENT_EXPRESSION,
     ARRAY_DECLARATION_EXPRESSION,
+    ARRAY_LENGTH_ASSIGNMENT_EXPRESSION,
     ARRAY_LENGTH_EXPRESSION,
     ARRAY_LITERAL_EXPRESSION,
     ASSIGNMENT_EXPRESSION,
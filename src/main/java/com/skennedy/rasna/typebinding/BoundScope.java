@@ -5,205 +5,320 @@ import com.skennedy.rasna.exceptions.FunctionAlreadyDeclaredException;
 import com.skennedy.rasna.exceptions.TypeAlreadyDeclaredException;
 import com.skennedy.rasna.exceptions.UndefinedVariableException;
 import com.skennedy.rasna.exceptions.VariableAlreadyDeclaredException;
-import org.apache.commons.collections4.CollectionUtils;
 
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A scope of declarations in the binder.
+ * <p>
+ * Scopes are captured and re-entered after the binder has moved on (namespaces, module interfaces and deferred
+ * function bodies), so they stay linked to their parents rather than sharing one table. The tables of a scope are
+ * only allocated when something is first declared in it, so entering a block allocates nothing but the scope
+ * itself, and lookups walk the chain in a loop skipping the scopes that have declared nothing of that kind.
+ */
 public class BoundScope {
 
     private final BoundScope parentScope;
-    private final LinkedHashMap<String, VariableSymbol> definedVariables;
-    private final LinkedHashMap<String, FunctionSymbol> definedFunctions;
-    private final LinkedHashMultimap<String, FunctionSymbol> definedInterfaceFunctions;
-    private final Map<String, TypeSymbol> definedTypes;
-    private final Map<String, TypeSymbol> definedGenericTypes;
-    private final Map<TypeSymbol, TypeSymbol> boundGenericTypes;
-    private final Map<String, BoundScope> namespaces;
+    private LinkedHashMap<String, VariableSymbol> definedVariables;
+    //Overloads are indexed by name first so that scopes without a function of that name are skipped without hashing the argument types.
+    //Specialisations are declared in the root scope while function bodies are bound in parallel, so these tables are concurrent
+    private volatile Map<String, Map<FunctionKey, FunctionSymbol>> definedFunctions;
+    private LinkedHashMultimap<String, FunctionSymbol> definedInterfaceFunctions;
+    private Map<String, TypeSymbol> definedTypes;
+    private Map<String, TypeSymbol> definedGenericTypes;
+    private Map<TypeSymbol, TypeSymbol> boundGenericTypes;
+    private Map<String, BoundScope> namespaces;
+    //A frozen scope is shared between compilations, so nothing can be declared in it any more
+    private volatile boolean frozen;
 
     public BoundScope(BoundScope parentScope) {
         this.parentScope = parentScope;
-        this.definedVariables = new LinkedHashMap<>();
-        this.definedFunctions = new LinkedHashMap<>();
-        this.definedInterfaceFunctions = LinkedHashMultimap.create();
-        this.definedTypes = new HashMap<>();
-        this.definedGenericTypes = new HashMap<>();
-        this.boundGenericTypes = new HashMap<>();
-        this.namespaces = new HashMap<>();
+    }
+
+    /**
+     * Stops anything else being declared in this scope or the namespaces declared in it
+     */
+    void freeze() {
+        if (frozen) {
+            return;
+        }
+        frozen = true;
+        if (namespaces != null) {
+            namespaces.values().forEach(BoundScope::freeze);
+        }
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("Cannot declare in a scope shared between compilations");
+        }
     }
 
     public static BoundScope merge(BoundScope primary, BoundScope secondary) {
         BoundScope merged = new BoundScope(primary);
-
-        secondary.definedVariables.forEach(merged::declareVariable);
-        secondary.definedFunctions.forEach(merged::declareFunction);
-        secondary.definedInterfaceFunctions.forEach(merged::declareInterfaceFunction);
-        secondary.definedTypes.forEach(merged::declareType);
-        secondary.definedGenericTypes.forEach(merged::declareGenericType);
-        secondary.boundGenericTypes.forEach(merged::bindGenericType);
-        secondary.namespaces.forEach(merged::declareNamespace);
+        merged.declareAll(secondary);
 
         return merged;
     }
 
+    /**
+     * Declares everything defined directly in the given scope in this scope
+     */
+    public void declareAll(BoundScope scope) {
+        if (scope.definedVariables != null) {
+            scope.definedVariables.forEach(this::declareVariable);
+        }
+        if (scope.definedFunctions != null) {
+            scope.definedFunctions.values().forEach(overloads -> overloads.forEach(this::declareFunction));
+        }
+        if (scope.definedInterfaceFunctions != null) {
+            scope.definedInterfaceFunctions.forEach(this::declareInterfaceFunction);
+        }
+        if (scope.definedTypes != null) {
+            scope.definedTypes.forEach(this::declareType);
+        }
+        if (scope.definedGenericTypes != null) {
+            scope.definedGenericTypes.forEach(this::declareGenericType);
+        }
+        if (scope.boundGenericTypes != null) {
+            scope.boundGenericTypes.forEach(this::bindGenericType);
+        }
+        if (scope.namespaces != null) {
+            scope.namespaces.forEach(this::declareNamespace);
+        }
+    }
+
     public BoundScope getParentScope() {
         return parentScope;
     }
 
     public Optional<VariableSymbol> tryLookupVariable(String name) {
 
-        if (definedVariables.containsKey(name)) {
-            return Optional.of(definedVariables.get(name));
-        }
-        if (parentScope != null) {
-            return parentScope.tryLookupVariable(name);
+        for (BoundScope scope = this; scope != null; scope = scope.parentScope) {
+            if (scope.definedVariables != null) {
+                VariableSymbol found = scope.definedVariables.get(name);
+                if (found != null) {
+                    return Optional.of(found);
+                }
+            }
         }
         return Optional.empty();
     }
 
-    public Optional<FunctionSymbol> tryLookupFunction(String signature) {
+    public Optional<FunctionSymbol> tryLookupFunction(FunctionKey key) {
 
-        if (definedFunctions.containsKey(signature)) {
-            return Optional.of(definedFunctions.get(signature));
-        }
-        if (parentScope != null) {
-            return parentScope.tryLookupFunction(signature);
+        for (BoundScope scope = this; scope != null; scope = scope.parentScope) {
+            Map<String, Map<FunctionKey, FunctionSymbol>> functions = scope.definedFunctions;
+            Map<FunctionKey, FunctionSymbol> overloads = functions == null ? null : functions.get(key.getName());
+            if (overloads != null) {
+                FunctionSymbol function = overloads.get(key);
+                if (function != null) {
+                    return Optional.of(function);
+                }
+            }
         }
         return Optional.empty();
     }
 
     public Set<FunctionSymbol> tryLookupInterfaceFunctions(String name) {
 
-        if (definedInterfaceFunctions.containsKey(name)) {
-            return definedInterfaceFunctions.get(name);
-        }
-        if (parentScope != null) {
-            return parentScope.tryLookupInterfaceFunctions(name);
+        for (BoundScope scope = this; scope != null; scope = scope.parentScope) {
+            if (scope.definedInterfaceFunctions != null && scope.definedInterfaceFunctions.containsKey(name)) {
+                return scope.definedInterfaceFunctions.get(name);
+            }
         }
         return Collections.emptySet();
     }
 
     public Optional<TypeSymbol> tryLookupType(String name) {
 
-        if (definedTypes.containsKey(name)) {
-            return Optional.of(definedTypes.get(name));
+        for (BoundScope scope = this; scope != null; scope = scope.parentScope) {
+            if (scope.definedTypes != null) {
+                TypeSymbol found = scope.definedTypes.get(name);
+                if (found != null) {
+                    return Optional.of(found);
+                }
+            }
         }
-        if (parentScope != null) {
-            return parentScope.tryLookupType(name);
+        return Optional.empty();
+    }
+
+    /**
+     * @return the type with the given name, unless it is shadowed by a variable declared in a nearer scope
+     */
+    public Optional<TypeSymbol> tryLookupUnshadowedType(String name) {
+
+        for (BoundScope scope = this; scope != null; scope = scope.parentScope) {
+            if (scope.definedTypes != null) {
+                TypeSymbol found = scope.definedTypes.get(name);
+                if (found != null) {
+                    return Optional.of(found);
+                }
+            }
+            if (scope.definedVariables != null && scope.definedVariables.containsKey(name)) {
+                return Optional.empty();
+            }
         }
         return Optional.empty();
     }
 
     public Optional<TypeSymbol> tryLookupGenericType(String name) {
 
-        if (definedGenericTypes.containsKey(name)) {
-            return Optional.of(definedGenericTypes.get(name));
-        }
-        if (parentScope != null) {
-            return parentScope.tryLookupGenericType(name);
+        for (BoundScope scope = this; scope != null; scope = scope.parentScope) {
+            if (scope.definedGenericTypes != null) {
+                TypeSymbol found = scope.definedGenericTypes.get(name);
+                if (found != null) {
+                    return Optional.of(found);
+                }
+            }
         }
         return Optional.empty();
     }
 
     public Optional<TypeSymbol> tryLookupBinding(TypeSymbol genericType) {
 
-        if (boundGenericTypes.containsKey(genericType)) {
-            return Optional.of(boundGenericTypes.get(genericType));
-        }
-        if (parentScope != null) {
-            return parentScope.tryLookupBinding(genericType);
+        for (BoundScope scope = this; scope != null; scope = scope.parentScope) {
+            if (scope.boundGenericTypes != null) {
+                TypeSymbol found = scope.boundGenericTypes.get(genericType);
+                if (found != null) {
+                    return Optional.of(found);
+                }
+            }
         }
         return Optional.empty();
     }
 
     public Optional<BoundScope> tryLookupNamespace(String name) {
 
-        if (namespaces.containsKey(name)) {
-            return Optional.of(namespaces.get(name));
-        }
-        if (parentScope != null) {
-            return parentScope.tryLookupNamespace(name);
+        for (BoundScope scope = this; scope != null; scope = scope.parentScope) {
+            if (scope.namespaces != null) {
+                BoundScope found = scope.namespaces.get(name);
+                if (found != null) {
+                    return Optional.of(found);
+                }
+            }
         }
         return Optional.empty();
     }
 
     public void declareVariable(String name, VariableSymbol variable) {
+        checkNotFrozen();
         if (tryLookupVariable(name).isPresent()) {
             throw new VariableAlreadyDeclaredException(name);
         }
+        if (definedVariables == null) {
+            definedVariables = new LinkedHashMap<>();
+        }
         definedVariables.put(name, variable);
     }
 
     public void reassignVariable(String name, VariableSymbol variable) {
-        if (!definedVariables.containsKey(name)) {
-            if (parentScope == null) {
-                throw new UndefinedVariableException(name);
+        for (BoundScope scope = this; scope != null; scope = scope.parentScope) {
+            if (scope.definedVariables != null && scope.definedVariables.containsKey(name)) {
+                scope.checkNotFrozen();
+                scope.definedVariables.replace(name, variable);
+                return;
             }
-            parentScope.reassignVariable(name, variable);
         }
-        definedVariables.replace(name, variable);
+        throw new UndefinedVariableException(name);
     }
 
-    public void declareFunction(String signature, FunctionSymbol function) {
-        if (tryLookupFunction(signature).isPresent()) {
-            throw new FunctionAlreadyDeclaredException(signature);
+    public synchronized void declareFunction(FunctionKey key, FunctionSymbol function) {
+        checkNotFrozen();
+        if (tryLookupFunction(key).isPresent()) {
+            throw new FunctionAlreadyDeclaredException(key.toString());
+        }
+        if (definedFunctions == null) {
+            definedFunctions = new ConcurrentHashMap<>();
         }
-        definedFunctions.put(signature, function);
+        definedFunctions.computeIfAbsent(key.getName(), name -> new ConcurrentHashMap<>()).put(key, function);
     }
 
     public void declareInterfaceFunction(String name, FunctionSymbol functionSymbol) {
+        checkNotFrozen();
+        if (definedInterfaceFunctions == null) {
+            definedInterfaceFunctions = LinkedHashMultimap.create();
+        }
         definedInterfaceFunctions.put(name, functionSymbol);
     }
 
     public void declareType(String name, TypeSymbol type) {
+        checkNotFrozen();
         if (tryLookupType(name).isPresent()) {
             throw new TypeAlreadyDeclaredException(name);
         }
+        if (definedTypes == null) {
+            definedTypes = new HashMap<>();
+        }
         definedTypes.put(name, type);
     }
 
     public void declareGenericType(String name, TypeSymbol genericType) {
+        checkNotFrozen();
         if (tryLookupType(name).isPresent()) {
             throw new TypeAlreadyDeclaredException(name);
         }
+        if (definedTypes == null) {
+            definedTypes = new HashMap<>();
+        }
+        if (definedGenericTypes == null) {
+            definedGenericTypes = new HashMap<>();
+        }
         definedTypes.put(name, genericType);
         definedGenericTypes.put(name, genericType);
     }
 
 
     public void bindGenericType(TypeSymbol genericType, TypeSymbol concreteType) {
+        checkNotFrozen();
         if (tryLookupBinding(genericType).isPresent()) {
             throw new TypeAlreadyDeclaredException(genericType.getName());
         }
+        if (boundGenericTypes == null) {
+            boundGenericTypes = new HashMap<>();
+        }
         boundGenericTypes.put(genericType, concreteType);
     }
 
     public void declareNamespace(String name, BoundScope scope) {
+        checkNotFrozen();
         if (tryLookupNamespace(name).isPresent()) {
             replaceNamespace(name, scope);
         }
+        if (namespaces == null) {
+            namespaces = new HashMap<>();
+        }
         namespaces.put(name, scope);
     }
 
-    private void replaceNamespace(String name, BoundScope scope) {
-        if (namespaces.containsKey(name)) {
-            namespaces.replace(name, scope);
-        }
-        if (parentScope != null) {
-            parentScope.replaceNamespace(name, scope);
+    private void replaceNamespace(String name, BoundScope namespace) {
+        for (BoundScope scope = this; scope != null; scope = scope.parentScope) {
+            //A namespace of a shared scope is shadowed instead
+            if (scope.namespaces != null && !scope.frozen) {
+                scope.namespaces.replace(name, namespace);
+            }
         }
     }
 
-    public LinkedHashMap<String, FunctionSymbol> getDefinedFunctions() {
-        return definedFunctions;
+    public LinkedHashMap<FunctionKey, FunctionSymbol> getDefinedFunctions() {
+        LinkedHashMap<FunctionKey, FunctionSymbol> functions = new LinkedHashMap<>();
+        if (definedFunctions != null) {
+            definedFunctions.values().forEach(functions::putAll);
+        }
+        return functions;
     }
 
     public LinkedHashMap<String, VariableSymbol> getDefinedVariables() {
+        if (definedVariables == null) {
+            checkNotFrozen();
+            definedVariables = new LinkedHashMap<>();
+        }
         return definedVariables;
     }
 }
@@ -25,7 +25,7 @@ public class BoundTupleLiteralExpression implements BoundExpression {
 
     @Override
     public TypeSymbol getType() {
-        return new TupleTypeSymbol(types);
+        return TupleTypeSymbol.of(types);
     }
 
     @Override
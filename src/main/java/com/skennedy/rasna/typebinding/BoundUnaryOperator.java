@@ -5,6 +5,7 @@ import com.skennedy.rasna.parsing.model.OpType;
 
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 
 public class BoundUnaryOperator implements BoundExpression {
 
@@ -25,6 +26,18 @@ public class BoundUnaryOperator implements BoundExpression {
     }
 
     public static BoundUnaryOperator bind(OpType opType, TypeSymbol operandType) {
+        int operand = operandType.getPrimitiveIndex();
+        if (operand >= 0) {
+            BoundUnaryOperator operator = table[opType.ordinal()][operand];
+            if (operator == null) {
+                throw new InvalidOperationException();
+            }
+            return operator;
+        }
+        return resolve(opType, operandType);
+    }
+
+    private static BoundUnaryOperator resolve(OpType opType, TypeSymbol operandType) {
         for (BoundUnaryOperator operator : operators) {
             if (operator.getOpType().equals(opType) && operator.getOperandType().isAssignableFrom(operandType)) {
                 return operator;
@@ -39,6 +52,23 @@ public class BoundUnaryOperator implements BoundExpression {
             new BoundUnaryOperator(OpType.SUB, BoundUnaryOperation.NEGATION, TypeSymbol.REAL, TypeSymbol.REAL),
     };
 
+    //The first matching operator for every primitive operand type, implicit casts included
+    private static final BoundUnaryOperator[][] table = buildTable();
+
+    private static BoundUnaryOperator[][] buildTable() {
+        List<TypeSymbol> primitives = TypeSymbol.getPrimitives();
+        BoundUnaryOperator[][] table = new BoundUnaryOperator[OpType.values().length][primitives.size()];
+        for (OpType opType : OpType.values()) {
+            for (TypeSymbol operandType : primitives) {
+                try {
+                    table[opType.ordinal()][operandType.getPrimitiveIndex()] = resolve(opType, operandType);
+                } catch (InvalidOperationException ignored) {
+                }
+            }
+        }
+        return table;
+    }
+
     public OpType getOpType() {
         return opType;
     }
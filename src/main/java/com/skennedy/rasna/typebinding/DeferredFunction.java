@@ -0,0 +1,43 @@
+package com.skennedy.rasna.typebinding;
+
+import com.skennedy.rasna.parsing.FunctionDeclarationExpression;
+
+import java.util.List;
+
+/**
+ * A function whose signature has been declared but whose body is bound later, either once the function is referenced
+ * for functions of imported modules, or in the second pass of the binder for functions of the program
+ */
+final class DeferredFunction {
+
+    private final FunctionSymbol function;
+    private final FunctionDeclarationExpression declaration;
+    private final List<BoundFunctionParameterExpression> arguments;
+    private final BoundScope scope;
+
+    DeferredFunction(FunctionSymbol function, FunctionDeclarationExpression declaration, List<BoundFunctionParameterExpression> arguments, BoundScope scope) {
+        this.function = function;
+        this.declaration = declaration;
+        this.arguments = arguments;
+        this.scope = scope;
+    }
+
+    FunctionSymbol getFunction() {
+        return function;
+    }
+
+    FunctionDeclarationExpression getDeclaration() {
+        return declaration;
+    }
+
+    List<BoundFunctionParameterExpression> getArguments() {
+        return arguments;
+    }
+
+    /**
+     * @return the scope of the function's arguments and generic types, which the body is bound in
+     */
+    BoundScope getScope() {
+        return scope;
+    }
+}
@@ -7,14 +7,12 @@ import java.util.stream.Collectors;
 public class ErasedParameterisedTypeSymbol extends TypeSymbol {
 
     private final String name;
-    private final LinkedHashMap<String, VariableSymbol> fields;
     private final Map<String, TypeSymbol> erasures;
 
     public ErasedParameterisedTypeSymbol(String name, LinkedHashMap<String, VariableSymbol> fields, Map<String, TypeSymbol> erasures) {
-        super(name, fields);
+        super(name, eraseFieldTypes(fields, erasures));
         this.name = name;
         this.erasures = erasures;
-        this.fields =  eraseFieldTypes(fields, erasures);
     }
 
     private static LinkedHashMap<String, VariableSymbol> eraseFieldTypes(LinkedHashMap<String, VariableSymbol> fields, Map<String, TypeSymbol> erasures) {
@@ -25,7 +23,7 @@ public class ErasedParameterisedTypeSymbol extends TypeSymbol {
 
                 TypeSymbol erasedType = erasures.get(type.getName());
                 if (type instanceof ArrayTypeSymbol) {
-                    erasedType = new ArrayTypeSymbol(erasedType);
+                    erasedType = ArrayTypeSymbol.of(erasedType);
                 }
 
                 VariableSymbol erasedVariable = new VariableSymbol(variable.getName(), erasedType, variable.getGuard(), variable.isReadOnly(), variable.getDeclaration());
@@ -40,11 +38,6 @@ public class ErasedParameterisedTypeSymbol extends TypeSymbol {
         return toString();
     }
 
-    @Override
-    public LinkedHashMap<String, VariableSymbol> getFields() {
-        return fields;
-    }
-
     public Map<String, TypeSymbol> getErasures() {
         return erasures;
     }
@@ -0,0 +1,427 @@
+package com.skennedy.rasna.typebinding;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Decides whether each array allocated in a program can live on the stack of the function that allocates it.
+ * <p>
+ * An array escapes when it can still be reached after that function returns: when it is returned, stored in a global,
+ * written through a reference parameter or passed to a parameter that escapes in the function called. Values flow
+ * through variables and into the structs, tuples and arrays that hold them, so the analysis follows those until no
+ * more values escape. Struct and tuple literals are copied by value, so they only carry the arrays stored in them.
+ * <p>
+ * Stack arrays get a single slot per allocation site for the whole function, so an array allocated in a loop is also
+ * treated as escaping when it flows into a variable declared outside that loop, where it would outlive its iteration.
+ * <p>
+ * Arrays that escape, and arrays too large for the stack or whose size is only known at runtime, go on the heap.
+ */
+public final class EscapeAnalysis {
+
+    private static final int MAX_STACK_ELEMENTS = 4096;
+
+    private final Set<BoundExpression> escapingAllocations = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<BoundExpression, BoundExpression> allocationLoops = new IdentityHashMap<>();
+    private final Map<FunctionSymbol, FunctionState> functions = new HashMap<>();
+    private final Map<FunctionSymbol, List<CallSite>> callSites = new HashMap<>();
+    private final Deque<Runnable> worklist = new ArrayDeque<>();
+
+    private EscapeAnalysis() {
+    }
+
+    public static EscapeAnalysis analyse(List<BoundExpression> program) {
+        EscapeAnalysis analysis = new EscapeAnalysis();
+
+        List<BoundFunctionDeclarationExpression> functionDeclarations = new ArrayList<>();
+        collectFunctionDeclarations(program, functionDeclarations);
+        for (BoundFunctionDeclarationExpression functionDeclaration : functionDeclarations) {
+            analysis.functions.put(functionDeclaration.getFunctionSymbol(), new FunctionState(functionDeclaration));
+        }
+        for (FunctionState function : analysis.functions.values()) {
+            analysis.visit(function, function.declaration.getBody());
+        }
+        for (FunctionState function : analysis.functions.values()) {
+            analysis.escapeLoopAllocations(function);
+        }
+        for (FunctionState function : analysis.functions.values()) {
+            List<BoundFunctionParameterExpression> parameters = function.declaration.getArguments();
+            for (BoundFunctionParameterExpression parameter : parameters) {
+                //Anything assigned to a reference parameter is seen by the caller
+                if (parameter.isReference()) {
+                    analysis.escape(function, parameter.getArgument());
+                }
+            }
+        }
+        while (!analysis.worklist.isEmpty()) {
+            analysis.worklist.pop().run();
+        }
+        return analysis;
+    }
+
+    /**
+     * @return whether an array literal or declaration can be allocated on the stack of the function it is in
+     */
+    public boolean isStackAllocated(BoundExpression allocation) {
+        if (escapingAllocations.contains(allocation)) {
+            return false;
+        }
+        if (allocation instanceof BoundArrayLiteralExpression) {
+            return ((BoundArrayLiteralExpression) allocation).getElements().size() <= MAX_STACK_ELEMENTS;
+        }
+        if (allocation instanceof BoundArrayDeclarationExpression) {
+            BoundExpression elementCount = ((BoundArrayDeclarationExpression) allocation).getElementCount();
+            return elementCount.isConstExpression() && (int) elementCount.getConstValue() <= MAX_STACK_ELEMENTS;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether a value in a function may hold an array allocated on that function's stack
+     */
+    public boolean mayHoldStackAllocation(FunctionSymbol functionSymbol, BoundExpression value) {
+        FunctionState function = functions.get(functionSymbol);
+        return function == null || mayHoldStackAllocation(function, value, new HashSet<>());
+    }
+
+    private static void collectFunctionDeclarations(List<BoundExpression> expressions, List<BoundFunctionDeclarationExpression> functionDeclarations) {
+        for (BoundExpression expression : expressions) {
+            if (expression instanceof BoundFunctionDeclarationExpression) {
+                BoundFunctionDeclarationExpression functionDeclaration = (BoundFunctionDeclarationExpression) expression;
+                functionDeclarations.add(functionDeclaration);
+                collectFunctionDeclarations(functionDeclaration.getBody().getExpressions(), functionDeclarations);
+            } else if (expression instanceof BoundBlockExpression) {
+                collectFunctionDeclarations(((BoundBlockExpression) expression).getExpressions(), functionDeclarations);
+            }
+        }
+    }
+
+    //Records where values flow to, marking the ones that leave the function as escaping
+    private void visit(FunctionState function, BoundExpression expression) {
+        if (expression == null) {
+            return;
+        }
+        boolean loop = isLoop(expression);
+        if (loop) {
+            function.loops.push(expression);
+        }
+        switch (expression.getBoundExpressionType()) {
+            case FUNCTION_DECLARATION:
+                //Nested functions are analysed on their own
+                return;
+            case ARRAY_LITERAL_EXPRESSION:
+            case ARRAY_DECLARATION_EXPRESSION:
+                if (!function.loops.isEmpty()) {
+                    allocationLoops.put(expression, function.loops.peek());
+                }
+                break;
+            case VARIABLE_DECLARATION:
+                BoundVariableDeclarationExpression variableDeclarationExpression = (BoundVariableDeclarationExpression) expression;
+                function.declare(variableDeclarationExpression.getVariable());
+                flow(function, variableDeclarationExpression.getVariable(), variableDeclarationExpression.getInitialiser());
+                break;
+            case ASSIGNMENT_EXPRESSION:
+                BoundAssignmentExpression assignmentExpression = (BoundAssignmentExpression) expression;
+                flow(function, assignmentExpression.getVariable(), assignmentExpression.getExpression());
+                break;
+            case MEMBER_ASSIGNMENT_EXPRESSION:
+                BoundMemberAssignmentExpression memberAssignmentExpression = (BoundMemberAssignmentExpression) expression;
+                flowInto(function, memberAssignmentExpression.getMemberAccessorExpression().getOwner(), memberAssignmentExpression.getAssignment());
+                break;
+            case ARRAY_ASSIGNMENT_EXPRESSION:
+                BoundArrayAssignmentExpression arrayAssignmentExpression = (BoundArrayAssignmentExpression) expression;
+                flowInto(function, arrayAssignmentExpression.getArrayAccessExpression().getArray(), arrayAssignmentExpression.getAssignment());
+                break;
+            case FOR_IN:
+                BoundForInExpression forInExpression = (BoundForInExpression) expression;
+                function.declare(forInExpression.getVariable());
+                flow(function, forInExpression.getVariable(), forInExpression.getIterable());
+                break;
+            case FOR:
+                function.declare(((BoundForExpression) expression).getIterator());
+                break;
+            case RETURN:
+                BoundExpression returnValue = ((BoundReturnExpression) expression).getReturnValue();
+                worklist.add(() -> escape(function, returnValue));
+                break;
+            case FUNCTION_CALL:
+                BoundFunctionCallExpression functionCallExpression = (BoundFunctionCallExpression) expression;
+                callSites.computeIfAbsent(functionCallExpression.getFunction(), f -> new ArrayList<>())
+                        .add(new CallSite(function, functionCallExpression));
+                break;
+            default:
+                break;
+        }
+        Iterator<BoundExpression> children = expression.getChildren();
+        while (children.hasNext()) {
+            visit(function, children.next());
+        }
+        if (loop) {
+            function.loops.pop();
+        }
+    }
+
+    private static boolean isLoop(BoundExpression expression) {
+        switch (expression.getBoundExpressionType()) {
+            case WHILE:
+            case DO_WHILE:
+            case FOR:
+            case FOR_IN:
+            case C_STYLE_FOR_EXPRESSION:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    //Every iteration of a loop reuses the same stack slot, so an array that outlives its iteration has to go on the heap
+    private void escapeLoopAllocations(FunctionState function) {
+        function.values.forEach((variable, values) -> {
+            Set<BoundExpression> declaringLoops = function.declaringLoops.getOrDefault(variable, Collections.emptySet());
+            for (BoundExpression value : values) {
+                anyAllocation(function, value, new HashSet<>(), allocation -> {
+                    BoundExpression allocationLoop = allocationLoops.get(allocation);
+                    if (allocationLoop != null && !declaringLoops.contains(allocationLoop)) {
+                        escape(function, allocation);
+                    }
+                    return false;
+                });
+            }
+        });
+    }
+
+    private void flow(FunctionState function, VariableSymbol variable, BoundExpression value) {
+        if (value == null) {
+            return;
+        }
+        function.values.computeIfAbsent(variable, v -> new ArrayList<>()).add(value);
+        worklist.add(() -> {
+            //Variables declared outside of the function are globals
+            if (function.escapingVariables.contains(variable) || !function.isLocal(variable)) {
+                escape(function, value);
+            }
+        });
+    }
+
+    //A value stored in a member or element escapes with the variable that holds it
+    private void flowInto(FunctionState function, BoundExpression target, BoundExpression value) {
+        while (target instanceof BoundMemberAccessorExpression || target instanceof BoundPositionalAccessExpression || target instanceof BoundTupleIndexExpression) {
+            if (target instanceof BoundMemberAccessorExpression) {
+                target = ((BoundMemberAccessorExpression) target).getOwner();
+            } else if (target instanceof BoundPositionalAccessExpression) {
+                target = ((BoundPositionalAccessExpression) target).getArray();
+            } else {
+                target = ((BoundTupleIndexExpression) target).getTuple();
+            }
+        }
+        if (target instanceof BoundVariableExpression) {
+            flow(function, ((BoundVariableExpression) target).getVariable(), value);
+        } else {
+            worklist.add(() -> escape(function, value));
+        }
+    }
+
+    private void escape(FunctionState function, BoundExpression value) {
+        if (value == null) {
+            return;
+        }
+        switch (value.getBoundExpressionType()) {
+            case ARRAY_LITERAL_EXPRESSION:
+                if (escapingAllocations.add(value)) {
+                    //An array of arrays holds on to its elements
+                    for (BoundExpression element : ((BoundArrayLiteralExpression) value).getElements()) {
+                        escape(function, element);
+                    }
+                }
+                break;
+            case ARRAY_DECLARATION_EXPRESSION:
+                escapingAllocations.add(value);
+                break;
+            case VARIABLE_EXPRESSION:
+                escape(function, ((BoundVariableExpression) value).getVariable());
+                break;
+            case STRUCT_LITERAL_EXPRESSION:
+                for (BoundExpression element : ((BoundStructLiteralExpression) value).getElements()) {
+                    escape(function, element);
+                }
+                break;
+            case TUPLE_LITERAL_EXPRESSION:
+                for (BoundExpression element : ((BoundTupleLiteralExpression) value).getElements()) {
+                    escape(function, element);
+                }
+                break;
+            case MEMBER_ACCESSOR:
+                escape(function, ((BoundMemberAccessorExpression) value).getOwner());
+                break;
+            case POSITIONAL_ACCESS_EXPRESSION:
+                escape(function, ((BoundPositionalAccessExpression) value).getArray());
+                break;
+            case TUPLE_INDEX_EXPRESSION:
+                escape(function, ((BoundTupleIndexExpression) value).getTuple());
+                break;
+            case CAST_EXPRESSION:
+                escape(function, ((BoundCastExpression) value).getExpression());
+                break;
+            case IF:
+                escape(function, ((BoundIfExpression) value).getBody());
+                escape(function, ((BoundIfExpression) value).getElseBody());
+                break;
+            case MATCH_EXPRESSION:
+                for (BoundMatchCaseExpression matchCaseExpression : ((BoundMatchExpression) value).getMatchCaseExpressions()) {
+                    escape(function, matchCaseExpression.getThenExpression());
+                }
+                break;
+            case BLOCK:
+                List<BoundExpression> expressions = ((BoundBlockExpression) value).getExpressions();
+                if (!expressions.isEmpty()) {
+                    escape(function, expressions.get(expressions.size() - 1));
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    //Follows the same flow as escape, but only for as long as it takes to find an allocation on the stack
+    private boolean mayHoldStackAllocation(FunctionState function, BoundExpression value, Set<VariableSymbol> visited) {
+        //Globals are only known to the function that declares them
+        return anyAllocation(function, value, visited, allocation -> allocation instanceof BoundVariableExpression || isStackAllocated(allocation));
+    }
+
+    /**
+     * Tests the arrays a value may hold, following local variables to the values assigned to them.
+     * A variable that isn't local to the function is passed to the test itself, as its values can't be known.
+     */
+    private boolean anyAllocation(FunctionState function, BoundExpression value, Set<VariableSymbol> visited, Predicate<BoundExpression> test) {
+        if (value == null) {
+            return false;
+        }
+        switch (value.getBoundExpressionType()) {
+            case ARRAY_LITERAL_EXPRESSION:
+                return test.test(value) || anyAllocation(function, ((BoundArrayLiteralExpression) value).getElements(), visited, test);
+            case ARRAY_DECLARATION_EXPRESSION:
+                return test.test(value);
+            case VARIABLE_EXPRESSION:
+                VariableSymbol variable = ((BoundVariableExpression) value).getVariable();
+                if (!visited.add(variable)) {
+                    return false;
+                }
+                if (!function.isLocal(variable)) {
+                    return test.test(value);
+                }
+                return anyAllocation(function, function.values.getOrDefault(variable, Collections.emptyList()), visited, test);
+            case STRUCT_LITERAL_EXPRESSION:
+                return anyAllocation(function, ((BoundStructLiteralExpression) value).getElements(), visited, test);
+            case TUPLE_LITERAL_EXPRESSION:
+                return anyAllocation(function, ((BoundTupleLiteralExpression) value).getElements(), visited, test);
+            case MEMBER_ACCESSOR:
+                return anyAllocation(function, ((BoundMemberAccessorExpression) value).getOwner(), visited, test);
+            case POSITIONAL_ACCESS_EXPRESSION:
+                return anyAllocation(function, ((BoundPositionalAccessExpression) value).getArray(), visited, test);
+            case TUPLE_INDEX_EXPRESSION:
+                return anyAllocation(function, ((BoundTupleIndexExpression) value).getTuple(), visited, test);
+            case CAST_EXPRESSION:
+                return anyAllocation(function, ((BoundCastExpression) value).getExpression(), visited, test);
+            case IF:
+                return anyAllocation(function, ((BoundIfExpression) value).getBody(), visited, test)
+                        || anyAllocation(function, ((BoundIfExpression) value).getElseBody(), visited, test);
+            case MATCH_EXPRESSION:
+                for (BoundMatchCaseExpression matchCaseExpression : ((BoundMatchExpression) value).getMatchCaseExpressions()) {
+                    if (anyAllocation(function, matchCaseExpression.getThenExpression(), visited, test)) {
+                        return true;
+                    }
+                }
+                return false;
+            case BLOCK:
+                List<BoundExpression> expressions = ((BoundBlockExpression) value).getExpressions();
+                return !expressions.isEmpty() && anyAllocation(function, expressions.get(expressions.size() - 1), visited, test);
+            default:
+                //Anything a function returns has escaped, so it is already on the heap
+                return false;
+        }
+    }
+
+    private boolean anyAllocation(FunctionState function, List<BoundExpression> values, Set<VariableSymbol> visited, Predicate<BoundExpression> test) {
+        for (BoundExpression value : values) {
+            if (anyAllocation(function, value, visited, test)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void escape(FunctionState function, VariableSymbol variable) {
+        if (!function.escapingVariables.add(variable)) {
+            return;
+        }
+        for (BoundExpression value : function.values.getOrDefault(variable, Collections.emptyList())) {
+            escape(function, value);
+        }
+        List<BoundFunctionParameterExpression> parameters = function.declaration.getArguments();
+        for (int i = 0; i < parameters.size(); i++) {
+            if (parameters.get(i).getArgument().equals(variable)) {
+                escapeArgument(function.declaration.getFunctionSymbol(), i);
+            }
+        }
+    }
+
+    //A parameter that escapes takes the arguments passed to it at every call site with it
+    private void escapeArgument(FunctionSymbol functionSymbol, int index) {
+        for (CallSite callSite : callSites.getOrDefault(functionSymbol, Collections.emptyList())) {
+            List<BoundExpression> arguments = callSite.call.getBoundArguments();
+            if (index < arguments.size()) {
+                escape(callSite.caller, arguments.get(index));
+            }
+        }
+    }
+
+    private static final class FunctionState {
+        private final BoundFunctionDeclarationExpression declaration;
+        private final Set<VariableSymbol> declaredVariables = new HashSet<>();
+        private final Map<VariableSymbol, Set<BoundExpression>> declaringLoops = new HashMap<>();
+        private final Deque<BoundExpression> loops = new ArrayDeque<>();
+        private final Set<VariableSymbol> escapingVariables = new HashSet<>();
+        private final Map<VariableSymbol, List<BoundExpression>> values = new HashMap<>();
+
+        private FunctionState(BoundFunctionDeclarationExpression declaration) {
+            this.declaration = declaration;
+            for (BoundFunctionParameterExpression parameter : declaration.getArguments()) {
+                declaredVariables.add(parameter.getArgument());
+            }
+        }
+
+        //Variables are equal by name, so one declared again is only inside the loops around every declaration
+        private void declare(VariableSymbol variable) {
+            declaredVariables.add(variable);
+            Set<BoundExpression> enclosingLoops = Collections.newSetFromMap(new IdentityHashMap<>());
+            enclosingLoops.addAll(loops);
+            declaringLoops.merge(variable, enclosingLoops, (declared, enclosing) -> {
+                declared.retainAll(enclosing);
+                return declared;
+            });
+        }
+
+        private boolean isLocal(VariableSymbol variable) {
+            return declaredVariables.contains(variable);
+        }
+    }
+
+    private static final class CallSite {
+        private final FunctionState caller;
+        private final BoundFunctionCallExpression call;
+
+        private CallSite(FunctionState caller, BoundFunctionCallExpression call) {
+            this.caller = caller;
+            this.call = call;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.skennedy.rasna.typebinding;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Facts about the paths through a function body, computed in a single walk over its bound expressions.
+ * <p>
+ * Rasna only has structured control flow, so the control flow graph of a body follows the shape of its expressions:
+ * the walk carries the state of the current path forwards, splits it at each if, loop and match and joins the
+ * branches where they meet again. A loop body may never run, so the path leaving a loop is the one that entered it.
+ * The state is whether the current point can be reached and which of the variables declared in the body have
+ * definitely been assigned, kept as a bitset indexed by the order the variables are declared in.
+ */
+public final class FlowAnalysis {
+
+    private final Map<VariableSymbol, Integer> indices = new LinkedHashMap<>();
+    private final Set<BoundVariableExpression> assignedReads = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<VariableSymbol> readVariables = new HashSet<>();
+    private boolean completes;
+
+    private FlowAnalysis() {
+    }
+
+    public static FlowAnalysis analyse(List<BoundExpression> body) {
+        FlowAnalysis analysis = new FlowAnalysis();
+
+        State state = new State();
+        for (BoundExpression expression : body) {
+            analysis.visit(expression, state);
+        }
+        analysis.completes = state.reachable;
+
+        return analysis;
+    }
+
+    /**
+     * @return whether the end of an expression can be reached, rather than every path through it returning
+     */
+    public static boolean canComplete(BoundExpression expression) {
+        return analyse(Collections.singletonList(expression)).completes;
+    }
+
+    public boolean allPathsReturn() {
+        return !completes;
+    }
+
+    /**
+     * @return whether the variable read was declared in the body and has been assigned on every path to the read
+     */
+    public boolean isDefinitelyAssigned(BoundVariableExpression read) {
+        return assignedReads.contains(read);
+    }
+
+    /**
+     * @return the variables declared in the body that are never read
+     */
+    public List<VariableSymbol> getUnusedVariables() {
+        List<VariableSymbol> unusedVariables = new ArrayList<>();
+        for (VariableSymbol variable : indices.keySet()) {
+            if (!readVariables.contains(variable)) {
+                unusedVariables.add(variable);
+            }
+        }
+        return unusedVariables;
+    }
+
+    private void visit(BoundExpression expression, State state) {
+        if (expression == null) {
+            return;
+        }
+        switch (expression.getBoundExpressionType()) {
+            case VARIABLE_EXPRESSION:
+                visitRead((BoundVariableExpression) expression, state);
+                break;
+            case VARIABLE_DECLARATION:
+                BoundVariableDeclarationExpression variableDeclarationExpression = (BoundVariableDeclarationExpression) expression;
+                visit(variableDeclarationExpression.getGuard(), state);
+                visit(variableDeclarationExpression.getInitialiser(), state);
+                int index = indices.computeIfAbsent(variableDeclarationExpression.getVariable(), variable -> indices.size());
+                state.assigned.set(index, variableDeclarationExpression.getInitialiser() != null);
+                break;
+            case ASSIGNMENT_EXPRESSION:
+                BoundAssignmentExpression assignmentExpression = (BoundAssignmentExpression) expression;
+                visit(assignmentExpression.getGuard(), state);
+                visit(assignmentExpression.getExpression(), state);
+                Integer assignedIndex = indices.get(assignmentExpression.getVariable());
+                if (assignedIndex != null) {
+                    state.assigned.set(assignedIndex);
+                }
+                break;
+            case RETURN:
+                visit(((BoundReturnExpression) expression).getReturnValue(), state);
+                state.reachable = false;
+                break;
+            case IF:
+                visitIfExpression((BoundIfExpression) expression, state);
+                break;
+            case WHILE:
+                BoundWhileExpression whileExpression = (BoundWhileExpression) expression;
+                visit(whileExpression.getCondition(), state);
+                visit(whileExpression.getBody(), state.copy());
+                //There's no way to break out of a loop, so one whose condition is always true can only be left by returning
+                if (Boolean.TRUE.equals(whileExpression.getCondition().getConstValue())) {
+                    state.reachable = false;
+                }
+                break;
+            case FOR:
+                BoundForExpression forExpression = (BoundForExpression) expression;
+                visit(forExpression.getRangeExpression(), state);
+                visitLoopBody(forExpression.getGuard(), forExpression.getBody(), state);
+                break;
+            case FOR_IN:
+                BoundForInExpression forInExpression = (BoundForInExpression) expression;
+                visit(forInExpression.getIterable(), state);
+                visitLoopBody(forInExpression.getGuard(), forInExpression.getBody(), state);
+                break;
+            case C_STYLE_FOR_EXPRESSION:
+                BoundCStyleForExpression cStyleForExpression = (BoundCStyleForExpression) expression;
+                visit(cStyleForExpression.getInitialisation(), state);
+                visit(cStyleForExpression.getCondition(), state);
+                State bodyState = state.copy();
+                visit(cStyleForExpression.getBody(), bodyState);
+                visit(cStyleForExpression.getPostStep(), bodyState);
+                break;
+            case MATCH_EXPRESSION:
+                visitMatchExpression((BoundMatchExpression) expression, state);
+                break;
+            case POSITIONAL_ACCESS_EXPRESSION:
+                visit(((BoundPositionalAccessExpression) expression).getArray(), state);
+                visit(((BoundPositionalAccessExpression) expression).getIndex(), state);
+                break;
+            case WITH_EXPRESSION:
+                BoundWithBlockExpression withBlockExpression = (BoundWithBlockExpression) expression;
+                visit(withBlockExpression.getResource(), state);
+                visit(withBlockExpression.getBody(), state);
+                visit(withBlockExpression.getCloseCall(), state);
+                break;
+            case FUNCTION_DECLARATION:
+                //Nested functions are analysed on their own
+                break;
+            default:
+                expression.getChildren().forEachRemaining(child -> visit(child, state));
+        }
+    }
+
+    private void visitRead(BoundVariableExpression read, State state) {
+        readVariables.add(read.getVariable());
+
+        Integer index = indices.get(read.getVariable());
+        //Nothing can go wrong in code that never runs
+        if (index != null && (state.assigned.get(index) || !state.reachable)) {
+            assignedReads.add(read);
+        }
+    }
+
+    private void visitIfExpression(BoundIfExpression ifExpression, State state) {
+        visit(ifExpression.getCondition(), state);
+
+        Object condition = ifExpression.getCondition().getConstValue();
+        State elseState = state.copy();
+        if (Boolean.TRUE.equals(condition)) {
+            elseState.reachable = false;
+        } else if (Boolean.FALSE.equals(condition)) {
+            state.reachable = false;
+        }
+        visit(ifExpression.getBody(), state);
+        visit(ifExpression.getElseBody(), elseState);
+
+        state.join(elseState);
+    }
+
+    private void visitLoopBody(BoundExpression guard, BoundExpression body, State state) {
+        State bodyState = state.copy();
+        visit(guard, bodyState);
+        visit(body, bodyState);
+    }
+
+    private void visitMatchExpression(BoundMatchExpression matchExpression, State state) {
+        visit(matchExpression.getOperand(), state);
+
+        State exitState = state.copy();
+        //The match is only left without taking a case if no case covers the operand
+        exitState.reachable = state.reachable && !MatchAnalyser.isExhaustive(matchExpression);
+        for (BoundMatchCaseExpression matchCaseExpression : matchExpression.getMatchCaseExpressions()) {
+            State caseState = state.copy();
+            visit(matchCaseExpression.getCaseExpression(), caseState);
+            visit(matchCaseExpression.getThenExpression(), caseState);
+            exitState.join(caseState);
+        }
+        state.reachable = exitState.reachable;
+        state.assigned = exitState.assigned;
+    }
+
+    private static final class State {
+        private boolean reachable = true;
+        private BitSet assigned = new BitSet();
+
+        private State copy() {
+            State copy = new State();
+            copy.reachable = reachable;
+            copy.assigned = (BitSet) assigned.clone();
+            return copy;
+        }
+
+        //A variable is assigned where two paths meet if it is assigned on both, ignoring paths that can't be reached
+        private void join(State other) {
+            if (!other.reachable) {
+                return;
+            }
+            if (!reachable) {
+                reachable = true;
+                assigned = (BitSet) other.assigned.clone();
+                return;
+            }
+            assigned.and(other.assigned);
+        }
+    }
+}
@@ -1,100 +1,49 @@
 package com.skennedy.rasna.typebinding;
 
 import com.skennedy.rasna.diagnostics.BindingError;
+import com.skennedy.rasna.diagnostics.TextSpan;
 import com.skennedy.rasna.parsing.BlockExpression;
 import com.skennedy.rasna.parsing.Expression;
 import com.skennedy.rasna.parsing.FunctionDeclarationExpression;
+import com.skennedy.rasna.parsing.VariableDeclarationExpression;
 import com.skennedy.rasna.parsing.WithBlockExpression;
 import com.skennedy.rasna.parsing.model.ExpressionType;
+import com.skennedy.rasna.parsing.model.IdentifierExpression;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 public class FunctionAnalyser {
 
-    public static List<BindingError> analyzeBody(FunctionSymbol function, List<BoundExpression> boundExpressions, List<Expression> expressions, FunctionDeclarationExpression functionDeclarationExpression) {
+    /**
+     * @param uninitialisedReads the reads in the body of variables declared without an initialiser, which are errors
+     *                           unless the variable is assigned on every path to the read
+     * @param warnings           receives a warning for each variable declared in the body that is never used
+     */
+    public static List<BindingError> analyzeBody(FunctionSymbol function, List<BoundExpression> boundExpressions, List<Expression> expressions, FunctionDeclarationExpression functionDeclarationExpression,
+                                                 Map<BoundVariableExpression, TextSpan> uninitialisedReads, List<BindingWarning> warnings) {
 
         List<BindingError> errors = new ArrayList<>(typeCheckBody(function, boundExpressions, expressions));
 
-        if (function.getType() != TypeSymbol.UNIT) {
-            boolean allPathsReturnValue = checkReturnPaths(boundExpressions);
-            if (!allPathsReturnValue) {
-                errors.add(BindingError.raiseMissingReturnExpression(functionDeclarationExpression.getBody().getCloseCurly().getSpan()));
-            }
-        }
-
-        return errors;
-    }
-
-    private static boolean checkReturnPaths(List<BoundExpression> boundExpressions) {
-
-        boolean allPathsReturnValue = false;
-        for (int i = 0; i < boundExpressions.size(); i++) {
+        FlowAnalysis flowAnalysis = FlowAnalysis.analyse(boundExpressions);
 
-            BoundExpression boundExpression = boundExpressions.get(i);
-            allPathsReturnValue = allPathsReturnValue || checkReturnPath(boundExpression);
-        }
-
-        return allPathsReturnValue;
-    }
-
-    private static boolean checkReturnPath(BoundExpression boundExpression) {
-
-        boolean pathReturnsValue = false;
-        switch (boundExpression.getBoundExpressionType()) {
-            case IF:
-                pathReturnsValue = checkReturnPaths((BoundIfExpression) boundExpression);
-                break;
-            case BLOCK:
-                pathReturnsValue = checkReturnPaths(((BoundBlockExpression) boundExpression).getExpressions());
-                break;
-            case RETURN:
-                pathReturnsValue = true;
-                break;
-            case WHILE:
-                pathReturnsValue = checkReturnPaths((BoundWhileExpression) boundExpression);
-                break;
-            case MATCH_EXPRESSION:
-                pathReturnsValue = checkReturnPaths((BoundMatchExpression) boundExpression);
-                break;
+        if (function.getType() != TypeSymbol.UNIT && !flowAnalysis.allPathsReturn()) {
+            errors.add(BindingError.raiseMissingReturnExpression(functionDeclarationExpression.getBody().getCloseCurly().getSpan()));
         }
-
-        return pathReturnsValue;
-    }
-
-    private static boolean checkReturnPaths(BoundMatchExpression matchExpression) {
-
-        if (matchExpression.getMatchCaseExpressions().isEmpty()) {
-            return false;
-        }
-
-        boolean allCasesReturnValue = true;
-        for (BoundMatchCaseExpression matchCaseExpression : matchExpression.getMatchCaseExpressions()) {
-            allCasesReturnValue = allCasesReturnValue && checkReturnPath(matchCaseExpression.getThenExpression());
-        }
-        return allCasesReturnValue;
-    }
-
-    private static boolean checkReturnPaths(BoundWhileExpression whileExpression) {
-
-        //TODO: Once you can break out of loops this isn't the case
-        if (whileExpression.getCondition().isConstExpression() && (boolean) whileExpression.getCondition().getConstValue()) {
-            return checkReturnPath(whileExpression.getBody());
+        uninitialisedReads.forEach((read, span) -> {
+            if (!flowAnalysis.isDefinitelyAssigned(read)) {
+                errors.add(BindingError.raiseUninitialisedVariable(read.getVariable().getName(), span));
+            }
+        });
+        for (VariableSymbol variable : flowAnalysis.getUnusedVariables()) {
+            if (variable.getDeclaration() instanceof VariableDeclarationExpression) {
+                IdentifierExpression identifier = ((VariableDeclarationExpression) variable.getDeclaration()).getIdentifier();
+                warnings.add(BindingWarning.raiseUnusedVariable(variable.getName(), identifier.getSpan()));
+            }
         }
-        return false;
-    }
-
-
-    private static boolean checkReturnPaths(BoundIfExpression ifExpression) {
 
-        if (ifExpression.getCondition().isConstExpression() && (boolean) ifExpression.getCondition().getConstValue()) {
-            return checkReturnPath(ifExpression.getBody());
-        }
-        if (ifExpression.getElseBody() != null) {
-            return checkReturnPath(ifExpression.getBody()) && checkReturnPath(ifExpression.getElseBody());
-        }
-        return false;
+        return errors;
     }
 
     private static List<BindingError> typeCheckBody(FunctionSymbol function, List<BoundExpression> boundExpressions, List<Expression> expressions) {
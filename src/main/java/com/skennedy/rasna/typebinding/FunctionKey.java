@@ -0,0 +1,95 @@
+package com.skennedy.rasna.typebinding;
+
+import java.util.List;
+
+/**
+ * Identifies an overload of a function by its name and the types of its arguments.
+ * <p>
+ * Structural types are interned, so each type has a single instance and id. Keys compare their types by identity
+ * and hash their ids, without building or hashing signature strings and without holding on to anything once the
+ * scope that declared the overload is gone.
+ */
+public final class FunctionKey {
+
+    private final String name;
+    private final TypeSymbol[] types;
+    private final int hash;
+
+    private FunctionKey(String name, TypeSymbol[] types) {
+        this.name = name;
+        this.types = types;
+
+        int hash = name.hashCode();
+        for (TypeSymbol type : types) {
+            hash = 31 * hash + type.getId();
+        }
+        this.hash = hash;
+    }
+
+    public static FunctionKey of(String name, List<TypeSymbol> types) {
+        return new FunctionKey(name, types.toArray(new TypeSymbol[0]));
+    }
+
+    /**
+     * Builds the key of a declared overload from the types of its parameters
+     */
+    public static FunctionKey ofParameters(String name, List<BoundFunctionParameterExpression> parameters) {
+        TypeSymbol[] types = new TypeSymbol[parameters.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = parameters.get(i).getType();
+        }
+        return new FunctionKey(name, types);
+    }
+
+    /**
+     * Builds the key of the overload a call resolves to from the types of its arguments
+     */
+    public static FunctionKey ofArguments(String name, List<BoundExpression> arguments) {
+        TypeSymbol[] types = new TypeSymbol[arguments.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = arguments.get(i).getType();
+        }
+        return new FunctionKey(name, types);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FunctionKey)) {
+            return false;
+        }
+        FunctionKey other = (FunctionKey) o;
+        if (hash != other.hash || types.length != other.types.length || !name.equals(other.name)) {
+            return false;
+        }
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] != other.types[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(name).append("(");
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(types[i]);
+        }
+        return sb.append(")").toString();
+    }
+}
@@ -8,12 +8,18 @@ public class FunctionSymbol extends Symbol {
     private final TypeSymbol type;
     private final List<BoundFunctionParameterExpression> arguments;
     private final BoundExpression guard;
+    private final boolean inline;
 
     public FunctionSymbol(String name, TypeSymbol type, List<BoundFunctionParameterExpression> arguments, BoundExpression guard) {
+        this(name, type, arguments, guard, false);
+    }
+
+    public FunctionSymbol(String name, TypeSymbol type, List<BoundFunctionParameterExpression> arguments, BoundExpression guard, boolean inline) {
         super(name);
         this.type = type;
         this.arguments = arguments;
         this.guard = guard;
+        this.inline = inline;
     }
 
     @Override
@@ -33,6 +39,13 @@ public class FunctionSymbol extends Symbol {
         return guard;
     }
 
+    /**
+     * @return whether the function was declared `inline`, asking for its body to be substituted at every call site
+     */
+    public boolean isInline() {
+        return inline;
+    }
+
     public String getSignature() {
         return getName() + "(" + arguments.stream()
                 .map(BoundFunctionParameterExpression::getSignature)
@@ -4,6 +4,8 @@ import com.skennedy.rasna.diagnostics.BindingError;
 import com.skennedy.rasna.parsing.MatchExpression;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -25,38 +27,61 @@ public class MatchAnalyser {
         return errors;
     }
 
+    /**
+     * @return whether every value of the operand is handled by some case of the match expression
+     */
+    public static boolean isExhaustive(BoundMatchExpression matchExpression) {
+        List<BoundMatchCaseExpression> matchCaseExpressions = matchExpression.getMatchCaseExpressions();
+        if (hasElseCase(matchCaseExpressions)) {
+            return true;
+        }
+        TypeSymbol type = matchExpression.getOperand().getType();
+        return type instanceof EnumTypeSymbol && findMissingMembers((EnumTypeSymbol) type, matchCaseExpressions).isEmpty();
+    }
+
     private static List<BindingError> analyseEnumMatch(EnumTypeSymbol type, BoundMatchExpression matchExpression, MatchExpression expression) {
         List<BindingError> errors = new ArrayList<>();
 
         List<BoundMatchCaseExpression> matchCaseExpressions = matchExpression.getMatchCaseExpressions();
 
-        Map<String, VariableSymbol> fields = type.getFields();
-        
-        List<VariableSymbol> members = new ArrayList<>(fields.values());
+        List<VariableSymbol> missingMembers = findMissingMembers(type, matchCaseExpressions);
+        if (!missingMembers.isEmpty() && !hasElseCase(matchCaseExpressions)) {
+            errors.add(BindingError.raiseNonExhaustiveEnumMatchExpression(type, missingMembers, expression.getMatchKeyword().getSpan()));
+        }
+
+        return errors;
+    }
+
+    //Marks the members covered by the cases in a bitset indexed by ordinal
+    private static List<VariableSymbol> findMissingMembers(EnumTypeSymbol type, List<BoundMatchCaseExpression> matchCaseExpressions) {
+        List<VariableSymbol> members = new ArrayList<>(type.getFields().values());
+        Map<VariableSymbol, Integer> ordinals = new HashMap<>();
+        for (int i = 0; i < members.size(); i++) {
+            ordinals.put(members.get(i), i);
+        }
+
+        BitSet coveredMembers = new BitSet(members.size());
         for (BoundMatchCaseExpression matchCaseExpression : matchCaseExpressions) {
             BoundExpression caseExpression = matchCaseExpression.getCaseExpression();
-            if (caseExpression == null) {
+            if (caseExpression == null || caseExpression.getBoundExpressionType() != BoundExpressionType.MEMBER_ACCESSOR) {
                 continue;
             }
-            switch (caseExpression.getBoundExpressionType()) {
-                case MEMBER_ACCESSOR:
-                    BoundMemberAccessorExpression memberAccessorExpression = (BoundMemberAccessorExpression) caseExpression;
-                    BoundVariableExpression member = (BoundVariableExpression) memberAccessorExpression.getMember();
-                    members.remove(member.getVariable());
-                    break;
-                default:
-                    break;
+            BoundMemberAccessorExpression memberAccessorExpression = (BoundMemberAccessorExpression) caseExpression;
+            Integer ordinal = ordinals.get(((BoundVariableExpression) memberAccessorExpression.getMember()).getVariable());
+            if (ordinal != null) {
+                coveredMembers.set(ordinal);
             }
         }
-        if (!members.isEmpty() && !hasElseCase(matchCaseExpressions)) {
-            errors.add(BindingError.raiseNonExhaustiveEnumMatchExpression(type, members, expression.getMatchKeyword().getSpan()));
-        }
 
-        return errors;
+        List<VariableSymbol> missingMembers = new ArrayList<>();
+        for (int i = coveredMembers.nextClearBit(0); i < members.size(); i = coveredMembers.nextClearBit(i + 1)) {
+            missingMembers.add(members.get(i));
+        }
+        return missingMembers;
     }
 
     private static boolean hasElseCase(List<BoundMatchCaseExpression> matchCaseExpressions) {
-        return matchCaseExpressions.get(matchCaseExpressions.size() - 1).getCaseExpression() == null;
+        return !matchCaseExpressions.isEmpty() && matchCaseExpressions.get(matchCaseExpressions.size() - 1).getCaseExpression() == null;
     }
 
 }
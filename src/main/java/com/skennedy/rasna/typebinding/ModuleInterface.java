@@ -0,0 +1,79 @@
+package com.skennedy.rasna.typebinding;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.skennedy.rasna.parsing.BlockExpression;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The bound declarations of an imported module: its scope of types, functions and namespaces, its bound body,
+ * any implementation functions generated while binding it, the bodies of its generic functions and the functions
+ * whose bodies will only be bound once they are referenced.
+ * <p>
+ * Interfaces are keyed by the source hash of the module (which covers its own imports), so an unchanged module
+ * is only bound once per compiler process no matter how many programs import it. The cache only lives as long as
+ * the process, so it only saves anything when compilations are handed to the daemon: a plain `rasna` invocation
+ * still binds every module it imports.
+ * <p>
+ * A stored interface is shared by every compilation that imports the module, possibly from several binder threads at
+ * once, so its scopes are frozen and its lists are immutable. Bound expressions are never changed once built.
+ */
+final class ModuleInterface {
+
+    private static final Cache<String, ModuleInterface> interfaces = CacheBuilder.newBuilder()
+            .maximumSize(256)
+            .build();
+
+    private final BoundScope scope;
+    private final List<BoundExpression> body;
+    private final List<BoundExpression> generatedFunctions;
+    private final Map<FunctionSymbol, BlockExpression> interfaceBodies;
+    private final Map<FunctionSymbol, DeferredFunction> deferredFunctions;
+    private final List<BindingWarning> warnings;
+
+    ModuleInterface(BoundScope scope, List<BoundExpression> body, List<BoundExpression> generatedFunctions, Map<FunctionSymbol, BlockExpression> interfaceBodies, Map<FunctionSymbol, DeferredFunction> deferredFunctions, List<BindingWarning> warnings) {
+        this.scope = scope;
+        this.body = List.copyOf(body);
+        this.generatedFunctions = List.copyOf(generatedFunctions);
+        this.interfaceBodies = Map.copyOf(interfaceBodies);
+        this.deferredFunctions = Map.copyOf(deferredFunctions);
+        this.warnings = List.copyOf(warnings);
+    }
+
+    static Optional<ModuleInterface> tryLoad(String sourceHash) {
+        return Optional.ofNullable(interfaces.getIfPresent(sourceHash));
+    }
+
+    static void store(String sourceHash, ModuleInterface moduleInterface) {
+        moduleInterface.scope.freeze();
+        moduleInterface.deferredFunctions.values().forEach(deferredFunction -> deferredFunction.getScope().freeze());
+        interfaces.put(sourceHash, moduleInterface);
+    }
+
+    BoundScope getScope() {
+        return scope;
+    }
+
+    List<BoundExpression> getBody() {
+        return body;
+    }
+
+    List<BoundExpression> getGeneratedFunctions() {
+        return generatedFunctions;
+    }
+
+    Map<FunctionSymbol, BlockExpression> getInterfaceBodies() {
+        return interfaceBodies;
+    }
+
+    Map<FunctionSymbol, DeferredFunction> getDeferredFunctions() {
+        return deferredFunctions;
+    }
+
+    List<BindingWarning> getWarnings() {
+        return warnings;
+    }
+}
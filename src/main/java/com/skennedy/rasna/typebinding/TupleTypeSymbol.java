@@ -1,5 +1,8 @@
 package com.skennedy.rasna.typebinding;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -9,13 +12,28 @@ public class TupleTypeSymbol extends TypeSymbol {
 
     private final List<TypeSymbol> types;
 
-    public TupleTypeSymbol(List<TypeSymbol> types) {
+    //Keyed by the ids of the member types, entries go when nothing refers to the tuple type any more
+    private static final Cache<List<Integer>, TupleTypeSymbol> interned = CacheBuilder.newBuilder()
+            .weakValues()
+            .build();
+
+    private TupleTypeSymbol(List<TypeSymbol> types) {
         super(buildName(types), new LinkedHashMap<>(new LinkedHashMap<>(Map.of(
                 "len", new VariableSymbol("len", INT, null, true, null)
         ))));
         this.types = types;
     }
 
+    /**
+     * @return the canonical tuple type of the given member types
+     */
+    public static TupleTypeSymbol of(List<TypeSymbol> types) {
+        List<Integer> key = types.stream()
+                .map(TypeSymbol::getId)
+                .collect(Collectors.toList());
+        return interned.asMap().computeIfAbsent(key, ids -> new TupleTypeSymbol(List.copyOf(types)));
+    }
+
     public List<TypeSymbol> getTypes() {
         return types;
     }
@@ -26,8 +44,8 @@ public class TupleTypeSymbol extends TypeSymbol {
     }
 
     @Override
-    public boolean isAssignableFrom(TypeSymbol other) {
-        boolean assignable = super.isAssignableFrom(other);
+    protected boolean computeAssignableFrom(TypeSymbol other) {
+        boolean assignable = super.computeAssignableFrom(other);
 
         if (other instanceof TupleTypeSymbol) {
             return isAssignableFrom((TupleTypeSymbol)other);
@@ -50,6 +68,9 @@ public class TupleTypeSymbol extends TypeSymbol {
 
     @Override
     public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
         if (!(o instanceof TupleTypeSymbol)) {
             return false;
         }
@@ -1,12 +1,21 @@
 package com.skennedy.rasna.typebinding;
 
-import java.util.Arrays;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TypeSymbol extends Symbol {
 
+    //Declared before the built in types so that it is initialised before they are
+    private static final AtomicInteger nextId = new AtomicInteger();
+
     public static final TypeSymbol UNIT = new TypeSymbol("Unit", new LinkedHashMap<>());
     public static final TypeSymbol BOOL = new TypeSymbol("Bool", new LinkedHashMap<>());
     public static final TypeSymbol CHAR = new TypeSymbol("Char", new LinkedHashMap<>());
@@ -21,7 +30,27 @@ public class TypeSymbol extends Symbol {
     public static final TypeSymbol FUNCTION = new TypeSymbol("Function", new LinkedHashMap<>());
     public static final TypeSymbol FILE = new TypeSymbol("File", new LinkedHashMap<>());
 
+    private static final List<TypeSymbol> primitives = List.of(UNIT, BOOL, CHAR, INT, REAL, STRING, TYPE, ANY, FILE);
+
+    static {
+        for (int i = 0; i < primitives.size(); i++) {
+            primitives.get(i).primitiveIndex = i;
+        }
+    }
+
+    private final int id;
     private final LinkedHashMap<String, VariableSymbol> fields;
+    private int primitiveIndex = -1;
+
+    //Fields are frozen the first time they are read, so the list and indices built from them can't go stale
+    private volatile List<VariableSymbol> fieldList;
+    private Map<String, Integer> fieldIndices;
+
+    //Held by the type being assigned to and keyed weakly by the other type, so entries go with the types of the
+    //compilation that made them rather than building up for as long as the compiler runs
+    private final Cache<TypeSymbol, Boolean> assignableFrom = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build();
 
     // Read as right can implicitly be casted to left
     private static final Map<TypeSymbol, TypeSymbol> implicitCasts = Map.of(
@@ -30,15 +59,72 @@ public class TypeSymbol extends Symbol {
 
     public TypeSymbol(String name, LinkedHashMap<String, VariableSymbol> fields) {
         super(name);
-        this.fields = fields;
+        this.id = nextId.getAndIncrement();
+        this.fields = new LinkedHashMap<>(fields);
+    }
+
+    /**
+     * @return an id unique to this instance, structural types are interned so equal structures share an id
+     */
+    public int getId() {
+        return id;
     }
 
     public static List<TypeSymbol> getPrimitives() {
-        return Arrays.asList(UNIT, BOOL, CHAR, INT, REAL, STRING, TYPE, ANY, FILE);
+        return primitives;
+    }
+
+    /**
+     * @return the position of this type in {@link #getPrimitives()}, or -1 if it isn't a primitive
+     */
+    int getPrimitiveIndex() {
+        return primitiveIndex;
     }
 
     public Map<String, VariableSymbol> getFields() {
-        return fields;
+        return Collections.unmodifiableMap(fields);
+    }
+
+    /**
+     * Adds a field to a type whose fields refer to the type itself, which has to exist before they can be created
+     */
+    void addField(VariableSymbol field) {
+        synchronized (fields) {
+            if (fieldList != null) {
+                throw new IllegalStateException("Fields can't be added to " + getName() + " once they have been read");
+            }
+            fields.putIfAbsent(field.getName(), field);
+        }
+    }
+
+    /**
+     * @return the fields of this type in declaration order
+     */
+    public List<VariableSymbol> getFieldList() {
+        List<VariableSymbol> list = fieldList;
+        if (list == null) {
+            synchronized (fields) {
+                if (fieldList == null) {
+                    Map<String, Integer> indices = new HashMap<>();
+                    List<VariableSymbol> values = new ArrayList<>(fields.values());
+                    for (int i = 0; i < values.size(); i++) {
+                        indices.put(values.get(i).getName(), i);
+                    }
+                    fieldIndices = indices;
+                    fieldList = Collections.unmodifiableList(values);
+                }
+                list = fieldList;
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return the position of the named field in this type, or -1 if it has no such field
+     */
+    public int getFieldIndex(String name) {
+        getFieldList();
+        return fieldIndices.getOrDefault(name, -1);
     }
 
     @Override
@@ -46,15 +132,26 @@ public class TypeSymbol extends Symbol {
         return SymbolType.TYPE;
     }
 
-    public boolean isAssignableFrom(TypeSymbol other) {
+    public final boolean isAssignableFrom(TypeSymbol other) {
 
-        if (this.toString().equals(other.toString())) {
+        if (this == other) {
             return true;
         }
-        return implicitCasts.get(this) == other;
+        Boolean assignable = assignableFrom.getIfPresent(other);
+        if (assignable == null) {
+            assignable = computeAssignableFrom(other);
+            assignableFrom.put(other, assignable);
+        }
+        return assignable;
     }
 
+    protected boolean computeAssignableFrom(TypeSymbol other) {
 
+        if (this.toString().equals(other.toString())) {
+            return true;
+        }
+        return implicitCasts.get(this) == other;
+    }
 
     @Override
     public String toString() {
@@ -1,5 +1,8 @@
 package com.skennedy.rasna.typebinding;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -8,11 +11,26 @@ public class UnionTypeSymbol extends TypeSymbol {
 
     private List<TypeSymbol> types;
 
-    public UnionTypeSymbol(List<TypeSymbol> types) {
+    //Keyed by the ids of the member types, entries go when nothing refers to the union type any more
+    private static final Cache<List<Integer>, UnionTypeSymbol> interned = CacheBuilder.newBuilder()
+            .weakValues()
+            .build();
+
+    private UnionTypeSymbol(List<TypeSymbol> types) {
         super(buildName(types), new LinkedHashMap<>());
         this.types = types;
     }
 
+    /**
+     * @return the canonical union type of the given member types
+     */
+    public static UnionTypeSymbol of(List<TypeSymbol> types) {
+        List<Integer> key = types.stream()
+                .map(TypeSymbol::getId)
+                .collect(Collectors.toList());
+        return interned.asMap().computeIfAbsent(key, ids -> new UnionTypeSymbol(List.copyOf(types)));
+    }
+
     public List<TypeSymbol> getTypes() {
         return types;
     }
@@ -23,7 +41,7 @@ public class UnionTypeSymbol extends TypeSymbol {
     }
 
     @Override
-    public boolean isAssignableFrom(TypeSymbol other) {
+    protected boolean computeAssignableFrom(TypeSymbol other) {
         if (other instanceof UnionTypeSymbol) {
             return isAssignableFrom((UnionTypeSymbol) other);
         }
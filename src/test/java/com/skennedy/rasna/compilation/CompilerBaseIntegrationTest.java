@@ -51,6 +51,9 @@ public class CompilerBaseIntegrationTest {
 
     public static void highlightMessage(List<String> lines, TextSpan span) {
         int row = span.getStart().getRow();
+        if (row >= lines.size()) {
+            return;
+        }
         String line = lines.get(row);
 
         if (row > 0) {
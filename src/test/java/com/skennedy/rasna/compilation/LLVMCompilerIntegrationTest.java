@@ -3,7 +3,7 @@ package com.skennedy.rasna.compilation;
 import com.skennedy.rasna.compilation.llvm.LLVMCompiler;
 import com.skennedy.rasna.diagnostics.BindingError;
 import com.skennedy.rasna.diagnostics.Error;
-import com.skennedy.rasna.lowering.LLVMLowerer;
+import com.skennedy.rasna.lowering.PassManager;
 import com.skennedy.rasna.parsing.Parser;
 import com.skennedy.rasna.parsing.Program;
 import com.skennedy.rasna.typebinding.Binder;
@@ -56,8 +56,7 @@ public class LLVMCompilerIntegrationTest extends CompilerBaseIntegrationTest {
             }
         } else {
 
-            LLVMLowerer lowerer = new LLVMLowerer();
-            boundProgram = lowerer.rewrite(boundProgram);
+            boundProgram = PassManager.defaultPipeline().run(boundProgram);
 
             LLVMCompiler compiler = new LLVMCompiler();
             compiler.compile(boundProgram, filename.split("\\.")[0]);
@@ -0,0 +1,188 @@
+package com.skennedy.rasna.compilation.ir;
+
+import com.skennedy.rasna.lowering.PassManager;
+import com.skennedy.rasna.parsing.Parser;
+import com.skennedy.rasna.parsing.Program;
+import com.skennedy.rasna.typebinding.Binder;
+import com.skennedy.rasna.typebinding.BoundExpression;
+import com.skennedy.rasna.typebinding.BoundFunctionDeclarationExpression;
+import com.skennedy.rasna.typebinding.BoundProgram;
+import com.skennedy.rasna.typebinding.TypeSymbol;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IRBuilderUnitTest {
+
+    @Test
+    void build_givenScalarFunctions_buildsThemAndFallsBackForTheRest() {
+
+        Map<String, Optional<IRFunction>> functions = build(
+                "fn square(x: Int): Int {\n" +
+                "    return x * x\n" +
+                "}\n" +
+                "fn total(xs: Int[]): Int {\n" +
+                "    return xs.len\n" +
+                "}\n" +
+                "fn bump(ref n: Int) {\n" +
+                "    n = n + 1\n" +
+                "}\n" +
+                "fn bumped(n: Int): Int {\n" +
+                "    m := n\n" +
+                "    bump(ref m)\n" +
+                "    return m\n" +
+                "}\n" +
+                "fn main() {\n" +
+                "    print(square(3))\n" +
+                "}\n");
+
+        assertTrue(functions.get("square").isPresent());
+        assertTrue(functions.get("bump").isPresent());
+        assertTrue(functions.get("main").isPresent());
+        //Arrays aren't scalars and locals have no address to pass by reference
+        assertFalse(functions.get("total").isPresent());
+        assertFalse(functions.get("bumped").isPresent());
+    }
+
+    @Test
+    void build_givenLoop_addsPhisOnlyForLoopCarriedVariables() {
+
+        IRFunction fib = build(
+                "fn fib(n: Int): Int {\n" +
+                "    a := 0\n" +
+                "    b := 1\n" +
+                "    i := 0\n" +
+                "    while (i < n) {\n" +
+                "        next := a + b\n" +
+                "        a = b\n" +
+                "        b = next\n" +
+                "        i++\n" +
+                "    }\n" +
+                "    return a\n" +
+                "}\n" +
+                "fn main() {\n" +
+                "}\n").get("fib").orElseThrow();
+
+        //`a`, `b` and `i` come round the loop, `next` is defined afresh each time
+        List<IRBlock> blocksWithPhis = fib.getBlocks().stream()
+                .filter(block -> !block.getPhis().isEmpty())
+                .collect(Collectors.toList());
+        assertEquals(1, blocksWithPhis.size());
+        assertEquals(3, blocksWithPhis.get(0).getPhis().size());
+        for (IRInstruction phi : blocksWithPhis.get(0).getPhis()) {
+            assertEquals(2, phi.getOperands().size());
+        }
+    }
+
+    @Test
+    void build_givenReturningBranches_onlyMergesDefinitionsFromPathsThatContinue() {
+
+        IRFunction classify = build(
+                "fn classify(x: Int): Int {\n" +
+                "    doubled := x * 2\n" +
+                "    if (x < 0) {\n" +
+                "        doubled = 0\n" +
+                "        return doubled\n" +
+                "    }\n" +
+                "    if (x == 0) {\n" +
+                "        doubled = 100\n" +
+                "        return doubled\n" +
+                "    }\n" +
+                "    return doubled + 1\n" +
+                "}\n" +
+                "fn main() {\n" +
+                "}\n").get("classify").orElseThrow();
+
+        //The reassignments end in a return, so the last return still sees the first definition without a phi
+        assertTrue(classify.getBlocks().stream().allMatch(block -> block.getPhis().isEmpty()));
+        assertEquals(3, countOpcode(classify, IROpcode.RETURN));
+
+        List<IRInstruction> binaries = instructions(classify, IROpcode.BINARY);
+        IRInstruction doubled = binaries.get(0);
+        IRInstruction incremented = binaries.get(binaries.size() - 1);
+        assertSame(doubled, incremented.getOperand(0));
+    }
+
+    @Test
+    void build_givenReferenceParameter_loadsAndStoresThroughIt() {
+
+        IRFunction accumulate = build(
+                "fn accumulate(ref total: Int, n: Int) {\n" +
+                "    if (n > 0) {\n" +
+                "        total = total + n\n" +
+                "        accumulate(ref total, n - 1)\n" +
+                "    }\n" +
+                "}\n" +
+                "fn main() {\n" +
+                "}\n").get("accumulate").orElseThrow();
+
+        IRParameter total = accumulate.getParameters().get(0);
+        assertTrue(total.isReference());
+        assertEquals(1, countOpcode(accumulate, IROpcode.LOAD));
+        assertEquals(1, countOpcode(accumulate, IROpcode.STORE));
+
+        IRInstruction call = instructions(accumulate, IROpcode.CALL).get(0);
+        assertSame(total, call.getOperand(0));
+    }
+
+    @Test
+    void build_givenCharIncrement_addsACharConstant() {
+
+        IRFunction next = build(
+                "fn next(first: Char): Char {\n" +
+                "    c := first\n" +
+                "    c++\n" +
+                "    return c\n" +
+                "}\n" +
+                "fn main() {\n" +
+                "}\n").get("next").orElseThrow();
+
+        IRInstruction increment = instructions(next, IROpcode.BINARY).get(0);
+        assertEquals(TypeSymbol.CHAR, increment.getType());
+        assertEquals(TypeSymbol.CHAR, increment.getOperand(1).getType());
+        assertEquals((char) 1, ((IRConstant) increment.getOperand(1)).getValue());
+    }
+
+    //Only lowered, so each function is built as written rather than after inlining and folding have changed it
+    private static Map<String, Optional<IRFunction>> build(String code) {
+        Program program = new Parser().parse(Path.of("ir_builder_test.rasna").toAbsolutePath(), code);
+        assertFalse(program.hasErrors());
+
+        BoundProgram boundProgram = new Binder().bind(program);
+        assertFalse(boundProgram.hasErrors());
+
+        boundProgram = PassManager.defaultPipeline()
+                .disable(List.of("tail-call-elimination", "inlining", "constant-folding", "dead-code-elimination", "loop-optimisation"))
+                .run(boundProgram);
+
+        Map<String, Optional<IRFunction>> functions = new HashMap<>();
+        for (BoundExpression expression : boundProgram.getExpressions()) {
+            if (expression instanceof BoundFunctionDeclarationExpression) {
+                BoundFunctionDeclarationExpression declaration = (BoundFunctionDeclarationExpression) expression;
+                functions.put(declaration.getFunctionSymbol().getName(), IRBuilder.build(declaration));
+            }
+        }
+        return functions;
+    }
+
+    private static List<IRInstruction> instructions(IRFunction function, IROpcode opcode) {
+        return function.getBlocks().stream()
+                .flatMap(block -> block.getInstructions().stream())
+                .filter(instruction -> instruction.getOpcode() == opcode)
+                .collect(Collectors.toList());
+    }
+
+    private static long countOpcode(IRFunction function, IROpcode opcode) {
+        return instructions(function, opcode).size();
+    }
+}
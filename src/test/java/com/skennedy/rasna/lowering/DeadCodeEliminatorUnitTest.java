@@ -0,0 +1,123 @@
+package com.skennedy.rasna.lowering;
+
+import com.skennedy.rasna.parsing.Parser;
+import com.skennedy.rasna.parsing.Program;
+import com.skennedy.rasna.typebinding.Binder;
+import com.skennedy.rasna.typebinding.BoundBlockExpression;
+import com.skennedy.rasna.typebinding.BoundExpression;
+import com.skennedy.rasna.typebinding.BoundExpressionType;
+import com.skennedy.rasna.typebinding.BoundFunctionDeclarationExpression;
+import com.skennedy.rasna.typebinding.BoundProgram;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class DeadCodeEliminatorUnitTest {
+
+    @Test
+    void eliminate_givenUnusedDeclarations_removesThemAndKeepsReachableOnes() {
+
+        BoundProgram program = eliminate(
+                "struct Inner {\n" +
+                "    i: Int\n" +
+                "}\n" +
+                "struct Outer {\n" +
+                "    inner: Inner\n" +
+                "}\n" +
+                "struct Resource {\n" +
+                "    id: Int\n" +
+                "}\n" +
+                "struct Spare {\n" +
+                "    id: Int\n" +
+                "}\n" +
+                "struct Unused {\n" +
+                "    i: Int\n" +
+                "}\n" +
+                "struct Pair<T> {\n" +
+                "    first: T\n" +
+                "    second: T\n" +
+                "}\n" +
+                "fn close(ref resource: Resource): Bool {\n" +
+                "    print(resource.id)\n" +
+                "    return true\n" +
+                "}\n" +
+                "fn close(ref spare: Spare): Bool {\n" +
+                "    return true\n" +
+                "}\n" +
+                "fn helper(n: Int): Int {\n" +
+                "    return n + 1\n" +
+                "}\n" +
+                "fn <T> identity(t: T): T {\n" +
+                "    return t\n" +
+                "}\n" +
+                "fn <T> unusedIdentity(t: T): T {\n" +
+                "    return t\n" +
+                "}\n" +
+                "fn onlyCalledWhenDead(n: Int): Int {\n" +
+                "    return n * 2\n" +
+                "}\n" +
+                "fn neverCalled(u: Unused): Int {\n" +
+                "    return onlyCalledWhenDead(u.i)\n" +
+                "}\n" +
+                "fn main() {\n" +
+                "    with (r := Resource{1}) {\n" +
+                "        print(helper(r.id))\n" +
+                "    }\n" +
+                "    o := Outer{Inner{2}}\n" +
+                "    print(o.inner.i)\n" +
+                "    print(identity(3))\n" +
+                "}\n");
+
+        assertEquals(List.of("close", "helper", "identity", "main"), declaredNames(program, BoundExpressionType.FUNCTION_DECLARATION));
+
+        //Only the overload of `close` called at the end of the `with` block survives
+        BoundFunctionDeclarationExpression close = (BoundFunctionDeclarationExpression) declarations(program.getExpressions(), BoundExpressionType.FUNCTION_DECLARATION).get(0);
+        assertEquals("Resource", close.getArguments().get(0).getType().getName());
+
+        //Parameterised structs are kept whether or not they're used
+        List<String> structs = declaredNames(program, BoundExpressionType.STRUCT_DECLARATION_EXPRESSION);
+        assertEquals(List.of("Inner", "Outer", "Resource", "Pair"), structs);
+    }
+
+    private static BoundProgram eliminate(String code) {
+        Program program = new Parser().parse(Path.of("dead_code_test.rasna").toAbsolutePath(), code);
+        assertFalse(program.hasErrors());
+
+        BoundProgram boundProgram = new Binder().bind(program);
+        assertFalse(boundProgram.hasErrors());
+
+        return new DeadCodeEliminator().eliminate(boundProgram);
+    }
+
+    private static List<String> declaredNames(BoundProgram program, BoundExpressionType type) {
+        return declarations(program.getExpressions(), type).stream()
+                .map(DeadCodeEliminatorUnitTest::declaredName)
+                .collect(Collectors.toList());
+    }
+
+    //Functions are bound inside blocks at the top level
+    private static List<BoundExpression> declarations(List<BoundExpression> expressions, BoundExpressionType type) {
+        List<BoundExpression> declarations = new ArrayList<>();
+        for (BoundExpression expression : expressions) {
+            if (expression.getBoundExpressionType() == type) {
+                declarations.add(expression);
+            } else if (expression instanceof BoundBlockExpression) {
+                declarations.addAll(declarations(((BoundBlockExpression) expression).getExpressions(), type));
+            }
+        }
+        return declarations;
+    }
+
+    private static String declaredName(BoundExpression expression) {
+        if (expression instanceof BoundFunctionDeclarationExpression) {
+            return ((BoundFunctionDeclarationExpression) expression).getFunctionSymbol().getName();
+        }
+        return expression.getType().getName();
+    }
+}
@@ -0,0 +1,51 @@
+package com.skennedy.rasna.typebinding;
+
+import com.skennedy.rasna.compilation.CompilerBaseIntegrationTest;
+import com.skennedy.rasna.diagnostics.BindingError;
+import com.skennedy.rasna.lowering.BoundProgramPrinter;
+import com.skennedy.rasna.parsing.Parser;
+import com.skennedy.rasna.parsing.Program;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BinderIntegrationTest extends CompilerBaseIntegrationTest {
+
+    @ParameterizedTest
+    @MethodSource("getFilesToTest")
+    void bind_inParallel_matchesSerialBind(String filename) throws IOException {
+
+        BoundProgram serial = bind(filename, new Binder(Runnable::run));
+        BoundProgram parallel = bind(filename, new Binder());
+
+        assertEquals(describeErrors(serial.getErrors()), describeErrors(parallel.getErrors()));
+        assertEquals(describeWarnings(serial.getWarnings()), describeWarnings(parallel.getWarnings()));
+        assertEquals(BoundProgramPrinter.print(serial), BoundProgramPrinter.print(parallel));
+    }
+
+    private BoundProgram bind(String filename, Binder binder) throws IOException {
+        String code = read("tests", filename);
+
+        Program program = new Parser().parse(Path.of(getFullPath("tests", filename)).toAbsolutePath(), code);
+
+        return binder.bind(program);
+    }
+
+    private static List<String> describeErrors(List<BindingError> errors) {
+        return errors.stream()
+                .map(error -> error.getMessage() + " " + error.getSpan())
+                .collect(Collectors.toList());
+    }
+
+    private static List<String> describeWarnings(List<BindingWarning> warnings) {
+        return warnings.stream()
+                .map(warning -> warning.getMessage() + " " + warning.getSpan())
+                .collect(Collectors.toList());
+    }
+}
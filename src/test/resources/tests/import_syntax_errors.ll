@@ -0,0 +1,24 @@
+; ModuleID = 'import_syntax_errors'
+source_filename = "import_syntax_errors"
+
+@true = private unnamed_addr constant [5 x i8] c"true\00", align 1
+@false = private unnamed_addr constant [6 x i8] c"false\00", align 1
+@str = private unnamed_addr constant [4 x i8] c"%s\0A\00", align 1
+@formatStr = private unnamed_addr constant [4 x i8] c"%d\0A\00", align 1
+
+declare i32 @printf(i8*, ...)
+
+define void @printb(i1 %0) {
+entry:
+  %cond = select i1 %0, i8* getelementptr inbounds ([5 x i8], [5 x i8]* @true, i32 0, i32 0), i8* getelementptr inbounds ([6 x i8], [6 x i8]* @false, i32 0, i32 0)
+  %printcall = call i32 (i8*, ...) @printf(i8* getelementptr inbounds ([4 x i8], [4 x i8]* @str, i32 0, i32 0), i8* %cond)
+  ret void
+}
+
+declare { i8* } @fopen(i8*, i8*)
+
+define i32 @main() {
+entry:
+  %printcall = call i32 (i8*, ...) @printf(i8* getelementptr inbounds ([4 x i8], [4 x i8]* @formatStr, i32 0, i32 0), i32 2)
+  ret i32 0
+}